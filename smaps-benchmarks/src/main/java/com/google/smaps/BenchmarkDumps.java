@@ -0,0 +1,59 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/** The smaps dumps the benchmarks run on. */
+final class BenchmarkDumps {
+  // The name of the large synthetic dump in a benchmark's dump parameter.
+  static final String LARGE = "large";
+
+  // The size and seed of the large dump, which is about 70 MB.
+  private static final int LARGE_REGIONS = 100000;
+  private static final long LARGE_SEED = 0;
+
+  private static Path large;
+
+  private BenchmarkDumps() {}
+
+  /* Returns the path of the dump with the given name, which is either a file or LARGE. */
+  static synchronized String path(String dump) throws IOException {
+    if (!dump.equals(LARGE)) {
+      return dump;
+    }
+    if (large == null) {
+      File file = File.createTempFile("smaps-large-", ".txt");
+      file.deleteOnExit();
+      try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+        new SmapsGenerator(LARGE_SEED, LARGE_REGIONS).write(out);
+      }
+      large = file.toPath();
+    }
+    return large.toString();
+  }
+
+  /* Parses the dump with the given name. */
+  static List<Region> regions(String dump) throws IOException {
+    return FileParser.parseFile(path(dump));
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks finding the regions of addresses, one at a time and in batches. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+  // How many addresses are looked up in one batch.
+  private static final int BATCH_SIZE = 10000;
+
+  @Param({"../smaps-full.txt", BenchmarkDumps.LARGE})
+  public String dump;
+
+  private List<Region> regions;
+  private AddressIndex addressIndex;
+  // Addresses inside random regions, as numbers and as the text a user would enter.
+  private long[] addresses;
+  private List<String> addressTexts;
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    regions = BenchmarkDumps.regions(dump);
+    addressIndex = Analyzer.makeAddressIndex(regions);
+
+    Random random = new Random(42);
+    addresses = new long[BATCH_SIZE];
+    addressTexts = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      Region r = regions.get(random.nextInt(regions.size()));
+      long start = Long.parseUnsignedLong(r.startLoc(), 16);
+      long end = Long.parseUnsignedLong(r.endLoc(), 16);
+      addresses[i] = start + (long) (random.nextDouble() * (end - start));
+      addressTexts.add("0x" + Long.toHexString(addresses[i]));
+    }
+  }
+
+  @Benchmark
+  public int find() {
+    int i = next;
+    next = (i + 1) % BATCH_SIZE;
+    return addressIndex.find(addresses[i]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void batchSearch() throws IOException {
+    JsonWriter json = new JsonWriter(new NullWriter());
+    BatchSearchAddress.writeResults(regions, addressIndex, addressTexts, json);
+    json.flush();
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks making the data of the histogram and memory map pages and encoding it as Json. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+  @Param({"../smaps-full.txt", BenchmarkDumps.LARGE})
+  public String dump;
+
+  // The path filter, where the empty string matches every region.
+  @Param({"", "lib"})
+  public String name;
+
+  private List<Region> regions;
+  private PathnameIndex pathnameIndex;
+  private long[] extrema;
+  private Dataset dataset;
+  private ResponseArtifacts artifacts;
+
+  @Setup
+  public void setUp() throws IOException {
+    regions = BenchmarkDumps.regions(dump);
+    pathnameIndex = PathnameIndex.of(regions);
+    extrema = Analyzer.getMinMax(regions);
+    dataset = Dataset.of(dump, regions);
+    artifacts = new ResponseArtifacts(1L << 30);
+  }
+
+  @Benchmark
+  public List<Object[]> histogramDataArray() {
+    return Histogram.makeDataArray(regions, pathnameIndex, name);
+  }
+
+  @Benchmark
+  public String histogramDataArrayJson() {
+    return JsonResponse.GSON.toJson(Histogram.makeDataArray(regions, pathnameIndex, name));
+  }
+
+  @Benchmark
+  public void histogramStreamedJson() throws IOException {
+    JsonWriter json = new JsonWriter(new NullWriter());
+    Histogram.writeDataArray(regions, pathnameIndex, name, json);
+    json.flush();
+  }
+
+  @Benchmark
+  public Object histogramBins() {
+    RegionTable table = RegionTable.copyOf(regions);
+    return HistogramBins.compute(
+        table, RegionTable.SIZE, pathnameIndex.find(name), extrema[0], extrema[1], 60, true);
+  }
+
+  @Benchmark
+  public List<Object[]> memoryMapDataArray() {
+    return MemoryMap.makeDataArray(regions);
+  }
+
+  @Benchmark
+  public String memoryMapDataArrayJson() {
+    return JsonResponse.GSON.toJson(MemoryMap.makeDataArray(regions));
+  }
+
+  @Benchmark
+  public void memoryMapStreamedJson() throws IOException {
+    JsonWriter json = new JsonWriter(new NullWriter());
+    MemoryMap.writeDataArray(regions, json);
+    json.flush();
+  }
+
+  @Benchmark
+  public byte[] memoryMapArtifact() throws IOException {
+    // After the first call, this is the cost of a repeat request before its bytes are copied out.
+    return artifacts.get(dataset, "memorymap", json -> MemoryMap.writeDataArray(regions, json))
+        .gzipped();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks taking a sample of a live capture, when nothing changed since the sample before and
+ * when one region did, to compare with parsing the whole dump in {@link ParseBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SampleBenchmark {
+  @Param({"../smaps-full.txt", BenchmarkDumps.LARGE})
+  public String dump;
+
+  private File file;
+  private RandomAccessFile changes;
+  // Where a digit of a region's Rss is in the file, which is flipped between 0 and 1.
+  private long digit;
+  private boolean flipped;
+  private SmapsSampler sampler;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = File.createTempFile("smaps-sample-benchmark-", ".txt");
+    file.deleteOnExit();
+    Files.copy(Paths.get(BenchmarkDumps.path(dump)), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    String line = "Rss:                   0 kB";
+    digit = text.indexOf(line) + line.indexOf('0');
+    changes = new RandomAccessFile(file, "rw");
+    sampler = new SmapsSampler(file.toPath());
+    sampler.sample();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    changes.close();
+    file.delete();
+  }
+
+  @Benchmark
+  public RegionTable sampleUnchanged() throws IOException {
+    return sampler.sample();
+  }
+
+  @Benchmark
+  public RegionTable sampleOneChange() throws IOException {
+    flipped = !flipped;
+    changes.seek(digit);
+    changes.write(flipped ? '1' : '0');
+    return sampler.sample();
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks writing a parsed dump's snapshot and opening it again. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+  @Param({"../smaps-full.txt", BenchmarkDumps.LARGE})
+  public String dump;
+
+  private RegionTable regions;
+  private Path snapshot;
+
+  @Setup
+  public void setUp() throws IOException {
+    regions = RegionTable.copyOf(BenchmarkDumps.regions(dump));
+    File file = File.createTempFile("smaps-benchmark-", ".snap");
+    file.deleteOnExit();
+    snapshot = file.toPath();
+    RegionSnapshot.write(regions, snapshot);
+  }
+
+  @Benchmark
+  public Object open() throws IOException {
+    return RegionSnapshot.open(snapshot);
+  }
+
+  @Benchmark
+  public byte[] toBytes() throws IOException {
+    return RegionSnapshot.toBytes(regions);
+  }
+}
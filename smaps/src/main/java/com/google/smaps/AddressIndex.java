@@ -0,0 +1,197 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import com.google.common.collect.TreeRangeMap;
+import com.google.common.primitives.UnsignedLong;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds which region an address is in. The address ranges are kept in sorted arrays of 64-bit
+ * addresses, compared as unsigned numbers, and searched with a binary search that gives the
+ * region's index in the list of regions.
+ */
+final class AddressIndex {
+  // The address ranges [start, end), sorted and not overlapping.
+  private final long[] starts;
+  private final long[] ends;
+  // The index in the list of regions of each range, or null if the ranges are in the same order as
+  // the regions, one per region.
+  private final int[] indexes;
+
+  private AddressIndex(long[] starts, long[] ends, int[] indexes) {
+    this.starts = starts;
+    this.ends = ends;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Creates the index of the regions. If the regions overlap, an address is found in the last
+   * region in the list that contains it.
+   */
+  static AddressIndex of(List<Region> regions) {
+    int size = regions.size();
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    if (regions instanceof RegionTable) {
+      RegionTable table = (RegionTable) regions;
+      for (int i = 0; i < size; i++) {
+        starts[i] = table.start(i);
+        ends[i] = table.end(i);
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        starts[i] = Long.parseUnsignedLong(regions.get(i).startLoc(), 16);
+        ends[i] = Long.parseUnsignedLong(regions.get(i).endLoc(), 16);
+      }
+    }
+
+    // The regions in an smaps dump are already sorted and don't overlap, so the arrays can be used
+    // as they are.
+    boolean sorted = true;
+    for (int i = 0; i < size && sorted; i++) {
+      sorted = Long.compareUnsigned(starts[i], ends[i]) < 0
+          && (i == 0 || Long.compareUnsigned(ends[i - 1], starts[i]) <= 0);
+    }
+    if (sorted) {
+      return new AddressIndex(starts, ends, null);
+    }
+    return ofUnsorted(starts, ends);
+  }
+
+  /* Creates the index of ranges that aren't sorted or overlap, by putting them in a range map in
+   * order so that later ranges replace the parts of earlier ones they overlap. */
+  private static AddressIndex ofUnsorted(long[] starts, long[] ends) {
+    RangeMap<UnsignedLong, Integer> rangeMap = TreeRangeMap.create();
+    for (int i = 0; i < starts.length; i++) {
+      UnsignedLong start = UnsignedLong.fromLongBits(starts[i]);
+      UnsignedLong end = UnsignedLong.fromLongBits(ends[i]);
+      rangeMap.put(Range.closedOpen(start, end), i);
+    }
+
+    Map<Range<UnsignedLong>, Integer> ranges = rangeMap.asMapOfRanges();
+    long[] sortedStarts = new long[ranges.size()];
+    long[] sortedEnds = new long[ranges.size()];
+    int[] indexes = new int[ranges.size()];
+    int i = 0;
+    for (Map.Entry<Range<UnsignedLong>, Integer> range : ranges.entrySet()) {
+      sortedStarts[i] = range.getKey().lowerEndpoint().longValue();
+      sortedEnds[i] = range.getKey().upperEndpoint().longValue();
+      indexes[i] = range.getValue();
+      i++;
+    }
+    return new AddressIndex(sortedStarts, sortedEnds, indexes);
+  }
+
+  /* Roughly how many bytes of heap the index takes. */
+  long estimatedBytes() {
+    return 16L * starts.length + (indexes == null ? 0 : 4L * indexes.length);
+  }
+
+  /* Returns the index in the list of regions of the region that contains the address, or -1 if no
+   * region does. The address is an unsigned 64-bit number. */
+  int find(long address) {
+    // Find the last range that starts at or before the address.
+    int low = 0;
+    int high = starts.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(starts[mid], address) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (high < 0 || Long.compareUnsigned(address, ends[high]) >= 0) {
+      return -1;
+    }
+    return indexes == null ? high : indexes[high];
+  }
+
+  /* Returns the position among the sorted ranges of the first range that ends after the address,
+   * or rangeCount() if none does, with a binary search. */
+  int firstEndingAfter(long address) {
+    int low = 0;
+    int high = ends.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(ends[mid], address) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /* Returns the position among the sorted ranges of the first range that starts at or after the
+   * address, or rangeCount() if none does, with a binary search. */
+  int firstStartingAt(long address) {
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Long.compareUnsigned(starts[mid], address) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /* The number of sorted ranges, which is the number of regions unless they overlap. */
+  int rangeCount() {
+    return starts.length;
+  }
+
+  long rangeStart(int range) {
+    return starts[range];
+  }
+
+  long rangeEnd(int range) {
+    return ends[range];
+  }
+
+  /* Returns the index in the list of regions of the region a sorted range is part of. */
+  int region(int range) {
+    return indexes == null ? range : indexes[range];
+  }
+
+  /* Finds the regions of many addresses, which must be sorted as unsigned numbers, by walking
+   * through the addresses and the ranges together. Returns the index of each address's region, or
+   * -1 for an address that isn't in any region. */
+  int[] findSorted(long[] addresses) {
+    int[] found = new int[addresses.length];
+    int range = 0;
+    for (int i = 0; i < addresses.length; i++) {
+      long address = addresses[i];
+      // Skip the ranges that end at or before this address, which also end before the next ones.
+      while (range < starts.length && Long.compareUnsigned(ends[range], address) <= 0) {
+        range++;
+      }
+      if (range < starts.length && Long.compareUnsigned(starts[range], address) <= 0) {
+        found[i] = indexes == null ? range : indexes[range];
+      } else {
+        found[i] = -1;
+      }
+    }
+    return found;
+  }
+}
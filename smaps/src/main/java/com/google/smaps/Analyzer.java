@@ -15,12 +15,7 @@
  */
 package com.google.smaps;
 
-import com.google.common.collect.ImmutableRangeMap;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeMap;
-import com.google.common.collect.TreeRangeMap;
-import java.math.BigInteger;
-import java.util.ArrayList;
+import java.io.InputStream;
 import java.util.List;
 import javax.servlet.http.HttpSession;
 
@@ -35,27 +30,22 @@ class Analyzer {
     return FileParser.parseRegionList(filePathname, session);
   }
 
-  /* Creates the address range map (interval map) with addresses as keys and the region in which it
-   * can be found as the value. */
-  static ImmutableRangeMap<BigInteger, Region> makeRangeMap(List<Region> regionList) {
-    // Create the range map from a tree range map.
-    RangeMap<BigInteger, Region> addressRangeMap = TreeRangeMap.create();
-
-    // Go through every region and add it to the range map.
-    for (int i = 0; i < regionList.size(); i++) {
-      Region curR = regionList.get(i);
-
-      // Parse the addresses with base 16 because they are hexadecimal.
-      BigInteger start = new BigInteger(curR.startLoc(), 16);
-      BigInteger end = new BigInteger(curR.endLoc(), 16);
+  /* Creates the list of regions from an smaps dump as it is read from the stream. */
+  static List<Region> makeRegionList(InputStream dump, HttpSession session) {
+    return FileParser.parseRegionList(dump, session);
+  }
 
-      // Put the region into the range map with the address range [inclusive, exclusive).
-      addressRangeMap.put(Range.closedOpen(start, end), curR);
-    }
+  /* Creates the list of regions from an smaps dump as it is read from the stream, telling
+   * progress how far it has got as it goes. */
+  static List<Region> makeRegionList(
+      InputStream dump, HttpSession session, RegionParser.Progress progress) {
+    return FileParser.parseRegionList(dump, session, progress);
+  }
 
-    // Return the range map in the form of an immutable range map, so that it is
-    // serializable and able to be saved to an http session.
-    return ImmutableRangeMap.copyOf(addressRangeMap);
+  /* Creates the address index, which takes an address and gives the index in the list of the
+   * region in which it can be found. */
+  static AddressIndex makeAddressIndex(List<Region> regionList) {
+    return AddressIndex.of(regionList);
   }
 
   /* Calculates the extrema of the sizes of the regions in the list, and returns them in an
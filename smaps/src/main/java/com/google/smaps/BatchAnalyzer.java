@@ -0,0 +1,533 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.collect.Ordering;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Analyzes smaps dumps from the command line, without a servlet container, such as the dumps
+ * collected from a fleet of machines in a batch job. Each file, or every file under each
+ * directory, is parsed on a pool with a thread per core, and the reports asked for are printed
+ * for each file in the order the files were given: as one line of Json per file, or as CSV with
+ * one row per file for the summary, per region for the top regions, per bin for the histogram
+ * and per address for the lookups. Only the parser and the indexes are loaded, so it starts as
+ * quickly as the JVM does. For example:
+ *
+ * <pre>
+ * java -cp "WEB-INF/classes:WEB-INF/lib/*" com.google.smaps.BatchAnalyzer \
+ *     --report=summary,top --top=5 --field=Rss --path=libc dumps/
+ * </pre>
+ *
+ * <p>Exits with 0 if every file was analyzed, 1 if any couldn't be, and 2 if the arguments are
+ * wrong.
+ */
+public final class BatchAnalyzer {
+  static final String SUMMARY = "summary";
+  static final String TOP = "top";
+  static final String HISTOGRAM = "histogram";
+  static final String LOOKUP = "lookup";
+  private static final List<String> REPORTS = Arrays.asList(SUMMARY, TOP, HISTOGRAM, LOOKUP);
+
+  static final String USAGE = String.join("\n",
+      "Usage: BatchAnalyzer [options] FILE|DIRECTORY...",
+      "  --format=json|csv      Json, one line per file (default), or CSV, one report only",
+      "  --report=REPORT,...    summary (default), top, histogram and lookup",
+      "  --field=NAME           the field of the top regions and histogram (default Rss)",
+      "  --path=NAME            only count regions with NAME in their pathname",
+      "  --top=N                how many regions the top report has (default 10)",
+      "  --bins=N               how many bins the histogram has (default 20)",
+      "  --scale=linear|log     the scale of the histogram's bins (default linear)",
+      "  --address=HEX,...      the addresses to find the regions of, for lookup",
+      "  --threads=N            how many files are parsed at once (default one per core)");
+
+  private static final String PARSE_ERROR_MESSAGE =
+      "File was unable to be parsed due to improper formatting or file type.";
+
+  /** What to report about each file, from the command line. */
+  static final class Options {
+    boolean csv;
+    List<String> reports = Arrays.asList(SUMMARY);
+    int field = RegionTable.RSS;
+    String path = "";
+    int top = 10;
+    int bins = 20;
+    boolean logarithmic;
+    long[] addresses = new long[0];
+    int threads = Runtime.getRuntime().availableProcessors();
+    List<String> files = new ArrayList<>();
+
+    /* Parses the arguments, throwing an IllegalArgumentException with the reason if they are
+     * wrong. */
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        if (!arg.startsWith("--")) {
+          options.files.add(arg);
+          continue;
+        }
+        int equals = arg.indexOf('=');
+        if (equals == -1) {
+          throw new IllegalArgumentException("Options need a value: " + arg);
+        }
+        String name = arg.substring(2, equals);
+        String value = arg.substring(equals + 1);
+        switch (name) {
+          case "format":
+            if (!value.equals("json") && !value.equals("csv")) {
+              throw new IllegalArgumentException("Unknown format: " + value);
+            }
+            options.csv = value.equals("csv");
+            break;
+          case "report":
+            options.reports = Arrays.asList(value.split(","));
+            for (String report : options.reports) {
+              if (!REPORTS.contains(report)) {
+                throw new IllegalArgumentException("Unknown report: " + report);
+              }
+            }
+            break;
+          case "field":
+            options.field = RegionTable.fieldIndex(value);
+            if (options.field == -1) {
+              throw new IllegalArgumentException("Unknown field: " + value);
+            }
+            break;
+          case "path":
+            options.path = value;
+            break;
+          case "top":
+            options.top = positive(name, value);
+            break;
+          case "bins":
+            options.bins = positive(name, value);
+            break;
+          case "scale":
+            if (!value.equals(HistogramBins.LINEAR) && !value.equals(HistogramBins.LOGARITHMIC)) {
+              throw new IllegalArgumentException("Unknown scale: " + value);
+            }
+            options.logarithmic = value.equals(HistogramBins.LOGARITHMIC);
+            break;
+          case "address":
+            options.addresses = parseAddresses(value);
+            break;
+          case "threads":
+            options.threads = positive(name, value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      if (options.files.isEmpty()) {
+        throw new IllegalArgumentException("No files given.");
+      }
+      if (options.csv && options.reports.size() != 1) {
+        throw new IllegalArgumentException("CSV can only hold one report.");
+      }
+      return options;
+    }
+
+    private static int positive(String name, String value) {
+      try {
+        int number = Integer.parseInt(value);
+        if (number > 0) {
+          return number;
+        }
+      } catch (NumberFormatException e) {
+        // Reported below.
+      }
+      throw new IllegalArgumentException("--" + name + " must be a positive number.");
+    }
+
+    /* Parses hexadecimal addresses, with or without 0x, separated by commas. */
+    private static long[] parseAddresses(String value) {
+      String[] parts = value.split(",");
+      long[] addresses = new long[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        String hex = parts[i].trim().replaceFirst("^0[xX]", "");
+        try {
+          addresses[i] = Long.parseUnsignedLong(hex, 16);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Not a 64-bit hexadecimal address: " + parts[i]);
+        }
+      }
+      return addresses;
+    }
+  }
+
+  /**
+   * A region of a report, with the value of the field the report is about. Only what is printed is
+   * copied out of the table, so a report doesn't keep its file's regions alive.
+   */
+  static final class ReportedRegion {
+    final String start;
+    final String end;
+    final String permissions;
+    final String pathname;
+    final long value;
+
+    ReportedRegion(RegionTable regions, int row, int field) {
+      this.start = regions.startLoc(row);
+      this.end = regions.endLoc(row);
+      this.permissions = regions.permissions(row);
+      this.pathname = regions.pathname(row);
+      this.value = regions.field(field, row);
+    }
+  }
+
+  /** The reports of one file, or why it couldn't be analyzed. */
+  static final class FileReport {
+    final String file;
+    String error;
+    int regions;
+    long[] totals;
+    List<ReportedRegion> top;
+    HistogramBins histogram;
+    ReportedRegion[] lookups;
+
+    FileReport(String file) {
+      this.file = file;
+    }
+  }
+
+  private BatchAnalyzer() {}
+
+  public static void main(String[] args) {
+    System.exit(run(args, System.out, System.err));
+  }
+
+  /* Analyzes the files the arguments name, printing the reports to out and any errors to err, and
+   * returns the exit status. */
+  static int run(String[] args, PrintStream out, PrintStream err) {
+    Options options;
+    List<Path> files;
+    try {
+      options = Options.parse(args);
+      files = listFiles(options.files);
+    } catch (IllegalArgumentException e) {
+      err.println(e.getMessage());
+      err.println(USAGE);
+      return 2;
+    } catch (IOException | UncheckedIOException e) {
+      err.println("Couldn't list the files: " + e.getMessage());
+      return 2;
+    }
+
+    // Files are queued a few per thread ahead of the oldest one not yet printed, and each is
+    // printed and dropped as soon as it and the files before it are done, so only that window of
+    // reports is held however many files there are. A large file is also split across the pool's
+    // threads by ParallelRegionParser.
+    ForkJoinPool pool = new ForkJoinPool(options.threads);
+    int window = options.threads * 2;
+    boolean failed = false;
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      if (options.csv) {
+        writer.write(csvHeader(options) + "\n");
+      }
+      Deque<Future<FileReport>> reports = new ArrayDeque<>();
+      for (Path file : files) {
+        if (reports.size() == window) {
+          failed |= write(reports.remove().get(), options, writer, err);
+        }
+        reports.add(pool.submit(() -> analyze(file, options)));
+      }
+      while (!reports.isEmpty()) {
+        failed |= write(reports.remove().get(), options, writer, err);
+      }
+      writer.flush();
+    } catch (IOException e) {
+      err.println("Couldn't write the reports: " + e.getMessage());
+      return 1;
+    } catch (InterruptedException | ExecutionException e) {
+      err.println("Analysis stopped: " + e);
+      return 1;
+    } finally {
+      pool.shutdownNow();
+    }
+    return failed ? 1 : 0;
+  }
+
+  /* Writes the reports of a file, printing its error to err if it has one, and returns whether it
+   * had one. */
+  private static boolean write(FileReport report, Options options, Writer writer, PrintStream err)
+      throws IOException {
+    if (report.error != null) {
+      err.println(report.file + ": " + report.error);
+    }
+    if (options.csv) {
+      writeCsv(report, options, writer);
+    } else {
+      writeJson(report, options, writer);
+    }
+    return report.error != null;
+  }
+
+  /* Returns the files given, with each directory replaced by the regular files under it in order
+   * of their names. */
+  static List<Path> listFiles(List<String> names) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (String name : names) {
+      Path path = Paths.get(name);
+      if (!Files.isDirectory(path)) {
+        files.add(path);
+        continue;
+      }
+      try (Stream<Path> walk = Files.walk(path)) {
+        files.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+      }
+    }
+    return files;
+  }
+
+  /* Parses the file and makes the reports asked for. The reports hold only the values they print,
+   * so the regions of a file are dropped as soon as it has been analyzed. */
+  static FileReport analyze(Path file, Options options) {
+    FileReport report = new FileReport(file.toString());
+    RegionTable regions;
+    try {
+      regions = parse(file);
+    } catch (SmapsFormatException e) {
+      report.error = e.getMessage();
+      return report;
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      report.error = "File not found.";
+      return report;
+    } catch (IOException | UncheckedIOException e) {
+      report.error = "File couldn't be read: " + e.getMessage();
+      return report;
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      report.error = PARSE_ERROR_MESSAGE;
+      return report;
+    }
+
+    int[] rows = IntStream.range(0, regions.size())
+        .filter(row -> regions.pathname(row).contains(options.path))
+        .toArray();
+    report.regions = rows.length;
+    if (options.reports.contains(SUMMARY)) {
+      report.totals = new long[RegionTable.FIELD_COUNT];
+      for (int row : rows) {
+        for (int f = 0; f < RegionTable.FIELD_COUNT; f++) {
+          report.totals[f] += regions.field(f, row);
+        }
+      }
+    }
+    if (options.reports.contains(TOP)) {
+      Ordering<Integer> byField = Ordering.from(
+          Comparator.comparingLong((Integer row) -> regions.field(options.field, row)));
+      report.top = byField.greatestOf(Arrays.stream(rows).iterator(), options.top).stream()
+          .map(row -> new ReportedRegion(regions, row, options.field))
+          .collect(Collectors.toList());
+    }
+    if (options.reports.contains(HISTOGRAM)) {
+      long lower = Long.MAX_VALUE;
+      long upper = Long.MIN_VALUE;
+      for (int row : rows) {
+        lower = Math.min(lower, regions.field(options.field, row));
+        upper = Math.max(upper, regions.field(options.field, row));
+      }
+      report.histogram = HistogramBins.compute(
+          regions, options.field, rows, lower, upper, options.bins, options.logarithmic);
+    }
+    if (options.reports.contains(LOOKUP)) {
+      AddressIndex index = AddressIndex.of(regions);
+      report.lookups = new ReportedRegion[options.addresses.length];
+      for (int i = 0; i < options.addresses.length; i++) {
+        int row = index.find(options.addresses[i]);
+        report.lookups[i] = row == -1 ? null : new ReportedRegion(regions, row, options.field);
+      }
+    }
+    return report;
+  }
+
+  /* Parses a dump the same way an upload of it is parsed, splitting a large one into chunks. */
+  private static RegionTable parse(Path file) throws IOException {
+    if (ParallelRegionParser.shouldParseInParallel(Files.size(file))) {
+      return ParallelRegionParser.parse(file);
+    }
+    try (InputStream in = Files.newInputStream(file)) {
+      return RegionParser.parse(in);
+    }
+  }
+
+  /* Writes the reports of a file as one line of Json. */
+  private static void writeJson(FileReport report, Options options, Writer writer)
+      throws IOException {
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject();
+    json.name("file").value(report.file);
+    if (report.error != null) {
+      json.name("error").value(report.error);
+      json.endObject();
+      json.flush();
+      writer.write("\n");
+      return;
+    }
+    json.name("regions").value(report.regions);
+    if (report.totals != null) {
+      json.name("totals").beginObject();
+      for (int f = 0; f < RegionTable.FIELD_COUNT; f++) {
+        json.name(RegionTable.FIELD_NAMES[f]).value(report.totals[f]);
+      }
+      json.endObject();
+    }
+    if (report.top != null) {
+      json.name("top").beginArray();
+      for (ReportedRegion region : report.top) {
+        writeRegion(json, region, options.field);
+      }
+      json.endArray();
+    }
+    if (report.histogram != null) {
+      json.name("histogram").beginObject();
+      json.name("field").value(report.histogram.field());
+      json.name("scale").value(report.histogram.scale());
+      json.name("edges").beginArray();
+      for (long edge : report.histogram.edges()) {
+        json.value(edge);
+      }
+      json.endArray();
+      json.name("counts").beginArray();
+      for (long count : report.histogram.counts()) {
+        json.value(count);
+      }
+      json.endArray();
+      json.endObject();
+    }
+    if (report.lookups != null) {
+      json.name("lookups").beginArray();
+      for (int i = 0; i < report.lookups.length; i++) {
+        json.beginObject();
+        json.name("address").value(Long.toHexString(options.addresses[i]));
+        json.name("region");
+        if (report.lookups[i] == null) {
+          json.nullValue();
+        } else {
+          writeRegion(json, report.lookups[i], options.field);
+        }
+        json.endObject();
+      }
+      json.endArray();
+    }
+    json.endObject();
+    json.flush();
+    writer.write("\n");
+  }
+
+  private static void writeRegion(JsonWriter json, ReportedRegion reported, int field)
+      throws IOException {
+    json.beginObject();
+    json.name("start").value(reported.start);
+    json.name("end").value(reported.end);
+    json.name("permissions").value(reported.permissions);
+    json.name("pathname").value(reported.pathname);
+    json.name(RegionTable.FIELD_NAMES[field]).value(reported.value);
+    json.endObject();
+  }
+
+  /* The header of the CSV of the one report asked for. */
+  private static String csvHeader(Options options) {
+    String field = RegionTable.FIELD_NAMES[options.field];
+    switch (options.reports.get(0)) {
+      case SUMMARY:
+        return "file,regions," + String.join(",", RegionTable.FIELD_NAMES);
+      case TOP:
+        return "file,rank,start,end,permissions,pathname," + field;
+      case HISTOGRAM:
+        return "file,field,lower,upper,count";
+      default:
+        return "file,address,start,end,permissions,pathname," + field;
+    }
+  }
+
+  /* Writes the rows of the one report asked for of a file. A file that couldn't be analyzed has
+   * no rows; its error is only printed to the error stream. */
+  private static void writeCsv(FileReport report, Options options, Writer writer)
+      throws IOException {
+    if (report.error != null) {
+      return;
+    }
+    String file = csv(report.file);
+    switch (options.reports.get(0)) {
+      case SUMMARY:
+        writer.write(file + "," + report.regions);
+        for (long total : report.totals) {
+          writer.write("," + total);
+        }
+        writer.write("\n");
+        break;
+      case TOP:
+        for (int i = 0; i < report.top.size(); i++) {
+          writer.write(file + "," + (i + 1) + "," + csvRegion(report.top.get(i))
+              + "\n");
+        }
+        break;
+      case HISTOGRAM:
+        long[] edges = report.histogram.edges();
+        long[] counts = report.histogram.counts();
+        for (int i = 0; i < counts.length; i++) {
+          writer.write(file + "," + report.histogram.field() + "," + edges[i] + ","
+              + (edges[i + 1] - 1) + "," + counts[i] + "\n");
+        }
+        break;
+      default:
+        for (int i = 0; i < report.lookups.length; i++) {
+          ReportedRegion region = report.lookups[i];
+          writer.write(file + "," + Long.toHexString(options.addresses[i]) + ","
+              + (region == null ? ",,,," : csvRegion(region)) + "\n");
+        }
+    }
+  }
+
+  private static String csvRegion(ReportedRegion reported) {
+    return reported.start + "," + reported.end + "," + reported.permissions + ","
+        + csv(reported.pathname) + "," + reported.value;
+  }
+
+  /* Quotes a CSV value if it holds a comma, quote or line break. */
+  static String csv(String value) {
+    if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Finds the regions of many addresses at once, such as the pointers from a crash or the addresses
+ * in a profile. The addresses are posted as a JSON array of strings or as one address per line, and
+ * for each one the response gives the index of its region, the region's pathname, and how far into
+ * the region the address is.
+ */
+@WebServlet(name = "BatchSearchAddress", value = "/batchsearchaddress")
+public class BatchSearchAddress extends HttpServlet {
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Get this user's session.
+    HttpSession session = request.getSession();
+
+    // Get the dataset of the file this user uploaded, which has the regions and the address index.
+    Dataset dataset = DatasetStore.forSession(session);
+    if (dataset == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+      return;
+    }
+
+    // Read the addresses, either as Json or one per line.
+    List<String> addresses;
+    try {
+      addresses = readAddresses(request.getReader(), request.getContentType());
+    } catch (JsonParseException e) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Addresses must be a Json array of strings.");
+      return;
+    }
+
+    // Response will be a Json, written as the addresses are resolved.
+    JsonWriter json = JsonResponse.start(response);
+    writeResults(dataset.regions(), dataset.addressIndex(), addresses, json);
+    json.flush();
+  }
+
+  /* Reads the addresses from a Json array of strings if the content type is Json, and otherwise
+   * from every line that isn't blank. */
+  static List<String> readAddresses(BufferedReader reader, String contentType) throws IOException {
+    if (contentType != null && contentType.contains("json")) {
+      String[] addresses = JsonResponse.GSON.fromJson(reader, String[].class);
+      return addresses == null ? new ArrayList<String>() : Arrays.asList(addresses);
+    }
+
+    List<String> addresses = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.trim().isEmpty()) {
+        addresses.add(line.trim());
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * Resolves the addresses and writes the results as a Json array in the order the addresses were
+   * given. The valid addresses are sorted and matched against the sorted address ranges in one
+   * pass, so resolving them all takes about as long as sorting them.
+   */
+  static void writeResults(
+      List<Region> regions, AddressIndex addressIndex, List<String> addresses, JsonWriter json)
+      throws IOException {
+    // Parse the addresses the same way SearchAddress does, keeping which ones are valid.
+    int count = addresses.size();
+    long[] values = new long[count];
+    boolean[] valid = new boolean[count];
+    List<Integer> order = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String address = SearchAddress.addressParser(addresses.get(i));
+      if (address.matches("^[0-9a-fA-F]+$") && hasAtMost64Bits(address)) {
+        values[i] = Long.parseUnsignedLong(address, 16);
+        valid[i] = true;
+        order.add(i);
+      }
+    }
+
+    // Sort the valid addresses and find all their regions in one pass.
+    order.sort((a, b) -> Long.compareUnsigned(values[a], values[b]));
+    long[] sorted = new long[order.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = values[order.get(i)];
+    }
+    int[] found = addressIndex.findSorted(sorted);
+    int[] indexes = new int[count];
+    for (int i = 0; i < sorted.length; i++) {
+      indexes[order.get(i)] = found[i];
+    }
+
+    json.beginArray();
+    for (int i = 0; i < count; i++) {
+      String originalAddress = addresses.get(i);
+      json.beginObject();
+      json.name("address").value(originalAddress);
+      if (!valid[i]) {
+        json.name("index").value(-1);
+        json.name("error")
+            .value("Address [" + originalAddress + "] is not a valid hexadecimal number.");
+      } else if (indexes[i] == -1) {
+        json.name("index").value(-1);
+        json.name("error")
+            .value("No region in which address [" + originalAddress + "] can be found.");
+      } else {
+        int index = indexes[i];
+        json.name("index").value(index);
+        json.name("pathname").value(regions.get(index).pathname());
+        json.name("offset").value(Long.toHexString(values[i] - regionStart(regions, index)));
+      }
+      json.endObject();
+    }
+    json.endArray();
+  }
+
+  /* Whether the hexadecimal number fits in 64 bits, ignoring leading zeroes. */
+  static boolean hasAtMost64Bits(String hex) {
+    int digits = hex.length();
+    for (int i = 0; i < hex.length() - 1 && hex.charAt(i) == '0'; i++) {
+      digits--;
+    }
+    return digits <= 16;
+  }
+
+  private static long regionStart(List<Region> regions, int index) {
+    if (regions instanceof RegionTable) {
+      return ((RegionTable) regions).start(index);
+    }
+    return Long.parseUnsignedLong(regions.get(index).startLoc(), 16);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Starts and stops a {@link LiveCapture} of a process on this server, whose latest sample stands
+ * in for the session's uploaded dump, and sends index.js how the capture is going. Posting the
+ * process id (or "self" for this server) and the time between samples in milliseconds starts a
+ * capture, ex: pid=1234&interval=500, and posting stop-capture-btn stops it.
+ */
+@WebServlet(name = "Capture", value = "/capture")
+public class Capture extends HttpServlet {
+  // How long between samples unless the interval parameter says otherwise, in milliseconds.
+  static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+  static final String DISABLED_MESSAGE = "Live capture isn't enabled on this server.";
+  static final String BAD_PROCESS_MESSAGE = "The process must be a process id or \"self\".";
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Get this user's session.
+    HttpSession session = request.getSession();
+
+    if (request.getParameter("stop-capture-btn") != null) {
+      LiveCapture.stop(session);
+      response.sendRedirect("/index.html");
+      return;
+    }
+    if (!LiveCapture.ENABLED) {
+      fail(session, response, DISABLED_MESSAGE);
+      return;
+    }
+
+    String pid = request.getParameter("pid");
+    String process = pid == null || pid.trim().isEmpty() ? "self" : pid.trim();
+    long interval = parseInterval(request.getParameter("interval"));
+    if (LiveCapture.smapsPath(process) == null) {
+      fail(session, response, BAD_PROCESS_MESSAGE);
+      return;
+    }
+    if (interval < LiveCapture.MIN_INTERVAL_MILLIS || interval > LiveCapture.MAX_INTERVAL_MILLIS) {
+      fail(session, response, "The interval must be between " + LiveCapture.MIN_INTERVAL_MILLIS
+          + " and " + LiveCapture.MAX_INTERVAL_MILLIS + " milliseconds.");
+      return;
+    }
+
+    LiveCapture capture;
+    try {
+      capture = LiveCapture.start(session, process, interval);
+    } catch (IllegalStateException e) {
+      fail(session, response, e.getMessage());
+      return;
+    }
+    if (capture.latest() == null) {
+      fail(session, response, capture.error());
+      return;
+    }
+
+    // The capture's samples are a new dump, so start the histogram and searches over.
+    session.setAttribute("fileErrorMessage", "");
+    FileUpload.resetView(session);
+    response.sendRedirect("/interactive-histogram.html");
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LiveCapture capture = LiveCapture.forSession(request.getSession());
+
+    // The capture changes from one request to the next, so it must never be cached.
+    response.setHeader("Cache-Control", "no-store");
+    JsonWriter json = JsonResponse.start(response);
+    json.beginObject();
+    json.name("enabled").value(LiveCapture.ENABLED);
+    if (capture != null) {
+      Dataset latest = capture.latest();
+      json.name("process").value(capture.process());
+      json.name("intervalMillis").value(capture.intervalMillis());
+      json.name("samples").value(capture.samples());
+      json.name("lastSampleMillis").value(capture.lastSampleMillis());
+      json.name("lastSampleSeconds").value(capture.lastSampleNanos() / 1e9);
+      json.name("regions").value(latest == null ? 0 : latest.regions().size());
+      json.name("reused").value(capture.reusedCount());
+      json.name("parsed").value(capture.parsedCount());
+      json.name("error").value(capture.error());
+    }
+    json.endObject();
+    json.flush();
+  }
+
+  /* Sends the user back to index.html with the error. */
+  private static void fail(HttpSession session, HttpServletResponse response, String message)
+      throws IOException {
+    session.setAttribute("fileErrorMessage", message);
+    response.sendRedirect("/index.html");
+  }
+
+  /* Returns the interval asked for, the default if there isn't one, or -1 if it isn't a number. */
+  private static long parseInterval(String interval) {
+    if (interval == null || interval.isEmpty()) {
+      return DEFAULT_INTERVAL_MILLIS;
+    }
+    try {
+      return Long.parseLong(interval);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
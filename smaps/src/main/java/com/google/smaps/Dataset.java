@@ -0,0 +1,139 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.util.List;
+
+/**
+ * The regions of one smaps dump and the structures made from them, which never change once made.
+ * A dataset is named by the digest of the dump's text, so the sessions that upload the same dump
+ * can all share one dataset. While a large dump is still being parsed, a partial dataset of the
+ * regions parsed so far can stand in for it; a partial dataset has no digest and is never stored.
+ * The sample of a process being captured is only ever shown to the session capturing it, so its
+ * dataset isn't stored or snapshotted while the capture runs, and its responses aren't held.
+ */
+final class Dataset {
+  private final String digest;
+  private final List<Region> regions;
+  private final AddressIndex addressIndex;
+  private final PathnameIndex pathnameIndex;
+  // The smallest and largest region sizes, which are the histogram's default bounds.
+  private final long minSize;
+  private final long maxSize;
+  // Whether the dataset has all of the dump's regions, rather than the ones parsed so far.
+  private final boolean complete;
+  // Whether the dataset is a sample of a process being captured.
+  private final boolean sample;
+  // The kB of each permission in the address ranges, made the first time the memory map merges
+  // regions, since most datasets are never zoomed out that far.
+  private volatile MemoryMapViewport.PermissionSizes permissionSizes;
+
+  private Dataset(String digest, List<Region> regions, boolean complete) {
+    this(digest, regions, complete, false, Analyzer.makeAddressIndex(regions),
+        PathnameIndex.of(regions));
+  }
+
+  private Dataset(String digest, List<Region> regions, boolean complete, boolean sample,
+      AddressIndex addressIndex, PathnameIndex pathnameIndex) {
+    this.digest = digest;
+    this.complete = complete;
+    this.sample = sample;
+    this.regions = regions;
+    this.addressIndex = addressIndex;
+    this.pathnameIndex = pathnameIndex;
+    long[] extrema = Analyzer.getMinMax(regions);
+    this.minSize = extrema[0];
+    this.maxSize = extrema[1];
+  }
+
+  /* Creates the dataset of the parsed regions of the dump with the given digest. A table, such as
+   * one opened from a snapshot, is used as it is rather than copied. */
+  static Dataset of(String digest, List<Region> regions) {
+    return new Dataset(digest, RegionTable.copyOf(regions), true);
+  }
+
+  /* Creates the partial dataset of the regions of a dump parsed so far, which must not be empty. */
+  static Dataset partial(RegionTable regionsSoFar) {
+    return new Dataset(null, regionsSoFar, false);
+  }
+
+  /* Creates the dataset of a sample of a process being captured, with the given digest. If the
+   * sample's regions are mapped where the previous sample's were, with the same pathnames, only
+   * their sizes changed, so the previous sample's indexes are used again rather than rebuilt. */
+  static Dataset sample(String digest, RegionTable regions, Dataset previous) {
+    if (previous != null && regions.sameMappings((RegionTable) previous.regions)) {
+      return new Dataset(
+          digest, regions, true, true, previous.addressIndex, previous.pathnameIndex);
+    }
+    return new Dataset(digest, regions, true, true, Analyzer.makeAddressIndex(regions),
+        PathnameIndex.of(regions));
+  }
+
+  /* Roughly how many bytes of heap the dataset takes. Columns mapped from a snapshot aren't on the
+   * heap, so they aren't counted, and neither are the permission sizes if they haven't been made
+   * yet. */
+  long estimatedBytes() {
+    MemoryMapViewport.PermissionSizes sizes = permissionSizes;
+    return ((RegionTable) regions).estimatedBytes()
+        + addressIndex.estimatedBytes()
+        + pathnameIndex.estimatedBytes()
+        + (sizes == null ? 0 : sizes.estimatedBytes());
+  }
+
+  boolean isComplete() {
+    return complete;
+  }
+
+  boolean isSample() {
+    return sample;
+  }
+
+  String digest() {
+    return digest;
+  }
+
+  List<Region> regions() {
+    return regions;
+  }
+
+  AddressIndex addressIndex() {
+    return addressIndex;
+  }
+
+  PathnameIndex pathnameIndex() {
+    return pathnameIndex;
+  }
+
+  /* The kB of each permission in the address ranges, which are made the first time they are asked
+   * for. */
+  MemoryMapViewport.PermissionSizes permissionSizes() {
+    MemoryMapViewport.PermissionSizes sizes = permissionSizes;
+    if (sizes == null) {
+      // Two requests may make them at once, which only wastes the work of one.
+      sizes = MemoryMapViewport.PermissionSizes.of((RegionTable) regions, addressIndex);
+      permissionSizes = sizes;
+    }
+    return sizes;
+  }
+
+  long minSize() {
+    return minSize;
+  }
+
+  long maxSize() {
+    return maxSize;
+  }
+}
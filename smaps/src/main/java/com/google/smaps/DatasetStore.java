@@ -0,0 +1,296 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Holds the datasets of uploaded dumps outside of the sessions, by the SHA-256 digest of their
+ * text, which is the dataset's id. A session only holds the id of its dataset, so it stays small
+ * however large the dump is, and every session with the same dump shares one copy of it. Datasets
+ * that haven't been used for a while are dropped, as are the least recently used ones once the
+ * datasets together would take more than the store's heap budget. A dataset that would take more
+ * than the whole budget on its own isn't stored at all. The store counts its hits, misses and
+ * evictions.
+ *
+ * <p>A store can also keep a snapshot of every dataset in a directory, so that a dataset dropped
+ * from the heap, or lost when the server restarts, is opened again from its snapshot rather than
+ * having to be uploaded again. The last sample of a live capture is stored once the capture ends,
+ * but not snapshotted, since the process it shows has moved on.
+ */
+final class DatasetStore {
+  // The error sent when a session has no dataset, because no dump was uploaded or its dataset has
+  // been dropped since.
+  static final String NO_DATASET_MESSAGE = "No smaps file has been uploaded.";
+
+  // The heap budget of the shared store, in bytes. Set with the smaps.cacheBytes system property in
+  // appengine-web.xml, and a quarter of the heap if it isn't set.
+  private static final long BUDGET_BYTES =
+      Long.getLong("smaps.cacheBytes", Runtime.getRuntime().maxMemory() / 4);
+
+  // How long a dataset is kept after it was last used. Set with the smaps.datasetTtlMinutes system
+  // property in appengine-web.xml.
+  private static final long TTL_MINUTES = Long.getLong("smaps.datasetTtlMinutes", 60);
+
+  // The directory to keep snapshots of the datasets in. Set with the smaps.snapshotDir system
+  // property in appengine-web.xml; there are no snapshots if it isn't set.
+  private static final String SNAPSHOT_DIR = System.getProperty("smaps.snapshotDir", "");
+
+  // How long a snapshot is kept after it was last written or opened. Set with the
+  // smaps.snapshotTtlDays system property in appengine-web.xml.
+  private static final long SNAPSHOT_TTL_DAYS = Long.getLong("smaps.snapshotTtlDays", 7);
+
+  // How many files' digests are remembered, such as the example dump's.
+  private static final int MAX_FILES = 100;
+
+  private static final Logger logger = Logger.getLogger(DatasetStore.class.getName());
+
+  private static final DatasetStore SHARED = new DatasetStore(BUDGET_BYTES, TTL_MINUTES,
+      TimeUnit.MINUTES, SNAPSHOT_DIR.isEmpty() ? null : Paths.get(SNAPSHOT_DIR));
+
+  private final Cache<String, Dataset> datasets;
+  // The heap budget of the store, in kB like the weights of its datasets.
+  private final long budgetKb;
+  // The digests of files on the server, by their path, length and modification time, so that a
+  // file that hasn't changed can be found without reading it.
+  private final Cache<String, String> fileDigests;
+  // Where the snapshots of the datasets are kept, or null to keep none.
+  private final Path snapshotDir;
+
+  DatasetStore(long budgetBytes, long ttl, TimeUnit ttlUnit) {
+    this(budgetBytes, ttl, ttlUnit, null);
+  }
+
+  DatasetStore(long budgetBytes, long ttl, TimeUnit ttlUnit, Path snapshotDir) {
+    // The weights are in kB so that large datasets still fit in an int. Uploads are rare, so one
+    // segment is enough, and it makes the budget and the least recently used order apply to the
+    // whole store rather than to each segment.
+    budgetKb = Math.max(0, budgetBytes / 1024);
+    datasets = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfterAccess(ttl, ttlUnit)
+        .recordStats()
+        .maximumWeight(budgetKb)
+        .weigher((String digest, Dataset dataset) -> weigh(dataset))
+        .build();
+    fileDigests = CacheBuilder.newBuilder().maximumSize(MAX_FILES).build();
+    this.snapshotDir = snapshotDir;
+    if (snapshotDir != null) {
+      deleteSnapshotsOlderThan(TimeUnit.DAYS.toMillis(SNAPSHOT_TTL_DAYS));
+    }
+  }
+
+  /* The store shared by every session of this server. */
+  static DatasetStore shared() {
+    return SHARED;
+  }
+
+  /* Returns the dataset of the dump uploaded in this session from the shared store, or null if
+   * there is none. While a large dump is still being parsed, its partial dataset is returned, and
+   * while a process is being captured, its latest sample. */
+  static Dataset forSession(HttpSession session) {
+    UploadJob job = UploadJob.forSession(session);
+    Dataset partial = job == null ? null : job.showPartial(session);
+    if (partial != null) {
+      return partial;
+    }
+    if (job != null) {
+      // Take the dataset of the session's last upload, if it has ended since.
+      job.moveResultsTo(session);
+    }
+    String id = (String) session.getAttribute("datasetId");
+    LiveCapture capture = LiveCapture.forSession(session);
+    Dataset live = capture == null ? null : capture.latest();
+    if (live != null) {
+      // Keep the latest sample as the session's dump, so it is still shown once the capture ends.
+      if (!live.digest().equals(id)) {
+        session.setAttribute("datasetId", live.digest());
+      }
+      return live;
+    }
+    return id == null ? null : SHARED.get(id);
+  }
+
+  /* Returns the dataset of the dump with the digest, or null if it isn't stored. A dataset that
+   * isn't on the heap is opened from its snapshot, if it has one. */
+  Dataset get(String digest) {
+    Dataset dataset = datasets.getIfPresent(digest);
+    if (dataset == null && snapshotDir != null) {
+      dataset = openSnapshot(digest);
+    }
+    return dataset;
+  }
+
+  /* Stores the dataset, unless there already is one for its dump, and returns the stored one. A
+   * dataset heavier than the whole budget is turned away, since the store would drop it as soon as
+   * it was put, and every session using it would lose it. */
+  Dataset put(Dataset dataset) {
+    if (weigh(dataset) > budgetKb) {
+      throw new TooLargeException(dataset.estimatedBytes(), budgetKb * 1024);
+    }
+    Dataset cached = datasets.asMap().putIfAbsent(dataset.digest(), dataset);
+    if (cached != null) {
+      return cached;
+    }
+    if (snapshotDir != null && !dataset.isSample()) {
+      writeSnapshot(dataset);
+    }
+    return dataset;
+  }
+
+  /* Returns the stored dataset of the file, or null if it isn't stored or the file has changed
+   * since it was put. */
+  Dataset getFile(File file) {
+    String digest = fileDigests.getIfPresent(fileKey(file));
+    return digest == null ? null : get(digest);
+  }
+
+  /* Stores the dataset made from the file. */
+  Dataset putFile(File file, Dataset dataset) {
+    fileDigests.put(fileKey(file), dataset.digest());
+    return put(dataset);
+  }
+
+  /* The number of datasets stored. */
+  long size() {
+    return datasets.size();
+  }
+
+  /* The hits, misses and evictions of the store since it was made. Datasets dropped for their age
+   * and for the budget both count as evictions. */
+  CacheStats stats() {
+    return datasets.stats();
+  }
+
+  /* The estimated bytes of all the stored datasets. */
+  long estimatedBytes() {
+    long bytes = 0;
+    for (Dataset dataset : datasets.asMap().values()) {
+      bytes += dataset.estimatedBytes();
+    }
+    return bytes;
+  }
+
+  /* Deletes the snapshots that haven't been written or opened for longer than the age. */
+  void deleteSnapshotsOlderThan(long ageMillis) {
+    long oldest = System.currentTimeMillis() - ageMillis;
+    try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotDir, "*.snap")) {
+      for (Path snapshot : snapshots) {
+        if (snapshot.toFile().lastModified() < oldest) {
+          Files.deleteIfExists(snapshot);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // There are no snapshots yet.
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not delete old snapshots in " + snapshotDir, e);
+    }
+  }
+
+  /* The file of the dataset's snapshot. Digests are hexadecimal, so they are safe file names. */
+  Path snapshotPath(String digest) {
+    return snapshotDir.resolve(digest + ".snap");
+  }
+
+  /* Writes the dataset's snapshot, unless it already has one. A dataset that can't be written is
+   * still stored; it just isn't kept once it is dropped. */
+  private void writeSnapshot(Dataset dataset) {
+    Path snapshot = snapshotPath(dataset.digest());
+    try {
+      if (Files.exists(snapshot)) {
+        snapshot.toFile().setLastModified(System.currentTimeMillis());
+        return;
+      }
+      Files.createDirectories(snapshotDir);
+      RegionSnapshot.write((RegionTable) dataset.regions(), snapshot);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not write snapshot " + snapshot, e);
+    }
+  }
+
+  /* Opens the dataset's snapshot and stores it, or returns null if there is no usable snapshot. */
+  private Dataset openSnapshot(String digest) {
+    Path snapshot = snapshotPath(digest);
+    if (!Files.isRegularFile(snapshot)) {
+      return null;
+    }
+    try {
+      RegionTable regions = RegionSnapshot.open(snapshot);
+      snapshot.toFile().setLastModified(System.currentTimeMillis());
+      Dataset dataset = Dataset.of(digest, regions);
+      Dataset cached = datasets.asMap().putIfAbsent(digest, dataset);
+      return cached == null ? dataset : cached;
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Could not open snapshot " + snapshot, e);
+      return null;
+    }
+  }
+
+  /* The weight of the dataset in the store, in kB. */
+  private static int weigh(Dataset dataset) {
+    return (int) Math.min(Integer.MAX_VALUE, dataset.estimatedBytes() / 1024 + 1);
+  }
+
+  private static String fileKey(File file) {
+    return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+  }
+
+  /* Creates the digest that names datasets, to be updated with the text of a dump. */
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform has SHA-256.
+      throw new AssertionError(e);
+    }
+  }
+
+  /* Returns the digest's value as lowercase hexadecimal, which is the name of a dataset. */
+  static String toHex(MessageDigest digest) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Thrown when a dataset is too large for the store's heap budget. The message is the one shown
+   * to the user on index.html.
+   */
+  static final class TooLargeException extends IllegalArgumentException {
+    TooLargeException(long datasetBytes, long budgetBytes) {
+      super("The smaps file is too large for this server: its regions would take "
+          + (datasetBytes >> 20) + " MB, and only " + (budgetBytes >> 20)
+          + " MB are kept for uploaded files.");
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Compares the dump this user uploaded last with a baseline dump they chose earlier, and sends
+ * diff.js what changed between them as a {@link DumpDiff}. Posting makes the current dump the
+ * baseline, so that the next dump uploaded is compared with it, ex: /diff?limit=500
+ */
+@WebServlet(name = "Diff", value = "/diff")
+public class Diff extends HttpServlet {
+  // How many changes are sent unless the limit parameter says otherwise, and the most it can ask
+  // for.
+  static final int DEFAULT_LIMIT = 500;
+  static final int MAX_LIMIT = 10000;
+
+  static final String NO_BASELINE_MESSAGE =
+      "No baseline dump has been chosen, or it is no longer stored.";
+  static final String PARTIAL_BASELINE_MESSAGE =
+      "The dump can't be the baseline until it has been parsed in full.";
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Get this user's session.
+    HttpSession session = request.getSession();
+
+    // Check whether the clear button was clicked or not.
+    if (request.getParameter("clear-baseline-btn") != null) {
+      session.removeAttribute("baselineDatasetId");
+    } else {
+      Dataset dataset = DatasetStore.forSession(session);
+      if (dataset == null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+        return;
+      }
+      if (!dataset.isComplete()) {
+        response.sendError(HttpServletResponse.SC_CONFLICT, PARTIAL_BASELINE_MESSAGE);
+        return;
+      }
+      // Only the dataset's id is kept, like the session's own dataset.
+      session.setAttribute("baselineDatasetId", dataset.digest());
+    }
+
+    // Reload diff.html.
+    response.sendRedirect("/diff.html");
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Get this user's session.
+    HttpSession session = request.getSession();
+
+    // Get the dataset of the file this user uploaded, and of the baseline they chose.
+    Dataset dataset = DatasetStore.forSession(session);
+    if (dataset == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+      return;
+    }
+    String baselineId = (String) session.getAttribute("baselineDatasetId");
+    Dataset baseline = baselineId == null ? null : DatasetStore.shared().get(baselineId);
+    if (baseline == null) {
+      response.sendError(HttpServletResponse.SC_CONFLICT, NO_BASELINE_MESSAGE);
+      return;
+    }
+
+    String limitParameter = request.getParameter("limit");
+    int limit = limitParameter == null ? DEFAULT_LIMIT : parseLimit(limitParameter);
+    if (limit < 1 || limit > MAX_LIMIT) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Diff needs a limit between 1 and " + MAX_LIMIT + " changes.");
+      return;
+    }
+
+    // The diff is only made once for each pair of dumps and limit.
+    String key = "diff|" + baselineId + "|" + limit;
+    ResponseArtifacts.shared().serve(request, response, dataset, key, json -> {
+      DumpDiff diff = DumpDiff.compute(
+          (RegionTable) baseline.regions(), (RegionTable) dataset.regions(), limit);
+      JsonResponse.write(json, diff);
+    });
+  }
+
+  /* Returns the number of changes asked for, or -1 if it isn't a number. */
+  private static int parseLimit(String limit) {
+    try {
+      return Integer.parseInt(limit);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
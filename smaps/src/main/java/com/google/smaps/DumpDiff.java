@@ -0,0 +1,303 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.collect.Ordering;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between two dumps of the same process, such as ones taken an hour apart to find a
+ * leak. The regions of the two dumps are merge-joined in address order, matching the regions that
+ * start at the same address with the same pathname. The regions left over are then matched by
+ * pathname and offset, so a file mapped again at another address is still the same mapping. Each
+ * mapping is then added, removed, grown, shrunk or unchanged, and only the ones that changed are
+ * kept, largest change in Rss first. Apart from putting the changes in that order, which only
+ * looks at as many changes as are sent, a diff costs O(n) for n regions in both dumps.
+ */
+final class DumpDiff {
+  // The kinds of change. A mapping in both dumps is grown or shrunk by the first of the fields
+  // below that changed, so a mapping whose range grew is grown whatever happened to its Rss.
+  static final String ADDED = "added";
+  static final String REMOVED = "removed";
+  static final String GROWN = "grown";
+  static final String SHRUNK = "shrunk";
+  static final String UNCHANGED = "unchanged";
+
+  // The fields whose changes are found, in kB.
+  static final int[] FIELDS = {
+      RegionTable.SIZE, RegionTable.RSS, RegionTable.PSS, RegionTable.SWAP,
+      RegionTable.PRIVATE_DIRTY};
+  static final String[] FIELD_NAMES = {"Size", "Rss", "Pss", "Swap", "Private_Dirty"};
+
+  // The changes that are kept first: the largest change in Rss, then in Size.
+  private static final Ordering<Change> BY_SIZE = Ordering.from(
+      Comparator.<Change>comparingLong(change -> Math.abs(change.deltas[1]))
+          .thenComparingLong(change -> Math.abs(change.deltas[0])));
+
+  // The names of the fields, in the order of each change's deltas.
+  private final String[] fields = FIELD_NAMES;
+  // The number of mappings of each kind.
+  private final Map<String, Integer> counts;
+  private final List<Total> totals;
+  // The number of mappings that changed, of which at most the limit are in changes.
+  private final int changeCount;
+  private final List<Change> changes;
+
+  private DumpDiff(
+      Map<String, Integer> counts, List<Total> totals, int changeCount, List<Change> changes) {
+    this.counts = counts;
+    this.totals = totals;
+    this.changeCount = changeCount;
+    this.changes = changes;
+  }
+
+  /** The sum of one field over every region of each dump. */
+  static final class Total {
+    private final String field;
+    private final long before;
+    private final long after;
+    private final long delta;
+
+    private Total(String field, long before, long after) {
+      this.field = field;
+      this.before = before;
+      this.after = after;
+      this.delta = after - before;
+    }
+
+    long before() {
+      return before;
+    }
+
+    long after() {
+      return after;
+    }
+
+    long delta() {
+      return delta;
+    }
+  }
+
+  /**
+   * One mapping that changed, with its address range in each dump it is in, and how much each
+   * field changed by, in the order of FIELD_NAMES. A mapping that is only in one dump has the
+   * range of the other dump null, and changed by all of its fields.
+   */
+  static final class Change {
+    private final String kind;
+    private final String beforeStart;
+    private final String beforeEnd;
+    private final String afterStart;
+    private final String afterEnd;
+    private final String permissions;
+    private final String pathname;
+    // Whether the mapping is at a different address in the second dump.
+    private final boolean moved;
+    private final long[] deltas;
+
+    private Change(String kind, RegionTable before, int beforeRow, RegionTable after, int afterRow,
+        long[] deltas) {
+      this.kind = kind;
+      this.beforeStart = beforeRow == -1 ? null : formatAddress(before.start(beforeRow));
+      this.beforeEnd = beforeRow == -1 ? null : formatAddress(before.end(beforeRow));
+      this.afterStart = afterRow == -1 ? null : formatAddress(after.start(afterRow));
+      this.afterEnd = afterRow == -1 ? null : formatAddress(after.end(afterRow));
+      RegionTable table = afterRow == -1 ? before : after;
+      int row = afterRow == -1 ? beforeRow : afterRow;
+      this.permissions = table.permissions(row);
+      this.pathname = table.pathname(row);
+      this.moved =
+          beforeRow != -1 && afterRow != -1 && before.start(beforeRow) != after.start(afterRow);
+      this.deltas = deltas;
+    }
+
+    String kind() {
+      return kind;
+    }
+
+    String afterStart() {
+      return afterStart;
+    }
+
+    String beforeStart() {
+      return beforeStart;
+    }
+
+    boolean moved() {
+      return moved;
+    }
+
+    long delta(int field) {
+      return deltas[field];
+    }
+  }
+
+  /**
+   * Finds what changed from the regions of the dump before to the regions of the dump after,
+   * keeping at most limit of the changes.
+   */
+  static DumpDiff compute(RegionTable before, RegionTable after, int limit) {
+    int[] beforeRows = addressOrder(before);
+    int[] afterRows = addressOrder(after);
+
+    // The row of after that each row of before is matched with, or -1.
+    int[] matches = new int[before.size()];
+    Arrays.fill(matches, -1);
+    boolean[] afterMatched = new boolean[after.size()];
+
+    // Match the regions at the same address with the same pathname, going through both dumps in
+    // address order at once.
+    int i = 0;
+    int j = 0;
+    while (i < beforeRows.length && j < afterRows.length) {
+      int b = beforeRows[i];
+      int a = afterRows[j];
+      int order = Long.compareUnsigned(before.start(b), after.start(a));
+      if (order == 0 && before.pathname(b).equals(after.pathname(a))) {
+        matches[b] = a;
+        afterMatched[a] = true;
+      }
+      if (order <= 0) {
+        i++;
+      }
+      if (order >= 0) {
+        j++;
+      }
+    }
+
+    // Match the named regions left over by their pathname and offset, in address order, so that
+    // a file mapped again elsewhere is still found.
+    Map<String, ArrayDeque<Integer>> leftOver = new HashMap<>();
+    for (int b : beforeRows) {
+      if (matches[b] == -1 && !before.pathname(b).isEmpty()) {
+        leftOver.computeIfAbsent(mappingKey(before, b), k -> new ArrayDeque<>()).add(b);
+      }
+    }
+    if (!leftOver.isEmpty()) {
+      for (int a : afterRows) {
+        if (!afterMatched[a] && !after.pathname(a).isEmpty()) {
+          ArrayDeque<Integer> candidates = leftOver.get(mappingKey(after, a));
+          if (candidates != null && !candidates.isEmpty()) {
+            matches[candidates.poll()] = a;
+            afterMatched[a] = true;
+          }
+        }
+      }
+    }
+
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    for (String kind : new String[] {ADDED, REMOVED, GROWN, SHRUNK, UNCHANGED}) {
+      counts.put(kind, 0);
+    }
+    long[] beforeTotals = new long[FIELDS.length];
+    long[] afterTotals = new long[FIELDS.length];
+    List<Change> changes = new ArrayList<>();
+    for (int b : beforeRows) {
+      long[] deltas = new long[FIELDS.length];
+      int a = matches[b];
+      for (int f = 0; f < FIELDS.length; f++) {
+        long value = before.field(FIELDS[f], b);
+        beforeTotals[f] += value;
+        deltas[f] = (a == -1 ? 0 : after.field(FIELDS[f], a)) - value;
+      }
+      String kind = a == -1 ? REMOVED : kind(deltas);
+      counts.merge(kind, 1, Integer::sum);
+      if (!kind.equals(UNCHANGED)) {
+        changes.add(new Change(kind, before, b, after, a, deltas));
+      }
+    }
+    for (int a : afterRows) {
+      long[] deltas = new long[FIELDS.length];
+      for (int f = 0; f < FIELDS.length; f++) {
+        deltas[f] = after.field(FIELDS[f], a);
+        afterTotals[f] += deltas[f];
+      }
+      if (!afterMatched[a]) {
+        counts.merge(ADDED, 1, Integer::sum);
+        changes.add(new Change(ADDED, before, -1, after, a, deltas));
+      }
+    }
+
+    List<Total> totals = new ArrayList<>();
+    for (int f = 0; f < FIELDS.length; f++) {
+      totals.add(new Total(FIELD_NAMES[f], beforeTotals[f], afterTotals[f]));
+    }
+    return new DumpDiff(counts, totals, changes.size(), BY_SIZE.greatestOf(changes, limit));
+  }
+
+  /* A mapping in both dumps is grown or shrunk by the first field that changed. */
+  private static String kind(long[] deltas) {
+    for (long delta : deltas) {
+      if (delta != 0) {
+        return delta > 0 ? GROWN : SHRUNK;
+      }
+    }
+    return UNCHANGED;
+  }
+
+  /* The rows of the table in the order of their start addresses. A dump lists its regions in
+   * that order, so they only need sorting if it was put together some other way. */
+  private static int[] addressOrder(RegionTable table) {
+    int[] rows = new int[table.size()];
+    boolean sorted = true;
+    for (int row = 0; row < rows.length; row++) {
+      rows[row] = row;
+      if (row > 0 && Long.compareUnsigned(table.start(row - 1), table.start(row)) > 0) {
+        sorted = false;
+      }
+    }
+    if (sorted) {
+      return rows;
+    }
+    return Arrays.stream(rows)
+        .boxed()
+        .sorted((a, b) -> Long.compareUnsigned(table.start(a), table.start(b)))
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+
+  /* Names a file mapping by its pathname and offset, which stay the same wherever it is mapped. */
+  private static String mappingKey(RegionTable table, int row) {
+    return table.offset(row) + " " + table.pathname(row);
+  }
+
+  private static String formatAddress(long address) {
+    return MemoryMap.formatAddress(Long.toHexString(address));
+  }
+
+  Map<String, Integer> counts() {
+    return counts;
+  }
+
+  List<Total> totals() {
+    return totals;
+  }
+
+  int changeCount() {
+    return changeCount;
+  }
+
+  List<Change> changes() {
+    return changes;
+  }
+}
@@ -16,12 +16,11 @@
 package com.google.smaps;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.lang.IllegalArgumentException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Scanner;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -30,239 +29,76 @@ import javax.servlet.http.HttpSession;
  * TODO(sophbohr22): implement data integrity check for all fields.
  */
 class FileParser {
+  private static final String PARSE_ERROR_MESSAGE =
+      "File was unable to be parsed due to improper formatting or file type.";
+
   static List<Region> parseRegionList(String filePathname, HttpSession session) {
     try {
-      List<Region> regions = parseFile(filePathname, session);
+      List<Region> regions = parseFile(filePathname);
       return regions;
-    } catch (FileNotFoundException e) {
-      // Set a file not found error.
-      session.setAttribute("fileErrorMessage", "File not found.");
-    } catch (IllegalArgumentException e) {
-      // If a more specific fileErrorMessage wasn't already set, set a general one.
-      String message = (String) session.getAttribute("fileErrorMessage");
-      if (message == null || message.isEmpty()) {
-        session.setAttribute("fileErrorMessage",
-            "File was unable to be parsed due to improper formatting or file type.");
-      }
     } catch (Exception e) {
-      // Set a general error.
-      session.setAttribute("fileErrorMessage",
-          "File was unable to be parsed due to improper formatting or file type.");
+      setErrorMessage(e, session);
     }
 
     // If an exception was caught, return null.
     return null;
   }
 
-  /* Parses the smaps file and returns a list of regions.*/
-  static List<Region> parseFile(String filePathname, HttpSession session)
-      throws FileNotFoundException, IllegalArgumentException, IllegalStateException {
-    // Holds all regions of smaps dump.
-    List<Region> regions = new ArrayList<Region>();
-    // Create the file.
-    File dump = new File(filePathname);
-    Scanner sc = new Scanner(dump);
-    Region.Builder region = Region.builder();
-
-    // TODO(@sophbohr22): Add a defense to the parser so that files with extremely large region
-    // counts aren't allowed.
-
-    // Indicates whether there is a previous region to be built (will only be false for the first
-    // region).
-    boolean prevRegion = false;
-
-    // Initialize lineNumber, and loop through the file while there's still a new line.
-    int lineNumber = 0;
-    while (sc.hasNextLine()) {
-      lineNumber++;
-      String line = sc.nextLine();
-      if (checkNewRegion(line)) {
-        // Build the previous region (if there is one) and add it to the list.
-        if (prevRegion) {
-          // Build region and add it to the list if it has a valid size field, if not throw an
-          // IllegalArgumentException.
-          Region r = region.build();
-          if (r.size() == -1) {
-            session.setAttribute("fileErrorMessage",
-                "Required 'size' field not found in region on line [" + r.lineNumber()
-                    + "] in smaps file.");
-            throw new IllegalArgumentException();
-          }
-          regions.add(r);
-        }
-
-        // Set prevRegion to be true because we're making a new region.
-        prevRegion = true;
-
-        // Make a new region builder for every region.
-        region = Region.builder();
-
-        // Remove extra space between inode and pathname, replace with one space.
-        String spaceLine = line.replaceAll("\\s+", " ");
-
-        // Place all fields of first line into array.
-        String[] attributes = spaceLine.split(" ");
-
-        if (attributes.length < 5) {
-          session.setAttribute("fileErrorMessage",
-              "Region on line [" + lineNumber
-                  + "] does not have proper first line formatting. EX: 7fd126400000-7fd12a400000 rw-s 00000000 00:05 30559");
-          throw new IllegalArgumentException();
-        }
-
-        // Split the address range by the hyphen.
-        // ex: 55d225800000-55d225820000
-        String[] addressBounds = attributes[0].split("-");
-        String startLoc = addressBounds[0];
-        String endLoc = addressBounds[1];
-
-        // ex: rw-s
-        String permissions = attributes[1];
-        // ex: 001a1000
-        String offset = attributes[2];
-        // ex: 08:01
-        String device = attributes[3];
-        // ex: 7700
-        long inode = Long.parseLong(attributes[4]);
-
-        // If pathname exists, add it and any other details.
-        String pathname = "";
-        if (attributes.length > 5) {
-          pathname += attributes[5];
-          for (int i = 6; i < attributes.length; i++) {
-            // If there are extra details after pathname, append to string and add space between.
-            // ex: /memfd:stan (deleted)
-            pathname += " " + attributes[i];
-          }
-        }
-
-        // Set fields.
-        region.setLineNumber(lineNumber);
-        region.setStartLoc(startLoc);
-        region.setEndLoc(endLoc);
-        region.setPermissions(permissions);
-        region.setOffset(offset);
-        region.setDevice(device);
-        region.setInode(inode);
-        region.setPathname(pathname);
-
-      } else if (line.contains("VmFlags")) { // VmFlags is a special case, so is parsed differently.
-        // ex: rd ex mr mw me lo sd
-        String flagsLine = line.substring(9);
-        String[] flagsArray = flagsLine.split(" ");
-        List<String> flags = Arrays.asList(flagsArray);
-        region.setVmFlags(flags);
+  /* Parses the smaps dump as it is read from the stream, so that regions are built while the dump
+   * is still arriving. The stream is not closed. */
+  static List<Region> parseRegionList(InputStream dump, HttpSession session) {
+    return parseRegionList(dump, session, null);
+  }
 
-      } else { // This isn't the last line of the region, so continue normally.
-        // Get the name of the field.
-        String fieldLine = line.replaceAll("\\s", "");
-        int colonIndex = fieldLine.indexOf(':');
-        String field = fieldLine.substring(0, colonIndex);
+  /* Parses the smaps dump as it is read from the stream, telling progress how far it has got as
+   * it goes. The stream is not closed. */
+  static List<Region> parseRegionList(
+      InputStream dump, HttpSession session, RegionParser.Progress progress) {
+    try {
+      List<Region> regions = parseStream(dump, progress);
+      return regions;
+    } catch (Exception e) {
+      setErrorMessage(e, session);
+    }
 
-        // Remove all non-digit chars from the rest of the string to get the value.
-        String restOfLine = fieldLine.substring(colonIndex);
-        String valueStr = restOfLine.replaceAll("\\D", "");
-        long value = Long.parseLong(valueStr);
+    // If an exception was caught, return null.
+    return null;
+  }
 
-        // Set the value to the field.
-        fillField(field, value, region);
+  /* Parses the smaps file and returns a list of regions. Large files are parsed on all cores. A
+   * malformed file throws a SmapsFormatException that says what is wrong with it. */
+  static List<Region> parseFile(String filePathname) throws IOException {
+    File dump = new File(filePathname);
+    if (!ParallelRegionParser.shouldParseInParallel(dump.length())) {
+      try (InputStream in = new FileInputStream(dump)) {
+        return parseStream(in, null);
       }
     }
+    return ParallelRegionParser.parse(dump.toPath());
+  }
 
-    // Build the final region and add it to the list if it contains a valid size field.
-    Region r = region.build();
-    if (r.size() == -1) {
-      session.setAttribute("fileErrorMessage",
-          "Required 'size' field not found in region on line [" + r.lineNumber()
-              + "] in smaps file.");
-      throw new IllegalArgumentException();
-    }
-    regions.add(r);
-
-    // Close the scanner and return the list.
-    sc.close();
-    return regions;
+  /* Parses the smaps dump in the stream, telling progress how far it has got as it goes, and
+   * returns a list of regions. */
+  static List<Region> parseStream(InputStream dump, RegionParser.Progress progress)
+      throws IOException {
+    return RegionParser.parse(dump, progress);
   }
 
-  /* Checks whether the line that is being passed is the first line in a new region, with the format
-   * having at least the address range. This address range being present in a line is the indication
-   * of a new region. */
-  static boolean checkNewRegion(String line) {
-    // Check the beginning of line matches this format, for example: 16ec0000000-16efa600000
-    if (line.matches("^[0-9a-fA-F]+[-][0-9a-fA-F]+.*")) {
-      return true;
-    }
-    return false;
+  /* Sets the error message for the exception that stopped the dump from being parsed. */
+  private static void setErrorMessage(Exception e, HttpSession session) {
+    session.setAttribute("fileErrorMessage", errorMessage(e));
   }
 
-  static void fillField(String field, long value, Region.Builder region) {
-    switch (field) {
-      case "Size":
-        region.setSize(value);
-        break;
-      case "KernelPageSize":
-        region.setKernelPageSize(value);
-        break;
-      case "MMUPageSize":
-        region.setMmuPageSize(value);
-        break;
-      case "Rss":
-        region.setRss(value);
-        break;
-      case "Pss":
-        region.setPss(value);
-        break;
-      case "Shared_Clean":
-        region.setSharedClean(value);
-        break;
-      case "Shared_Dirty":
-        region.setSharedDirty(value);
-        break;
-      case "Private_Clean":
-        region.setPrivateClean(value);
-        break;
-      case "Private_Dirty":
-        region.setPrivateDirty(value);
-        break;
-      case "Referenced":
-        region.setReferenced(value);
-        break;
-      case "Anonymous":
-        region.setAnonymous(value);
-        break;
-      case "LazyFree":
-        region.setLazyFree(value);
-        break;
-      case "AnonHugePages":
-        region.setAnonHugePages(value);
-        break;
-      case "ShmemHugePages":
-        region.setShmemHugePages(value);
-        break;
-      case "ShmemPmdMapped":
-        region.setShmemPmdMapped(value);
-        break;
-      case "Shared_Hugetlb":
-        region.setSharedHugetlb(value);
-        break;
-      case "Private_Hugetlb":
-        region.setPrivateHugetlb(value);
-        break;
-      case "HugePFNMap":
-        region.setHugePFNMap(value);
-        break;
-      case "Swap":
-        region.setSwap(value);
-        break;
-      case "SwapPss":
-        region.setSwapPss(value);
-        break;
-      case "Locked":
-        region.setLocked(value);
-        break;
-      default:
-        // TODO(sophbohr22): implement logging to identify unknown fields to user.
+  /* Returns the message for the user for the exception that stopped the dump from being
+   * parsed. */
+  static String errorMessage(Exception e) {
+    if (e instanceof SmapsFormatException || e instanceof DatasetStore.TooLargeException) {
+      // The specific error message for what is wrong with the file.
+      return e.getMessage();
+    } else if (e instanceof FileNotFoundException) {
+      return "File not found.";
     }
-    return;
+    // A general error.
+    return PARSE_ERROR_MESSAGE;
   }
 }
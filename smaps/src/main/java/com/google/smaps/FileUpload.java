@@ -16,17 +16,17 @@
 
 package com.google.smaps;
 
-import com.google.common.collect.ImmutableRangeMap;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
@@ -35,41 +35,63 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.Part;
+import org.apache.commons.io.input.TeeInputStream;
 
 /**
- * Retrieves the uploaded file from the user and then saves it to the tmp directory, while also
- * setting attributes to this user's session.
+ * Retrieves the uploaded file from the user and parses it, while also setting attributes to this
+ * user's session. Uploads are parsed by the workers of {@link UploadJob}, so
+ * the request's thread is released while the upload waits and is parsed, and the upload's progress
+ * can be followed with {@link UploadProgress}. The session isn't saved for changes made after
+ * doPost returns, so the workers never change it: an upload's dataset, error and kept file are
+ * held by its job until the session's next request moves them to the session.
+ *
+ * <p>The container receives the whole multipart body before getPart returns, writing the file to
+ * its own temp directory, so parsing starts once the upload has arrived rather than while it is
+ * arriving. The dump is then parsed straight from the part's stream, without another copy of it
+ * on disk or on the heap. Parsing the body as it arrives would need a streaming multipart reader
+ * over the request's input stream, and the request could then not end, and send the user on to
+ * the histogram, until the whole body had been read.
  */
 @MultipartConfig
-@WebServlet(name = "FileUpload", value = "/fileupload")
+@WebServlet(name = "FileUpload", value = "/fileupload", asyncSupported = true)
 public class FileUpload extends HttpServlet {
+  // Whether to also save the raw text of each upload to the tmp directory, for when the raw-text
+  // view of a dump is needed. Set with the smaps.keepUploads system property in
+  // appengine-web.xml; the regions are parsed straight from the part's stream either way.
+  private static final boolean KEEP_UPLOADS = Boolean.getBoolean("smaps.keepUploads");
+
+  // The errors for an upload that was cut off, and for one that arrived while the queue of uploads
+  // waiting to be parsed was full.
+  static final String UPLOAD_ERROR_MESSAGE =
+      "The file could not be read in full, please try again.";
+  static final String BUSY_MESSAGE =
+      "The server is busy with other uploads, please try again in a minute.";
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response)
       throws IOException, ServletException {
     // Get the current session, which contains user-specific data.
     HttpSession session = request.getSession();
 
-    // The name of this user's file upload, will later be set to a file path.
-    String filename;
-
     // Reset the error message to be empty, it will later be set to a message if there's an error
     // with upload.
     String fileErrorMessage = "";
     session.setAttribute("fileErrorMessage", fileErrorMessage);
 
+    // An uploaded dump replaces the process this session was capturing, if any, and the raw text
+    // of the previous upload, if it was kept.
+    LiveCapture.stop(session);
+    deleteKeptUpload(session);
+
     // Check whether example mode was selected, if it wasn't selected the exampleButton will be
     // null.
     String exampleButton = request.getParameter("exampleMode");
     if (exampleButton != null) {
-      // Create an input stream from the example smaps file.
-      InputStream exampleInputStream = new FileInputStream(new File("WEB-INF/smaps-example.txt"));
-
-      // Get the randomized filename from uploadFile and set the filename to the session.
-      filename = uploadFile(session, exampleInputStream);
-      session.setAttribute("filename", filename);
-
-      // Send user to the histogram page.
-      response.sendRedirect("/interactive-histogram.html");
+      // Use the example's dataset if it has already been parsed, otherwise parse the example smaps
+      // file.
+      File example = new File("WEB-INF/smaps-example.txt");
+      UploadJob job = UploadJob.start(session, example.length());
+      startUpload(request, session, job, () -> uploadExample(example, job));
       return;
     }
 
@@ -87,24 +109,97 @@ public class FileUpload extends HttpServlet {
       return;
     }
 
-    // Create an input stream from the file the user uploaded.
-    InputStream fileInputStream = filePart.getInputStream();
+    // Parse the file the user uploaded straight from its input stream, on a worker thread. A
+    // progressive upload ends its request before the dump has been parsed, after which the
+    // container may delete the part, so the part is first moved to a file of the upload's own.
+    UploadJob job = UploadJob.start(session, filePart.getSize());
+    File ownedPart = job.isProgressive() ? movePart(filePart) : null;
+    startUpload(request, session, job, () -> {
+      try (InputStream fileInputStream = job.track(
+          ownedPart == null ? filePart.getInputStream() : new FileInputStream(ownedPart))) {
+        return parseUpload(fileInputStream, job);
+      } finally {
+        if (ownedPart != null) {
+          ownedPart.delete();
+        }
+      }
+    });
+  }
+
+  /* An upload's work, which returns the dataset of the dump, or throws if it couldn't be read or
+   * parsed. */
+  private interface Upload {
+    Dataset run() throws IOException;
+  }
 
-    // Get the randomized filename from uploadFile.
-    filename = uploadFile(session, fileInputStream);
+  /* Moves the part to a new file in the tmp directory, which is only renamed if the container
+   * already wrote the part to disk. */
+  private static File movePart(Part filePart) throws IOException {
+    File file = File.createTempFile("smaps-part-", ".txt");
+    file.deleteOnExit();
+    filePart.write(file.getAbsolutePath());
+    return file;
+  }
 
-    // If filename is null, there was an error with parsing, so return to homepage.
-    if (filename == null) {
-      response.sendRedirect("/index.html");
-      return;
-    }
+  /**
+   * Queues the upload to be parsed by a worker and releases the request's thread. Once the upload
+   * has been parsed, the user is sent to the histogram page, or back to index.html with the error
+   * if it couldn't be parsed or there wasn't room for it in the queue.
+   */
+  private static void startUpload(
+      HttpServletRequest request, HttpSession session, UploadJob job, Upload upload) {
+    // The worker always completes the request, however long the upload waits and takes.
+    AsyncContext async = request.startAsync();
+    async.setTimeout(0);
 
-    // Set the filename to the session.
-    session.setAttribute("filename", filename);
+    // A large upload sends the user to the histogram as soon as its first regions are parsed, and
+    // the pages show the regions parsed so far until the whole dump has been parsed. The session
+    // is left to the requests of those pages, which reset its view when they first show them.
+    AtomicBoolean redirected = new AtomicBoolean();
+    job.onFirstPartial(() -> {
+      redirected.set(true);
+      redirect(async, "/interactive-histogram.html");
+    });
 
-    // Send user to the histogram page.
-    response.sendRedirect("/interactive-histogram.html");
-    return;
+    long queuedAt = System.nanoTime();
+    boolean queued = job.submit(() -> {
+      Metrics.UPLOAD_STAGE_SECONDS.labels("queue").observeSince(queuedAt);
+      Dataset dataset = null;
+      String error = null;
+      try {
+        dataset = upload.run();
+      } catch (IOException e) {
+        // The upload was cut off before it was read in full.
+        error = UPLOAD_ERROR_MESSAGE;
+      } catch (RuntimeException e) {
+        error = FileParser.errorMessage(e);
+      } finally {
+        // The job holds the results before the request ends, so the page it redirects to finds
+        // them.
+        job.finish(dataset, error);
+        if (!redirected.get()) {
+          redirect(async, dataset != null ? "/interactive-histogram.html" : "/index.html");
+        }
+        Metrics.UPLOADS.labels(dataset != null ? UploadJob.DONE : UploadJob.FAILED).inc();
+        Metrics.UPLOAD_BYTES.labels().observe(job.bytesRead());
+      }
+    });
+    if (!queued) {
+      Metrics.UPLOADS.labels("rejected").inc();
+      session.setAttribute("fileErrorMessage", BUSY_MESSAGE);
+      redirect(async, "/index.html");
+    }
+  }
+
+  /* Redirects the request that was started asynchronously, and completes it. */
+  private static void redirect(AsyncContext async, String location) {
+    try {
+      ((HttpServletResponse) async.getResponse()).sendRedirect(location);
+    } catch (IOException e) {
+      // The browser has gone away, so there is no one to redirect.
+    } finally {
+      async.complete();
+    }
   }
 
   @Override
@@ -113,68 +208,119 @@ public class FileUpload extends HttpServlet {
     // Get the current session, which contains user-specific data.
     HttpSession session = request.getSession();
 
+    // Take the error of the session's last upload, if it has ended since.
+    UploadJob job = UploadJob.forSession(session);
+    if (job != null) {
+      job.moveResultsTo(session);
+    }
+
     // Get the error message currently in this session.
     String fileErrorMessage = (String) session.getAttribute("fileErrorMessage");
 
-    // Transfer the String into JavaScript Object (Json).
-    Gson gson = new Gson();
-    String errorJson = gson.toJson(fileErrorMessage);
-
-    // Write Json to index.js.
-    response.getWriter().println(errorJson);
+    // Write the String to index.js as a JavaScript Object (Json).
+    JsonWriter json = JsonResponse.start(response);
+    json.value(fileErrorMessage);
+    json.flush();
   }
 
   /**
-   * Creates a new file from fileInputStream and saves it to the tmp directory with a random name,
-   * also creates the necessary data structures and sets them to this session.
+   * Parses the smaps dump as it is read from fileInputStream, and creates the necessary data
+   * structures and sets them to this session. Returns whether the dump was parsed successfully.
+   * If uploads are being kept, the raw text is also copied to the tmp directory while it is read.
    */
-  public String uploadFile(HttpSession session, InputStream fileInputStream) throws IOException {
-    // Generate a random filename for this user's file.
-    Random rand = new Random();
-    int randomInt = rand.nextInt();
-    String filename = "/tmp/smaps-upload-" + randomInt + ".txt";
+  public boolean uploadFile(HttpSession session, InputStream fileInputStream) throws IOException {
+    deleteKeptUpload(session);
+    UploadJob job = new UploadJob(-1, false, Runnable::run);
+    try {
+      job.finish(parseUpload(fileInputStream, job), null);
+    } catch (RuntimeException e) {
+      job.finish(null, FileParser.errorMessage(e));
+    }
+    job.moveResultsTo(session);
+    return job.stage().equals(UploadJob.DONE);
+  }
 
-    // Copy the uploaded file to the server and rename it to the generated filename.
-    File fileToSave = new File(filename);
-    Files.copy(fileInputStream, fileToSave.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  /* Returns the dataset of the example file, parsing the file only if its dataset isn't stored. */
+  private Dataset uploadExample(File example, UploadJob job) throws IOException {
+    DatasetStore store = DatasetStore.shared();
+    Dataset dataset = store.getFile(example);
+    if (dataset == null) {
+      try (InputStream exampleInputStream = job.track(new FileInputStream(example))) {
+        dataset = parseUpload(exampleInputStream, job);
+      }
+      dataset = store.putFile(example, dataset);
+    }
+    return dataset;
+  }
 
+  /* Parses the smaps dump as it is read from fileInputStream, computing its digest at the same
+   * time, and returns its dataset, which is the stored one if the same dump was uploaded before.
+   * Throws a SmapsFormatException or another IllegalArgumentException or IllegalStateException if
+   * the dump couldn't be parsed. The job is told how far parsing has got as it goes, and is given
+   * the file the raw text was kept in, if uploads are kept. */
+  private Dataset parseUpload(InputStream fileInputStream, UploadJob job) throws IOException {
     // Make the list of regions from this file that will be utilized for various
-    // charts/visualizations, and set the list to the session.
-    List<Region> regionList = Analyzer.makeRegionList(filename, session);
-
-    // Check if there were any issues with file upload. If there were, fileErrorMessage in the
-    // session would have been set, so return to index. If not, set the region list to the session
-    // and continue.
-    String message = (String) session.getAttribute("fileErrorMessage");
-    if (!message.isEmpty()) {
-      // Immediately return null, so that the file with upload issues will not continue to be
-      // parsed.
-      return null;
+    // charts/visualizations.
+    MessageDigest digest = DatasetStore.newDigest();
+    InputStream digestInputStream = new DigestInputStream(fileInputStream, digest);
+    long start = System.nanoTime();
+    List<Region> regionList;
+    if (KEEP_UPLOADS) {
+      // Copy the upload to a file with a random name in the tmp directory as it is parsed.
+      File fileToSave = File.createTempFile("smaps-upload-", ".txt");
+      fileToSave.deleteOnExit();
+      try (InputStream teeInputStream =
+               new TeeInputStream(digestInputStream, new FileOutputStream(fileToSave), true)) {
+        regionList = FileParser.parseStream(teeInputStream, job);
+      } catch (IOException | RuntimeException e) {
+        // The file with upload issues isn't kept.
+        fileToSave.delete();
+        throw e;
+      }
+      job.keepUpload(fileToSave);
     } else {
-      session.setAttribute("regionList", regionList);
+      regionList = FileParser.parseStream(digestInputStream, job);
     }
+    Metrics.UPLOAD_STAGE_SECONDS.labels("parse").observeSince(start);
+    Metrics.UPLOAD_REGIONS.labels().add(regionList.size());
 
-    // Make the range map that will allow for the address search feature on the memory map page, and
-    // set the range map to the session.
-    ImmutableRangeMap<BigInteger, Region> rangeMap = Analyzer.makeRangeMap(regionList);
-    session.setAttribute("rangeMap", rangeMap);
+    // The digest is only known once the whole dump has been read. If the same dump was uploaded
+    // before, use its stored dataset so the indexes aren't made again and the sessions share one
+    // copy of the regions.
+    job.startIndexing();
+    DatasetStore store = DatasetStore.shared();
+    String name = DatasetStore.toHex(digest);
+    Dataset dataset = store.get(name);
+    if (dataset == null) {
+      start = System.nanoTime();
+      dataset = Dataset.of(name, regionList);
+      Metrics.UPLOAD_STAGE_SECONDS.labels("index").observeSince(start);
+      start = System.nanoTime();
+      dataset = store.put(dataset);
+      Metrics.UPLOAD_STAGE_SECONDS.labels("store").observeSince(start);
+    }
+    return dataset;
+  }
 
+  /* Resets the searches and bounds of the previous dump. */
+  static void resetView(HttpSession session) {
     // Reset the fields in SearchAddress.java so that the textbox will start blank and the
     // class will not contain any information from previous searches.
     session.setAttribute("address", "");
     session.setAttribute("addressBigInt", null);
     session.setAttribute("addressErrorMessage", "");
 
-    // Get the min and max region sizes in the list which will be utilized to set
-    // and reset bounds in the histogram, and set them to the session.
-    long[] extrema = Analyzer.getMinMax(regionList);
-    session.setAttribute("minBound", extrema[0]);
-    session.setAttribute("maxBound", extrema[1]);
-
     // Set the postFired flag in Histogram.java to be false since this is a new upload and textboxes
     // will start with the min/max values of this file and not with any previously chosen bounds.
     session.setAttribute("postFired", false);
+  }
 
-    return filename;
+  /* Deletes the raw text of this session's upload from the tmp directory, if it was kept. */
+  private static void deleteKeptUpload(HttpSession session) {
+    String filename = (String) session.getAttribute("filename");
+    if (filename != null) {
+      new File(filename).delete();
+      session.removeAttribute("filename");
+    }
   }
 }
\ No newline at end of file
@@ -16,8 +16,9 @@
 
 package com.google.smaps;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
@@ -28,10 +29,21 @@ import javax.servlet.http.HttpSession;
 
 /**
  * Retrieves histogram information and formats it into a Json array for creating the chart
- * and dashboard tools in histogram.js.
+ * and dashboard tools in histogram.js. With the bins parameter, the regions are counted into bins
+ * here and only the bins are sent, ex: /histogram?bins=50&scale=log&field=Rss. Without it, every
+ * region that matches the path filter is sent, in {@link RegionWire} form if the request accepts
+ * it.
  */
 @WebServlet(name = "Histogram", value = "/histogram")
 public class Histogram extends HttpServlet {
+  // The most bins a histogram can be split into.
+  static final int MAX_BINS = 1000;
+
+  // The histogram's bounds, "lower,upper", and its URL-encoded path filter, which are sent in
+  // headers when the regions are sent in binary.
+  static final String BOUNDS_HEADER = "X-Smaps-Bounds";
+  static final String NAME_HEADER = "X-Smaps-Name";
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     // Get this user's session.
@@ -46,8 +58,13 @@ public class Histogram extends HttpServlet {
     if (resetButton != null) {
       // Reset was clicked, so set the bounds to be the extrema of the sizes, so the user can see
       // the entire range of sizes.
-      lowerBound = (long) session.getAttribute("minBound");
-      upperBound = (long) session.getAttribute("maxBound");
+      Dataset dataset = DatasetStore.forSession(session);
+      if (dataset == null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+        return;
+      }
+      lowerBound = dataset.minSize();
+      upperBound = dataset.maxSize();
 
       // Reset the field that searches for a specific string in a pathname.
       session.setAttribute("name", "");
@@ -81,12 +98,17 @@ public class Histogram extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Response will be a Json.
-    response.setContentType("application/json");
-
     // Get this user's session.
     HttpSession session = request.getSession();
 
+    // Get the dataset of the file this user uploaded.
+    Dataset dataset = DatasetStore.forSession(session);
+    if (dataset == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+      return;
+    }
+    List<Region> regionList = dataset.regions();
+
     // Check whether doPost has been fired for the first time yet.
     boolean postFired = (boolean) session.getAttribute("postFired");
 
@@ -102,8 +124,8 @@ public class Histogram extends HttpServlet {
     // hasn't chosen a specific name in the pathname to filter, just make it an empty string,
     // otherwise get it from the session.
     if (!postFired) {
-      lowerBound = (long) session.getAttribute("minBound");
-      upperBound = (long) session.getAttribute("maxBound");
+      lowerBound = dataset.minSize();
+      upperBound = dataset.maxSize();
       name = "";
 
       // Set the new variables to the session.
@@ -116,31 +138,70 @@ public class Histogram extends HttpServlet {
       name = (String) session.getAttribute("name");
     }
 
-    // Get the region list from the session, which was set when the file was uploaded.
-    List<Region> regionList = (List<Region>) session.getAttribute("regionList");
-
-    // Parse histogram data.
-    List<Object[]> histogramData = makeDataArray(regionList, name);
+    // Get histogram data, either as one row per region or already counted into bins. Both are only
+    // made once for each dataset and set of parameters.
+    String bins = request.getParameter("bins");
+    if (bins != null) {
+      String fieldName = request.getParameter("field");
+      int field = RegionTable.fieldIndex(fieldName == null ? "Size" : fieldName);
+      int binCount = parseBinCount(bins);
+      if (field == -1 || binCount < 1 || binCount > MAX_BINS) {
+        response.sendError(
+            HttpServletResponse.SC_BAD_REQUEST,
+            "Histogram needs a known field and between 1 and " + MAX_BINS + " bins.");
+        return;
+      }
+      boolean logarithmic = HistogramBins.LOGARITHMIC.equals(request.getParameter("scale"));
+      // The name goes last in the key, since it is the only part that can hold any character.
+      String key = "histogram|bins|" + binCount + "|" + field + "|" + logarithmic + "|"
+          + lowerBound + "|" + upperBound + "|" + name;
+      ResponseArtifacts.shared().serve(request, response, dataset, key, json -> {
+        int[] rows = dataset.pathnameIndex().find(name);
+        HistogramBins histogramBins = HistogramBins.compute(
+            RegionTable.copyOf(regionList), field, rows, lowerBound, upperBound, binCount,
+            logarithmic);
+        writeResponse(lowerBound, upperBound, name, json,
+            data -> JsonResponse.write(data, histogramBins));
+      });
+      return;
+    }
 
-    // Construct 2D array to hold the bounds.
-    long[] bounds = {lowerBound, upperBound};
+    // Clients that ask for binary regions are sent the regions that match the name, with the
+    // bounds and name in headers.
+    if (RegionWire.isAccepted(request.getHeader("Accept"))) {
+      response.setHeader(BOUNDS_HEADER, lowerBound + "," + upperBound);
+      response.setHeader(NAME_HEADER, URLEncoder.encode(name, "UTF-8"));
+      String key = "histogram|rows|" + name;
+      ResponseArtifacts.shared().serve(request, response, dataset, key, RegionWire.MEDIA_TYPE,
+          out -> RegionWire.write(
+              (RegionTable) regionList, dataset.pathnameIndex().find(name), out));
+      return;
+    }
 
-    // Transfer the arrays into JavaScript Objects (Json).
-    Gson boundsGson = new Gson();
-    Gson nameGson = new Gson();
-    Gson histGson = new Gson();
-    String boundsJson = boundsGson.toJson(bounds);
-    String nameJson = nameGson.toJson(name);
-    String histogramDataJson = histGson.toJson(histogramData);
+    // Each region's row is written as it is gone through, so the rows are never held as objects.
+    String key = "histogram|rows|" + lowerBound + "|" + upperBound + "|" + name;
+    ResponseArtifacts.shared().serve(request, response, dataset, key,
+        json -> writeResponse(lowerBound, upperBound, name, json,
+            data -> writeDataArray(regionList, dataset.pathnameIndex(), name, data)));
+  }
 
-    // Put the two Json strings into a list to send to histogram.js.
-    List<String> jsonList = new ArrayList<String>();
-    jsonList.add(boundsJson);
-    jsonList.add(nameJson);
-    jsonList.add(histogramDataJson);
+  /* Returns the number of bins asked for, or -1 if it isn't a number. */
+  private static int parseBinCount(String bins) {
+    try {
+      return Integer.parseInt(bins);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
 
-    // Write Json to histogram.js
-    response.getWriter().println(jsonList);
+  /* Writes the bounds, the name and the histogram data to histogram.js as a Json array. */
+  private static void writeResponse(long lowerBound, long upperBound, String name,
+      JsonWriter json, ResponseArtifacts.Body data) throws IOException {
+    json.beginArray();
+    json.beginArray().value(lowerBound).value(upperBound).endArray();
+    json.value(name);
+    data.write(json);
+    json.endArray();
   }
 
   /**
@@ -155,8 +216,35 @@ public class Histogram extends HttpServlet {
     return Long.parseLong(bound);
   }
 
+  /**
+   * Writes the same rows as makeDataArray as a Json array, one at a time, using the pathname index
+   * to find the regions with the name in their pathname.
+   */
+  static void writeDataArray(
+      List<Region> regions, PathnameIndex pathnameIndex, String name, JsonWriter json)
+      throws IOException {
+    json.beginArray();
+    json.beginArray().value("Range").value("Size").endArray();
+    json.beginArray().nullValue().value(-1).endArray();
+    for (int i : pathnameIndex.find(name)) {
+      Region curR = regions.get(i);
+      String range = curR.startLoc() + " - " + curR.endLoc();
+      json.beginArray().value(range).value(curR.size()).endArray();
+    }
+    json.endArray();
+  }
+
   /** Creates list of 2D Object arrays of data for histogram. */
   static ArrayList<Object[]> makeDataArray(List<Region> regions, String name) {
+    return makeDataArray(regions, PathnameIndex.of(regions), name);
+  }
+
+  /**
+   * Creates list of 2D Object arrays of data for histogram, using the pathname index to find the
+   * regions with the name in their pathname.
+   */
+  static ArrayList<Object[]> makeDataArray(
+      List<Region> regions, PathnameIndex pathnameIndex, String name) {
     // List must contain both Strings and numbers, so must be of type Object.
     ArrayList<Object[]> dataArray = new ArrayList<Object[]>();
 
@@ -169,17 +257,15 @@ public class Histogram extends HttpServlet {
     Object[] initPair = {null, -1};
     dataArray.add(initPair);
 
-    // Go through the regions and add range/size pairs to the list, and check that it contains in
-    // its pathname the specific name that was searched for (if no name was searched, it will just
-    // be an empty string).
-    for (int i = 0; i < regions.size(); i++) {
+    // Go through the regions that contain in their pathname the specific name that was searched
+    // for (if no name was searched, it will just be an empty string, which every region contains),
+    // and add range/size pairs to the list.
+    for (int i : pathnameIndex.find(name)) {
       Region curR = regions.get(i);
-      if (curR.pathname().contains(name)) {
-        String range = curR.startLoc() + " - " + curR.endLoc();
-        Object val = (Object) curR.size();
-        Object[] pair = {range, val};
-        dataArray.add(pair);
-      }
+      String range = curR.startLoc() + " - " + curR.endLoc();
+      Object val = (Object) curR.size();
+      Object[] pair = {range, val};
+      dataArray.add(pair);
     }
     return dataArray;
   }
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A histogram of one of the numeric fields of the regions, such as their sizes, as the edges of
+ * its bins and the number of regions in each bin. Its size depends only on the number of bins, so
+ * it can be sent to the browser in place of the regions themselves.
+ */
+final class HistogramBins {
+  static final String LINEAR = "linear";
+  static final String LOGARITHMIC = "log";
+
+  // The name of the field, as it is written in an smaps dump.
+  private final String field;
+  // How the bins are spaced, LINEAR or LOGARITHMIC.
+  private final String scale;
+  // Bin i holds the values from edges[i] (inclusive) to edges[i + 1] (exclusive), so there is one
+  // more edge than there are bins.
+  private final long[] edges;
+  private final long[] counts;
+
+  private HistogramBins(String field, String scale, long[] edges, long[] counts) {
+    this.field = field;
+    this.scale = scale;
+    this.edges = edges;
+    this.counts = counts;
+  }
+
+  /**
+   * Counts the regions in the given rows, such as the ones found by a PathnameIndex, whose value of
+   * the field (such as RegionTable.SIZE) is between lowerBound and upperBound, both inclusive, in
+   * at most binCount bins. Logarithmic bins grow by the same factor each time, and a lower bound of
+   * 0 goes in the first bin.
+   */
+  static HistogramBins compute(
+      RegionTable regions,
+      int field,
+      int[] rows,
+      long lowerBound,
+      long upperBound,
+      int binCount,
+      boolean logarithmic) {
+    String scale = logarithmic ? LOGARITHMIC : LINEAR;
+    if (lowerBound > upperBound || binCount < 1) {
+      return new HistogramBins(RegionTable.FIELD_NAMES[field], scale, new long[0], new long[0]);
+    }
+    long[] edges = logarithmic
+        ? logarithmicEdges(lowerBound, upperBound, binCount)
+        : linearEdges(lowerBound, upperBound, binCount);
+    long[] counts = new long[edges.length - 1];
+
+    for (int row : rows) {
+      long value = regions.field(field, row);
+      if (value < lowerBound || value > upperBound) {
+        continue;
+      }
+      // A value at the last edge is Long.MAX_VALUE, which can't be made exclusive, so it goes in
+      // the last bin.
+      int bin = Arrays.binarySearch(edges, value);
+      counts[Math.min(bin >= 0 ? bin : -bin - 2, counts.length - 1)]++;
+    }
+    return new HistogramBins(RegionTable.FIELD_NAMES[field], scale, edges, counts);
+  }
+
+  /* Splits [lowerBound, upperBound] into bins of the same whole-number width. */
+  private static long[] linearEdges(long lowerBound, long upperBound, int binCount) {
+    long end = exclusiveEnd(upperBound);
+    long width = Math.max(1, (long) Math.ceil(((double) end - lowerBound) / binCount));
+    List<Long> edges = new ArrayList<>();
+    for (long edge = lowerBound; edge < end && edge >= lowerBound; edge += width) {
+      edges.add(edge);
+    }
+    edges.add(end);
+    return toArray(edges);
+  }
+
+  /* Splits [lowerBound, upperBound] into bins that are each the same factor wider than the last,
+   * dropping bins that would be narrower than a whole number. */
+  private static long[] logarithmicEdges(long lowerBound, long upperBound, int binCount) {
+    long end = exclusiveEnd(upperBound);
+    double low = Math.max(lowerBound, 1);
+    double factor = Math.pow(end / low, 1.0 / binCount);
+    List<Long> edges = new ArrayList<>();
+    edges.add(lowerBound);
+    for (int i = 1; i < binCount; i++) {
+      long edge = Math.round(low * Math.pow(factor, i));
+      if (edge > edges.get(edges.size() - 1) && edge < end) {
+        edges.add(edge);
+      }
+    }
+    edges.add(end);
+    return toArray(edges);
+  }
+
+  private static long exclusiveEnd(long upperBound) {
+    return upperBound == Long.MAX_VALUE ? upperBound : upperBound + 1;
+  }
+
+  private static long[] toArray(List<Long> values) {
+    long[] array = new long[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  String field() {
+    return field;
+  }
+
+  String scale() {
+    return scale;
+  }
+
+  long[] edges() {
+    return edges;
+  }
+
+  long[] counts() {
+    return counts;
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes Json responses straight to the response as they are made, so that a response never has
+ * to be held in memory as a whole.
+ */
+final class JsonResponse {
+  // Gson is thread-safe, so one instance is shared by every request.
+  static final Gson GSON = new Gson();
+
+  // Whether a response was made from all of the dump's regions, "true", or only from the ones
+  // parsed so far, "false", in which case the page asks again later for a more complete one.
+  static final String COMPLETE_HEADER = "X-Smaps-Complete";
+
+  private JsonResponse() {}
+
+  /* Marks whether the response is made from a complete dataset. A partial one must not be cached,
+   * since the next response will have more regions. */
+  static void setComplete(HttpServletResponse response, Dataset dataset) {
+    response.setHeader(COMPLETE_HEADER, String.valueOf(dataset.isComplete()));
+    if (!dataset.isComplete()) {
+      response.setHeader("Cache-Control", "no-store");
+    }
+  }
+
+  /* Sets the response up for Json and returns a writer for it. The writer escapes the same
+   * characters Gson.toJson does, and must be flushed or closed once the response is written. */
+  static JsonWriter start(HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    JsonWriter json = new JsonWriter(response.getWriter());
+    json.setHtmlSafe(true);
+    return json;
+  }
+
+  /* Writes any object, such as a region, the way GSON would turn it into Json. */
+  static void write(JsonWriter json, Object value) throws IOException {
+    if (value == null) {
+      json.nullValue();
+    } else {
+      GSON.toJson(value, value.getClass(), json);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Samples the smaps of a process on this server, such as /proc/1234/smaps or /proc/self/smaps,
+ * at a fixed interval, and keeps its latest sample as a dataset, which stands in for the session's
+ * uploaded dump so that the histogram and memory map show the process as it is now. Each sample is
+ * parsed by a {@link SmapsSampler}, which only parses the regions that changed since the sample
+ * before, and a sample that didn't change at all is the same dataset as before. A sample in which
+ * only the sizes of the regions changed reuses the indexes of the sample before.
+ *
+ * <p>The samples are only held by the capture, not by the {@link DatasetStore}, so a capture
+ * taking many samples a second doesn't push other sessions' dumps out of the store. Once the
+ * capture ends, its last sample is put in the store, so the session still has it as its dump.
+ *
+ * <p>Reading other processes' memory maps isn't something a shared server should allow, so live
+ * capture is off unless the smaps.liveCapture system property is true.
+ */
+final class LiveCapture {
+  static final boolean ENABLED = Boolean.getBoolean("smaps.liveCapture");
+
+  // The shortest and longest time between samples, in milliseconds. The shortest can be set with
+  // the smaps.captureMinIntervalMillis system property in appengine-web.xml.
+  static final long MIN_INTERVAL_MILLIS = Long.getLong("smaps.captureMinIntervalMillis", 100);
+  static final long MAX_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  // How many captures can run at once, and how many threads sample them. Set with the
+  // smaps.maxCaptures and smaps.captureThreads system properties in appengine-web.xml.
+  private static final int MAX_CAPTURES = Integer.getInteger("smaps.maxCaptures", 4);
+  private static final int THREAD_COUNT = Integer.getInteger("smaps.captureThreads", 2);
+
+  // A capture that no one has asked about for this long is stopped, such as one whose session
+  // has ended.
+  static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(
+      THREAD_COUNT,
+      new ThreadFactoryBuilder().setNameFormat("smaps-capture-%d").setDaemon(true).build());
+
+  // The capture of each session, by the session's id.
+  private static final ConcurrentMap<String, LiveCapture> CAPTURES = new ConcurrentHashMap<>();
+
+  private final String sessionId;
+  private final String process;
+  private final long intervalMillis;
+  private final SmapsSampler sampler;
+  // Set once the capture is scheduled, on the request's thread, and read on the sampling threads.
+  // A capture that ends before it is set is cancelled by the request's thread once it is.
+  private volatile ScheduledFuture<?> future;
+  private volatile boolean ended;
+
+  // Only the thread taking a sample changes these, and any thread can read them.
+  private volatile Dataset latest;
+  private volatile long samples;
+  private volatile long lastSampleMillis;
+  private volatile long lastSampleNanos;
+  private volatile String error;
+  private volatile long lastAskedMillis = System.currentTimeMillis();
+
+  private LiveCapture(String sessionId, String process, long intervalMillis) {
+    this.sessionId = sessionId;
+    this.process = process;
+    this.intervalMillis = intervalMillis;
+    this.sampler = new SmapsSampler(smapsPath(process));
+  }
+
+  /* The path of the smaps of a process, which is "self" for this server's own process or a
+   * process id, or null if it is neither. */
+  static Path smapsPath(String process) {
+    if (!process.equals("self") && !process.matches("[0-9]{1,10}")) {
+      return null;
+    }
+    return Paths.get("/proc", process, "smaps");
+  }
+
+  /**
+   * Starts sampling the process every intervalMillis for the session, stopping any capture the
+   * session already had. The first sample is taken before this returns, so the capture has a
+   * dataset as soon as it has started; if that sample fails the capture isn't started, and its
+   * error says why. Throws an IllegalStateException if too many captures are running.
+   */
+  static LiveCapture start(HttpSession session, String process, long intervalMillis) {
+    stop(session);
+    if (CAPTURES.size() >= MAX_CAPTURES) {
+      throw new IllegalStateException("Too many live captures are running.");
+    }
+    LiveCapture capture = new LiveCapture(session.getId(), process, intervalMillis);
+    capture.sample();
+    if (capture.error != null) {
+      return capture;
+    }
+    CAPTURES.put(capture.sessionId, capture);
+    capture.future = SCHEDULER.scheduleWithFixedDelay(
+        capture::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    if (capture.ended) {
+      capture.cancel();
+    }
+    return capture;
+  }
+
+  /* Returns the session's running capture, or null if it doesn't have one. */
+  static LiveCapture forSession(HttpSession session) {
+    String id = session.getId();
+    LiveCapture capture = id == null ? null : CAPTURES.get(id);
+    if (capture != null) {
+      capture.lastAskedMillis = System.currentTimeMillis();
+    }
+    return capture;
+  }
+
+  /* Stops the session's capture, if it has one. */
+  static void stop(HttpSession session) {
+    String id = session.getId();
+    LiveCapture capture = id == null ? null : CAPTURES.remove(id);
+    if (capture != null) {
+      capture.end();
+    }
+  }
+
+  private void sample() {
+    sample(System.currentTimeMillis());
+  }
+
+  /* Takes one sample at nowMillis, and makes it the latest dataset if it changed. A process that
+   * can no longer be read, such as one that has exited, ends the capture, and so does a running
+   * capture that no one has asked about for IDLE_MILLIS. */
+  void sample(long nowMillis) {
+    if (future != null && nowMillis - lastAskedMillis > IDLE_MILLIS) {
+      end();
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      RegionTable regions = sampler.sample();
+      if (latest == null || regions != latest.regions()) {
+        latest = Dataset.sample(sampler.digest(), regions, latest);
+      }
+      error = null;
+    } catch (IOException e) {
+      error = "The smaps of process " + process + " can't be read.";
+      end();
+      return;
+    } catch (RuntimeException e) {
+      // A sample that can't be parsed, such as one cut off as the process exits, is skipped.
+      error = e instanceof SmapsFormatException
+          ? e.getMessage()
+          : "The smaps of process " + process + " couldn't be parsed.";
+      return;
+    } finally {
+      lastSampleNanos = System.nanoTime() - start;
+      lastSampleMillis = System.currentTimeMillis();
+    }
+    samples++;
+  }
+
+  /* Stops sampling, and puts the latest sample in the shared store, so that the session still has
+   * it as its dump once the capture has ended. */
+  private void end() {
+    ended = true;
+    CAPTURES.remove(sessionId, this);
+    cancel();
+    Dataset last = latest;
+    if (last != null) {
+      try {
+        DatasetStore.shared().put(last);
+      } catch (DatasetStore.TooLargeException e) {
+        // The session is left without a dump, as if it had been dropped from the store.
+      }
+    }
+  }
+
+  private void cancel() {
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  String process() {
+    return process;
+  }
+
+  long intervalMillis() {
+    return intervalMillis;
+  }
+
+  /* The dataset of the latest sample that could be parsed, or null if none could be. */
+  Dataset latest() {
+    return latest;
+  }
+
+  /* The number of samples taken that could be parsed. */
+  long samples() {
+    return samples;
+  }
+
+  /* When the last sample was taken, in milliseconds since the epoch. */
+  long lastSampleMillis() {
+    return lastSampleMillis;
+  }
+
+  /* How long the last sample took to read and parse, in nanoseconds. */
+  long lastSampleNanos() {
+    return lastSampleNanos;
+  }
+
+  /* Why the last sample failed, or null if it didn't. */
+  String error() {
+    return error;
+  }
+
+  /* How many regions of the last sample were copied from the sample before, and how many were
+   * parsed. */
+  int reusedCount() {
+    return sampler.reusedCount();
+  }
+
+  int parsedCount() {
+    return sampler.parsedCount();
+  }
+}
@@ -16,7 +16,8 @@
 
 package com.google.smaps;
 
-import com.google.gson.Gson;
+import com.google.common.base.Strings;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,30 +29,97 @@ import javax.servlet.http.HttpSession;
 
 /**
  * Retrieves memory map information and formats it into a Json array for creating the memory map and
- * key in memory-map.js.
+ * key in memory-map.js. With the pixels parameter, only the regions in a window of addresses are
+ * sent, merged so that there are no more blocks than pixels,
+ * ex: /memorymap?start=7f0000000000&end=7fffffffffff&pixels=2000. Without it, every region is sent,
+ * in {@link RegionWire} form if the request accepts it.
  */
 @WebServlet(name = "MemoryMap", value = "/memorymap")
 public class MemoryMap extends HttpServlet {
+  // The most pixels a viewport can be split into.
+  static final int MAX_PIXELS = 10000;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Response will be a Json.
-    response.setContentType("application/json");
-
     // Get this user's session.
     HttpSession session = request.getSession();
 
-    // Get the region list from the session, which was set when the file was uploaded.
-    List<Region> regionList = (List<Region>) session.getAttribute("regionList");
+    // Get the dataset of the file this user uploaded.
+    Dataset dataset = DatasetStore.forSession(session);
+    if (dataset == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+      return;
+    }
+
+    // With a pixel budget, only send the blocks of the requested window.
+    String pixels = request.getParameter("pixels");
+    if (pixels != null) {
+      writeViewport(request, response, dataset, pixels);
+      return;
+    }
+
+    // Send the memory map data, which is only made once for each dataset, in binary to clients
+    // that ask for it.
+    if (RegionWire.isAccepted(request.getHeader("Accept"))) {
+      RegionTable table = (RegionTable) dataset.regions();
+      ResponseArtifacts.shared().serve(request, response, dataset, "memorymap",
+          RegionWire.MEDIA_TYPE, out -> RegionWire.write(table, null, out));
+      return;
+    }
+    ResponseArtifacts.shared().serve(request, response, dataset, "memorymap",
+        json -> writeDataArray(dataset.regions(), json));
+  }
 
-    // Parse the memory map data.
-    List<Object[]> memoryMapData = makeDataArray(regionList);
+  /* Writes the viewport of the window from the start parameter (inclusive) to the end parameter
+   * (exclusive), which default to the start of the first region and the end of the last. */
+  private static void writeViewport(HttpServletRequest request, HttpServletResponse response,
+      Dataset dataset, String pixels) throws IOException {
+    AddressIndex addressIndex = dataset.addressIndex();
+    int pixelCount = parsePixelCount(pixels);
+    int ranges = addressIndex.rangeCount();
+    long firstStart = ranges == 0 ? 0 : addressIndex.rangeStart(0);
+    long lastEnd = ranges == 0 ? 0 : addressIndex.rangeEnd(ranges - 1);
+    Long start = parseAddress(request.getParameter("start"), firstStart);
+    Long end = parseAddress(request.getParameter("end"), lastEnd);
+    if (pixelCount < 1 || pixelCount > MAX_PIXELS || start == null || end == null
+        || Long.compareUnsigned(start, end) >= 0) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "Viewport needs a start address below its end address and between 1 and " + MAX_PIXELS
+              + " pixels.");
+      return;
+    }
 
-    // Transfer the Java Object arrays into JavaScript Objects (Json).
-    Gson memoryMapGson = new Gson();
-    String memoryMapJson = memoryMapGson.toJson(memoryMapData);
+    // The page asks for the same windows again as it is zoomed in and out.
+    String key = "memorymap|" + Long.toHexString(start) + "|" + Long.toHexString(end) + "|"
+        + pixelCount;
+    ResponseArtifacts.shared().serve(request, response, dataset, key, json -> {
+      MemoryMapViewport viewport = MemoryMapViewport.compute(RegionTable.copyOf(dataset.regions()),
+          addressIndex, dataset::permissionSizes, start, end, pixelCount);
+      JsonResponse.write(json, viewport);
+    });
+  }
 
-    // Write Json to memory-map.js.
-    response.getWriter().println(memoryMapJson);
+  /* Returns the number of pixels asked for, or -1 if it isn't a number. */
+  private static int parsePixelCount(String pixels) {
+    try {
+      return Integer.parseInt(pixels);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /* Parses a hexadecimal address the same way SearchAddress does, returning the default if there
+   * is no address, or null if it isn't a valid 64-bit address. */
+  static Long parseAddress(String address, long defaultAddress) {
+    if (address == null || address.isEmpty()) {
+      return defaultAddress;
+    }
+    String hex = SearchAddress.addressParser(address);
+    if (!hex.matches("^[0-9a-fA-F]+$") || !BatchSearchAddress.hasAtMost64Bits(hex)) {
+      return null;
+    }
+    return Long.parseUnsignedLong(hex, 16);
   }
 
   /** Creates list of 2D Object arrays of data for memory map. */
@@ -62,25 +130,33 @@ public class MemoryMap extends HttpServlet {
     // Go through the regions and add range/permissions pairs to the list.
     for (int i = 0; i < regions.size(); i++) {
       Region curR = regions.get(i);
-      String start = formatAddress(curR.startLoc());
-      String end = formatAddress(curR.endLoc());
-      String range = start + " - " + end;
       Object permissions = (Object) curR.permissions();
-      Object[] pair = {range, permissions};
+      Object[] pair = {formatRange(curR), permissions};
       dataArray.add(pair);
     }
     return dataArray;
   }
 
+  /** Writes the same range/permissions pairs as makeDataArray as a Json array, one at a time. */
+  static void writeDataArray(List<Region> regions, JsonWriter json) throws IOException {
+    json.beginArray();
+    for (int i = 0; i < regions.size(); i++) {
+      Region curR = regions.get(i);
+      json.beginArray().value(formatRange(curR)).value(curR.permissions()).endArray();
+    }
+    json.endArray();
+  }
+
+  /* Formats the address range of the region, ex: 0000016ec0000000 - 0000016efa600000 */
+  private static String formatRange(Region r) {
+    return formatAddress(r.startLoc()) + " - " + formatAddress(r.endLoc());
+  }
+
   /**
    * Formats the address string to be 16 characters long by adding zeroes to the beginning of the
    * address to fill it.
    */
   static String formatAddress(String address) {
-    String formattedString = address;
-    while (formattedString.length() < 16) {
-      formattedString = "0" + formattedString;
-    }
-    return formattedString;
+    return Strings.padStart(address, 16, '0');
   }
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * The part of the memory map in a window of addresses, as at most one block per pixel of the
+ * browser's view of it. If the window has no more regions than pixels, each region is its own
+ * block; otherwise the window is split into pixels of the same number of bytes, and the regions
+ * that start in the same pixel are merged into one block, with their total size and how much of it
+ * has each permission. The window and the regions of each pixel are found with binary searches of
+ * the address index, and the sizes of a block's permissions from the running totals of {@link
+ * PermissionSizes}, so a viewport costs O(b p log n) for b blocks, which is at most the number of
+ * pixels, and p distinct permissions, however many regions are in the window.
+ */
+final class MemoryMapViewport {
+  // The window, as 16-digit hexadecimal addresses, from start (inclusive) to end (exclusive).
+  private final String start;
+  private final String end;
+  // How many bytes of the window are in each pixel, or 0 if the regions weren't merged.
+  private final long bytesPerPixel;
+  private final List<Block> blocks;
+
+  private MemoryMapViewport(String start, String end, long bytesPerPixel, List<Block> blocks) {
+    this.start = start;
+    this.end = end;
+    this.bytesPerPixel = bytesPerPixel;
+    this.blocks = blocks;
+  }
+
+  /**
+   * One region, or several adjacent regions merged together, from start to end. A single region
+   * has its index in the list of regions, its permissions and its pathname, and merged regions
+   * have the kB of each of their permissions instead.
+   */
+  static final class Block {
+    private final String start;
+    private final String end;
+    // The number of regions in the block.
+    private final int regions;
+    // The kB of address space the regions take, not counting the gaps between them.
+    private final long size;
+    private final Integer index;
+    private final String permissions;
+    private final String pathname;
+    private final Map<String, Long> permissionSizes;
+
+    private Block(long start, long end, int regions, long size, Integer index, String permissions,
+        String pathname, Map<String, Long> permissionSizes) {
+      this.start = formatAddress(start);
+      this.end = formatAddress(end);
+      this.regions = regions;
+      this.size = size;
+      this.index = index;
+      this.permissions = permissions;
+      this.pathname = pathname;
+      this.permissionSizes = permissionSizes;
+    }
+
+    String start() {
+      return start;
+    }
+
+    String end() {
+      return end;
+    }
+
+    int regions() {
+      return regions;
+    }
+
+    long size() {
+      return size;
+    }
+
+    Integer index() {
+      return index;
+    }
+
+    String permissions() {
+      return permissions;
+    }
+
+    Map<String, Long> permissionSizes() {
+      return permissionSizes;
+    }
+  }
+
+  /**
+   * The kB of each permission in the sorted ranges of an address index, as running totals from the
+   * first range, so that the kB of each permission in any run of ranges is found without visiting
+   * them. A dataset makes them once, the first time its memory map is merged.
+   */
+  static final class PermissionSizes {
+    // The distinct permissions, and for each one the ranges with it in order and the running total
+    // of their kB, which starts at 0 and so has one more entry than the ranges.
+    private final String[] permissions;
+    private final int[][] ranges;
+    private final long[][] totals;
+
+    private PermissionSizes(String[] permissions, int[][] ranges, long[][] totals) {
+      this.permissions = permissions;
+      this.ranges = ranges;
+      this.totals = totals;
+    }
+
+    static PermissionSizes of(RegionTable regions, AddressIndex addressIndex) {
+      int count = addressIndex.rangeCount();
+      Map<String, Integer> ids = new HashMap<>();
+      int[] rangeIds = new int[count];
+      for (int range = 0; range < count; range++) {
+        String permissions = regions.permissions(addressIndex.region(range));
+        Integer id = ids.get(permissions);
+        if (id == null) {
+          id = ids.size();
+          ids.put(permissions, id);
+        }
+        rangeIds[range] = id;
+      }
+      int[] sizes = new int[ids.size()];
+      for (int id : rangeIds) {
+        sizes[id]++;
+      }
+
+      String[] permissions = new String[ids.size()];
+      for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+        permissions[entry.getValue()] = entry.getKey();
+      }
+      int[][] ranges = new int[ids.size()][];
+      long[][] totals = new long[ids.size()][];
+      for (int id = 0; id < sizes.length; id++) {
+        ranges[id] = new int[sizes[id]];
+        totals[id] = new long[sizes[id] + 1];
+      }
+      int[] filled = new int[ids.size()];
+      for (int range = 0; range < count; range++) {
+        int id = rangeIds[range];
+        int i = filled[id]++;
+        ranges[id][i] = range;
+        totals[id][i + 1] = totals[id][i] + kB(addressIndex, range);
+      }
+      return new PermissionSizes(permissions, ranges, totals);
+    }
+
+    /* The kB of each permission in the sorted ranges from first (inclusive) to last (exclusive),
+     * for the permissions that at least one of them has. */
+    Map<String, Long> between(int first, int last) {
+      Map<String, Long> sizes = new TreeMap<>();
+      for (int id = 0; id < permissions.length; id++) {
+        int from = position(ranges[id], first);
+        int to = position(ranges[id], last);
+        if (to > from) {
+          sizes.put(permissions[id], totals[id][to] - totals[id][from]);
+        }
+      }
+      return sizes;
+    }
+
+    /* Roughly how many bytes of heap the sizes take. */
+    long estimatedBytes() {
+      long bytes = 0;
+      for (int[] permissionRanges : ranges) {
+        bytes += 12L * permissionRanges.length + 8;
+      }
+      return bytes;
+    }
+
+    /* The number of the ranges that come before the range. */
+    private static int position(int[] ranges, int range) {
+      int i = Arrays.binarySearch(ranges, range);
+      return i >= 0 ? i : -i - 1;
+    }
+  }
+
+  /* Finds the blocks like the other compute, making the permission sizes for this one viewport. */
+  static MemoryMapViewport compute(
+      RegionTable regions, AddressIndex addressIndex, long start, long end, int pixels) {
+    return compute(regions, addressIndex, () -> PermissionSizes.of(regions, addressIndex), start,
+        end, pixels);
+  }
+
+  /**
+   * Finds the blocks of the regions in the window from start (inclusive) to end (exclusive), both
+   * unsigned addresses with start below end, in at most the given number of pixels. The permission
+   * sizes are only asked for if regions are merged.
+   */
+  static MemoryMapViewport compute(RegionTable regions, AddressIndex addressIndex,
+      Supplier<PermissionSizes> permissionSizes, long start, long end, int pixels) {
+    int first = addressIndex.firstEndingAfter(start);
+    int last = addressIndex.firstStartingAt(end);
+
+    List<Block> blocks = new ArrayList<>();
+    if (last - first <= pixels) {
+      for (int range = first; range < last; range++) {
+        blocks.add(single(regions, addressIndex, range));
+      }
+      return new MemoryMapViewport(formatAddress(start), formatAddress(end), 0, blocks);
+    }
+
+    // Round up, so that the last pixel ends at or after the end of the window.
+    long span = end - start;
+    long bytesPerPixel = Long.divideUnsigned(span, pixels)
+        + (Long.remainderUnsigned(span, pixels) == 0 ? 0 : 1);
+    PermissionSizes sizes = permissionSizes.get();
+    int range = first;
+    while (range < last) {
+      // The regions of the pixel end at the first one that starts in a later pixel, if the window
+      // has one.
+      long pixel = pixel(addressIndex.rangeStart(range), start, bytesPerPixel);
+      long left = span - pixel * bytesPerPixel;
+      int next = Long.compareUnsigned(bytesPerPixel, left) >= 0
+          ? last
+          : Math.min(last, addressIndex.firstStartingAt(start + pixel * bytesPerPixel
+              + bytesPerPixel));
+      blocks.add(next == range + 1
+          ? single(regions, addressIndex, range)
+          : merged(addressIndex, sizes, range, next));
+      range = next;
+    }
+    return new MemoryMapViewport(formatAddress(start), formatAddress(end), bytesPerPixel, blocks);
+  }
+
+  /* The pixel an address is in, counting a region that starts before the window as starting in the
+   * first pixel. */
+  private static long pixel(long address, long start, long bytesPerPixel) {
+    if (Long.compareUnsigned(address, start) < 0) {
+      return 0;
+    }
+    return Long.divideUnsigned(address - start, bytesPerPixel);
+  }
+
+  private static Block single(RegionTable regions, AddressIndex addressIndex, int range) {
+    int row = addressIndex.region(range);
+    return new Block(addressIndex.rangeStart(range), addressIndex.rangeEnd(range), 1,
+        kB(addressIndex, range), row, regions.permissions(row), regions.pathname(row), null);
+  }
+
+  /* Merges the sorted ranges from first (inclusive) to last (exclusive) into one block. */
+  private static Block merged(AddressIndex addressIndex, PermissionSizes sizes, int first,
+      int last) {
+    Map<String, Long> permissionSizes = sizes.between(first, last);
+    long size = 0;
+    for (long kB : permissionSizes.values()) {
+      size += kB;
+    }
+    return new Block(addressIndex.rangeStart(first), addressIndex.rangeEnd(last - 1), last - first,
+        size, null, null, null, permissionSizes);
+  }
+
+  /* The kB of address space a sorted range takes. */
+  private static long kB(AddressIndex addressIndex, int range) {
+    return (addressIndex.rangeEnd(range) - addressIndex.rangeStart(range)) / 1024;
+  }
+
+  /* Formats an address as 16 hexadecimal digits, the same way as the memory map's regions. */
+  private static String formatAddress(long address) {
+    return MemoryMap.formatAddress(Long.toHexString(address));
+  }
+
+  String start() {
+    return start;
+  }
+
+  String end() {
+    return end;
+  }
+
+  long bytesPerPixel() {
+    return bytesPerPixel;
+  }
+
+  List<Block> blocks() {
+    return blocks;
+  }
+}
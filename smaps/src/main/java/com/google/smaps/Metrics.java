@@ -0,0 +1,240 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of how long uploads and requests take and how much they handle, which
+ * {@link PrometheusMetrics} sends in the Prometheus text format. Recording a value only adds to a
+ * few {@link LongAdder}s, so it never takes a lock, and threads recording at once don't contend.
+ */
+final class Metrics {
+  // The upper bounds of the buckets of durations, in seconds, and of sizes, in bytes.
+  static final double[] SECONDS_BUCKETS = {
+      0.001, 0.005, 0.025, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+  static final double[] BYTES_BUCKETS = {
+      1 << 10, 1 << 14, 1 << 18, 1 << 20, 1 << 22, 1 << 24, 1 << 26, 1 << 28, 1 << 30};
+
+  // Every family, in the order they were made, which is the order they are written in.
+  private static final List<Family> FAMILIES = new CopyOnWriteArrayList<>();
+
+  // The stages of an upload: waiting in the queue, parsing as the dump is read, making the indexes
+  // of the dataset, and storing it, which includes writing its snapshot.
+  static final Family UPLOAD_STAGE_SECONDS = histogram("smaps_upload_stage_seconds",
+      "Time spent in each stage of an upload.", SECONDS_BUCKETS, "stage");
+  static final Family UPLOAD_BYTES = histogram("smaps_upload_bytes",
+      "Bytes read from each upload.", BYTES_BUCKETS);
+  static final Family UPLOAD_REGIONS = counter("smaps_upload_regions_total",
+      "Regions parsed from uploads.");
+  static final Family UPLOADS = counter("smaps_uploads_total",
+      "Uploads, by how they ended: done, failed or rejected.", "result");
+
+  static final Family REQUEST_SECONDS = histogram("smaps_request_seconds",
+      "Time spent handling each request, by servlet and method.", SECONDS_BUCKETS, "servlet",
+      "method");
+  static final Family RESPONSE_ENCODE_SECONDS = histogram("smaps_response_encode_seconds",
+      "Time spent making each response that isn't cached, by response.", SECONDS_BUCKETS,
+      "response");
+  static final Family RESPONSE_BYTES = histogram("smaps_response_bytes",
+      "Bytes sent in each response body, by response.", BYTES_BUCKETS, "response");
+
+  // The stages of a sample of a live capture: reading the process's smaps, and parsing the regions
+  // that changed since the sample before.
+  static final Family CAPTURE_STAGE_SECONDS = histogram("smaps_capture_stage_seconds",
+      "Time spent in each stage of a live capture's sample.", SECONDS_BUCKETS, "stage");
+  static final Family CAPTURE_REGIONS = counter("smaps_capture_regions_total",
+      "Regions of live capture samples, by whether they were reused or parsed.", "result");
+
+  private Metrics() {}
+
+  /* Makes a family of counters, with a counter for each combination of the labels' values. */
+  static Family counter(String name, String help, String... labelNames) {
+    return register(new Family(name, help, null, labelNames));
+  }
+
+  /* Makes a family of histograms with the buckets' upper bounds, in increasing order. */
+  static Family histogram(String name, String help, double[] buckets, String... labelNames) {
+    return register(new Family(name, help, buckets, labelNames));
+  }
+
+  private static Family register(Family family) {
+    FAMILIES.add(family);
+    return family;
+  }
+
+  /* Writes every family in the Prometheus text format, version 0.0.4. */
+  static void write(Writer out) throws IOException {
+    for (Family family : FAMILIES) {
+      family.write(out);
+    }
+  }
+
+  /* Writes one untyped value, such as a gauge read when the metrics are asked for. */
+  static void writeGauge(Writer out, String name, String help, double value) throws IOException {
+    out.write("# HELP " + name + " " + help + "\n");
+    out.write("# TYPE " + name + " gauge\n");
+    out.write(name + " " + format(value) + "\n");
+  }
+
+  /* Writes a count that only goes up, such as one kept by a cache. */
+  static void writeCounter(Writer out, String name, String help, double value)
+      throws IOException {
+    out.write("# HELP " + name + " " + help + "\n");
+    out.write("# TYPE " + name + " counter\n");
+    out.write(name + " " + format(value) + "\n");
+  }
+
+  /** A counter or histogram for each combination of the values of some labels. */
+  static final class Family {
+    private final String name;
+    private final String help;
+    // The buckets' upper bounds, or null for counters.
+    private final double[] buckets;
+    private final String[] labelNames;
+    private final Map<List<String>, Series> series = new ConcurrentHashMap<>();
+
+    private Family(String name, String help, double[] buckets, String[] labelNames) {
+      this.name = name;
+      this.help = help;
+      this.buckets = buckets;
+      this.labelNames = labelNames;
+    }
+
+    /* Returns the series with the labels' values, in the order of the labels' names. */
+    Series labels(String... values) {
+      if (values.length != labelNames.length) {
+        throw new IllegalArgumentException(
+            name + " has labels " + Arrays.toString(labelNames) + ", not " + values.length);
+      }
+      List<String> key = Arrays.asList(values);
+      Series found = series.get(key);
+      return found != null ? found : series.computeIfAbsent(key, k -> new Series(buckets));
+    }
+
+    private void write(Writer out) throws IOException {
+      out.write("# HELP " + name + " " + help + "\n");
+      out.write("# TYPE " + name + (buckets == null ? " counter\n" : " histogram\n"));
+      for (Map.Entry<List<String>, Series> entry : series.entrySet()) {
+        String labels = labels(entry.getKey());
+        Series values = entry.getValue();
+        if (buckets == null) {
+          out.write(name + braces(labels) + " " + values.count.sum() + "\n");
+          continue;
+        }
+        // The buckets are counted apart, and each is sent with the count of every bucket below.
+        long cumulative = 0;
+        for (int i = 0; i <= buckets.length; i++) {
+          cumulative += values.buckets[i].sum();
+          String le = i == buckets.length ? "+Inf" : format(buckets[i]);
+          String bucketLabels = labels.isEmpty() ? "" : labels + ",";
+          out.write(name + "_bucket{" + bucketLabels + "le=\"" + le + "\"} " + cumulative + "\n");
+        }
+        out.write(name + "_sum" + braces(labels) + " " + format(values.sum.sum()) + "\n");
+        out.write(name + "_count" + braces(labels) + " " + values.count.sum() + "\n");
+      }
+    }
+
+    private String labels(List<String> values) {
+      StringBuilder labels = new StringBuilder();
+      for (int i = 0; i < labelNames.length; i++) {
+        if (i > 0) {
+          labels.append(',');
+        }
+        labels.append(labelNames[i]).append("=\"").append(escape(values.get(i))).append('"');
+      }
+      return labels.toString();
+    }
+  }
+
+  /** One counter, or one histogram. */
+  static final class Series {
+    // The number of values in each bucket alone, with one more for values above every bound.
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    private Series(double[] bounds) {
+      this.bounds = bounds;
+      if (bounds == null) {
+        buckets = null;
+      } else {
+        buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+          buckets[i] = new LongAdder();
+        }
+      }
+    }
+
+    /* Adds one to a counter. */
+    void inc() {
+      count.increment();
+    }
+
+    /* Adds to a counter. */
+    void add(long amount) {
+      count.add(amount);
+    }
+
+    /* Records a value in a histogram. */
+    void observe(double value) {
+      int bucket = Arrays.binarySearch(bounds, value);
+      buckets[bucket < 0 ? -bucket - 1 : bucket].increment();
+      count.increment();
+      sum.add(value);
+    }
+
+    /* Records the seconds since startNanos, a time from System.nanoTime, in a histogram. */
+    void observeSince(long startNanos) {
+      observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    long count() {
+      return count.sum();
+    }
+
+    double sum() {
+      return sum.sum();
+    }
+  }
+
+  private static String braces(String labels) {
+    return labels.isEmpty() ? "" : "{" + labels + "}";
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /* Formats a number without an exponent or trailing zeros, ex: 0.001, 1024. */
+  static String format(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return Double.isNaN(value) ? "NaN" : value > 0 ? "+Inf" : "-Inf";
+    }
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses a large smaps dump on all cores. The file is memory-mapped and split into chunks that each
+ * start at the first line of a region, the chunks are parsed on a {@link ForkJoinPool} with {@link
+ * RegionParser}, and the regions are put back together in order. The result, including which error
+ * is reported for a malformed dump, is the same as parsing the whole file with RegionParser.
+ */
+class ParallelRegionParser {
+  // Files smaller than this are parsed on one thread, since splitting them isn't worth it.
+  static final long PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+
+  // Bounds on the size of each chunk; the upper bound also keeps each mapping well under 2 GiB.
+  private static final long MIN_CHUNK_SIZE = 2L * 1024 * 1024;
+  private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+
+  // How much of the file is read at a time while looking for where a region starts.
+  private static final int SEARCH_WINDOW = 64 * 1024;
+
+  /* Whether the file is large enough to be parsed in parallel. */
+  static boolean shouldParseInParallel(long fileSize) {
+    return fileSize >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+  /**
+   * Parses the smaps dump in the file and returns its regions, throwing the same exceptions that
+   * {@link RegionParser#parse} would for the whole file.
+   */
+  static RegionTable parse(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long[] bounds = findChunkBounds(channel);
+      int chunks = bounds.length - 1;
+
+      // Count the lines in every chunk first, so each chunk knows the line number it starts on.
+      Chunk[] counted = new Chunk[chunks];
+      try {
+        runAll(counted, i -> new Chunk(map(channel, bounds[i], bounds[i + 1])).countLines());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      int[] linesBefore = new int[chunks];
+      for (int i = 1; i < chunks; i++) {
+        linesBefore[i] = linesBefore[i - 1] + counted[i - 1].lineCount;
+      }
+
+      // Then parse every chunk.
+      Chunk[] parsed = new Chunk[chunks];
+      runAll(parsed, i -> counted[i].parse(linesBefore[i]));
+
+      // Put the regions back together in order. If any chunk failed, report the error from the
+      // first one that did, since that is the error the sequential parser would have stopped on.
+      int total = 0;
+      for (Chunk chunk : parsed) {
+        chunk.rethrowError();
+        total += chunk.regions.size();
+      }
+      if (total == 0) {
+        // There wasn't a single region in the file.
+        throw new SmapsFormatException(SmapsFormatException.Reason.NO_REGIONS, 0);
+      }
+      if (chunks == 1) {
+        return parsed[0].regions;
+      }
+      RegionTable.Builder regions = RegionTable.builder();
+      for (Chunk chunk : parsed) {
+        regions.addAll(chunk.regions);
+      }
+      return regions.build();
+    }
+  }
+
+  /**
+   * Splits the file into chunks and returns the offsets they start at, followed by the size of
+   * the file. Every chunk but the first starts at the first line of a region, which is found with
+   * {@link RegionParser#isRegionHeader}.
+   */
+  static long[] findChunkBounds(FileChannel channel) throws IOException {
+    long size = channel.size();
+    long chunkSize = size / (ForkJoinPool.getCommonPoolParallelism() * 4L);
+    chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, chunkSize));
+
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    long previous = 0;
+    while (previous + chunkSize < size) {
+      long next = nextRegionStart(channel, previous + chunkSize, size);
+      if (next >= size) {
+        break;
+      }
+      bounds.add(next);
+      previous = next;
+    }
+    bounds.add(size);
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  /* Returns the offset of the first line starting at or after pos that begins a region, or the
+   * size of the file if there isn't one. pos must be greater than zero. */
+  private static long nextRegionStart(FileChannel channel, long pos, long size) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(SEARCH_WINDOW);
+    byte[] buf = window.array();
+
+    // The window starts one byte early, so that a line starting right at pos is seen after the
+    // newline that ends the line before it.
+    long windowStart = pos - 1;
+    while (windowStart < size) {
+      window.clear();
+      while (window.hasRemaining() && channel.read(window, windowStart + window.position()) != -1) {
+        // Keep reading until the window is full or the file ends.
+      }
+      int length = window.position();
+      boolean atEndOfFile = windowStart + length >= size;
+
+      // Check every line that begins after a newline in the window. A line that isn't finished in
+      // the window is checked again from the start of the next window.
+      long nextWindowStart = windowStart + length - 1;
+      for (int i = 0; i < length; i++) {
+        if (buf[i] != '\n') {
+          continue;
+        }
+        int lineStart = i + 1;
+        int lineEnd = lineStart;
+        while (lineEnd < length && buf[lineEnd] != '\n') {
+          lineEnd++;
+        }
+        if (lineEnd == length && !atEndOfFile) {
+          nextWindowStart = windowStart + i;
+          break;
+        }
+        if (RegionParser.isRegionHeader(buf, lineStart, lineEnd)) {
+          return windowStart + lineStart;
+        }
+        i = lineEnd - 1;
+      }
+      if (atEndOfFile) {
+        break;
+      }
+      windowStart = Math.max(nextWindowStart, windowStart + 1);
+    }
+    return size;
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long start, long end) {
+    try {
+      return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /* Creates each chunk's result with the function and stores it in results, running them all on
+   * the fork/join pool. */
+  private static void runAll(Chunk[] results, ChunkFunction function) {
+    List<RecursiveAction> tasks = new ArrayList<>();
+    for (int i = 0; i < results.length; i++) {
+      int index = i;
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          results[index] = function.apply(index);
+        }
+      });
+    }
+    if (ForkJoinTask.inForkJoinPool()) {
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          ForkJoinTask.invokeAll(tasks);
+        }
+      });
+    }
+  }
+
+  private interface ChunkFunction {
+    Chunk apply(int index);
+  }
+
+  /** One chunk of the mapped file, and the result of counting or parsing its lines. */
+  private static final class Chunk {
+    private final ByteBuffer bytes;
+    private int lineCount;
+    private RegionTable regions;
+    private RuntimeException error;
+
+    Chunk(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    /* Counts the lines in the chunk, which all end in a newline except maybe the last one in the
+     * file; that one is never followed by another chunk, so it doesn't need to be counted. */
+    Chunk countLines() {
+      ByteBuffer lines = bytes.duplicate();
+      byte[] buf = new byte[SEARCH_WINDOW];
+      while (lines.hasRemaining()) {
+        int length = Math.min(buf.length, lines.remaining());
+        lines.get(buf, 0, length);
+        for (int i = 0; i < length; i++) {
+          if (buf[i] == '\n') {
+            lineCount++;
+          }
+        }
+      }
+      return this;
+    }
+
+    /* Parses the chunk, keeping any error so that it can be reported in order. */
+    Chunk parse(int linesBefore) {
+      try {
+        regions = RegionParser.parseChunk(new ByteBufferInputStream(bytes.duplicate()), linesBefore);
+      } catch (IOException e) {
+        error = new UncheckedIOException(e);
+      } catch (RuntimeException e) {
+        error = e;
+      }
+      return this;
+    }
+
+    void rethrowError() throws IOException {
+      if (error instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) error).getCause();
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
+  /** Reads a byte buffer as an input stream. */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int length = Math.min(len, buffer.remaining());
+      buffer.get(b, off, length);
+      return length;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The region of an smaps dump that {@link RegionParser#visit} has just parsed. One is filled in
+ * for every region of a dump and handed to a {@link RegionVisitor} once the region is complete,
+ * so reading it costs nothing more than parsing did, and {@link #toRegion} makes a copy that can
+ * be kept.
+ */
+final class ParsedRegion implements RegionParser.Sink {
+  private final RegionVisitor visitor;
+  // The number of regions handed to the visitor so far.
+  private int count;
+
+  private int lineNumber;
+  private long start;
+  private long end;
+  private long offset;
+  // The text of the start, end and offset, or null if it is in the kernel's format.
+  private String startText;
+  private String endText;
+  private String offsetText;
+  private String permissions;
+  private String device;
+  private long inode;
+  private String pathname;
+  private final long[] fields = new long[RegionTable.FIELD_COUNT];
+  private List<String> vmFlags;
+
+  ParsedRegion(RegionVisitor visitor) {
+    this.visitor = visitor;
+  }
+
+  @Override
+  public void addRow(int lineNumber) {
+    this.lineNumber = lineNumber;
+    start = 0;
+    end = 0;
+    offset = 0;
+    startText = null;
+    endText = null;
+    offsetText = null;
+    permissions = "";
+    device = "";
+    inode = 0;
+    pathname = "";
+    Arrays.fill(fields, 0);
+    fields[RegionTable.SIZE] = -1;
+    vmFlags = Collections.emptyList();
+  }
+
+  @Override
+  public void setStart(long start) {
+    this.start = start;
+  }
+
+  @Override
+  public void setStartText(String text) {
+    startText = text;
+  }
+
+  @Override
+  public void setEnd(long end) {
+    this.end = end;
+  }
+
+  @Override
+  public void setEndText(String text) {
+    endText = text;
+  }
+
+  @Override
+  public void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  @Override
+  public void setOffsetText(String text) {
+    offsetText = text;
+  }
+
+  @Override
+  public void setPermissions(String value) {
+    permissions = value;
+  }
+
+  @Override
+  public void setDevice(String value) {
+    device = value;
+  }
+
+  @Override
+  public void setInode(long inode) {
+    this.inode = inode;
+  }
+
+  @Override
+  public void setPathname(String value) {
+    pathname = value;
+  }
+
+  @Override
+  public void setField(int field, long value) {
+    fields[field] = value;
+  }
+
+  @Override
+  public void setVmFlags(List<String> flags) {
+    vmFlags = flags;
+  }
+
+  @Override
+  public void endRow() {
+    count++;
+    visitor.visit(this);
+  }
+
+  /* The number of regions visited so far. */
+  int count() {
+    return count;
+  }
+
+  /* The line number of the first line of the region. */
+  int lineNumber() {
+    return lineNumber;
+  }
+
+  /* The start of the address range (inclusive), as an unsigned number. */
+  long start() {
+    return start;
+  }
+
+  /* The end of the address range (exclusive), as an unsigned number. */
+  long end() {
+    return end;
+  }
+
+  String startLoc() {
+    return startText != null ? startText : RegionTable.formatHex(start);
+  }
+
+  String endLoc() {
+    return endText != null ? endText : RegionTable.formatHex(end);
+  }
+
+  String offset() {
+    return offsetText != null ? offsetText : RegionTable.formatHex(offset);
+  }
+
+  String permissions() {
+    return permissions;
+  }
+
+  String device() {
+    return device;
+  }
+
+  long inode() {
+    return inode;
+  }
+
+  String pathname() {
+    return pathname;
+  }
+
+  /* One of the numeric smaps fields, such as RegionTable.RSS, in kB. */
+  long field(int field) {
+    return fields[field];
+  }
+
+  long size() {
+    return fields[RegionTable.SIZE];
+  }
+
+  List<String> vmFlags() {
+    return vmFlags;
+  }
+
+  /* Returns a copy of the region that stays the same after the next region is parsed. */
+  Region toRegion() {
+    return Region.builder()
+        .setLineNumber(lineNumber)
+        .setStartLoc(startLoc())
+        .setEndLoc(endLoc())
+        .setPermissions(permissions)
+        .setOffset(offset())
+        .setDevice(device)
+        .setInode(inode)
+        .setPathname(pathname)
+        .setSize(fields[RegionTable.SIZE])
+        .setKernelPageSize(fields[RegionTable.KERNEL_PAGE_SIZE])
+        .setMmuPageSize(fields[RegionTable.MMU_PAGE_SIZE])
+        .setRss(fields[RegionTable.RSS])
+        .setPss(fields[RegionTable.PSS])
+        .setSharedClean(fields[RegionTable.SHARED_CLEAN])
+        .setSharedDirty(fields[RegionTable.SHARED_DIRTY])
+        .setPrivateClean(fields[RegionTable.PRIVATE_CLEAN])
+        .setPrivateDirty(fields[RegionTable.PRIVATE_DIRTY])
+        .setReferenced(fields[RegionTable.REFERENCED])
+        .setAnonymous(fields[RegionTable.ANONYMOUS])
+        .setLazyFree(fields[RegionTable.LAZY_FREE])
+        .setAnonHugePages(fields[RegionTable.ANON_HUGE_PAGES])
+        .setShmemHugePages(fields[RegionTable.SHMEM_HUGE_PAGES])
+        .setShmemPmdMapped(fields[RegionTable.SHMEM_PMD_MAPPED])
+        .setSharedHugetlb(fields[RegionTable.SHARED_HUGETLB])
+        .setPrivateHugetlb(fields[RegionTable.PRIVATE_HUGETLB])
+        .setHugePFNMap(fields[RegionTable.HUGE_PFN_MAP])
+        .setSwap(fields[RegionTable.SWAP])
+        .setSwapPss(fields[RegionTable.SWAP_PSS])
+        .setLocked(fields[RegionTable.LOCKED])
+        .setVmFlags(vmFlags)
+        .build();
+  }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the regions whose pathname contains a string, for the histogram's path filter. The index
+ * keeps each distinct pathname with the sorted indexes of its regions, and the three-character
+ * substrings (trigrams) of the pathnames, so that a search only looks at the pathnames that have
+ * every trigram of the string and only touches the regions that match.
+ */
+final class PathnameIndex {
+  // The distinct pathnames, and the indexes in the list of regions of the regions with each one.
+  private final String[] pathnames;
+  private final int[][] regionIndexes;
+  // The ids of the pathnames that contain each trigram, in increasing order.
+  private final Map<Long, int[]> trigrams;
+  private final int regionCount;
+
+  private PathnameIndex(
+      String[] pathnames, int[][] regionIndexes, Map<Long, int[]> trigrams, int regionCount) {
+    this.pathnames = pathnames;
+    this.regionIndexes = regionIndexes;
+    this.trigrams = trigrams;
+    this.regionCount = regionCount;
+  }
+
+  /* Creates the index of the pathnames of the regions. */
+  static PathnameIndex of(List<Region> regions) {
+    // Give every distinct pathname an id, using the table's own ids if there is one.
+    int[] ids = new int[regions.size()];
+    List<String> pathnames = new ArrayList<>();
+    if (regions instanceof RegionTable) {
+      RegionTable table = (RegionTable) regions;
+      for (int id = 0; id < table.pathnameCount(); id++) {
+        pathnames.add(table.pathnameValue(id));
+      }
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = table.pathnameId(i);
+      }
+    } else {
+      Map<String, Integer> pathnameIds = new HashMap<>();
+      for (int i = 0; i < ids.length; i++) {
+        String pathname = regions.get(i).pathname();
+        Integer id = pathnameIds.get(pathname);
+        if (id == null) {
+          id = pathnames.size();
+          pathnames.add(pathname);
+          pathnameIds.put(pathname, id);
+        }
+        ids[i] = id;
+      }
+    }
+
+    // Make the lists of regions for each pathname, which are in increasing order.
+    int[] counts = new int[pathnames.size()];
+    for (int id : ids) {
+      counts[id]++;
+    }
+    int[][] regionIndexes = new int[pathnames.size()][];
+    for (int id = 0; id < regionIndexes.length; id++) {
+      regionIndexes[id] = new int[counts[id]];
+      counts[id] = 0;
+    }
+    for (int i = 0; i < ids.length; i++) {
+      regionIndexes[ids[i]][counts[ids[i]]++] = i;
+    }
+
+    // Make the lists of pathnames for each trigram.
+    Map<Long, List<Integer>> trigramLists = new HashMap<>();
+    for (int id = 0; id < pathnames.size(); id++) {
+      String pathname = pathnames.get(id);
+      for (int i = 0; i + 3 <= pathname.length(); i++) {
+        List<Integer> list =
+            trigramLists.computeIfAbsent(trigram(pathname, i), k -> new ArrayList<>());
+        if (list.isEmpty() || list.get(list.size() - 1) != id) {
+          list.add(id);
+        }
+      }
+    }
+    Map<Long, int[]> trigrams = new HashMap<>();
+    for (Map.Entry<Long, List<Integer>> entry : trigramLists.entrySet()) {
+      List<Integer> list = entry.getValue();
+      int[] array = new int[list.size()];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = list.get(i);
+      }
+      trigrams.put(entry.getKey(), array);
+    }
+
+    return new PathnameIndex(
+        pathnames.toArray(new String[0]), regionIndexes, trigrams, regions.size());
+  }
+
+  /* Returns the indexes, in increasing order, of the regions whose pathname contains name. */
+  int[] find(String name) {
+    if (name.isEmpty()) {
+      int[] all = new int[regionCount];
+      for (int i = 0; i < regionCount; i++) {
+        all[i] = i;
+      }
+      return all;
+    }
+
+    // Collect the regions of every matching pathname, then put them back in order.
+    int[] matches = matchingPathnames(name);
+    int total = 0;
+    for (int id : matches) {
+      total += regionIndexes[id].length;
+    }
+    int[] found = new int[total];
+    int length = 0;
+    for (int id : matches) {
+      System.arraycopy(regionIndexes[id], 0, found, length, regionIndexes[id].length);
+      length += regionIndexes[id].length;
+    }
+    if (matches.length > 1) {
+      Arrays.sort(found);
+    }
+    return found;
+  }
+
+  /* Roughly how many bytes of heap the index takes, counting about 56 bytes of overhead for each
+   * array and map entry. */
+  long estimatedBytes() {
+    long bytes = 4L * regionCount;
+    for (String pathname : pathnames) {
+      bytes += 56 + 56 + 2L * pathname.length();
+    }
+    for (int[] ids : trigrams.values()) {
+      bytes += 56 + 56 + 4L * ids.length;
+    }
+    return bytes;
+  }
+
+  /* Returns the ids of the distinct pathnames that contain name, which isn't empty. */
+  private int[] matchingPathnames(String name) {
+    // Only the pathnames with every trigram of the name can contain it. Names shorter than a
+    // trigram are checked against every pathname, of which there are few.
+    int[] candidates = null;
+    for (int i = 0; i + 3 <= name.length(); i++) {
+      int[] withTrigram = trigrams.get(trigram(name, i));
+      if (withTrigram == null) {
+        return new int[0];
+      }
+      candidates = candidates == null ? withTrigram : intersect(candidates, withTrigram);
+    }
+
+    int[] matches = new int[candidates == null ? pathnames.length : candidates.length];
+    int length = 0;
+    for (int c = 0; c < matches.length; c++) {
+      int id = candidates == null ? c : candidates[c];
+      if (pathnames[id].contains(name)) {
+        matches[length++] = id;
+      }
+    }
+    return Arrays.copyOf(matches, length);
+  }
+
+  /* Returns the values that are in both sorted arrays. */
+  private static int[] intersect(int[] a, int[] b) {
+    int[] both = new int[Math.min(a.length, b.length)];
+    int length = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        both[length++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(both, length);
+  }
+
+  /* The three characters of s starting at i, packed into a long. */
+  private static long trigram(String s, int i) {
+    return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.cache.CacheStats;
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends the {@link Metrics} of this server in the Prometheus text format, along with the state of
+ * the shared stores of datasets and responses, for a Prometheus server to scrape.
+ */
+@WebServlet(name = "PrometheusMetrics", value = "/metrics")
+public class PrometheusMetrics extends HttpServlet {
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setHeader("Cache-Control", "no-store");
+    response.setContentType(CONTENT_TYPE);
+    response.setCharacterEncoding("UTF-8");
+    Writer out = response.getWriter();
+    Metrics.write(out);
+
+    DatasetStore datasets = DatasetStore.shared();
+    Metrics.writeGauge(out, "smaps_datasets", "Parsed dumps held on the heap.", datasets.size());
+    Metrics.writeGauge(out, "smaps_dataset_bytes",
+        "Estimated heap bytes of the parsed dumps held.", datasets.estimatedBytes());
+    writeStats(out, "smaps_dataset", "parsed dumps", datasets.stats());
+
+    ResponseArtifacts artifacts = ResponseArtifacts.shared();
+    Metrics.writeGauge(out, "smaps_artifacts", "Encoded responses held.", artifacts.size());
+    writeStats(out, "smaps_artifact", "encoded responses", artifacts.stats());
+    out.flush();
+  }
+
+  /* Writes the hits, misses and evictions of a cache. */
+  private static void writeStats(Writer out, String prefix, String held, CacheStats stats)
+      throws IOException {
+    Metrics.writeCounter(out, prefix + "_hits_total",
+        "Lookups of " + held + " that were held.", stats.hitCount());
+    Metrics.writeCounter(out, prefix + "_misses_total",
+        "Lookups of " + held + " that weren't held.", stats.missCount());
+    Metrics.writeCounter(out, prefix + "_evictions_total",
+        "The " + held + " dropped for their age or the heap budget.", stats.evictionCount());
+  }
+}
@@ -124,6 +124,46 @@ abstract class Region implements Serializable {
         .setVmFlags(new ArrayList<String>());
   }
 
+  /* Returns a region with the same values as r that doesn't depend on where r came from, such as a
+   * view of a row in a RegionTable. */
+  static Region copyOf(Region r) {
+    if (r instanceof AutoValue_Region) {
+      return r;
+    }
+    return builder()
+        .setLineNumber(r.lineNumber())
+        .setStartLoc(r.startLoc())
+        .setEndLoc(r.endLoc())
+        .setPermissions(r.permissions())
+        .setOffset(r.offset())
+        .setDevice(r.device())
+        .setInode(r.inode())
+        .setPathname(r.pathname())
+        .setSize(r.size())
+        .setKernelPageSize(r.kernelPageSize())
+        .setMmuPageSize(r.mmuPageSize())
+        .setRss(r.rss())
+        .setPss(r.pss())
+        .setSharedClean(r.sharedClean())
+        .setSharedDirty(r.sharedDirty())
+        .setPrivateClean(r.privateClean())
+        .setPrivateDirty(r.privateDirty())
+        .setReferenced(r.referenced())
+        .setAnonymous(r.anonymous())
+        .setLazyFree(r.lazyFree())
+        .setAnonHugePages(r.anonHugePages())
+        .setShmemHugePages(r.shmemHugePages())
+        .setShmemPmdMapped(r.shmemPmdMapped())
+        .setSharedHugetlb(r.sharedHugetlb())
+        .setPrivateHugetlb(r.privateHugetlb())
+        .setHugePFNMap(r.hugePFNMap())
+        .setSwap(r.swap())
+        .setSwapPss(r.swapPss())
+        .setLocked(r.locked())
+        .setVmFlags(r.vmFlags())
+        .build();
+  }
+
   @AutoValue.Builder
   abstract static class Builder {
     abstract Builder setLineNumber(int value);
@@ -0,0 +1,701 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Parses an smaps dump straight from its bytes in a single pass into a {@link RegionTable}, or
+ * into a {@link RegionVisitor} that is handed each region as soon as it is parsed. Lines are
+ * tokenized in place in a reusable buffer, so no regular expressions are run and no String is made
+ * per line; addresses and numbers go straight into a {@link Sink}, such as the table's columns,
+ * and the only Strings created are the distinct permissions, devices, pathnames and VmFlags. A
+ * malformed dump is reported with a {@link SmapsFormatException} that says why.
+ */
+class RegionParser {
+  // Size of the buffer the dump is read into, it grows if a single line doesn't fit.
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // The field names of the "Key:   N kB" lines, by their index in the table's field columns.
+  private static final String[] FIELD_NAMES = RegionTable.FIELD_NAMES;
+
+  // FIELD_NAMES as bytes, grouped by length so that a field name is only compared to names that
+  // are the same length.
+  private static final byte[][][] FIELDS_BY_LENGTH;
+  private static final int[][] FIELD_INDEXES_BY_LENGTH;
+
+  static {
+    int maxLength = 0;
+    for (String name : FIELD_NAMES) {
+      maxLength = Math.max(maxLength, name.length());
+    }
+    FIELDS_BY_LENGTH = new byte[maxLength + 1][][];
+    FIELD_INDEXES_BY_LENGTH = new int[maxLength + 1][];
+    for (int length = 0; length <= maxLength; length++) {
+      List<Integer> indexes = new ArrayList<>();
+      for (int i = 0; i < FIELD_NAMES.length; i++) {
+        if (FIELD_NAMES[i].length() == length) {
+          indexes.add(i);
+        }
+      }
+      FIELDS_BY_LENGTH[length] = new byte[indexes.size()][];
+      FIELD_INDEXES_BY_LENGTH[length] = new int[indexes.size()];
+      for (int j = 0; j < indexes.size(); j++) {
+        FIELDS_BY_LENGTH[length][j] = FIELD_NAMES[indexes.get(j)].getBytes(StandardCharsets.UTF_8);
+        FIELD_INDEXES_BY_LENGTH[length][j] = indexes.get(j);
+      }
+    }
+  }
+
+  private static final byte[] VM_FLAGS = "VmFlags".getBytes(StandardCharsets.UTF_8);
+
+  // Is given each value of each region as it is parsed.
+  private final Sink regions;
+  // Holds all regions of the smaps dump, or is null if they are only given to a visitor.
+  private final RegionTable.Builder table;
+  // Shares the Strings that repeat between regions.
+  private final StringTable strings = new StringTable();
+  // Shares the VmFlags lists between regions that have the same flags.
+  private final Map<String, List<String>> flagLists = new HashMap<>();
+
+  // Whether a region is being filled in, which is false before the first region's first line.
+  private boolean inRegion;
+  private int regionLineNumber;
+  private boolean regionHasSize;
+  private int lineNumber;
+  // Told how far parsing has got after each buffer, or null.
+  private Progress progress;
+
+  // Where each of the five fields of a region's first line starts and ends, reused for every line.
+  private final int[] fieldStarts = new int[5];
+  private final int[] fieldEnds = new int[5];
+
+  private RegionParser(int linesBefore) {
+    this(RegionTable.builder());
+    this.lineNumber = linesBefore;
+  }
+
+  /* Makes a parser that adds the regions it parses to the builder, which other regions can also
+   * be added to in between, see parseRegions. */
+  RegionParser(RegionTable.Builder regions) {
+    this(regions, regions);
+  }
+
+  private RegionParser(Sink regions, RegionTable.Builder table) {
+    this.regions = regions;
+    this.table = table;
+  }
+
+  /**
+   * Is given the values of each region of a dump as they are parsed: addRow starts a region, the
+   * setters fill it in, and endRow is called once all of its lines have been parsed and checked.
+   * Values that aren't on a region's lines keep what addRow started them as, which is an empty
+   * pathname, permissions and device, a size of -1 and 0 for everything else.
+   */
+  interface Sink {
+    void addRow(int lineNumber);
+
+    void setStart(long start);
+
+    /* Called with the text of the start address when it isn't in the kernel's format. */
+    void setStartText(String text);
+
+    void setEnd(long end);
+
+    /* Called with the text of the end address when it isn't in the kernel's format. */
+    void setEndText(String text);
+
+    void setOffset(long offset);
+
+    /* Called with the text of the offset when it isn't in the kernel's format. */
+    void setOffsetText(String text);
+
+    void setPermissions(String value);
+
+    void setDevice(String value);
+
+    void setInode(long inode);
+
+    void setPathname(String value);
+
+    /* Sets one of the numeric smaps fields, such as RegionTable.SIZE. */
+    void setField(int field, long value);
+
+    /* Called with a list that is shared by every region with the same flags. */
+    void setVmFlags(List<String> flags);
+
+    /* Called once the last row added is complete. */
+    default void endRow() {}
+  }
+
+  /**
+   * Parses the smaps dump in the stream and returns its regions. Throws a {@link
+   * SmapsFormatException} with the message for the user if the dump is malformed in a known way,
+   * or another IllegalArgumentException or IllegalStateException if it can't be parsed at all.
+   */
+  static RegionTable parse(InputStream in) throws IOException {
+    return parse(in, null);
+  }
+
+  /**
+   * Is told how far the parsing of a dump has got each time a buffer of the dump has been parsed,
+   * such as to show the progress of an upload or the regions parsed so far.
+   */
+  interface Progress {
+    /* Called with the number of regions parsed so far, and a supplier of a copy of the regions
+     * that are complete so far, which costs as much as copying them. */
+    void parsed(int regionCount, Supplier<RegionTable> regionsSoFar);
+  }
+
+  /**
+   * Parses the smaps dump in the stream like {@link #parse(InputStream)}, also telling progress,
+   * if it isn't null, how far it has got after each buffer of the dump.
+   */
+  static RegionTable parse(InputStream in, Progress progress) throws IOException {
+    RegionParser parser = new RegionParser(0);
+    parser.progress = progress;
+    parser.readLines(in);
+    RegionTable regions = parser.finish();
+    if (regions.isEmpty()) {
+      // There wasn't a single region in the file.
+      throw new SmapsFormatException(SmapsFormatException.Reason.NO_REGIONS, 0);
+    }
+    return regions;
+  }
+
+  /**
+   * Parses the smaps dump in the stream, handing each region to the visitor as soon as all of its
+   * lines have been parsed, and returns the number of regions. No region is kept once the visitor
+   * returns, so a dump of any size is parsed in the same memory. Throws a {@link
+   * SmapsFormatException} if the dump is malformed or has no regions, after the regions before
+   * the error have been visited.
+   */
+  static int visit(InputStream in, RegionVisitor visitor) throws IOException {
+    ParsedRegion region = new ParsedRegion(visitor);
+    RegionParser parser = new RegionParser(region, null);
+    parser.readLines(in);
+    if (parser.inRegion) {
+      parser.endRegion();
+    }
+    if (region.count() == 0) {
+      throw new SmapsFormatException(SmapsFormatException.Reason.NO_REGIONS, 0);
+    }
+    return region.count();
+  }
+
+  /**
+   * Parses one chunk of an smaps dump that starts after the given number of lines, so that line
+   * numbers are counted from the start of the whole dump. Unlike {@link #parse}, a chunk doesn't
+   * have to contain any regions.
+   */
+  static RegionTable parseChunk(InputStream in, int linesBefore) throws IOException {
+    RegionParser parser = new RegionParser(linesBefore);
+    parser.readLines(in);
+    return parser.finish();
+  }
+
+  /**
+   * Parses the regions in buf from start to end, whose first line is the one after linesBefore in
+   * the whole dump, and adds them to the builder. The bytes are parsed where they are, without
+   * being copied, and must end with the end of a region, such as the regions of a dump that
+   * changed since an earlier dump of the same process.
+   */
+  void parseRegions(byte[] buf, int start, int end, int linesBefore) {
+    lineNumber = linesBefore;
+    inRegion = false;
+    int lineStart = start;
+    for (int i = start; i < end; i++) {
+      if (buf[i] == '\n') {
+        parseLine(buf, lineStart, trimCarriageReturn(buf, lineStart, i));
+        lineStart = i + 1;
+      }
+    }
+    if (lineStart < end) {
+      parseLine(buf, lineStart, trimCarriageReturn(buf, lineStart, end));
+    }
+    if (inRegion) {
+      endRegion();
+    }
+    inRegion = false;
+  }
+
+  /* Reads the stream into the buffer and hands every complete line to parseLine. A line that is
+   * cut off by the end of the buffer is moved to the front before reading more. */
+  private void readLines(InputStream in) throws IOException {
+    byte[] buf = new byte[BUFFER_SIZE];
+    int filled = 0;
+    int scanned = 0;
+    int read;
+    while ((read = in.read(buf, filled, buf.length - filled)) != -1) {
+      filled += read;
+      int lineStart = 0;
+      for (int i = scanned; i < filled; i++) {
+        if (buf[i] == '\n') {
+          parseLine(buf, lineStart, trimCarriageReturn(buf, lineStart, i));
+          lineStart = i + 1;
+        }
+      }
+      if (progress != null) {
+        // The region being filled in isn't complete until the next one starts.
+        int complete = inRegion ? table.size() - 1 : table.size();
+        progress.parsed(table.size(), () -> table.build(complete));
+      }
+
+      // Keep the unfinished line, growing the buffer if the line fills all of it.
+      filled -= lineStart;
+      System.arraycopy(buf, lineStart, buf, 0, filled);
+      scanned = filled;
+      if (filled == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+    }
+
+    // The last line doesn't have to end in a newline.
+    if (filled > 0) {
+      parseLine(buf, 0, trimCarriageReturn(buf, 0, filled));
+    }
+  }
+
+  /* Checks the last region (if there is one) and returns the table of all the regions. */
+  private RegionTable finish() {
+    if (inRegion) {
+      endRegion();
+    }
+    return table.build();
+  }
+
+  /* Parses one line of the dump, which is in buf from start (inclusive) to end (exclusive). */
+  private void parseLine(byte[] buf, int start, int end) {
+    lineNumber++;
+    try {
+      if (isRegionHeader(buf, start, end)) {
+        // End the previous region (if there is one) and start a new one.
+        if (inRegion) {
+          endRegion();
+        }
+        parseHeader(buf, start, end);
+      } else if (startsWith(buf, start, end, VM_FLAGS)) {
+        // VmFlags is a special case, so is parsed differently.
+        parseVmFlags(buf, start + VM_FLAGS.length, end);
+      } else {
+        parseField(buf, start, end);
+      }
+    } catch (NumberFormatException e) {
+      throw new SmapsFormatException(SmapsFormatException.Reason.BAD_NUMBER, lineNumber, e);
+    }
+  }
+
+  /* Checks that the current region has a valid size field, and tells the sink it is complete. */
+  private void endRegion() {
+    if (!regionHasSize) {
+      throw new SmapsFormatException(SmapsFormatException.Reason.MISSING_SIZE, regionLineNumber);
+    }
+    regions.endRow();
+  }
+
+  /* Parses the first line of a region, ex:
+   * 7fd126400000-7fd12a400000 rw-s 00000000 00:05 30559    /memfd:stan (deleted) */
+  private void parseHeader(byte[] buf, int start, int end) {
+    // Find the first five whitespace separated fields.
+    int pos = start;
+    for (int i = 0; i < 5; i++) {
+      pos = skipWhitespace(buf, pos, end);
+      if (pos == end) {
+        throw new SmapsFormatException(SmapsFormatException.Reason.BAD_FIRST_LINE, lineNumber);
+      }
+      fieldStarts[i] = pos;
+      pos = skipToWhitespace(buf, pos, end);
+      fieldEnds[i] = pos;
+    }
+
+    // Split the address range by the hyphen, which isRegionHeader already checked is there.
+    // ex: 55d225800000-55d225820000
+    int hyphen = indexOf(buf, fieldStarts[0], fieldEnds[0], (byte) '-');
+    int endLocEnd = indexOf(buf, hyphen + 1, fieldEnds[0], (byte) '-');
+    if (endLocEnd == -1) {
+      endLocEnd = fieldEnds[0];
+    }
+
+    // The rest of the line is the pathname (if there is one) and any other details after it, with
+    // the spacing between them reduced to one space. ex: /memfd:stan (deleted)
+    String pathname = parsePathname(buf, skipWhitespace(buf, pos, end), end);
+
+    long startLoc = parseHex(buf, fieldStarts[0], hyphen);
+    long endLoc = parseHex(buf, hyphen + 1, endLocEnd);
+    long inode = parseDecimal(buf, fieldStarts[4], fieldEnds[4]);
+
+    regionLineNumber = lineNumber;
+    regionHasSize = false;
+    inRegion = true;
+    regions.addRow(lineNumber);
+    regions.setStart(startLoc);
+    if (!isKernelHex(buf, fieldStarts[0], hyphen)) {
+      regions.setStartText(ascii(buf, fieldStarts[0], hyphen));
+    }
+    regions.setEnd(endLoc);
+    if (!isKernelHex(buf, hyphen + 1, endLocEnd)) {
+      regions.setEndText(ascii(buf, hyphen + 1, endLocEnd));
+    }
+    regions.setPermissions(strings.get(buf, fieldStarts[1], fieldEnds[1]));
+    // The offset isn't used for anything, so one that isn't a number is kept as it was written.
+    if (isHexNumber(buf, fieldStarts[2], fieldEnds[2])) {
+      regions.setOffset(parseHex(buf, fieldStarts[2], fieldEnds[2]));
+    }
+    if (!isKernelHex(buf, fieldStarts[2], fieldEnds[2])) {
+      regions.setOffsetText(ascii(buf, fieldStarts[2], fieldEnds[2]));
+    }
+    regions.setDevice(strings.get(buf, fieldStarts[3], fieldEnds[3]));
+    regions.setInode(inode);
+    regions.setPathname(pathname);
+  }
+
+  /* Returns the pathname in buf from start to end, which starts and ends with a non-whitespace
+   * byte (or is empty), with every run of whitespace in it replaced by one space. */
+  private String parsePathname(byte[] buf, int start, int end) {
+    // Drop trailing whitespace.
+    while (end > start && isWhitespace(buf[end - 1])) {
+      end--;
+    }
+
+    // Almost every pathname is already single spaced, so it can be looked up as it is.
+    boolean singleSpaced = true;
+    for (int i = start; i < end && singleSpaced; i++) {
+      if (isWhitespace(buf[i]) && (buf[i] != ' ' || isWhitespace(buf[i + 1]))) {
+        singleSpaced = false;
+      }
+    }
+    if (singleSpaced) {
+      return strings.get(buf, start, end);
+    }
+
+    byte[] spaced = new byte[end - start];
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      if (!isWhitespace(buf[i])) {
+        spaced[length++] = buf[i];
+      } else if (!isWhitespace(buf[i - 1])) {
+        spaced[length++] = ' ';
+      }
+    }
+    return strings.get(spaced, 0, length);
+  }
+
+  /* Parses the VmFlags of a line with the "VmFlags" label already removed, ex: : rd ex mr mw me */
+  private void parseVmFlags(byte[] buf, int start, int end) {
+    // Skip the colon after the label.
+    if (start < end && buf[start] == ':') {
+      start++;
+    }
+    start = skipWhitespace(buf, start, end);
+
+    // Regions with the same flags share the same list, so a list is only made the first time a
+    // combination of flags is seen.
+    String flagsLine = strings.get(buf, start, end);
+    List<String> flags = flagLists.get(flagsLine);
+    if (flags == null) {
+      List<String> newFlags = new ArrayList<>();
+      int pos = start;
+      while ((pos = skipWhitespace(buf, pos, end)) < end) {
+        int flagEnd = skipToWhitespace(buf, pos, end);
+        newFlags.add(strings.get(buf, pos, flagEnd));
+        pos = flagEnd;
+      }
+      flags = Collections.unmodifiableList(newFlags);
+      flagLists.put(flagsLine, flags);
+    }
+    if (inRegion) {
+      regions.setVmFlags(flags);
+    }
+  }
+
+  /* Parses a line that isn't the first line or the VmFlags line of a region, ex: Rss:   20516 kB */
+  private void parseField(byte[] buf, int start, int end) {
+    int colon = indexOf(buf, start, end, (byte) ':');
+    if (colon == -1) {
+      throw new SmapsFormatException(SmapsFormatException.Reason.NOT_A_FIELD, lineNumber);
+    }
+
+    // Get the value from all the digits after the colon.
+    long value = 0;
+    boolean hasDigits = false;
+    for (int i = colon + 1; i < end; i++) {
+      int digit = buf[i] - '0';
+      if (digit >= 0 && digit <= 9) {
+        value = appendDigit(value, digit);
+        hasDigits = true;
+      }
+    }
+    if (!hasDigits) {
+      throw new SmapsFormatException(SmapsFormatException.Reason.BAD_NUMBER, lineNumber);
+    }
+
+    // Find which field this is from the name before the colon; unknown fields are skipped.
+    // TODO(sophbohr22): implement logging to identify unknown fields to user.
+    int nameStart = skipWhitespace(buf, start, colon);
+    int nameEnd = colon;
+    while (nameEnd > nameStart && isWhitespace(buf[nameEnd - 1])) {
+      nameEnd--;
+    }
+    int field = fieldIndex(buf, nameStart, nameEnd);
+    if (field != -1 && inRegion) {
+      regions.setField(field, value);
+      if (field == RegionTable.SIZE) {
+        regionHasSize = true;
+      }
+    }
+  }
+
+  /* Returns the index in FIELD_NAMES of the field name in buf from start to end, or -1 if it isn't
+   * one of the known fields. */
+  static int fieldIndex(byte[] buf, int start, int end) {
+    int length = end - start;
+    if (length >= FIELDS_BY_LENGTH.length) {
+      return -1;
+    }
+    byte[][] candidates = FIELDS_BY_LENGTH[length];
+    for (int c = 0; c < candidates.length; c++) {
+      byte[] name = candidates[c];
+      int i = 0;
+      while (i < length && buf[start + i] == name[i]) {
+        i++;
+      }
+      if (i == length) {
+        return FIELD_INDEXES_BY_LENGTH[length][c];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Checks whether the line in buf from start to end is the first line of a new region, which
+   * starts with the address range, for example: 16ec0000000-16efa600000
+   */
+  static boolean isRegionHeader(byte[] buf, int start, int end) {
+    int pos = start;
+    while (pos < end && isHexDigit(buf[pos])) {
+      pos++;
+    }
+    if (pos == start || pos == end || buf[pos] != '-') {
+      return false;
+    }
+    return pos + 1 < end && isHexDigit(buf[pos + 1]);
+  }
+
+  /* Parses a decimal number in buf from start to end the same way Long.parseLong does. */
+  static long parseDecimal(byte[] buf, int start, int end) {
+    boolean negative = start < end && buf[start] == '-';
+    int pos = (negative || (start < end && buf[start] == '+')) ? start + 1 : start;
+    if (pos == end) {
+      throw new NumberFormatException("Empty number");
+    }
+    long value = 0;
+    for (; pos < end; pos++) {
+      int digit = buf[pos] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("Not a decimal number: " + ascii(buf, start, end));
+      }
+      value = appendDigit(value, digit);
+    }
+    return negative ? -value : value;
+  }
+
+  /* Parses the hexadecimal number in buf from start to end as an unsigned 64-bit number. */
+  static long parseHex(byte[] buf, int start, int end) {
+    if (!isHexNumber(buf, start, end)) {
+      throw new NumberFormatException("Not a hexadecimal number: " + ascii(buf, start, end));
+    }
+    long value = 0;
+    for (int pos = start; pos < end; pos++) {
+      value = (value << 4) | Character.digit(buf[pos], 16);
+    }
+    return value;
+  }
+
+  /* Whether buf from start to end is a hexadecimal number that fits in 64 bits. */
+  private static boolean isHexNumber(byte[] buf, int start, int end) {
+    if (start == end) {
+      return false;
+    }
+    int pos = start;
+    while (pos < end - 1 && buf[pos] == '0') {
+      pos++;
+    }
+    if (end - pos > 16) {
+      return false;
+    }
+    for (; pos < end; pos++) {
+      if (!isHexDigit(buf[pos])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Whether buf from start to end is a number written the way the kernel writes addresses and
+   * offsets, which RegionTable.formatHex gives back exactly. */
+  private static boolean isKernelHex(byte[] buf, int start, int end) {
+    int length = end - start;
+    if (length < 8 || length > 16 || (length > 8 && buf[start] == '0')) {
+      return false;
+    }
+    for (int pos = start; pos < end; pos++) {
+      if (!isHexDigit(buf[pos]) || (buf[pos] >= 'A' && buf[pos] <= 'F')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Returns value * 10 + digit, throwing a NumberFormatException if it doesn't fit in a long. */
+  private static long appendDigit(long value, int digit) {
+    if (value > (Long.MAX_VALUE - digit) / 10) {
+      throw new NumberFormatException("Number too large");
+    }
+    return value * 10 + digit;
+  }
+
+  private static boolean isHexDigit(byte b) {
+    return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+  }
+
+  /* Whether the byte is whitespace the way \s is in a regular expression. */
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+  }
+
+  private static int skipWhitespace(byte[] buf, int pos, int end) {
+    while (pos < end && isWhitespace(buf[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipToWhitespace(byte[] buf, int pos, int end) {
+    while (pos < end && !isWhitespace(buf[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int indexOf(byte[] buf, int start, int end, byte b) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(byte[] buf, int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buf[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Removes the carriage return of a Windows line ending from the end of a line. */
+  private static int trimCarriageReturn(byte[] buf, int start, int end) {
+    return (end > start && buf[end - 1] == '\r') ? end - 1 : end;
+  }
+
+  private static String ascii(byte[] buf, int start, int end) {
+    return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * A hash table from byte sequences to the Strings they decode to, so that a String that repeats
+   * in the dump is only decoded and stored once.
+   */
+  private static final class StringTable {
+    private byte[][] keys = new byte[256][];
+    private String[] values = new String[256];
+    private int size;
+
+    /* Returns the String for the UTF-8 bytes in buf from start to end. */
+    String get(byte[] buf, int start, int end) {
+      int hash = hash(buf, start, end);
+      int mask = keys.length - 1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        byte[] key = keys[i];
+        if (key == null) {
+          String value = new String(buf, start, end - start, StandardCharsets.UTF_8);
+          keys[i] = Arrays.copyOfRange(buf, start, end);
+          values[i] = value;
+          if (++size * 2 > keys.length) {
+            resize();
+          }
+          return value;
+        }
+        if (equals(key, buf, start, end)) {
+          return values[i];
+        }
+      }
+    }
+
+    private void resize() {
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+      keys = new byte[oldKeys.length * 2][];
+      values = new String[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldKeys[j] != null) {
+          int i = hash(oldKeys[j], 0, oldKeys[j].length) & mask;
+          while (keys[i] != null) {
+            i = (i + 1) & mask;
+          }
+          keys[i] = oldKeys[j];
+          values[i] = oldValues[j];
+        }
+      }
+    }
+
+    private static int hash(byte[] buf, int start, int end) {
+      int hash = 1;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + buf[i];
+      }
+      // Spread the bits, since only the low bits are used to pick a slot.
+      return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] buf, int start, int end) {
+      if (key.length != end - start) {
+        return false;
+      }
+      for (int i = 0; i < key.length; i++) {
+        if (key[i] != buf[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
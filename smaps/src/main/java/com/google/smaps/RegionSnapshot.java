@@ -0,0 +1,447 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link RegionTable} to a binary file in the same columns it has in memory, and opens
+ * the file again by memory-mapping the columns, so that a table of any size is ready to use in
+ * milliseconds without reading or copying the rows.
+ *
+ * <p>A snapshot is little-endian, and is laid out as:
+ * <ul>
+ *   <li>the magic number "SMAPSNAP", the version, the number of rows, and the length of the
+ *       dictionaries;
+ *   <li>the offset in the file of every column, or 0 for a field that is 0 in every row;
+ *   <li>the dictionaries: the distinct permissions, devices and pathnames, the VmFlags names and
+ *       lists, and the texts of addresses and offsets that aren't in the kernel's format;
+ *   <li>the columns, each starting at a multiple of 8 bytes: line numbers, starts, ends, offsets,
+ *       permissions, devices, inodes, pathnames, VmFlags, then each numeric field.
+ * </ul>
+ */
+final class RegionSnapshot {
+  private static final byte[] MAGIC = "SMAPSNAP".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+
+  // The columns before the fields, and their widths in bytes.
+  private static final int[] FIXED_WIDTHS = {4, 8, 8, 8, 1, 4, 8, 4, 8};
+  private static final int COLUMN_COUNT = FIXED_WIDTHS.length + RegionTable.FIELD_COUNT;
+
+  // The magic number, version, row count and dictionary length, then the column offsets.
+  private static final int HEADER_BYTES = MAGIC.length + 4 + 4 + 8;
+  private static final int PREAMBLE_BYTES = HEADER_BYTES + 8 * COLUMN_COUNT;
+
+  private RegionSnapshot() {}
+
+  /* Writes the table to the file, replacing it only once the whole snapshot has been written. */
+  static void write(RegionTable table, Path file) throws IOException {
+    Path partial = file.resolveSibling(file.getFileName() + ".partial");
+    try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      write(table, channel);
+      channel.force(false);
+    }
+    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /* Opens the snapshot in the file, mapping its columns rather than reading them. The columns stay
+   * mapped until the table is garbage collected, and the file must not be changed meanwhile. */
+  static RegionTable open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_BYTES);
+      readFully(channel, preamble, 0);
+      preamble.flip();
+      int size = readHeader(preamble);
+      ByteBuffer dictionaries = ByteBuffer.allocate((int) preamble.getLong(HEADER_BYTES - 8));
+      readFully(channel, dictionaries, PREAMBLE_BYTES);
+
+      // Each column is mapped on its own, so that a column can be up to 2 GB.
+      Buffer[] columns = new Buffer[COLUMN_COUNT];
+      for (int c = 0; c < COLUMN_COUNT; c++) {
+        long offset = preamble.getLong(HEADER_BYTES + 8 * c);
+        if (offset != 0) {
+          long length = (long) size * width(c);
+          checkColumn(offset, length, channel.size());
+          columns[c] = view(channel.map(FileChannel.MapMode.READ_ONLY, offset, length), c);
+        }
+      }
+      return RegionTable.of(columns(size, columns, dictionaries.array()));
+    }
+  }
+
+  /* Returns the snapshot of the table as bytes. */
+  static byte[] toBytes(RegionTable table) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    write(table, Channels.newChannel(bytes));
+    return bytes.toByteArray();
+  }
+
+  /* Reads a snapshot from bytes, whose columns are used in place. */
+  static RegionTable fromBytes(byte[] snapshot) throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap(snapshot).order(ByteOrder.LITTLE_ENDIAN);
+    if (bytes.remaining() < PREAMBLE_BYTES) {
+      throw new IOException("Snapshot is too short");
+    }
+    int size = readHeader(bytes);
+    int dictionaryLength = (int) bytes.getLong(HEADER_BYTES - 8);
+    checkColumn(PREAMBLE_BYTES, dictionaryLength, snapshot.length);
+    byte[] dictionaries = Arrays.copyOfRange(
+        snapshot, PREAMBLE_BYTES, PREAMBLE_BYTES + dictionaryLength);
+
+    Buffer[] columns = new Buffer[COLUMN_COUNT];
+    for (int c = 0; c < COLUMN_COUNT; c++) {
+      long offset = bytes.getLong(HEADER_BYTES + 8 * c);
+      if (offset != 0) {
+        long length = (long) size * width(c);
+        checkColumn(offset, length, snapshot.length);
+        ByteBuffer column = ByteBuffer.wrap(snapshot, (int) offset, (int) length).slice();
+        columns[c] = view(column, c);
+      }
+    }
+    return RegionTable.of(columns(size, columns, dictionaries));
+  }
+
+  private static void write(RegionTable table, WritableByteChannel channel) throws IOException {
+    RegionTable.Columns columns = table.columns();
+    Buffer[] buffers = buffers(columns);
+    byte[] dictionaries = writeDictionaries(columns);
+
+    // Lay out the columns after the dictionaries, each one aligned to 8 bytes.
+    long[] offsets = new long[COLUMN_COUNT];
+    long offset = align(PREAMBLE_BYTES + dictionaries.length);
+    for (int c = 0; c < COLUMN_COUNT; c++) {
+      if (buffers[c] != null) {
+        offsets[c] = offset;
+        offset = align(offset + (long) columns.size * width(c));
+      }
+    }
+
+    ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    preamble.put(MAGIC).putInt(VERSION).putInt(columns.size).putLong(dictionaries.length);
+    for (long columnOffset : offsets) {
+      preamble.putLong(columnOffset);
+    }
+    preamble.flip();
+    writeFully(channel, preamble);
+    writeFully(channel, ByteBuffer.wrap(dictionaries));
+    long written = PREAMBLE_BYTES + dictionaries.length;
+
+    // Write each column in chunks, converted to little-endian bytes.
+    ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    for (int c = 0; c < COLUMN_COUNT; c++) {
+      if (buffers[c] == null) {
+        continue;
+      }
+      written += writeFully(channel, ByteBuffer.allocate((int) (offsets[c] - written)));
+      for (int row = 0; row < columns.size; row++) {
+        if (chunk.remaining() < 8) {
+          chunk.flip();
+          written += writeFully(channel, chunk);
+          chunk.clear();
+        }
+        putValue(chunk, buffers[c], c, row);
+      }
+      chunk.flip();
+      written += writeFully(channel, chunk);
+      chunk.clear();
+    }
+  }
+
+  /* The columns of the table in the order they are in a snapshot. */
+  private static Buffer[] buffers(RegionTable.Columns columns) {
+    Buffer[] buffers = new Buffer[COLUMN_COUNT];
+    Buffer[] fixed = {
+      columns.lineNumbers, columns.starts, columns.ends, columns.offsets, columns.permissions,
+      columns.devices, columns.inodes, columns.pathnames, columns.vmFlags
+    };
+    System.arraycopy(fixed, 0, buffers, 0, fixed.length);
+    System.arraycopy(columns.fields, 0, buffers, fixed.length, RegionTable.FIELD_COUNT);
+    return buffers;
+  }
+
+  /* Makes the table's columns and dictionaries from a snapshot's columns and dictionary bytes. */
+  private static RegionTable.Columns columns(int size, Buffer[] buffers, byte[] dictionaries)
+      throws IOException {
+    for (int c = 0; c < FIXED_WIDTHS.length; c++) {
+      if (buffers[c] == null) {
+        throw new IOException("Snapshot is missing column " + c);
+      }
+    }
+    RegionTable.Columns columns = new RegionTable.Columns();
+    columns.size = size;
+    columns.lineNumbers = (IntBuffer) buffers[0];
+    columns.starts = (LongBuffer) buffers[1];
+    columns.ends = (LongBuffer) buffers[2];
+    columns.offsets = (LongBuffer) buffers[3];
+    columns.permissions = (ByteBuffer) buffers[4];
+    columns.devices = (IntBuffer) buffers[5];
+    columns.inodes = (LongBuffer) buffers[6];
+    columns.pathnames = (IntBuffer) buffers[7];
+    columns.vmFlags = (LongBuffer) buffers[8];
+    columns.fields = new LongBuffer[RegionTable.FIELD_COUNT];
+    for (int f = 0; f < RegionTable.FIELD_COUNT; f++) {
+      columns.fields[f] = (LongBuffer) buffers[FIXED_WIDTHS.length + f];
+    }
+    readDictionaries(dictionaries, columns);
+    checkIds(columns.permissions, size, columns.permissionValues.length, "permission");
+    checkIds(columns.devices, size, columns.deviceValues.length, "device");
+    checkIds(columns.pathnames, size, columns.pathnameValues.length, "pathname");
+    return columns;
+  }
+
+  /* Checks that every id in a column of the rows is in its dictionary of count values, so that a
+   * corrupt snapshot is rejected when it is opened rather than failing whenever its rows are
+   * read. */
+  private static void checkIds(Buffer ids, int size, int count, String name) throws IOException {
+    for (int row = 0; row < size; row++) {
+      int id = ids instanceof ByteBuffer ? ((ByteBuffer) ids).get(row) : ((IntBuffer) ids).get(row);
+      if (id < 0 || id >= count) {
+        throw new IOException("Snapshot has a " + name + " id outside its dictionary");
+      }
+    }
+  }
+
+  private static byte[] writeDictionaries(RegionTable.Columns columns) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeStrings(out, columns.permissionValues);
+    writeStrings(out, columns.deviceValues);
+    writeStrings(out, columns.pathnameValues);
+    writeStrings(out, columns.flagNames);
+
+    // The flag lists are written as the bits of their flags, in the order they were printed.
+    List<String> flagNames = Arrays.asList(columns.flagNames);
+    out.writeInt(columns.flagLists.size());
+    for (Map.Entry<Long, List<String>> list : columns.flagLists.entrySet()) {
+      out.writeLong(list.getKey());
+      out.writeInt(list.getValue().size());
+      for (String flag : list.getValue()) {
+        out.writeInt(flagNames.indexOf(flag));
+      }
+    }
+
+    for (Map<Integer, String> texts :
+        Arrays.asList(columns.startTexts, columns.endTexts, columns.offsetTexts)) {
+      out.writeInt(texts.size());
+      for (Map.Entry<Integer, String> text : texts.entrySet()) {
+        out.writeInt(text.getKey());
+        writeString(out, text.getValue());
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void readDictionaries(byte[] dictionaries, RegionTable.Columns columns)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(dictionaries));
+    columns.permissionValues = readStrings(in);
+    columns.deviceValues = readStrings(in);
+    columns.pathnameValues = readStrings(in);
+    columns.flagNames = readStrings(in);
+
+    columns.flagLists = new HashMap<>();
+    int listCount = in.readInt();
+    for (int i = 0; i < listCount; i++) {
+      long mask = in.readLong();
+      String[] flags = new String[in.readInt()];
+      for (int j = 0; j < flags.length; j++) {
+        flags[j] = columns.flagNames[in.readInt()];
+      }
+      columns.flagLists.put(mask, Collections.unmodifiableList(Arrays.asList(flags)));
+    }
+
+    List<Map<Integer, String>> allTexts = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      Map<Integer, String> texts = new HashMap<>();
+      int textCount = in.readInt();
+      for (int i = 0; i < textCount; i++) {
+        texts.put(in.readInt(), readString(in));
+      }
+      allTexts.add(texts);
+    }
+    columns.startTexts = allTexts.get(0);
+    columns.endTexts = allTexts.get(1);
+    columns.offsetTexts = allTexts.get(2);
+
+    // The permissions are one byte, so there can't be more distinct ones than that. The ids in the
+    // columns are checked against the dictionaries once they've all been read.
+    if (columns.permissionValues.length > Byte.MAX_VALUE + 1) {
+      throw new IOException("Snapshot has too many permissions");
+    }
+  }
+
+  private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+    out.writeInt(values.length);
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static String[] readStrings(DataInputStream in) throws IOException {
+    String[] values = new String[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = readString(in);
+    }
+    return values;
+  }
+
+  /* Strings are written as their length and UTF-8 bytes, since pathnames can be longer than
+   * writeUTF allows. */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /* Checks the magic number and version and returns the number of rows. */
+  private static int readHeader(ByteBuffer header) throws IOException {
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    byte[] magic = new byte[MAGIC.length];
+    header.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not an smaps snapshot");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unknown snapshot version " + version);
+    }
+    int size = header.getInt();
+    if (size < 0) {
+      throw new IOException("Snapshot has a negative number of rows");
+    }
+    return size;
+  }
+
+  private static void checkColumn(long offset, long length, long fileLength) throws IOException {
+    if (offset < PREAMBLE_BYTES || length < 0 || length > Integer.MAX_VALUE
+        || offset + length > fileLength) {
+      throw new IOException("Snapshot column is outside the file");
+    }
+  }
+
+  /* Views a column's bytes as a buffer of the column's type. */
+  private static Buffer view(ByteBuffer bytes, int column) {
+    bytes.order(ByteOrder.LITTLE_ENDIAN);
+    switch (width(column)) {
+      case 1:
+        return bytes;
+      case 4:
+        return bytes.asIntBuffer();
+      default:
+        return bytes.asLongBuffer();
+    }
+  }
+
+  private static void putValue(ByteBuffer chunk, Buffer column, int c, int row) {
+    switch (width(c)) {
+      case 1:
+        chunk.put(((ByteBuffer) column).get(row));
+        break;
+      case 4:
+        chunk.putInt(((IntBuffer) column).get(row));
+        break;
+      default:
+        chunk.putLong(((LongBuffer) column).get(row));
+    }
+  }
+
+  private static int width(int column) {
+    return column < FIXED_WIDTHS.length ? FIXED_WIDTHS[column] : 8;
+  }
+
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Snapshot is too short");
+      }
+    }
+  }
+
+  private static int writeFully(WritableByteChannel channel, ByteBuffer buffer)
+      throws IOException {
+    int length = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    return length;
+  }
+
+  /** The serialized form of a table, which is its snapshot. */
+  static final class SerializedTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] snapshot;
+
+    SerializedTable(RegionTable table) throws ObjectStreamException {
+      try {
+        snapshot = toBytes(table);
+      } catch (IOException e) {
+        // Writing to memory doesn't fail.
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      try {
+        return fromBytes(snapshot);
+      } catch (IOException e) {
+        InvalidObjectException invalid = new InvalidObjectException(e.getMessage());
+        invalid.initCause(e);
+        throw invalid;
+      }
+    }
+  }
+}
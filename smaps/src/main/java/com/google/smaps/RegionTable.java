@@ -0,0 +1,1141 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.annotations.JsonAdapter;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.reflect.Type;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The regions of a parsed smaps dump, stored column by column instead of as one object per region.
+ * Addresses, offsets and every numeric smaps field are kept in primitive buffers, permissions,
+ * devices and pathnames are numbers into a table of the distinct values, and VmFlags are a bitmask.
+ * The buffers are arrays for a table that was built, and can be memory-mapped from a file for a
+ * table that was opened from a {@link RegionSnapshot}.
+ *
+ * <p>The table is also a list of {@link Region}s, where each element is a small view that reads its
+ * row of the table, so code written for a list of regions keeps working on it.
+ */
+final class RegionTable extends AbstractList<Region> implements RandomAccess, Serializable {
+  // The numeric smaps fields, as indexes of the field columns.
+  static final int SIZE = 0;
+  static final int KERNEL_PAGE_SIZE = 1;
+  static final int MMU_PAGE_SIZE = 2;
+  static final int RSS = 3;
+  static final int PSS = 4;
+  static final int SHARED_CLEAN = 5;
+  static final int SHARED_DIRTY = 6;
+  static final int PRIVATE_CLEAN = 7;
+  static final int PRIVATE_DIRTY = 8;
+  static final int REFERENCED = 9;
+  static final int ANONYMOUS = 10;
+  static final int LAZY_FREE = 11;
+  static final int ANON_HUGE_PAGES = 12;
+  static final int SHMEM_HUGE_PAGES = 13;
+  static final int SHMEM_PMD_MAPPED = 14;
+  static final int SHARED_HUGETLB = 15;
+  static final int PRIVATE_HUGETLB = 16;
+  static final int HUGE_PFN_MAP = 17;
+  static final int SWAP = 18;
+  static final int SWAP_PSS = 19;
+  static final int LOCKED = 20;
+  static final int FIELD_COUNT = 21;
+
+  // The names of the numeric fields as they are written in an smaps dump, by index.
+  static final String[] FIELD_NAMES = {
+    "Size", "KernelPageSize", "MMUPageSize", "Rss", "Pss", "Shared_Clean", "Shared_Dirty",
+    "Private_Clean", "Private_Dirty", "Referenced", "Anonymous", "LazyFree", "AnonHugePages",
+    "ShmemHugePages", "ShmemPmdMapped", "Shared_Hugetlb", "Private_Hugetlb", "HugePFNMap", "Swap",
+    "SwapPss", "Locked"
+  };
+
+  // VmFlags that have the same bit in every table, in the order the kernel prints them. Any other
+  // flag gets the next free bit when it is first seen.
+  private static final String[] KNOWN_VM_FLAGS = {
+    "rd", "wr", "ex", "sh", "mr", "mw", "me", "ms", "gd", "um", "pf", "dw", "uw", "lo", "io", "sr",
+    "rr", "dc", "de", "lf", "ac", "nr", "ht", "sf", "nl", "ar", "wf", "dd", "bt", "sd", "mm", "hg",
+    "nh", "mg", "mt", "ui", "ss", "sl", "dp"
+  };
+
+  // The names of the numeric fields as Region's properties, for the text of a row.
+  private static final String[] FIELD_PROPERTIES = {
+    "size", "kernelPageSize", "mmuPageSize", "rss", "pss", "sharedClean", "sharedDirty",
+    "privateClean", "privateDirty", "referenced", "anonymous", "lazyFree", "anonHugePages",
+    "shmemHugePages", "shmemPmdMapped", "sharedHugetlb", "privateHugetlb", "hugePFNMap", "swap",
+    "swapPss", "locked"
+  };
+
+  private final int size;
+  private final IntBuffer lineNumbers;
+  private final LongBuffer starts;
+  private final LongBuffer ends;
+  private final LongBuffer offsets;
+  private final ByteBuffer permissions;
+  private final IntBuffer devices;
+  private final LongBuffer inodes;
+  private final IntBuffer pathnames;
+  private final LongBuffer vmFlags;
+  // Indexed by field first, then by row. A field that is 0 in every row has no column.
+  private final LongBuffer[] fields;
+
+  // The distinct values of the dictionary-encoded columns.
+  private final String[] permissionValues;
+  private final String[] deviceValues;
+  private final String[] pathnameValues;
+  // The name of each VmFlags bit, and the flags of each bitmask in the order they were printed.
+  private final String[] flagNames;
+  private final Map<Long, List<String>> flagLists;
+
+  // Addresses and offsets whose text isn't in the kernel's format (lowercase hexadecimal, padded
+  // with zeroes to at least 8 digits), by row, so that they are given back exactly as they were
+  // written. These are empty for dumps read from /proc.
+  private final Map<Integer, String> startTexts;
+  private final Map<Integer, String> endTexts;
+  private final Map<Integer, String> offsetTexts;
+
+  private RegionTable(Columns columns) {
+    size = columns.size;
+    lineNumbers = columns.lineNumbers;
+    starts = columns.starts;
+    ends = columns.ends;
+    offsets = columns.offsets;
+    permissions = columns.permissions;
+    devices = columns.devices;
+    inodes = columns.inodes;
+    pathnames = columns.pathnames;
+    vmFlags = columns.vmFlags;
+    fields = columns.fields;
+    permissionValues = columns.permissionValues;
+    deviceValues = columns.deviceValues;
+    pathnameValues = columns.pathnameValues;
+    flagNames = columns.flagNames;
+    flagLists = columns.flagLists;
+    startTexts = columns.startTexts;
+    endTexts = columns.endTexts;
+    offsetTexts = columns.offsetTexts;
+  }
+
+  /* Creates a table from its columns, such as the ones of a snapshot. */
+  static RegionTable of(Columns columns) {
+    return new RegionTable(columns);
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /* Returns the regions as a table, copying them into one if they aren't already. */
+  static RegionTable copyOf(List<Region> regions) {
+    if (regions instanceof RegionTable) {
+      return (RegionTable) regions;
+    }
+    Builder builder = builder();
+    for (Region r : regions) {
+      builder.add(r);
+    }
+    return builder.build();
+  }
+
+  /* Returns the index of the numeric field with the name, ignoring case, or -1 if there isn't one.
+   * ex: "Rss" or "private_dirty" */
+  static int fieldIndex(String name) {
+    for (int f = 0; f < FIELD_COUNT; f++) {
+      if (FIELD_NAMES[f].equalsIgnoreCase(name)) {
+        return f;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns a view of the region in the given row. */
+  @Override
+  public Region get(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+    return new RegionView(row);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  int lineNumber(int row) {
+    return lineNumbers.get(row);
+  }
+
+  /* The start address of the region (inclusive), as an unsigned 64-bit number. */
+  long start(int row) {
+    return starts.get(row);
+  }
+
+  /* The end address of the region (exclusive), as an unsigned 64-bit number. */
+  long end(int row) {
+    return ends.get(row);
+  }
+
+  long offset(int row) {
+    return offsets.get(row);
+  }
+
+  String startLoc(int row) {
+    return hexText(starts.get(row), startTexts, row);
+  }
+
+  String endLoc(int row) {
+    return hexText(ends.get(row), endTexts, row);
+  }
+
+  String offsetText(int row) {
+    return hexText(offsets.get(row), offsetTexts, row);
+  }
+
+  String permissions(int row) {
+    return permissionValues[permissions.get(row)];
+  }
+
+  String device(int row) {
+    return deviceValues[devices.get(row)];
+  }
+
+  long inode(int row) {
+    return inodes.get(row);
+  }
+
+  String pathname(int row) {
+    return pathnameValues[pathnames.get(row)];
+  }
+
+  /* Whether the other table has its regions at the same addresses, with the same pathnames, row
+   * for row, so that only their other columns can differ. */
+  boolean sameMappings(RegionTable other) {
+    if (other == this) {
+      return true;
+    }
+    if (other.size != size) {
+      return false;
+    }
+    for (int row = 0; row < size; row++) {
+      if (start(row) != other.start(row) || end(row) != other.end(row)
+          || !pathname(row).equals(other.pathname(row))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* The number of the region's pathname in the table of distinct pathnames. */
+  int pathnameId(int row) {
+    return pathnames.get(row);
+  }
+
+  /* The number of distinct pathnames in the table, including the empty one. */
+  int pathnameCount() {
+    return pathnameValues.length;
+  }
+
+  /* The distinct pathname with the given number. */
+  String pathnameValue(int pathnameId) {
+    return pathnameValues[pathnameId];
+  }
+
+  /* The region's VmFlags as a bitmask, where bit i is set if the flag flagName(i) is. */
+  long vmFlagsMask(int row) {
+    return vmFlags.get(row);
+  }
+
+  /* The name of the VmFlags bit, or null if no flag has that bit in this table. */
+  String flagName(int bit) {
+    return bit < flagNames.length ? flagNames[bit] : null;
+  }
+
+  List<String> vmFlags(int row) {
+    long mask = vmFlags.get(row);
+    List<String> flags = flagLists.get(mask);
+    if (flags != null) {
+      return flags;
+    }
+
+    // Spell out the flags in bit order.
+    List<String> spelled = new ArrayList<>();
+    for (int bit = 0; bit < flagNames.length; bit++) {
+      if ((mask & (1L << bit)) != 0) {
+        spelled.add(flagNames[bit]);
+      }
+    }
+    return Collections.unmodifiableList(spelled);
+  }
+
+  /* The value of one of the numeric smaps fields, such as RegionTable.SIZE, in kB. */
+  long field(int field, int row) {
+    LongBuffer column = fields[field];
+    return column == null ? 0 : column.get(row);
+  }
+
+  /* The table's columns and dictionaries, such as for writing them to a snapshot. */
+  Columns columns() {
+    Columns columns = new Columns();
+    columns.size = size;
+    columns.lineNumbers = lineNumbers;
+    columns.starts = starts;
+    columns.ends = ends;
+    columns.offsets = offsets;
+    columns.permissions = permissions;
+    columns.devices = devices;
+    columns.inodes = inodes;
+    columns.pathnames = pathnames;
+    columns.vmFlags = vmFlags;
+    columns.fields = fields;
+    columns.permissionValues = permissionValues;
+    columns.deviceValues = deviceValues;
+    columns.pathnameValues = pathnameValues;
+    columns.flagNames = flagNames;
+    columns.flagLists = flagLists;
+    columns.startTexts = startTexts;
+    columns.endTexts = endTexts;
+    columns.offsetTexts = offsetTexts;
+    return columns;
+  }
+
+  /* Roughly how many bytes of heap the table takes, for caches that have a memory budget. Columns
+   * mapped from a snapshot aren't on the heap, so they aren't counted. */
+  long estimatedBytes() {
+    // The columns, then the dictionaries and texts, counting each string as its characters and
+    // about 56 bytes of object and map entry overhead.
+    long bytes = heapBytes(lineNumbers, 4) + heapBytes(starts, 8) + heapBytes(ends, 8)
+        + heapBytes(offsets, 8) + heapBytes(permissions, 1) + heapBytes(devices, 4)
+        + heapBytes(inodes, 8) + heapBytes(pathnames, 4) + heapBytes(vmFlags, 8);
+    for (LongBuffer column : fields) {
+      bytes += heapBytes(column, 8);
+    }
+    for (String[] values : Arrays.asList(permissionValues, deviceValues, pathnameValues)) {
+      for (String value : values) {
+        bytes += 56 + 2L * value.length();
+      }
+    }
+    bytes += 56L * (flagLists.size() + startTexts.size() + endTexts.size() + offsetTexts.size());
+    for (Map<Integer, String> texts : Arrays.asList(startTexts, endTexts, offsetTexts)) {
+      for (String text : texts.values()) {
+        bytes += 2L * text.length();
+      }
+    }
+    return bytes;
+  }
+
+  private static long heapBytes(Buffer column, int width) {
+    return column == null || column.isDirect() ? 0 : (long) column.capacity() * width;
+  }
+
+  /* A table is serialized as a snapshot, which is far smaller and faster than serializing its
+   * arrays and maps, and works for mapped columns too. */
+  private Object writeReplace() throws ObjectStreamException {
+    return new RegionSnapshot.SerializedTable(this);
+  }
+
+  /* Formats an address or offset the way the kernel does, unless it was written differently. */
+  private static String hexText(long value, Map<Integer, String> texts, int row) {
+    if (!texts.isEmpty()) {
+      String text = texts.get(row);
+      if (text != null) {
+        return text;
+      }
+    }
+    return formatHex(value);
+  }
+
+  /* Formats the number as lowercase hexadecimal padded with zeroes to at least 8 digits, which is
+   * how the kernel prints addresses and offsets in smaps. */
+  static String formatHex(long value) {
+    String hex = Long.toHexString(value);
+    if (hex.length() >= 8) {
+      return hex;
+    }
+    return "00000000".substring(hex.length()) + hex;
+  }
+
+  /* Whether the region in the row has the same values as the region in the other table's row.
+   * Addresses and offsets that both tables keep as numbers are compared as numbers, since a number
+   * only has its own text when that text isn't the one formatHex gives. */
+  private boolean rowEquals(int row, RegionTable other, int otherRow) {
+    if (lineNumber(row) != other.lineNumber(otherRow)
+        || !sameHex(starts.get(row), startTexts, row, other.starts.get(otherRow),
+            other.startTexts, otherRow)
+        || !sameHex(ends.get(row), endTexts, row, other.ends.get(otherRow), other.endTexts,
+            otherRow)
+        || !sameHex(offsets.get(row), offsetTexts, row, other.offsets.get(otherRow),
+            other.offsetTexts, otherRow)
+        || !permissions(row).equals(other.permissions(otherRow))
+        || !device(row).equals(other.device(otherRow))
+        || inode(row) != other.inode(otherRow)
+        || !pathname(row).equals(other.pathname(otherRow))) {
+      return false;
+    }
+    for (int f = 0; f < FIELD_COUNT; f++) {
+      if (field(f, row) != other.field(f, otherRow)) {
+        return false;
+      }
+    }
+    return vmFlags(row).equals(other.vmFlags(otherRow));
+  }
+
+  /* Whether the region in the row has the same values as the region, as Region.equals compares
+   * them. */
+  private boolean rowEquals(int row, Region r) {
+    return lineNumber(row) == r.lineNumber()
+        && isHexText(starts.get(row), startTexts, row, r.startLoc())
+        && isHexText(ends.get(row), endTexts, row, r.endLoc())
+        && isHexText(offsets.get(row), offsetTexts, row, r.offset())
+        && permissions(row).equals(r.permissions())
+        && device(row).equals(r.device())
+        && inode(row) == r.inode()
+        && pathname(row).equals(r.pathname())
+        && field(SIZE, row) == r.size()
+        && field(KERNEL_PAGE_SIZE, row) == r.kernelPageSize()
+        && field(MMU_PAGE_SIZE, row) == r.mmuPageSize()
+        && field(RSS, row) == r.rss()
+        && field(PSS, row) == r.pss()
+        && field(SHARED_CLEAN, row) == r.sharedClean()
+        && field(SHARED_DIRTY, row) == r.sharedDirty()
+        && field(PRIVATE_CLEAN, row) == r.privateClean()
+        && field(PRIVATE_DIRTY, row) == r.privateDirty()
+        && field(REFERENCED, row) == r.referenced()
+        && field(ANONYMOUS, row) == r.anonymous()
+        && field(LAZY_FREE, row) == r.lazyFree()
+        && field(ANON_HUGE_PAGES, row) == r.anonHugePages()
+        && field(SHMEM_HUGE_PAGES, row) == r.shmemHugePages()
+        && field(SHMEM_PMD_MAPPED, row) == r.shmemPmdMapped()
+        && field(SHARED_HUGETLB, row) == r.sharedHugetlb()
+        && field(PRIVATE_HUGETLB, row) == r.privateHugetlb()
+        && field(HUGE_PFN_MAP, row) == r.hugePFNMap()
+        && field(SWAP, row) == r.swap()
+        && field(SWAP_PSS, row) == r.swapPss()
+        && field(LOCKED, row) == r.locked()
+        && vmFlags(row).equals(r.vmFlags());
+  }
+
+  /* The hash code of the region in the row, which is the one Region.hashCode gives for a region
+   * with the same values. */
+  private int rowHashCode(int row) {
+    int h = 1;
+    h *= 1000003;
+    h ^= lineNumber(row);
+    h *= 1000003;
+    h ^= hexHashCode(starts.get(row), startTexts, row);
+    h *= 1000003;
+    h ^= hexHashCode(ends.get(row), endTexts, row);
+    h *= 1000003;
+    h ^= permissions(row).hashCode();
+    h *= 1000003;
+    h ^= hexHashCode(offsets.get(row), offsetTexts, row);
+    h *= 1000003;
+    h ^= device(row).hashCode();
+    h *= 1000003;
+    h ^= Long.hashCode(inode(row));
+    h *= 1000003;
+    h ^= pathname(row).hashCode();
+    for (int f = 0; f < FIELD_COUNT; f++) {
+      h *= 1000003;
+      h ^= Long.hashCode(field(f, row));
+    }
+    h *= 1000003;
+    h ^= vmFlags(row).hashCode();
+    return h;
+  }
+
+  /* The text of the region in the row, which is the one Region.toString gives for a region with
+   * the same values. */
+  private String rowToString(int row) {
+    StringBuilder text = new StringBuilder("Region{")
+        .append("lineNumber=").append(lineNumber(row))
+        .append(", startLoc=").append(startLoc(row))
+        .append(", endLoc=").append(endLoc(row))
+        .append(", permissions=").append(permissions(row))
+        .append(", offset=").append(offsetText(row))
+        .append(", device=").append(device(row))
+        .append(", inode=").append(inode(row))
+        .append(", pathname=").append(pathname(row));
+    for (int f = 0; f < FIELD_COUNT; f++) {
+      text.append(", ").append(FIELD_PROPERTIES[f]).append('=').append(field(f, row));
+    }
+    return text.append(", vmFlags=").append(vmFlags(row)).append('}').toString();
+  }
+
+  /* Whether the hexadecimal texts of two values are the same, where either may have kept its own
+   * text. */
+  private static boolean sameHex(long value, Map<Integer, String> texts, int row, long otherValue,
+      Map<Integer, String> otherTexts, int otherRow) {
+    String text = texts.isEmpty() ? null : texts.get(row);
+    String otherText = otherTexts.isEmpty() ? null : otherTexts.get(otherRow);
+    if (text == null && otherText == null) {
+      return value == otherValue;
+    }
+    return text != null && text.equals(otherText);
+  }
+
+  /* Whether the text is the value's hexadecimal text, without formatting the value. */
+  private static boolean isHexText(long value, Map<Integer, String> texts, int row, String text) {
+    String own = texts.isEmpty() ? null : texts.get(row);
+    if (own != null) {
+      return own.equals(text);
+    }
+    int digits = hexDigits(value);
+    if (text.length() != digits) {
+      return false;
+    }
+    for (int i = 0; i < digits; i++) {
+      if (text.charAt(i) != hexDigit(value, digits - 1 - i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* The hash code of the value's hexadecimal text, without formatting the value. */
+  private static int hexHashCode(long value, Map<Integer, String> texts, int row) {
+    String own = texts.isEmpty() ? null : texts.get(row);
+    if (own != null) {
+      return own.hashCode();
+    }
+    int hash = 0;
+    for (int i = hexDigits(value) - 1; i >= 0; i--) {
+      hash = 31 * hash + hexDigit(value, i);
+    }
+    return hash;
+  }
+
+  /* The number of digits formatHex gives the value. */
+  private static int hexDigits(long value) {
+    return Math.max(8, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+  }
+
+  /* The lowercase hexadecimal digit of the value that is worth 16 to the power of the place. */
+  private static char hexDigit(long value, int place) {
+    return Character.forDigit((int) (value >>> (4 * place)) & 0xf, 16);
+  }
+
+  /** Builds a table one region at a time, such as from the values {@link RegionParser} parses. */
+  static final class Builder implements RegionParser.Sink {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private int[] lineNumbers = new int[INITIAL_CAPACITY];
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private byte[] permissions = new byte[INITIAL_CAPACITY];
+    private int[] devices = new int[INITIAL_CAPACITY];
+    private long[] inodes = new long[INITIAL_CAPACITY];
+    private int[] pathnames = new int[INITIAL_CAPACITY];
+    private long[] vmFlags = new long[INITIAL_CAPACITY];
+    private long[][] fields = new long[FIELD_COUNT][INITIAL_CAPACITY];
+
+    private final List<String> permissionValues = new ArrayList<>();
+    private final Map<String, Integer> permissionIds = new HashMap<>();
+    private final List<String> deviceValues = new ArrayList<>();
+    private final Map<String, Integer> deviceIds = new HashMap<>();
+    private final List<String> pathnameValues = new ArrayList<>();
+    private final Map<String, Integer> pathnameIds = new HashMap<>();
+    private final List<String> flagNames = new ArrayList<>(Arrays.asList(KNOWN_VM_FLAGS));
+    private final Map<String, Integer> flagBits = new HashMap<>();
+    private final Map<Long, List<String>> flagLists = new HashMap<>();
+    private final Map<List<String>, Long> flagMasks = new HashMap<>();
+    private final Map<Integer, String> startTexts = new HashMap<>();
+    private final Map<Integer, String> endTexts = new HashMap<>();
+    private final Map<Integer, String> offsetTexts = new HashMap<>();
+
+    // The table rows were last copied from, and the ids in this table of its dictionary values and
+    // VmFlags masks, or -1 for the ones not copied yet.
+    private RegionTable copiedFrom;
+    private int[] copiedPermissions;
+    private int[] copiedDevices;
+    private int[] copiedPathnames;
+    private final Map<Long, Long> copiedMasks = new HashMap<>();
+
+    private Builder() {
+      for (int bit = 0; bit < KNOWN_VM_FLAGS.length; bit++) {
+        flagBits.put(KNOWN_VM_FLAGS[bit], bit);
+      }
+    }
+
+    /* The number of regions added so far. */
+    int size() {
+      return size;
+    }
+
+    /**
+     * Adds a row for a region whose first line is on the given line number. The setters below
+     * fill in the rest of the last row added; the pathname starts out empty, the size as -1 and
+     * every other value as 0.
+     */
+    @Override
+    public void addRow(int lineNumber) {
+      if (size == starts.length) {
+        grow();
+      }
+      int row = size++;
+      lineNumbers[row] = lineNumber;
+      fields[SIZE][row] = -1;
+      setPathname("");
+      setPermissions("");
+      setDevice("");
+    }
+
+    /* Moves the last row added to another line, such as a region copied from an earlier dump. */
+    void setLineNumber(int lineNumber) {
+      lineNumbers[size - 1] = lineNumber;
+    }
+
+    @Override
+    public void setStart(long start) {
+      starts[size - 1] = start;
+    }
+
+    /* Keeps the text of the start address, for when it isn't in the kernel's format. */
+    @Override
+    public void setStartText(String text) {
+      startTexts.put(size - 1, text);
+    }
+
+    @Override
+    public void setEnd(long end) {
+      ends[size - 1] = end;
+    }
+
+    /* Keeps the text of the end address, for when it isn't in the kernel's format. */
+    @Override
+    public void setEndText(String text) {
+      endTexts.put(size - 1, text);
+    }
+
+    @Override
+    public void setOffset(long offset) {
+      offsets[size - 1] = offset;
+    }
+
+    /* Keeps the text of the offset, for when it isn't in the kernel's format. */
+    @Override
+    public void setOffsetText(String text) {
+      offsetTexts.put(size - 1, text);
+    }
+
+    @Override
+    public void setPermissions(String value) {
+      int id = lookup(value, permissionValues, permissionIds);
+      if (id > Byte.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many different permissions");
+      }
+      permissions[size - 1] = (byte) id;
+    }
+
+    @Override
+    public void setDevice(String value) {
+      devices[size - 1] = lookup(value, deviceValues, deviceIds);
+    }
+
+    @Override
+    public void setInode(long inode) {
+      inodes[size - 1] = inode;
+    }
+
+    @Override
+    public void setPathname(String value) {
+      pathnames[size - 1] = lookup(value, pathnameValues, pathnameIds);
+    }
+
+    /* Sets one of the numeric smaps fields, such as RegionTable.SIZE. */
+    @Override
+    public void setField(int field, long value) {
+      fields[field][size - 1] = value;
+    }
+
+    @Override
+    public void setVmFlags(List<String> flags) {
+      Long mask = flagMasks.get(flags);
+      if (mask == null) {
+        long newMask = 0;
+        for (String flag : flags) {
+          newMask |= 1L << flagBit(flag);
+        }
+        mask = newMask;
+        List<String> copy = Collections.unmodifiableList(new ArrayList<>(flags));
+        flagMasks.put(copy, mask);
+        flagLists.putIfAbsent(mask, copy);
+      }
+      vmFlags[size - 1] = mask;
+    }
+
+    /* Adds a copy of the region to the table. */
+    Builder add(Region r) {
+      addRow(r.lineNumber());
+      setStart(parseHexText(r.startLoc()));
+      setEnd(parseHexText(r.endLoc()));
+      setOffset(parseHexText(r.offset()));
+      if (!r.startLoc().equals(formatHex(starts[size - 1]))) {
+        setStartText(r.startLoc());
+      }
+      if (!r.endLoc().equals(formatHex(ends[size - 1]))) {
+        setEndText(r.endLoc());
+      }
+      if (!r.offset().equals(formatHex(offsets[size - 1]))) {
+        setOffsetText(r.offset());
+      }
+      setPermissions(r.permissions());
+      setDevice(r.device());
+      setInode(r.inode());
+      setPathname(r.pathname());
+      long[] values = {
+        r.size(), r.kernelPageSize(), r.mmuPageSize(), r.rss(), r.pss(), r.sharedClean(),
+        r.sharedDirty(), r.privateClean(), r.privateDirty(), r.referenced(), r.anonymous(),
+        r.lazyFree(), r.anonHugePages(), r.shmemHugePages(), r.shmemPmdMapped(),
+        r.sharedHugetlb(), r.privateHugetlb(), r.hugePFNMap(), r.swap(), r.swapPss(), r.locked()
+      };
+      for (int f = 0; f < FIELD_COUNT; f++) {
+        setField(f, values[f]);
+      }
+      setVmFlags(r.vmFlags());
+      return this;
+    }
+
+    /* Adds every region of the table to this one, in order. */
+    Builder addAll(RegionTable table) {
+      for (int row = 0; row < table.size; row++) {
+        copyRow(table, row);
+      }
+      for (Map.Entry<Integer, String> text : table.startTexts.entrySet()) {
+        startTexts.put(size - table.size + text.getKey(), text.getValue());
+      }
+      for (Map.Entry<Integer, String> text : table.endTexts.entrySet()) {
+        endTexts.put(size - table.size + text.getKey(), text.getValue());
+      }
+      for (Map.Entry<Integer, String> text : table.offsetTexts.entrySet()) {
+        offsetTexts.put(size - table.size + text.getKey(), text.getValue());
+      }
+      return this;
+    }
+
+    /* Adds one region of the table to this one, without making a Region of it. */
+    Builder add(RegionTable table, int row) {
+      copyRow(table, row);
+      if (table.startTexts.containsKey(row)) {
+        setStartText(table.startTexts.get(row));
+      }
+      if (table.endTexts.containsKey(row)) {
+        setEndText(table.endTexts.get(row));
+      }
+      if (table.offsetTexts.containsKey(row)) {
+        setOffsetText(table.offsetTexts.get(row));
+      }
+      return this;
+    }
+
+    /* Copies a row of the table. The ids of the table's permissions, devices, pathnames and
+     * VmFlags in this one are kept while rows are copied from the same table, so that copying
+     * many rows looks each value up only once. */
+    private void copyRow(RegionTable table, int row) {
+      if (table != copiedFrom) {
+        copiedFrom = table;
+        copiedPermissions = newIds(table.permissionValues.length);
+        copiedDevices = newIds(table.deviceValues.length);
+        copiedPathnames = newIds(table.pathnameValues.length);
+        copiedMasks.clear();
+      }
+      addRow(table.lineNumber(row));
+      int last = size - 1;
+      starts[last] = table.start(row);
+      ends[last] = table.end(row);
+      offsets[last] = table.offset(row);
+      inodes[last] = table.inode(row);
+      int permission = table.permissions.get(row);
+      if (copiedPermissions[permission] == -1) {
+        setPermissions(table.permissionValues[permission]);
+        copiedPermissions[permission] = permissions[last];
+      }
+      permissions[last] = (byte) copiedPermissions[permission];
+      int device = table.devices.get(row);
+      if (copiedDevices[device] == -1) {
+        copiedDevices[device] = lookup(table.deviceValues[device], deviceValues, deviceIds);
+      }
+      devices[last] = copiedDevices[device];
+      int pathname = table.pathnames.get(row);
+      if (copiedPathnames[pathname] == -1) {
+        copiedPathnames[pathname] =
+            lookup(table.pathnameValues[pathname], pathnameValues, pathnameIds);
+      }
+      pathnames[last] = copiedPathnames[pathname];
+      for (int f = 0; f < FIELD_COUNT; f++) {
+        LongBuffer column = table.fields[f];
+        fields[f][last] = column == null ? 0 : column.get(row);
+      }
+      long mask = table.vmFlags.get(row);
+      Long copiedMask = copiedMasks.get(mask);
+      if (copiedMask == null) {
+        setVmFlags(table.vmFlags(row));
+        copiedMasks.put(mask, vmFlags[last]);
+      } else {
+        vmFlags[last] = copiedMask;
+      }
+    }
+
+    private static int[] newIds(int count) {
+      int[] ids = new int[count];
+      Arrays.fill(ids, -1);
+      return ids;
+    }
+
+    RegionTable build() {
+      return build(size);
+    }
+
+    /* Makes a table of the first rows that have been added so far, such as the regions of a dump
+     * that has only been partly parsed. The builder can still be added to afterwards. */
+    RegionTable build(int rows) {
+      Columns columns = new Columns();
+      columns.size = rows;
+      columns.lineNumbers = IntBuffer.wrap(Arrays.copyOf(lineNumbers, rows));
+      columns.starts = LongBuffer.wrap(Arrays.copyOf(starts, rows));
+      columns.ends = LongBuffer.wrap(Arrays.copyOf(ends, rows));
+      columns.offsets = LongBuffer.wrap(Arrays.copyOf(offsets, rows));
+      columns.permissions = ByteBuffer.wrap(Arrays.copyOf(permissions, rows));
+      columns.devices = IntBuffer.wrap(Arrays.copyOf(devices, rows));
+      columns.inodes = LongBuffer.wrap(Arrays.copyOf(inodes, rows));
+      columns.pathnames = IntBuffer.wrap(Arrays.copyOf(pathnames, rows));
+      columns.vmFlags = LongBuffer.wrap(Arrays.copyOf(vmFlags, rows));
+      columns.fields = new LongBuffer[FIELD_COUNT];
+      for (int f = 0; f < FIELD_COUNT; f++) {
+        if (!isZero(fields[f], rows)) {
+          columns.fields[f] = LongBuffer.wrap(Arrays.copyOf(fields[f], rows));
+        }
+      }
+      columns.permissionValues = permissionValues.toArray(new String[0]);
+      columns.deviceValues = deviceValues.toArray(new String[0]);
+      columns.pathnameValues = pathnameValues.toArray(new String[0]);
+      columns.flagNames = flagNames.toArray(new String[0]);
+      columns.flagLists = new HashMap<>(flagLists);
+      columns.startTexts = firstRows(startTexts, rows);
+      columns.endTexts = firstRows(endTexts, rows);
+      columns.offsetTexts = firstRows(offsetTexts, rows);
+      return new RegionTable(columns);
+    }
+
+    private static Map<Integer, String> firstRows(Map<Integer, String> texts, int rows) {
+      Map<Integer, String> first = new HashMap<>();
+      for (Map.Entry<Integer, String> text : texts.entrySet()) {
+        if (text.getKey() < rows) {
+          first.put(text.getKey(), text.getValue());
+        }
+      }
+      return first;
+    }
+
+    private static boolean isZero(long[] values, int length) {
+      for (int i = 0; i < length; i++) {
+        if (values[i] != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /* Returns the number of the value in the dictionary, adding it if it's new. */
+    private static int lookup(String value, List<String> values, Map<String, Integer> ids) {
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = values.size();
+        values.add(value);
+        ids.put(value, id);
+      }
+      return id;
+    }
+
+    private int flagBit(String flag) {
+      Integer bit = flagBits.get(flag);
+      if (bit == null) {
+        bit = flagNames.size();
+        if (bit >= Long.SIZE) {
+          throw new IllegalArgumentException("More than " + Long.SIZE + " different VmFlags");
+        }
+        flagNames.add(flag);
+        flagBits.put(flag, bit);
+      }
+      return bit;
+    }
+
+    private static long parseHexText(String text) {
+      return Long.parseUnsignedLong(text, 16);
+    }
+
+    private void grow() {
+      int capacity = starts.length * 2;
+      lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      permissions = Arrays.copyOf(permissions, capacity);
+      devices = Arrays.copyOf(devices, capacity);
+      inodes = Arrays.copyOf(inodes, capacity);
+      pathnames = Arrays.copyOf(pathnames, capacity);
+      vmFlags = Arrays.copyOf(vmFlags, capacity);
+      for (int f = 0; f < FIELD_COUNT; f++) {
+        fields[f] = Arrays.copyOf(fields[f], capacity);
+      }
+    }
+  }
+
+  /**
+   * The columns and dictionaries of a table, as they are given to and taken from a snapshot. Every
+   * column has one value per row; a field column is null if the field is 0 in every row.
+   */
+  static final class Columns {
+    int size;
+    IntBuffer lineNumbers;
+    LongBuffer starts;
+    LongBuffer ends;
+    LongBuffer offsets;
+    ByteBuffer permissions;
+    IntBuffer devices;
+    LongBuffer inodes;
+    IntBuffer pathnames;
+    LongBuffer vmFlags;
+    LongBuffer[] fields;
+    String[] permissionValues;
+    String[] deviceValues;
+    String[] pathnameValues;
+    String[] flagNames;
+    Map<Long, List<String>> flagLists;
+    Map<Integer, String> startTexts;
+    Map<Integer, String> endTexts;
+    Map<Integer, String> offsetTexts;
+  }
+
+  /**
+   * A region that reads its values from a row of the table. It only holds the row number, and
+   * equals any other region with the same values, with the same hash code and text as a {@link
+   * Region} built with them. They are all read straight from the columns, so comparing, hashing or
+   * printing a view doesn't copy it into a Region first.
+   */
+  @JsonAdapter(RegionViewSerializer.class)
+  private final class RegionView extends Region {
+    private final int row;
+
+    RegionView(int row) {
+      this.row = row;
+    }
+
+    @Override
+    int lineNumber() {
+      return RegionTable.this.lineNumber(row);
+    }
+
+    @Override
+    String startLoc() {
+      return RegionTable.this.startLoc(row);
+    }
+
+    @Override
+    String endLoc() {
+      return RegionTable.this.endLoc(row);
+    }
+
+    @Override
+    String permissions() {
+      return RegionTable.this.permissions(row);
+    }
+
+    @Override
+    String offset() {
+      return offsetText(row);
+    }
+
+    @Override
+    String device() {
+      return RegionTable.this.device(row);
+    }
+
+    @Override
+    long inode() {
+      return RegionTable.this.inode(row);
+    }
+
+    @Override
+    String pathname() {
+      return RegionTable.this.pathname(row);
+    }
+
+    @Override
+    long size() {
+      return field(SIZE, row);
+    }
+
+    @Override
+    long kernelPageSize() {
+      return field(KERNEL_PAGE_SIZE, row);
+    }
+
+    @Override
+    long mmuPageSize() {
+      return field(MMU_PAGE_SIZE, row);
+    }
+
+    @Override
+    long rss() {
+      return field(RSS, row);
+    }
+
+    @Override
+    long pss() {
+      return field(PSS, row);
+    }
+
+    @Override
+    long sharedClean() {
+      return field(SHARED_CLEAN, row);
+    }
+
+    @Override
+    long sharedDirty() {
+      return field(SHARED_DIRTY, row);
+    }
+
+    @Override
+    long privateClean() {
+      return field(PRIVATE_CLEAN, row);
+    }
+
+    @Override
+    long privateDirty() {
+      return field(PRIVATE_DIRTY, row);
+    }
+
+    @Override
+    long referenced() {
+      return field(REFERENCED, row);
+    }
+
+    @Override
+    long anonymous() {
+      return field(ANONYMOUS, row);
+    }
+
+    @Override
+    long lazyFree() {
+      return field(LAZY_FREE, row);
+    }
+
+    @Override
+    long anonHugePages() {
+      return field(ANON_HUGE_PAGES, row);
+    }
+
+    @Override
+    long shmemHugePages() {
+      return field(SHMEM_HUGE_PAGES, row);
+    }
+
+    @Override
+    long shmemPmdMapped() {
+      return field(SHMEM_PMD_MAPPED, row);
+    }
+
+    @Override
+    long sharedHugetlb() {
+      return field(SHARED_HUGETLB, row);
+    }
+
+    @Override
+    long privateHugetlb() {
+      return field(PRIVATE_HUGETLB, row);
+    }
+
+    @Override
+    long hugePFNMap() {
+      return field(HUGE_PFN_MAP, row);
+    }
+
+    @Override
+    long swap() {
+      return field(SWAP, row);
+    }
+
+    @Override
+    long swapPss() {
+      return field(SWAP_PSS, row);
+    }
+
+    @Override
+    long locked() {
+      return field(LOCKED, row);
+    }
+
+    @Override
+    List<String> vmFlags() {
+      return RegionTable.this.vmFlags(row);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof RegionView) {
+        RegionView that = (RegionView) o;
+        return (that.table() == RegionTable.this && that.row == row)
+            || rowEquals(row, that.table(), that.row);
+      }
+      return o instanceof Region && rowEquals(row, (Region) o);
+    }
+
+    @Override
+    public int hashCode() {
+      return rowHashCode(row);
+    }
+
+    @Override
+    public String toString() {
+      return rowToString(row);
+    }
+
+    private RegionTable table() {
+      return RegionTable.this;
+    }
+
+    /* A view is serialized as a standalone region, rather than with its whole table. */
+    private Object writeReplace() {
+      return Region.copyOf(this);
+    }
+  }
+
+  /** Writes a view to JSON the same way Gson writes any other region. */
+  private static final class RegionViewSerializer implements JsonSerializer<Region> {
+    @Override
+    public JsonElement serialize(Region src, Type typeOfSrc, JsonSerializationContext context) {
+      return context.serialize(Region.copyOf(src));
+    }
+  }
+}
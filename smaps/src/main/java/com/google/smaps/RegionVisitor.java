@@ -0,0 +1,27 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+/**
+ * Is handed each region of an smaps dump as soon as it is parsed by {@link
+ * RegionParser#visit}, so that totals, the largest regions or a histogram can be worked out as the
+ * dump is read, without every region of it being held at once.
+ */
+interface RegionVisitor {
+  /* Called with each region of the dump, in order. The region is reused for the next one once
+   * this returns, so it must be copied with toRegion() to be kept. Throwing stops the parsing. */
+  void visit(ParsedRegion region);
+}
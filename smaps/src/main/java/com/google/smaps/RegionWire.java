@@ -0,0 +1,130 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the address ranges, sizes, permissions and pathnames of regions in a compact binary form,
+ * sent instead of Json to clients that ask for it with an Accept header of {@link #MEDIA_TYPE}.
+ * Each address takes 8 bytes instead of 16 hex characters and quotes, and the columns can be read
+ * in the browser as typed arrays without parsing any text.
+ *
+ * <p>The regions are little-endian, and are laid out as:
+ * <ul>
+ *   <li>the magic number "SMRW", the version, the number of rows, and the number of strings, each
+ *       4 bytes;
+ *   <li>the columns, which start at byte 16: the starts, ends and sizes in kB as 8-byte unsigned
+ *       numbers, then the permissions and pathnames as 4-byte numbers of strings;
+ *   <li>the strings, each as its 4-byte length then that many bytes of UTF-8.
+ * </ul>
+ * So in JavaScript, with n rows, the starts are {@code new BigUint64Array(buffer, 16, n)}.
+ */
+final class RegionWire {
+  static final String MEDIA_TYPE = "application/x-smaps-regions";
+
+  static final int MAGIC = 0x57524d53; // "SMRW", little-endian.
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 16;
+
+  // The columns are written through a buffer of this many bytes.
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private RegionWire() {}
+
+  /* Whether the request asks for regions in this form rather than as Json. */
+  static boolean isAccepted(String accept) {
+    return accept != null && accept.contains(MEDIA_TYPE);
+  }
+
+  /* Writes the regions of the table in the given rows, in that order, or every region if rows is
+   * null. The stream is not closed. */
+  static void write(RegionTable table, int[] rows, OutputStream out) throws IOException {
+    int n = rows == null ? table.size() : rows.length;
+
+    // The strings are the table's distinct pathnames, then the distinct permissions.
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < table.pathnameCount(); i++) {
+      strings.add(table.pathnameValue(i));
+    }
+    Map<String, Integer> permissionIds = new HashMap<>();
+    int[] permissions = new int[n];
+    for (int i = 0; i < n; i++) {
+      String value = table.permissions(row(rows, i));
+      Integer id = permissionIds.get(value);
+      if (id == null) {
+        id = strings.size();
+        permissionIds.put(value, id);
+        strings.add(value);
+      }
+      permissions[i] = id;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(strings.size());
+    for (int i = 0; i < n; i++) {
+      buffer = ensure(buffer, Long.BYTES, out).putLong(table.start(row(rows, i)));
+    }
+    for (int i = 0; i < n; i++) {
+      buffer = ensure(buffer, Long.BYTES, out).putLong(table.end(row(rows, i)));
+    }
+    for (int i = 0; i < n; i++) {
+      buffer = ensure(buffer, Long.BYTES, out).putLong(table.field(RegionTable.SIZE, row(rows, i)));
+    }
+    for (int i = 0; i < n; i++) {
+      buffer = ensure(buffer, Integer.BYTES, out).putInt(permissions[i]);
+    }
+    for (int i = 0; i < n; i++) {
+      buffer = ensure(buffer, Integer.BYTES, out).putInt(table.pathnameId(row(rows, i)));
+    }
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      buffer = ensure(buffer, Integer.BYTES, out).putInt(bytes.length);
+      for (int written = 0; written < bytes.length; ) {
+        int length = Math.min(bytes.length - written, BUFFER_BYTES);
+        buffer = ensure(buffer, length, out).put(bytes, written, length);
+        written += length;
+      }
+    }
+    flush(buffer, out);
+  }
+
+  private static int row(int[] rows, int i) {
+    return rows == null ? i : rows[i];
+  }
+
+  /* Returns the buffer with room for the bytes, writing out what it holds if it is too full. */
+  private static ByteBuffer ensure(ByteBuffer buffer, int bytes, OutputStream out)
+      throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(buffer, out);
+    }
+    return buffer;
+  }
+
+  private static void flush(ByteBuffer buffer, OutputStream out) throws IOException {
+    out.write(buffer.array(), 0, buffer.position());
+    buffer.clear();
+  }
+}
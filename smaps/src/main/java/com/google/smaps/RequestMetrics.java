@@ -0,0 +1,57 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Records how long each request to the servlets takes in {@link Metrics}. For an upload, this is
+ * only the time until it is queued; the stages of parsing it are recorded by {@link FileUpload}.
+ */
+@WebFilter(
+    filterName = "RequestMetrics",
+    servletNames = {"FileUpload", "UploadProgress", "Histogram", "MemoryMap", "SearchAddress",
+        "BatchSearchAddress", "Diff", "Series", "Capture"},
+    asyncSupported = true)
+public class RequestMetrics implements Filter {
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    long start = System.nanoTime();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      HttpServletRequest httpRequest = (HttpServletRequest) request;
+      Metrics.REQUEST_SECONDS
+          .labels(httpRequest.getServletPath(), httpRequest.getMethod())
+          .observeSince(start);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
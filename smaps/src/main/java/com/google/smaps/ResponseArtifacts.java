@@ -0,0 +1,284 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Holds the encoded bytes of responses that only depend on a dataset and the request's parameters,
+ * such as the memory map and the histogram, so that each one is made once and then sent as a copy
+ * of its bytes, already compressed if the browser accepts gzip. Each response has a strong ETag
+ * made from the dataset's digest and the response's key, so a browser that already has a response
+ * is answered with 304 Not Modified without the response being made or sent at all. Responses of
+ * partial datasets change as more of the dump is parsed, so they are made every time instead, and
+ * those of a live capture's samples, which are only shown to one session and replaced many times a
+ * second, are made for each request without being held.
+ */
+final class ResponseArtifacts {
+  static final String JSON = "application/json";
+
+  // The heap budget of the shared artifacts, in bytes. Set with the smaps.artifactBytes system
+  // property in appengine-web.xml, and a sixteenth of the heap if it isn't set.
+  private static final long BUDGET_BYTES =
+      Long.getLong("smaps.artifactBytes", Runtime.getRuntime().maxMemory() / 16);
+
+  // The bytes of a response are compressed and written in chunks of this size.
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private static final ResponseArtifacts SHARED = new ResponseArtifacts(BUDGET_BYTES);
+
+  /** Writes the Json of a response. */
+  interface Body {
+    void write(JsonWriter json) throws IOException;
+  }
+
+  /** Writes the bytes of a response that isn't Json, such as regions in {@link RegionWire}. */
+  interface BinaryBody {
+    void write(OutputStream out) throws IOException;
+  }
+
+  /** The encoded bytes of a response, as they are and gzipped. */
+  static final class Artifact {
+    private final byte[] bytes;
+    private final byte[] gzipped;
+
+    private Artifact(byte[] bytes, byte[] gzipped) {
+      this.bytes = bytes;
+      this.gzipped = gzipped;
+    }
+
+    byte[] bytes() {
+      return bytes;
+    }
+
+    byte[] gzipped() {
+      return gzipped;
+    }
+  }
+
+  private final Cache<String, Artifact> artifacts;
+
+  ResponseArtifacts(long budgetBytes) {
+    // The weights are in kB so that large artifacts still fit in an int.
+    artifacts = CacheBuilder.newBuilder()
+        .recordStats()
+        .maximumWeight(Math.max(0, budgetBytes / 1024))
+        .weigher((String key, Artifact artifact) ->
+            (artifact.bytes.length + artifact.gzipped.length) / 1024 + 1)
+        .build();
+  }
+
+  /* The artifacts shared by every session of this server. */
+  static ResponseArtifacts shared() {
+    return SHARED;
+  }
+
+  /**
+   * Sends the Json response with the key, which must name everything other than the dataset the
+   * response depends on, such as "memorymap" or the bins and bounds of a histogram. The response
+   * is made with body the first time it is asked for.
+   */
+  void serve(HttpServletRequest request, HttpServletResponse response, Dataset dataset, String key,
+      Body body) throws IOException {
+    serve(request, response, dataset, key, JSON, toBinary(body));
+  }
+
+  /** Sends the response with the key and content type, made with body the first time. */
+  void serve(HttpServletRequest request, HttpServletResponse response, Dataset dataset, String key,
+      String contentType, BinaryBody body) throws IOException {
+    JsonResponse.setComplete(response, dataset);
+    response.setContentType(contentType);
+    if (JSON.equals(contentType)) {
+      response.setCharacterEncoding("UTF-8");
+    }
+    String encoding = contentEncoding(request.getHeader("Accept-Encoding"));
+    if (encoding != null) {
+      response.setHeader("Content-Encoding", encoding);
+    }
+    response.setHeader("Vary", "Accept, Accept-Encoding, Cookie");
+
+    String name = metricName(key);
+    if (!dataset.isComplete()) {
+      long start = System.nanoTime();
+      CountingOutputStream sent = new CountingOutputStream(response.getOutputStream());
+      try (OutputStream out = compress(sent, encoding)) {
+        body.write(out);
+      }
+      Metrics.RESPONSE_ENCODE_SECONDS.labels(name).observeSince(start);
+      Metrics.RESPONSE_BYTES.labels(name).observe(sent.getByteCount());
+      return;
+    }
+
+    // The session picks the dataset, so only the browser may keep a response, and it must check
+    // that the response is still current before using it.
+    String etag = etag(dataset, contentType + "|" + key, encoding);
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "private, no-cache");
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    Artifact artifact = dataset.isSample()
+        ? make(name, body)
+        : get(dataset, contentType + "|" + key, name, body);
+    byte[] bytes;
+    if ("gzip".equals(encoding)) {
+      bytes = artifact.gzipped;
+    } else if ("deflate".equals(encoding)) {
+      // Browsers that take deflate also take gzip, so deflate isn't worth keeping.
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream(artifact.gzipped.length);
+      try (OutputStream out = compress(deflated, encoding)) {
+        out.write(artifact.bytes);
+      }
+      bytes = deflated.toByteArray();
+    } else {
+      bytes = artifact.bytes;
+    }
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+    Metrics.RESPONSE_BYTES.labels(name).observe(bytes.length);
+  }
+
+  /* Returns the artifact of the Json response with the key, making it with body if it isn't
+   * held. */
+  Artifact get(Dataset dataset, String key, Body body) throws IOException {
+    return get(dataset, JSON + "|" + key, metricName(key), toBinary(body));
+  }
+
+  private Artifact get(Dataset dataset, String key, String name, BinaryBody body)
+      throws IOException {
+    try {
+      return artifacts.get(dataset.digest() + "|" + key, () -> make(name, body));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /* The number of artifacts held. */
+  long size() {
+    return artifacts.size();
+  }
+
+  /* The hits, misses and evictions of the artifacts since they were first held. */
+  CacheStats stats() {
+    return artifacts.stats();
+  }
+
+  private static Artifact make(String name, BinaryBody body) throws IOException {
+    long start = System.nanoTime();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    body.write(bytes);
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream(bytes.size() / 4);
+    try (OutputStream out = compress(gzipped, "gzip")) {
+      bytes.writeTo(out);
+    }
+    Metrics.RESPONSE_ENCODE_SECONDS.labels(name).observeSince(start);
+    return new Artifact(bytes.toByteArray(), gzipped.toByteArray());
+  }
+
+  /* The metrics of a response are named by the first part of its key, ex: histogram. */
+  private static String metricName(String key) {
+    int end = key.indexOf('|');
+    return end == -1 ? key : key.substring(0, end);
+  }
+
+  /* Writes the Json of body to a stream as UTF-8. */
+  private static BinaryBody toBinary(Body body) {
+    return out -> {
+      JsonWriter json = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      json.setHtmlSafe(true);
+      body.write(json);
+      json.flush();
+    };
+  }
+
+  /* Returns a stream that compresses what is written to out with the encoding, or one that writes
+   * it as it is if there is no encoding. */
+  private static OutputStream compress(OutputStream out, String encoding) throws IOException {
+    if ("gzip".equals(encoding)) {
+      return new GZIPOutputStream(out, BUFFER_BYTES);
+    } else if ("deflate".equals(encoding)) {
+      return new DeflaterOutputStream(out, new Deflater(), BUFFER_BYTES);
+    }
+    return new BufferedOutputStream(out, BUFFER_BYTES);
+  }
+
+  /* The strong ETag of the response, which is the same for as long as the dataset is, and differs
+   * between the plain and each compressed response. */
+  static String etag(Dataset dataset, String key, String encoding) {
+    MessageDigest digest = DatasetStore.newDigest();
+    digest.update((dataset.digest() + "|" + key).getBytes(StandardCharsets.UTF_8));
+    String tag = DatasetStore.toHex(digest).substring(0, 32);
+    return "\"" + (encoding == null ? tag : tag + "-" + encoding) + "\"";
+  }
+
+  /* Whether the If-None-Match header has the ETag, or is "*". */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /* The encoding to compress a response with, "gzip" or "deflate", or null to send it as it is.
+   * Gzip is picked over deflate, and an encoding with a quality of 0 is not accepted. */
+  static String contentEncoding(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    boolean deflate = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) {
+        continue;
+      }
+      if (name.equals("gzip")) {
+        return "gzip";
+      }
+      deflate |= name.equals("deflate");
+    }
+    return deflate ? "deflate" : null;
+  }
+}
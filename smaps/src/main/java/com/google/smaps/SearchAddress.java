@@ -16,11 +16,9 @@
 
 package com.google.smaps;
 
-import com.google.common.collect.ImmutableRangeMap;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -79,9 +77,6 @@ public class SearchAddress extends HttpServlet {
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Response will be a Json.
-    response.setContentType("application/json");
-
     // Get this user's session.
     HttpSession session = request.getSession();
 
@@ -93,31 +88,34 @@ public class SearchAddress extends HttpServlet {
     // address is a valid address for this memory map.
     int index = -1;
     Region r = null;
-    session.setAttribute("index", index);
-    session.setAttribute("r", r);
 
     // If addressBigInt is null, it means the search box was blank, reset was clicked, or the
     // address wasn't a valid hex number, so index and r should stay at -1 and null.
     BigInteger addressBigInt = (BigInteger) session.getAttribute("addressBigInt");
     if (addressBigInt != null) {
-      // Get the list of regions.
-      List<Region> regions = (List<Region>) session.getAttribute("regionList");
-
-      // Get the range map from the session, which is able to take in an address, figure out which
-      // address range it lies within, and return the region corresponding to that range.
-      ImmutableRangeMap<BigInteger, Region> addressRangeMap =
-          (ImmutableRangeMap<BigInteger, Region>) session.getAttribute("rangeMap");
-
-      // Use the range map to get the region in which the address the user entered is in, if there
-      // is no match, r is set to null.
-      r = addressRangeMap.get(addressBigInt);
-      session.setAttribute("r", r);
-
-      // Get the index of the region in the list, which is also the ID of the region in the memory
-      // map. If r is null, then set addressErrorMessage to the proper error message.
-      if (r != null) {
-        index = regions.indexOf(r);
-        session.setAttribute("index", index);
+      // Get the dataset of the file this user uploaded.
+      Dataset dataset = DatasetStore.forSession(session);
+      if (dataset == null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, DatasetStore.NO_DATASET_MESSAGE);
+        return;
+      }
+      List<Region> regions = dataset.regions();
+
+      // Get the address index of the dataset, which is able to take in an address, figure out
+      // which address range it lies within, and return the index of the region with that range.
+      AddressIndex addressIndex = dataset.addressIndex();
+
+      // Use the address index to get the index of the region in the list the address the user
+      // entered is in, which is also the ID of the region in the memory map. Addresses are 64 bits,
+      // so a longer address can't be in any region. If there is no match, index stays -1.
+      if (addressBigInt.bitLength() <= Long.SIZE) {
+        index = addressIndex.find(addressBigInt.longValue());
+      }
+
+      // If a region was found, get it. If not, then set addressErrorMessage to the proper error
+      // message.
+      if (index != -1) {
+        r = regions.get(index);
       } else {
         String originalAddress = (String) session.getAttribute("originalAddress");
         addressErrorMessage = "No region in which address [" + originalAddress + "] can be found.";
@@ -125,21 +123,15 @@ public class SearchAddress extends HttpServlet {
       }
     }
 
-    // Put all the fields that will be turned into Jsons into an array.
-    Object[] fields = {address, index, addressErrorMessage, r};
-
-    // Create a list that all the Json objects will go into.
-    List<String> jsonList = new ArrayList<String>();
-
-    // Go through each field and turn it into a Json, and add it to the list of Jsons.
-    for (Object field : fields) {
-      Gson gson = new Gson();
-      String json = gson.toJson(field);
-      jsonList.add(json);
-    }
-
-    // Write Json list to memory-map.js.
-    response.getWriter().println(jsonList);
+    // Write all the fields to memory-map.js as a Json array.
+    JsonWriter json = JsonResponse.start(response);
+    json.beginArray();
+    json.value(address);
+    json.value(index);
+    json.value(addressErrorMessage);
+    JsonResponse.write(json, r);
+    json.endArray();
+    json.flush();
   }
 
   /* Parses the address the user entered by removing a leading 0x, h, underscores, and spaces, so
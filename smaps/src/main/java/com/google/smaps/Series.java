@@ -0,0 +1,164 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+
+/**
+ * Adds dumps of one process to this user's {@link SnapshotSeries}, and sends series.js the sum of
+ * a field over time for the regions with a name in their pathname or in a range of addresses.
+ * Dumps are posted one at a time as the smapsFile part, with new-series to start a new series and
+ * time to give when the dump was taken, in milliseconds since the epoch, ex:
+ * /series?field=Rss&path=libc or /series?field=Private_Dirty&start=7f0000000000&end=7fffffffffff
+ */
+@MultipartConfig
+@WebServlet(name = "Series", value = "/series")
+public class Series extends HttpServlet {
+  static final String NO_SERIES_MESSAGE = "No snapshot series has been started.";
+  static final String PARSE_ERROR_MESSAGE =
+      "File was unable to be parsed due to improper formatting or file type.";
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    // Get this user's session.
+    HttpSession session = request.getSession();
+
+    Part filePart = request.getPart("smapsFile");
+    if (filePart == null || filePart.getSize() == 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No file chosen or file was empty.");
+      return;
+    }
+    long time = System.currentTimeMillis();
+    String timeParameter = request.getParameter("time");
+    if (timeParameter != null) {
+      try {
+        time = Long.parseLong(timeParameter);
+      } catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "The time must be in milliseconds since the epoch.");
+        return;
+      }
+    }
+
+    RegionTable dump;
+    try (InputStream in = filePart.getInputStream()) {
+      dump = RegionParser.parse(in);
+    } catch (SmapsFormatException e) {
+      // Say what is wrong with the dump, if it is known.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, PARSE_ERROR_MESSAGE);
+      return;
+    }
+
+    // Start a new series with the first dump, or when asked to. The series is put back after the
+    // dump is added, so that it is weighed with it.
+    SnapshotSeries series = SnapshotSeries.forSession(session);
+    SnapshotSeries.Delta delta = null;
+    try {
+      if (series == null || request.getParameter("new-series") != null) {
+        series = SnapshotSeries.start(dump, time);
+      } else {
+        delta = series.add(dump, time);
+      }
+    } catch (IllegalStateException e) {
+      // The series holds as many dumps or bytes as it can.
+      response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+      return;
+    }
+    SnapshotSeries.putForSession(session, series);
+
+    // Write what the dump added to the series to series.js as a Json object.
+    JsonWriter json = JsonResponse.start(response);
+    json.beginObject();
+    json.name("snapshots").value(series.size());
+    json.name("regions").value(dump.size());
+    if (delta != null) {
+      json.name("removed").value(delta.removedCount());
+      json.name("added").value(delta.addedCount());
+      json.name("changed").value(delta.changeCount());
+    }
+    json.name("storedBytes").value(series.estimatedBytes());
+    json.endObject();
+    json.flush();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    SnapshotSeries series = SnapshotSeries.forSession(request.getSession());
+    if (series == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, NO_SERIES_MESSAGE);
+      return;
+    }
+
+    String fieldName = request.getParameter("field");
+    int field = RegionTable.fieldIndex(fieldName == null ? "Rss" : fieldName);
+    SnapshotSeries.Filter filter = filter(request);
+    if (field == -1 || filter == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Series needs a known field, and a start address below its end address.");
+      return;
+    }
+
+    // Write when each dump was taken and the field's sum in it to series.js as a Json object.
+    long[] sums = series.sums(field, filter);
+    JsonWriter json = JsonResponse.start(response);
+    json.beginObject();
+    json.name("field").value(RegionTable.FIELD_NAMES[field]);
+    json.name("times").beginArray();
+    for (long time : series.times()) {
+      json.value(time);
+    }
+    json.endArray();
+    json.name("sums").beginArray();
+    for (long sum : sums) {
+      json.value(sum);
+    }
+    json.endArray();
+    json.name("storedBytes").value(series.estimatedBytes());
+    json.endObject();
+    json.flush();
+  }
+
+  /* Chooses the regions with the path parameter in their pathname, which every region has if it
+   * isn't given, that overlap the addresses from the start parameter (inclusive) to the end
+   * parameter (exclusive), which default to the whole address space. Returns null if the
+   * addresses aren't valid. */
+  private static SnapshotSeries.Filter filter(HttpServletRequest request) {
+    String path = request.getParameter("path");
+    String name = path == null ? "" : path;
+    Long start = MemoryMap.parseAddress(request.getParameter("start"), 0);
+    Long end = MemoryMap.parseAddress(request.getParameter("end"), -1);
+    if (start == null || end == null || Long.compareUnsigned(start, end) >= 0) {
+      return null;
+    }
+    return (regionStart, regionEnd, pathname) -> pathname.contains(name)
+        && Long.compareUnsigned(regionStart, end) < 0
+        && Long.compareUnsigned(regionEnd, start) > 0;
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+/**
+ * Thrown when an smaps dump is not formatted the way the parser expects. Every way the parser can
+ * reject a dump has a {@link Reason}, so callers can tell them apart without parsing the message,
+ * and the message is the one shown to the user on index.html.
+ */
+class SmapsFormatException extends IllegalArgumentException {
+  /** The ways a dump can be malformed that have a specific message for the user. */
+  enum Reason {
+    // The first line of a region has fewer than the five required fields.
+    BAD_FIRST_LINE,
+    // A region ended without a 'Size' field.
+    MISSING_SIZE,
+    // A line is neither the first line of a region nor a "Name: value" field.
+    NOT_A_FIELD,
+    // A number on a line is missing, isn't a number, or doesn't fit in 64 bits.
+    BAD_NUMBER,
+    // The dump doesn't have a single region.
+    NO_REGIONS
+  }
+
+  private final Reason reason;
+  private final int lineNumber;
+
+  SmapsFormatException(Reason reason, int lineNumber) {
+    super(formatMessage(reason, lineNumber));
+    this.reason = reason;
+    this.lineNumber = lineNumber;
+  }
+
+  SmapsFormatException(Reason reason, int lineNumber, Throwable cause) {
+    this(reason, lineNumber);
+    initCause(cause);
+  }
+
+  /* The reason the dump could not be parsed. */
+  Reason reason() {
+    return reason;
+  }
+
+  /* The line number in the smaps file that the error refers to, or 0 for NO_REGIONS. */
+  int lineNumber() {
+    return lineNumber;
+  }
+
+  /* Creates the message shown to the user for this reason and line number. */
+  private static String formatMessage(Reason reason, int lineNumber) {
+    switch (reason) {
+      case BAD_FIRST_LINE:
+        return "Region on line [" + lineNumber
+            + "] does not have proper first line formatting. EX: 7fd126400000-7fd12a400000 rw-s 00000000 00:05 30559";
+      case MISSING_SIZE:
+        return "Required 'size' field not found in region on line [" + lineNumber
+            + "] in smaps file.";
+      case NOT_A_FIELD:
+        return "Line [" + lineNumber
+            + "] in smaps file is neither the first line of a region nor a field. EX: Rss:   20516 kB";
+      case BAD_NUMBER:
+        return "Line [" + lineNumber
+            + "] in smaps file has a number that is missing, malformed or too large.";
+      case NO_REGIONS:
+        return "No regions were found in the smaps file.";
+      default:
+        return "File was unable to be parsed due to improper formatting or file type.";
+    }
+  }
+}
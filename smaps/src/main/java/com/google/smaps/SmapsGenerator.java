@@ -0,0 +1,418 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes synthetic smaps dumps that look like the dump of a large Java server: a JVM heap, the
+ * executable and [heap], then shared libraries, thread stacks with their guard pages, anonymous
+ * memory, memfd and "(deleted)" mappings and hugepage regions, and finally [stack], [vvar],
+ * [vdso] and [vsyscall]. The same seed and region count always give the same dump, and the dump is
+ * written as it is made, so it can have millions of regions and be gigabytes long.
+ *
+ * Usage: java com.google.smaps.SmapsGenerator <output file, or - for stdout> <regions> [seed]
+ */
+final class SmapsGenerator {
+  private static final long PAGE = 4096;
+  private static final long HUGE_PAGE = 2 * 1024 * 1024;
+
+  // Where each part of the address space starts, as in smaps-full.txt.
+  private static final long JVM_HEAP_START = 0x16ec0000000L;
+  private static final long EXECUTABLE_START = 0x55d21c000000L;
+  private static final long STACK_START = 0x7ffea6803000L;
+  private static final long VSYSCALL_START = 0xffffffffff600000L;
+
+  // The mmap area ends below the stack and is given this many bytes for every region, which is more
+  // than the regions and the gaps between them take on average.
+  private static final long MMAP_AREA_END = 0x7ff000000000L;
+  private static final long BYTES_PER_REGION = 4 * 1024 * 1024;
+
+  // The regions written before and after the mmap area.
+  private static final int JVM_HEAP_REGIONS = 2;
+  private static final int EXECUTABLE_REGIONS = 5;
+  private static final int END_REGIONS = 4;
+
+  // The column that pathnames start at, as the kernel pads them.
+  private static final int PATHNAME_COLUMN = 73;
+
+  private static final String[] LIBRARY_NAMES = {
+    "c", "m", "pthread", "dl", "rt", "z", "ssl", "crypto", "stdc++", "gcc_s", "jvm", "java", "nio",
+    "net", "zip", "jimage", "verify", "management", "protobuf", "grpc", "tcmalloc", "unwind"
+  };
+  private static final String[] MEMFD_NAMES = {"stan", "potato", "pipe-memfd", "jit-cache"};
+
+  private final Random random;
+  private final int regionCount;
+  private final StringBuilder line = new StringBuilder();
+  private Writer out;
+  private int written;
+  // Regions past this many are left out, so that a library cut short still leaves room for the
+  // regions at the end.
+  private int limit;
+  private long next;
+  private int libraries;
+
+  /* Creates a generator of dumps with the given number of regions, at least 11. */
+  SmapsGenerator(long seed, int regionCount) {
+    if (regionCount < JVM_HEAP_REGIONS + EXECUTABLE_REGIONS + END_REGIONS) {
+      throw new IllegalArgumentException("A dump needs at least 11 regions, not " + regionCount);
+    }
+    this.random = new Random(seed);
+    this.regionCount = regionCount;
+  }
+
+  /* Returns the whole dump as a string, which is only practical for small dumps. */
+  static String generate(long seed, int regionCount) {
+    StringWriter dump = new StringWriter();
+    try {
+      new SmapsGenerator(seed, regionCount).write(dump);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return dump.toString();
+  }
+
+  /* Writes the dump to out, which is not closed. */
+  void write(Writer out) throws IOException {
+    this.out = out;
+    limit = regionCount - END_REGIONS;
+    writeJvmHeap();
+    writeExecutable();
+
+    int mmapRegions = limit - written;
+    next = Math.max(next, MMAP_AREA_END - mmapRegions * BYTES_PER_REGION);
+    while (written < limit) {
+      int kind = random.nextInt(100);
+      if (kind < 30) {
+        writeLibrary();
+      } else if (kind < 50) {
+        writeThreadStack();
+      } else if (kind < 78) {
+        writeAnonymous();
+      } else if (kind < 88) {
+        writeMemfd();
+      } else if (kind < 93) {
+        writeDeletedFile();
+      } else {
+        writeHugePages();
+      }
+    }
+
+    limit = regionCount;
+    writeEnd();
+    out.flush();
+  }
+
+  /* The JVM heap, reserved as one large region of which the first part is in use. */
+  private void writeJvmHeap() throws IOException {
+    next = JVM_HEAP_START;
+    long committed = pages(64 * 1024 * 1024, 512 * 1024 * 1024);
+    long reserved = committed + pages(256 * 1024 * 1024, 1024 * 1024 * 1024);
+    writeAnonymousRegion(committed, "rw-p", "", 0.8, "rd wr mr mw me ac sd");
+    writeEmptyRegion(reserved, "---p", "", "mr mw me nr sd");
+  }
+
+  /* The executable's text, read-only data and data, and the [heap] after them. */
+  private void writeExecutable() throws IOException {
+    next = EXECUTABLE_START;
+    String pathname = "/export/hda3/stuffmaster9000";
+    long inode = 11;
+    long offset = 0;
+    long text = pages(32 * 1024 * 1024, 256 * 1024 * 1024);
+    offset += writeFileRegion(pages(4 * 1024 * 1024, 16 * 1024 * 1024), "r--p", offset, "fc:95",
+        inode, pathname, "rd mr mw me ac sd");
+    offset += writeFileRegion(text, "r-xp", offset, "fc:95", inode, pathname,
+        "rd ex mr mw me ac sd hg");
+    offset += writeFileRegion(pages(PAGE, 8 * 1024 * 1024), "r--p", offset, "fc:95", inode,
+        pathname, "rd mr mw me ac sd");
+    writeFileRegion(pages(PAGE, 1024 * 1024), "rw-p", offset, "fc:95", inode, pathname,
+        "rd wr mr mw me ac sd");
+    writeAnonymousRegion(pages(PAGE, 64 * 1024 * 1024), "rw-p", "[heap]", 0.9,
+        "rd wr mr mw me ac sd");
+  }
+
+  /* A shared library's read-only, text, relocated and data regions. */
+  private void writeLibrary() throws IOException {
+    String name = LIBRARY_NAMES[random.nextInt(LIBRARY_NAMES.length)];
+    String pathname = libraries < LIBRARY_NAMES.length
+        ? "/usr/lib/x86_64-linux-gnu/lib" + name + ".so." + (1 + random.nextInt(6))
+        : "/usr/local/lib/lib" + name + "-" + libraries + ".so";
+    libraries++;
+    long inode = 1000 + random.nextInt(10000000);
+    String device = "fd:0" + (1 + random.nextInt(3));
+
+    long offset = 0;
+    offset += writeFileRegion(pages(PAGE, 256 * 1024), "r--p", offset, device, inode, pathname,
+        "rd mr mw me sd");
+    offset += writeFileRegion(pages(PAGE, 8 * 1024 * 1024), "r-xp", offset, device, inode,
+        pathname, "rd ex mr mw me sd");
+    offset += writeFileRegion(pages(PAGE, 512 * 1024), "r--p", offset, device, inode, pathname,
+        "rd mr mw me sd");
+    offset += writeFileRegion(pages(PAGE, 64 * 1024), "r--p", offset, device, inode, pathname,
+        "rd mr mw me ac sd");
+    writeFileRegion(pages(PAGE, 64 * 1024), "rw-p", offset, device, inode, pathname,
+        "rd wr mr mw me ac sd");
+    gap();
+  }
+
+  /* A thread's stack with the guard page below it. */
+  private void writeThreadStack() throws IOException {
+    writeEmptyRegion(PAGE, "---p", "", "mr mw me ac sd");
+    long size = random.nextInt(4) == 0 ? 8 * 1024 * 1024 - PAGE : 1024 * 1024 - PAGE;
+    writeAnonymousRegion(size, "rw-p", "", 0.05, "rd wr mr mw me ac sd");
+    gap();
+  }
+
+  /* Anonymous memory from malloc or mmap, some of it swapped out or locked. */
+  private void writeAnonymous() throws IOException {
+    long size = logPages(PAGE, 16 * 1024 * 1024);
+    if (random.nextInt(10) == 0) {
+      writeEmptyRegion(size, "---p", "", "mr mw me sd");
+    } else if (random.nextInt(20) == 0) {
+      writeAnonymousRegion(size, "rw-p", "", 1.0, "rd wr mr mw me lo ac sd");
+    } else {
+      writeAnonymousRegion(size, "rw-p", "", random.nextDouble(), "rd wr mr mw me ac sd");
+    }
+    gap();
+  }
+
+  /* Shared memory from memfd_create, whose file is always deleted. */
+  private void writeMemfd() throws IOException {
+    String name = MEMFD_NAMES[random.nextInt(MEMFD_NAMES.length)];
+    if (name.equals("pipe-memfd")) {
+      name += "_pid-" + (1000 + random.nextInt(1000000));
+    }
+    boolean locked = random.nextInt(4) == 0;
+    writeSharedRegion(HUGE_PAGE * (1 + random.nextInt(8)), "rw-s", "00:05",
+        "/memfd:" + name + " (deleted)", locked,
+        locked ? "rd wr sh mr mw me ms lo sd" : "rd wr sh mr mw me ms sd");
+    gap();
+  }
+
+  /* A mapped file that has since been deleted. */
+  private void writeDeletedFile() throws IOException {
+    String pathname = "/tmp/jar_cache" + random.nextInt(1000000) + ".tmp (deleted)";
+    writeFileRegion(pages(PAGE, 16 * 1024 * 1024), "r--s", 0, "fd:01",
+        1000 + random.nextInt(10000000), pathname, "rd sh mr mw me ms sd");
+    gap();
+  }
+
+  /* Memory backed by huge pages, either transparent ones or from hugetlbfs. */
+  private void writeHugePages() throws IOException {
+    next = (next + HUGE_PAGE - 1) / HUGE_PAGE * HUGE_PAGE;
+    long size = HUGE_PAGE * (1 + random.nextInt(32));
+    if (random.nextBoolean()) {
+      long rss = size * random.nextInt(101) / 100 / HUGE_PAGE * HUGE_PAGE;
+      long[] fields = fields(size, PAGE);
+      fields[RegionTable.RSS] = kb(rss);
+      fields[RegionTable.PSS] = kb(rss);
+      fields[RegionTable.PRIVATE_DIRTY] = kb(rss);
+      fields[RegionTable.REFERENCED] = kb(rss);
+      fields[RegionTable.ANONYMOUS] = kb(rss);
+      fields[RegionTable.ANON_HUGE_PAGES] = kb(rss);
+      writeRegion(size, "rw-p", 0, "00:00", 0, "", fields, "rd wr mr mw me ac sd hg");
+    } else {
+      long[] fields = fields(size, HUGE_PAGE);
+      fields[RegionTable.PRIVATE_HUGETLB] = kb(size);
+      writeRegion(size, "rw-s", 0, "00:0f", 1000 + random.nextInt(1000000),
+          "/anon_hugepage (deleted)", fields, "rd wr sh mr mw me ms de ht sd");
+    }
+    gap();
+  }
+
+  /* The main thread's stack and the regions the kernel maps into every process. */
+  private void writeEnd() throws IOException {
+    next = Math.max(next, STACK_START);
+    writeAnonymousRegion(34 * PAGE, "rw-p", "[stack]", 0.5, "rd wr mr mw me gd ac");
+    next += 27 * PAGE;
+    writeFileRegion(3 * PAGE, "r--p", 0, "00:00", 0, "[vvar]", "rd mr pf io de dd sd");
+    writeFileRegion(2 * PAGE, "r-xp", 0, "00:00", 0, "[vdso]", "rd ex mr mw me de sd");
+    if (Long.compareUnsigned(next, VSYSCALL_START) < 0) {
+      next = VSYSCALL_START;
+    }
+    writeEmptyRegion(PAGE, "r-xp", "[vsyscall]", "rd ex");
+  }
+
+  /* Writes a region of private anonymous memory of which about the given fraction is resident. */
+  private void writeAnonymousRegion(
+      long size, String permissions, String pathname, double resident, String vmFlags)
+      throws IOException {
+    long rss = Math.min(size, (long) (size * resident) / PAGE * PAGE);
+    long[] fields = fields(size, PAGE);
+    long swap = random.nextInt(8) == 0 ? (size - rss) / PAGE * random.nextInt(100) / 100 * PAGE : 0;
+    fields[RegionTable.RSS] = kb(rss);
+    fields[RegionTable.PSS] = kb(rss);
+    fields[RegionTable.PRIVATE_CLEAN] = kb(rss / PAGE / 10 * PAGE);
+    fields[RegionTable.PRIVATE_DIRTY] = kb(rss) - fields[RegionTable.PRIVATE_CLEAN];
+    fields[RegionTable.REFERENCED] = kb(rss / PAGE * random.nextInt(101) / 100 * PAGE);
+    fields[RegionTable.ANONYMOUS] = kb(rss);
+    fields[RegionTable.SWAP] = kb(swap);
+    fields[RegionTable.SWAP_PSS] = kb(swap);
+    if (vmFlags.contains(" lo ")) {
+      fields[RegionTable.LOCKED] = kb(rss);
+    }
+    writeRegion(size, permissions, 0, "00:00", 0, pathname, fields, vmFlags);
+  }
+
+  /* Writes a region with nothing resident, such as a guard page. */
+  private void writeEmptyRegion(long size, String permissions, String pathname, String vmFlags)
+      throws IOException {
+    writeRegion(size, permissions, 0, "00:00", 0, pathname, fields(size, PAGE), vmFlags);
+  }
+
+  /* Writes a region mapping part of a file, which other processes also map, and returns its size
+   * so the next region of the file can start at the offset after it. */
+  private long writeFileRegion(long size, String permissions, long offset, String device,
+      long inode, String pathname, String vmFlags) throws IOException {
+    long rss = size / PAGE * random.nextInt(101) / 100 * PAGE;
+    long shared = permissions.equals("rw-p") ? 0 : rss / PAGE * random.nextInt(101) / 100 * PAGE;
+    long sharers = 2 + random.nextInt(50);
+    long[] fields = fields(size, PAGE);
+    fields[RegionTable.RSS] = kb(rss);
+    fields[RegionTable.PSS] = kb(rss - shared + shared / sharers);
+    fields[RegionTable.SHARED_CLEAN] = kb(shared);
+    if (permissions.startsWith("rw")) {
+      fields[RegionTable.PRIVATE_DIRTY] = kb(rss - shared);
+      fields[RegionTable.ANONYMOUS] = kb(rss - shared);
+    } else {
+      fields[RegionTable.PRIVATE_CLEAN] = kb(rss - shared);
+    }
+    fields[RegionTable.REFERENCED] = kb(rss);
+    writeRegion(size, permissions, offset, device, inode, pathname, fields, vmFlags);
+    return size;
+  }
+
+  /* Writes a region of shared memory that is resident and, for some, locked. */
+  private void writeSharedRegion(long size, String permissions, String device, String pathname,
+      boolean locked, String vmFlags) throws IOException {
+    long rss = size / PAGE * random.nextInt(101) / 100 * PAGE;
+    long[] fields = fields(size, PAGE);
+    fields[RegionTable.RSS] = kb(rss);
+    fields[RegionTable.PSS] = kb(rss);
+    fields[RegionTable.SHARED_DIRTY] = kb(rss / 2 / PAGE * PAGE);
+    fields[RegionTable.PRIVATE_DIRTY] = kb(rss) - fields[RegionTable.SHARED_DIRTY];
+    fields[RegionTable.REFERENCED] = kb(rss);
+    if (locked) {
+      fields[RegionTable.LOCKED] = kb(rss);
+    }
+    writeRegion(size, permissions, 0, device, 1000 + random.nextInt(1000000), pathname, fields,
+        vmFlags);
+  }
+
+  /* Returns the fields of a region with nothing resident. */
+  private static long[] fields(long size, long pageSize) {
+    long[] fields = new long[RegionTable.FIELD_COUNT];
+    fields[RegionTable.SIZE] = kb(size);
+    fields[RegionTable.KERNEL_PAGE_SIZE] = kb(pageSize);
+    fields[RegionTable.MMU_PAGE_SIZE] = kb(pageSize);
+    return fields;
+  }
+
+  /* Writes the region at the next address and moves past it. */
+  private void writeRegion(long size, String permissions, long offset, String device, long inode,
+      String pathname, long[] fields, String vmFlags) throws IOException {
+    if (written >= limit) {
+      return;
+    }
+    line.setLength(0);
+    appendHex(next);
+    line.append('-');
+    appendHex(next + size);
+    line.append(' ').append(permissions).append(' ');
+    appendHex(offset);
+    line.append(' ').append(device).append(' ').append(inode).append(' ');
+    if (!pathname.isEmpty()) {
+      while (line.length() < PATHNAME_COLUMN) {
+        line.append(' ');
+      }
+      line.append(pathname);
+    }
+    line.append('\n');
+
+    for (int f = 0; f < fields.length; f++) {
+      String name = RegionTable.FIELD_NAMES[f];
+      String value = Long.toString(fields[f]);
+      line.append(name).append(':');
+      for (int i = name.length() + 1 + value.length(); i < 24; i++) {
+        line.append(' ');
+      }
+      line.append(value).append(" kB\n");
+    }
+    line.append("VmFlags: ").append(vmFlags).append(" \n");
+
+    out.append(line);
+    next += size;
+    written++;
+  }
+
+  /* Appends the address, at least 8 digits long, the way the kernel writes it. */
+  private void appendHex(long address) {
+    String hex = Long.toHexString(address);
+    for (int i = hex.length(); i < 8; i++) {
+      line.append('0');
+    }
+    line.append(hex);
+  }
+
+  /* Leaves some unmapped pages before the next region. */
+  private void gap() {
+    if (random.nextBoolean()) {
+      next += PAGE * random.nextInt(512);
+    }
+  }
+
+  /* A random whole number of pages from min to max bytes. */
+  private long pages(long min, long max) {
+    return (min + (long) (random.nextDouble() * (max - min))) / PAGE * PAGE;
+  }
+
+  /* A random whole number of pages from min to max bytes, where smaller sizes are more common. */
+  private long logPages(long min, long max) {
+    double log = Math.log(min) + random.nextDouble() * (Math.log(max) - Math.log(min));
+    return Math.max(min, (long) Math.exp(log) / PAGE * PAGE);
+  }
+
+  private static long kb(long bytes) {
+    return bytes / 1024;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: SmapsGenerator <output file, or - for stdout> <regions> [seed]");
+      System.exit(1);
+    }
+    int regions = Integer.parseInt(args[1]);
+    long seed = args.length == 3 ? Long.parseLong(args[2]) : 0;
+    SmapsGenerator generator = new SmapsGenerator(seed, regions);
+    if (args[0].equals("-")) {
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+      generator.write(out);
+    } else {
+      try (Writer out = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+        generator.write(out);
+      }
+    }
+  }
+}
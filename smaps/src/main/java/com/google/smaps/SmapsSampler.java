@@ -0,0 +1,286 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Reads the smaps of one process over and over, such as /proc/1234/smaps, and parses each sample
+ * into a {@link RegionTable}, parsing only the regions that changed since the sample before. The
+ * sample is read into a buffer that is kept from one sample to the next and split into the bytes
+ * of each region; a region whose bytes are the same as the region at the same address in the
+ * sample before is copied from the table before, moved to its new line, instead of being parsed
+ * again. Most of the mappings of a running process don't change from one second to the next, so
+ * a sample costs little more than reading it.
+ */
+final class SmapsSampler {
+  // The size the buffers start at. They grow to fit the largest sample read.
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final Path path;
+
+  // The bytes of this sample and of the sample before. The two buffers swap at each sample.
+  private byte[] bytes = new byte[BUFFER_SIZE];
+  private int length;
+  private byte[] previousBytes = new byte[BUFFER_SIZE];
+  private int previousLength;
+
+  // Where each region of this sample starts in its bytes and how many lines come before it, each
+  // with one more entry for where the last region ends, its start address, and the region of the
+  // sample before it is the same as, or -1; and the same for the sample before. The regions start
+  // after any lines before the first region's first line.
+  private Spans spans = new Spans();
+  private Spans previousSpans = new Spans();
+
+  // The regions of the sample before, in the order of its spans.
+  private RegionTable previous;
+
+  // How many regions of the last sample were copied from the sample before, and how many parsed.
+  private int reusedCount;
+  private int parsedCount;
+
+  /** Where the regions of a sample are in its bytes. */
+  private static final class Spans {
+    int count;
+    int[] starts = new int[1024];
+    int[] linesBefore = new int[1024];
+    long[] addresses = new long[1024];
+    int[] matches = new int[1024];
+
+    void add(int start, int lines, long address, int match) {
+      if (count + 1 >= starts.length) {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        linesBefore = Arrays.copyOf(linesBefore, linesBefore.length * 2);
+        addresses = Arrays.copyOf(addresses, addresses.length * 2);
+        matches = Arrays.copyOf(matches, matches.length * 2);
+      }
+      starts[count] = start;
+      linesBefore[count] = lines;
+      addresses[count] = address;
+      matches[count] = match;
+      count++;
+    }
+
+    /* Marks where the last region ends, after the given number of lines. */
+    void end(int start, int lines) {
+      starts[count] = start;
+      linesBefore[count] = lines;
+    }
+  }
+
+  SmapsSampler(Path path) {
+    this.path = path;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  /**
+   * Reads the next sample and returns its regions, which are the same table as the sample
+   * before's if the sample didn't change at all. Throws like {@link RegionParser#parse} if the
+   * sample can't be parsed, and an IOException if it can't be read, such as once the process has
+   * exited.
+   */
+  synchronized RegionTable sample() throws IOException {
+    byte[] swap = previousBytes;
+    previousBytes = bytes;
+    previousLength = length;
+    bytes = swap;
+    Spans swapSpans = previousSpans;
+    previousSpans = spans;
+    spans = swapSpans;
+
+    long start = System.nanoTime();
+    read();
+    Metrics.CAPTURE_STAGE_SECONDS.labels("read").observeSince(start);
+    start = System.nanoTime();
+    try {
+      split();
+      previous = rebuild();
+    } catch (RuntimeException e) {
+      // The next sample can't be compared with one that wasn't parsed.
+      previous = null;
+      length = 0;
+      spans.count = 0;
+      throw e;
+    }
+    Metrics.CAPTURE_STAGE_SECONDS.labels("parse").observeSince(start);
+    Metrics.CAPTURE_REGIONS.labels("reused").add(reusedCount);
+    Metrics.CAPTURE_REGIONS.labels("parsed").add(parsedCount);
+    return previous;
+  }
+
+  /* Reads the whole file into the buffer, growing it if the file doesn't fit. The length of files
+   * in /proc isn't known until they are read, so it can't be asked for first. */
+  private void read() throws IOException {
+    length = 0;
+    try (InputStream in = Files.newInputStream(path)) {
+      int read;
+      while ((read = in.read(bytes, length, bytes.length - length)) != -1) {
+        length += read;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds where each region of the sample starts, which is at each line that starts with an
+   * address range, and which region of the sample before it is the same as. A region is the same
+   * as the region of the sample before at the same address if its bytes are, up to the start of
+   * the next region or the end of the sample, and then its lines aren't looked at one by one at
+   * all. The regions of /proc are in address order, so the region at the same address is found by
+   * skipping the ones below it.
+   */
+  private void split() {
+    spans.count = 0;
+    int pos = 0;
+    int lines = 0;
+    // Skip any lines before the first region.
+    while (pos < length && !RegionParser.isRegionHeader(bytes, pos, length)) {
+      pos = nextLine(pos);
+      lines++;
+    }
+    int p = 0;
+    while (pos < length) {
+      int hyphen = pos;
+      while (bytes[hyphen] != '-') {
+        hyphen++;
+      }
+      long address = RegionParser.parseHex(bytes, pos, hyphen);
+      while (previous != null && p < previousSpans.count
+          && Long.compareUnsigned(previousSpans.addresses[p], address) < 0) {
+        p++;
+      }
+      if (previous != null && p < previousSpans.count && previousSpans.addresses[p] == address) {
+        int start = previousSpans.starts[p];
+        int end = previousSpans.starts[p + 1];
+        int next = pos + end - start;
+        if (next <= length && sameBytes(bytes, pos, previousBytes, start, end - start)
+            && (next == length || RegionParser.isRegionHeader(bytes, next, length))) {
+          spans.add(pos, lines, address, p);
+          lines += previousSpans.linesBefore[p + 1] - previousSpans.linesBefore[p];
+          pos = next;
+          p++;
+          continue;
+        }
+      }
+
+      // The region changed, so find where it ends line by line.
+      spans.add(pos, lines, address, -1);
+      do {
+        pos = nextLine(pos);
+        lines++;
+      } while (pos < length && !RegionParser.isRegionHeader(bytes, pos, length));
+    }
+    spans.end(length, lines);
+  }
+
+  /* Returns where the line after the one starting at pos starts, or the length if it is the last
+   * line. */
+  private int nextLine(int pos) {
+    while (pos < length && bytes[pos] != '\n') {
+      pos++;
+    }
+    return pos < length ? pos + 1 : length;
+  }
+
+  /* Makes the table of the sample, copying each region that is the same as in the sample before
+   * and parsing each run of regions that isn't. */
+  private RegionTable rebuild() {
+    if (spans.count == 0) {
+      // There wasn't a single region in the sample.
+      throw new SmapsFormatException(SmapsFormatException.Reason.NO_REGIONS, 0);
+    }
+    if (isUnchanged()) {
+      reusedCount = spans.count;
+      parsedCount = 0;
+      return previous;
+    }
+
+    RegionTable.Builder regions = RegionTable.builder();
+    RegionParser parser = new RegionParser(regions);
+    // Any lines before the first region are still checked, but add no regions.
+    parser.parseRegions(bytes, 0, spans.starts[0], 0);
+    reusedCount = 0;
+    int runStart = 0;
+    for (int i = 0; i < spans.count; i++) {
+      int match = spans.matches[i];
+      if (match == -1) {
+        continue;
+      }
+      if (runStart < i) {
+        parser.parseRegions(bytes, spans.starts[runStart], spans.starts[i],
+            spans.linesBefore[runStart]);
+      }
+      regions.add(previous, match);
+      regions.setLineNumber(spans.linesBefore[i] + 1);
+      reusedCount++;
+      runStart = i + 1;
+    }
+    if (runStart < spans.count) {
+      parser.parseRegions(bytes, spans.starts[runStart], length, spans.linesBefore[runStart]);
+    }
+    parsedCount = spans.count - reusedCount;
+    return regions.build();
+  }
+
+  /* Whether the sample is the same as the sample before, which it is if every region is the same
+   * as the region before at the same place, and so are any lines before the first one. */
+  private boolean isUnchanged() {
+    if (previous == null || length != previousLength || spans.count != previousSpans.count
+        || spans.starts[0] != previousSpans.starts[0]) {
+      return false;
+    }
+    for (int i = 0; i < spans.count; i++) {
+      if (spans.matches[i] != i) {
+        return false;
+      }
+    }
+    return sameBytes(bytes, 0, previousBytes, 0, spans.starts[0]);
+  }
+
+  /* Whether the bytes of a from aStart are the same as the bytes of b from bStart, for length
+   * bytes. */
+  private static boolean sameBytes(byte[] a, int aStart, byte[] b, int bStart, int length) {
+    return ByteBuffer.wrap(a, aStart, length).equals(ByteBuffer.wrap(b, bStart, length));
+  }
+
+  /* The digest of the bytes of the last sample, which names its dataset. */
+  synchronized String digest() {
+    MessageDigest digest = DatasetStore.newDigest();
+    digest.update(bytes, 0, length);
+    return DatasetStore.toHex(digest);
+  }
+
+  /* How many regions of the last sample were copied from the sample before. */
+  synchronized int reusedCount() {
+    return reusedCount;
+  }
+
+  /* How many regions of the last sample were parsed. */
+  synchronized int parsedCount() {
+    return parsedCount;
+  }
+}
@@ -0,0 +1,359 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+
+/**
+ * A series of dumps of one process taken over time, such as every few minutes of a soak test,
+ * stored as the first dump and then, for each later dump, only what changed since the dump before
+ * it. A region that is in both dumps at the same address with the same permissions and pathname
+ * is the same region, and only the fields that changed are stored, as the difference from the
+ * dump before; regions that are gone are stored as their numbers, and new regions in full. So an
+ * extra dump takes memory in proportion to what changed in it, however large it is.
+ *
+ * <p>The regions of each dump are numbered in series order: the regions kept from the dump before,
+ * in their order, then the new regions in the order of the dump. The last dump is also kept as it
+ * is, to find what changes in the next one.
+ *
+ * <p>A series holds at most a set number of dumps and bytes of heap; a dump that would take it
+ * past either is turned away, and a new series has to be started. The series of all the sessions
+ * together are kept within a heap budget, dropping the least recently used ones.
+ */
+final class SnapshotSeries {
+  // The column of the end address in the changes, after the numeric fields.
+  static final int END = RegionTable.FIELD_COUNT;
+
+  // The heap budget of all the sessions' series, in bytes, which is also the most one series can
+  // take, and the most dumps one series holds. Set with the smaps.seriesBytes and
+  // smaps.maxSnapshots system properties in appengine-web.xml; the budget is a sixteenth of the
+  // heap if it isn't set.
+  private static final long BUDGET_BYTES =
+      Long.getLong("smaps.seriesBytes", Runtime.getRuntime().maxMemory() / 16);
+  private static final int MAX_SNAPSHOTS = Integer.getInteger("smaps.maxSnapshots", 1000);
+
+  // How long a series is kept after it was last used. Set with the smaps.seriesTtlMinutes system
+  // property in appengine-web.xml.
+  private static final long TTL_MINUTES = Long.getLong("smaps.seriesTtlMinutes", 60);
+
+  // The series of each session, by the session's id. The weights are in kB, like the datasets'
+  // in DatasetStore, and a series is weighed again each time it is put back after a dump is added.
+  private static final Cache<String, SnapshotSeries> SERIES = CacheBuilder.newBuilder()
+      .concurrencyLevel(1)
+      .maximumWeight(Math.max(0, BUDGET_BYTES / 1024))
+      .weigher((String id, SnapshotSeries series) ->
+          (int) Math.min(Integer.MAX_VALUE, series.estimatedBytes() / 1024 + 1))
+      .expireAfterAccess(TTL_MINUTES, TimeUnit.MINUTES)
+      .build();
+
+  private final int maxSnapshots;
+  private final long maxBytes;
+  private final RegionTable base;
+  private final List<Delta> deltas = new ArrayList<>();
+  // When each dump was taken, in milliseconds since the epoch.
+  private final List<Long> times = new ArrayList<>();
+  // The last dump, and the row of it that each of its regions in series order is.
+  private RegionTable latest;
+  private int[] latestRows;
+
+  /** What changed from one dump to the next. */
+  static final class Delta {
+    // The series numbers, in the dump before, of the regions that are gone, in increasing order.
+    private final int[] removed;
+    // The new regions, which come after the regions kept.
+    private final RegionTable added;
+    // The series number, column and difference of each changed field of a kept region.
+    private final int[] changedRows;
+    private final byte[] changedColumns;
+    private final long[] changes;
+
+    private Delta(int[] removed, RegionTable added, int[] changedRows, byte[] changedColumns,
+        long[] changes) {
+      this.removed = removed;
+      this.added = added;
+      this.changedRows = changedRows;
+      this.changedColumns = changedColumns;
+      this.changes = changes;
+    }
+
+    int removedCount() {
+      return removed.length;
+    }
+
+    int addedCount() {
+      return added.size();
+    }
+
+    int changeCount() {
+      return changes.length;
+    }
+
+    /* Roughly how many bytes of heap the delta takes. */
+    long estimatedBytes() {
+      return 4L * removed.length + added.estimatedBytes() + 13L * changes.length;
+    }
+  }
+
+  /** Chooses the regions whose sums are charted. */
+  interface Filter {
+    boolean includes(long start, long end, String pathname);
+  }
+
+  private SnapshotSeries(RegionTable base, long time, int maxSnapshots, long maxBytes) {
+    this.maxSnapshots = maxSnapshots;
+    this.maxBytes = maxBytes;
+    this.base = base;
+    this.latest = base;
+    this.latestRows = new int[base.size()];
+    for (int row = 0; row < latestRows.length; row++) {
+      latestRows[row] = row;
+    }
+    times.add(time);
+  }
+
+  /* Starts a series with its first dump, taken at the time in milliseconds since the epoch. Throws
+   * an IllegalStateException if the dump alone is more than a series can take. */
+  static SnapshotSeries start(RegionTable first, long time) {
+    return start(first, time, MAX_SNAPSHOTS, BUDGET_BYTES);
+  }
+
+  /* Starts a series like start, which holds at most maxSnapshots dumps and maxBytes of heap. */
+  static SnapshotSeries start(RegionTable first, long time, int maxSnapshots, long maxBytes) {
+    SnapshotSeries series = new SnapshotSeries(first, time, maxSnapshots, maxBytes);
+    if (series.estimatedBytes() > maxBytes) {
+      throw new IllegalStateException(tooLargeMessage(maxBytes));
+    }
+    return series;
+  }
+
+  /* Returns the session's series, or null if it hasn't started one lately. */
+  static SnapshotSeries forSession(HttpSession session) {
+    String id = session.getId();
+    return id == null ? null : SERIES.getIfPresent(id);
+  }
+
+  /* Keeps the series as the session's, replacing any series the session had. A series must be put
+   * again once a dump has been added to it, so that it is weighed with the dump. */
+  static void putForSession(HttpSession session, SnapshotSeries series) {
+    SERIES.put(session.getId(), series);
+  }
+
+  /* Adds the next dump of the process, taken at the time in milliseconds since the epoch, and
+   * returns what changed since the dump before. Throws an IllegalStateException, and leaves the
+   * series as it was, if the series already holds as many dumps as it can, or if the dump would
+   * take it past its bytes. */
+  synchronized Delta add(RegionTable dump, long time) {
+    if (times.size() >= maxSnapshots) {
+      throw new IllegalStateException("The series already has " + maxSnapshots
+          + " snapshots, which is the most a series can hold. Start a new series.");
+    }
+    // Find the region of the last dump that each region of this dump is.
+    Map<String, Integer> latestByKey = new HashMap<>(latestRows.length * 2);
+    for (int i = 0; i < latestRows.length; i++) {
+      latestByKey.put(regionKey(latest, latestRows[i]), i);
+    }
+    int[] matches = new int[latestRows.length];
+    Arrays.fill(matches, -1);
+    List<Integer> addedRows = new ArrayList<>();
+    for (int row = 0; row < dump.size(); row++) {
+      Integer match = latestByKey.get(regionKey(dump, row));
+      if (match == null) {
+        addedRows.add(row);
+      } else {
+        matches[match] = row;
+      }
+    }
+
+    // Number the regions kept and then the new ones, and find the fields that changed.
+    int kept = 0;
+    int removedCount = 0;
+    for (int match : matches) {
+      if (match == -1) {
+        removedCount++;
+      }
+    }
+    int[] removed = new int[removedCount];
+    int[] rows = new int[latestRows.length - removedCount + addedRows.size()];
+    List<long[]> changed = new ArrayList<>();
+    for (int i = 0; i < matches.length; i++) {
+      if (matches[i] == -1) {
+        removed[i - kept] = i;
+        continue;
+      }
+      int before = latestRows[i];
+      int after = matches[i];
+      for (int column = 0; column <= END; column++) {
+        long difference = value(dump, column, after) - value(latest, column, before);
+        if (difference != 0) {
+          changed.add(new long[] {kept, column, difference});
+        }
+      }
+      rows[kept++] = after;
+    }
+    RegionTable.Builder added = RegionTable.builder();
+    for (int row : addedRows) {
+      added.add(dump.get(row));
+      rows[kept++] = row;
+    }
+
+    int[] changedRows = new int[changed.size()];
+    byte[] changedColumns = new byte[changed.size()];
+    long[] changes = new long[changed.size()];
+    for (int i = 0; i < changes.length; i++) {
+      long[] change = changed.get(i);
+      changedRows[i] = (int) change[0];
+      changedColumns[i] = (byte) change[1];
+      changes[i] = change[2];
+    }
+    Delta delta = new Delta(removed, added.build(), changedRows, changedColumns, changes);
+    RegionTable latestBefore = latest;
+    int[] latestRowsBefore = latestRows;
+    deltas.add(delta);
+    times.add(time);
+    latest = dump;
+    latestRows = rows;
+    if (estimatedBytes() > maxBytes) {
+      deltas.remove(deltas.size() - 1);
+      times.remove(times.size() - 1);
+      latest = latestBefore;
+      latestRows = latestRowsBefore;
+      throw new IllegalStateException(tooLargeMessage(maxBytes));
+    }
+    return delta;
+  }
+
+  private static String tooLargeMessage(long maxBytes) {
+    return "The series would take more than the " + (maxBytes >> 20)
+        + " MB a series can hold. Start a new series.";
+  }
+
+  /**
+   * Returns the sum of a field over the regions chosen by the filter in each dump of the series,
+   * in order. The dumps are rebuilt one after the other from the first, keeping only the regions'
+   * addresses, pathnames and that field.
+   */
+  synchronized long[] sums(int field, Filter filter) {
+    long[] sums = new long[times.size()];
+    int size = base.size();
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    String[] pathnames = new String[size];
+    long[] values = new long[size];
+    for (int row = 0; row < size; row++) {
+      starts[row] = base.start(row);
+      ends[row] = base.end(row);
+      pathnames[row] = base.pathname(row);
+      values[row] = base.field(field, row);
+    }
+    sums[0] = sum(starts, ends, pathnames, values, size, filter);
+
+    for (int d = 0; d < deltas.size(); d++) {
+      Delta delta = deltas.get(d);
+      int newSize = size - delta.removed.length + delta.added.size();
+      long[] newStarts = new long[newSize];
+      long[] newEnds = new long[newSize];
+      String[] newPathnames = new String[newSize];
+      long[] newValues = new long[newSize];
+      int kept = 0;
+      int nextRemoved = 0;
+      for (int i = 0; i < size; i++) {
+        if (nextRemoved < delta.removed.length && delta.removed[nextRemoved] == i) {
+          nextRemoved++;
+          continue;
+        }
+        newStarts[kept] = starts[i];
+        newEnds[kept] = ends[i];
+        newPathnames[kept] = pathnames[i];
+        newValues[kept] = values[i];
+        kept++;
+      }
+      for (int row = 0; row < delta.added.size(); row++, kept++) {
+        newStarts[kept] = delta.added.start(row);
+        newEnds[kept] = delta.added.end(row);
+        newPathnames[kept] = delta.added.pathname(row);
+        newValues[kept] = delta.added.field(field, row);
+      }
+      for (int i = 0; i < delta.changes.length; i++) {
+        if (delta.changedColumns[i] == field) {
+          newValues[delta.changedRows[i]] += delta.changes[i];
+        } else if (delta.changedColumns[i] == END) {
+          newEnds[delta.changedRows[i]] += delta.changes[i];
+        }
+      }
+      size = newSize;
+      starts = newStarts;
+      ends = newEnds;
+      pathnames = newPathnames;
+      values = newValues;
+      sums[d + 1] = sum(starts, ends, pathnames, values, size, filter);
+    }
+    return sums;
+  }
+
+  private static long sum(
+      long[] starts, long[] ends, String[] pathnames, long[] values, int size, Filter filter) {
+    long sum = 0;
+    for (int i = 0; i < size; i++) {
+      if (filter.includes(starts[i], ends[i], pathnames[i])) {
+        sum += values[i];
+      }
+    }
+    return sum;
+  }
+
+  /* The value of a numeric field, or of the end address. */
+  private static long value(RegionTable table, int column, int row) {
+    return column == END ? table.end(row) : table.field(column, row);
+  }
+
+  /* Names a region by what stays the same from one dump to the next. */
+  private static String regionKey(RegionTable table, int row) {
+    return Long.toHexString(table.start(row)) + " " + table.permissions(row) + " "
+        + table.pathname(row);
+  }
+
+  synchronized int size() {
+    return times.size();
+  }
+
+  synchronized List<Long> times() {
+    return new ArrayList<>(times);
+  }
+
+  synchronized List<Delta> deltas() {
+    return new ArrayList<>(deltas);
+  }
+
+  /* Roughly how many bytes of heap the series takes, counting the first and last dumps. */
+  synchronized long estimatedBytes() {
+    long bytes = base.estimatedBytes() + 4L * latestRows.length;
+    if (latest != base) {
+      bytes += latest.estimatedBytes();
+    }
+    for (Delta delta : deltas) {
+      bytes += delta.estimatedBytes();
+    }
+    return bytes;
+  }
+}
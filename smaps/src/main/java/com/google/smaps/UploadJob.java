@@ -0,0 +1,329 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * The parsing of one upload, which runs on a small pool of worker threads rather than on the
+ * request's thread, and how far it has got: its stage, the bytes of the dump read and the regions
+ * parsed so far. When every worker is busy, uploads wait in a bounded queue, and an upload that
+ * doesn't fit in the queue is turned away, so a few large uploads can't take every thread of the
+ * server. Each session's latest upload is kept while it runs, however long it waits and takes, and
+ * for a while after it ends, so that its progress can be asked for.
+ *
+ * <p>A large upload is parsed progressively: as it is parsed, it publishes a partial dataset of the
+ * regions parsed so far, which stands in for its dataset until it is done. The first partial
+ * dataset is published after the first buffer of the dump, and then each time the number of
+ * regions has doubled, so that copying and indexing the regions so far costs no more in all than
+ * doing it once more for the whole dump.
+ *
+ * <p>An upload's results, its dataset or the error that stopped it and the file its raw text was
+ * kept in, are held by the job until the session's next request moves them to the session with
+ * {@link #moveResultsTo}, since a session isn't saved for changes made after its request has
+ * ended, and the upload's request ends before the upload does.
+ */
+final class UploadJob implements RegionParser.Progress {
+  // The stages of an upload, in order. An upload ends either DONE or FAILED.
+  static final String QUEUED = "queued";
+  static final String PARSING = "parsing";
+  static final String INDEXING = "indexing";
+  static final String DONE = "done";
+  static final String FAILED = "failed";
+
+  // How many uploads are parsed at once, and how many more can wait. Set with the
+  // smaps.uploadWorkers and smaps.uploadQueue system properties in appengine-web.xml.
+  private static final int WORKER_COUNT = Integer.getInteger("smaps.uploadWorkers", 2);
+  private static final int QUEUE_SIZE = Integer.getInteger("smaps.uploadQueue", 8);
+
+  // The smallest upload, in bytes, that is parsed progressively. Smaller ones are parsed in well
+  // under a second, so there is nothing to gain. Set with the smaps.progressiveBytes system
+  // property in appengine-web.xml.
+  private static final long PROGRESSIVE_BYTES =
+      Long.getLong("smaps.progressiveBytes", 16 * 1024 * 1024);
+
+  // How long an upload's progress can still be asked for once it has ended.
+  private static final long KEEP_MINUTES = 10;
+
+  private static final Executor WORKERS = new ThreadPoolExecutor(
+      WORKER_COUNT,
+      WORKER_COUNT,
+      0,
+      TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(QUEUE_SIZE),
+      new ThreadFactoryBuilder().setNameFormat("smaps-upload-%d").setDaemon(true).build());
+
+  private static final Jobs JOBS = new Jobs(Ticker.systemTicker());
+
+  private final Executor workers;
+  // The length of the dump, or -1 if it isn't known.
+  private final long totalBytes;
+  // Whether partial datasets are published while the dump is parsed.
+  private final boolean progressive;
+
+  // Only the worker parsing the upload changes these, and any thread can read them.
+  private volatile String stage = QUEUED;
+  private volatile long bytesRead;
+  private volatile int regionsParsed;
+  // The latest partial dataset, which is null once the upload has ended.
+  private volatile Dataset partial;
+  // The number of regions at which the next partial dataset is published.
+  private int nextPartial = 1;
+  // Run the first time a partial dataset is published, or null.
+  private Runnable onFirstPartial;
+
+  // The results of the upload once it has ended: the digest of its dataset, or the error for the
+  // user if it failed, and the file its raw text was kept in, if it was.
+  private String datasetId;
+  private String error;
+  private File keptUpload;
+  // Whether the results have been moved to the session.
+  private boolean resultsMoved;
+  // Whether the searches and bounds of the session's previous dump have been reset.
+  private boolean viewReset;
+  // The jobs the upload is the latest of, and the id of its session there, or null if it isn't
+  // kept.
+  private Jobs jobs;
+  private String sessionId;
+
+  /**
+   * The latest upload of each session, by the session's id. An upload that hasn't ended is never
+   * dropped, and one that has is kept for KEEP_MINUTES from when it ended.
+   */
+  static final class Jobs {
+    private final Map<String, UploadJob> running = new HashMap<>();
+    private final Cache<String, UploadJob> ended;
+
+    Jobs(Ticker ticker) {
+      ended = CacheBuilder.newBuilder()
+          .expireAfterWrite(KEEP_MINUTES, TimeUnit.MINUTES)
+          .ticker(ticker)
+          .build();
+    }
+
+    /* Makes the job the latest upload of the session, in place of its previous one. */
+    synchronized void add(String sessionId, UploadJob job) {
+      job.jobs = this;
+      job.sessionId = sessionId;
+      running.put(sessionId, job);
+      ended.invalidate(sessionId);
+    }
+
+    /* Returns the session's latest upload, or null if it has none or it ended too long ago. */
+    synchronized UploadJob get(String sessionId) {
+      UploadJob job = running.get(sessionId);
+      return job != null ? job : ended.getIfPresent(sessionId);
+    }
+
+    /* Starts the time the job is kept for, now that it has ended, unless the session has a later
+     * upload. */
+    private synchronized void end(String sessionId, UploadJob job) {
+      if (running.remove(sessionId, job)) {
+        ended.put(sessionId, job);
+      }
+    }
+  }
+
+  UploadJob(long totalBytes, boolean progressive, Executor workers) {
+    this.totalBytes = totalBytes;
+    this.progressive = progressive;
+    this.workers = workers;
+  }
+
+  /* Creates the upload of a dump of totalBytes to the session, replacing the session's previous
+   * upload, to run on the shared worker pool. The upload is parsed progressively if it is large. */
+  static UploadJob start(HttpSession session, long totalBytes) {
+    UploadJob job = new UploadJob(totalBytes, totalBytes >= PROGRESSIVE_BYTES, WORKERS);
+    JOBS.add(session.getId(), job);
+    return job;
+  }
+
+  /* Whether partial datasets are published while the dump is parsed. */
+  boolean isProgressive() {
+    return progressive;
+  }
+
+  /* Returns the session's latest upload, or null if it hasn't uploaded anything lately. */
+  static UploadJob forSession(HttpSession session) {
+    String id = session.getId();
+    return id == null ? null : JOBS.get(id);
+  }
+
+  /* Queues the work that parses the upload, and returns whether there was room for it. An upload
+   * that wasn't queued has FAILED. */
+  boolean submit(Runnable work) {
+    try {
+      workers.execute(work);
+      return true;
+    } catch (RejectedExecutionException e) {
+      stage = FAILED;
+      ended();
+      return false;
+    }
+  }
+
+  /* Wraps the stream of the dump so that the bytes read from it are counted, and moves the upload
+   * on to PARSING. */
+  InputStream track(InputStream dump) {
+    stage = PARSING;
+    return new ProxyInputStream(dump) {
+      @Override
+      protected void afterRead(int n) {
+        if (n > 0) {
+          bytesRead += n;
+        }
+      }
+    };
+  }
+
+  /* Records how many regions have been parsed, and publishes the regions so far once their number
+   * has doubled since they were last published. */
+  @Override
+  public void parsed(int regionCount, Supplier<RegionTable> regionsSoFar) {
+    regionsParsed = regionCount;
+    if (!progressive || regionCount < nextPartial) {
+      return;
+    }
+    RegionTable regions = regionsSoFar.get();
+    if (regions.isEmpty()) {
+      return;
+    }
+    partial = Dataset.partial(regions);
+    nextPartial = regionCount * 2;
+    if (onFirstPartial != null) {
+      Runnable first = onFirstPartial;
+      onFirstPartial = null;
+      first.run();
+    }
+  }
+
+  /* Sets what to do the first time a partial dataset is published, on the worker's thread. */
+  void onFirstPartial(Runnable onFirstPartial) {
+    this.onFirstPartial = onFirstPartial;
+  }
+
+  /* Returns the latest partial dataset while the upload is being parsed, or null if none has been
+   * published or the upload has ended. */
+  Dataset partial() {
+    return partial;
+  }
+
+  /* Returns the latest partial dataset like partial(), to be shown to the session. The first time
+   * one is shown, the searches and bounds of the previous dump are reset. Must be called on the
+   * thread of one of the session's requests. */
+  synchronized Dataset showPartial(HttpSession session) {
+    Dataset shown = partial;
+    if (shown != null) {
+      resetView(session);
+    }
+    return shown;
+  }
+
+  /* Resets the searches and bounds of the session's previous dump, unless they were already reset
+   * for this upload, since the user may have changed them while its regions were shown. */
+  private void resetView(HttpSession session) {
+    if (!viewReset) {
+      viewReset = true;
+      FileUpload.resetView(session);
+    }
+  }
+
+  /* Moves the upload on to INDEXING, once all of the dump has been parsed. */
+  void startIndexing() {
+    stage = INDEXING;
+  }
+
+  /* Sets the file the raw text of the dump was kept in. */
+  synchronized void keepUpload(File file) {
+    keptUpload = file;
+  }
+
+  /* Ends the upload, as DONE with the dataset of the dump if it was parsed, or as FAILED with the
+   * error for the user if it wasn't. */
+  void finish(Dataset dataset, String error) {
+    synchronized (this) {
+      datasetId = dataset == null ? null : dataset.digest();
+      this.error = error;
+    }
+    // The stage is set first, so a request that no longer finds the partial dataset finds the
+    // results.
+    stage = dataset != null ? DONE : FAILED;
+    partial = null;
+    ended();
+  }
+
+  /* Starts the time the upload is kept for, if it is kept. */
+  private void ended() {
+    if (jobs != null) {
+      jobs.end(sessionId, this);
+    }
+  }
+
+  /**
+   * Moves the results of the upload, once it has ended, to the session: the id of its dataset,
+   * with the searches and bounds of the previous dump reset unless the regions were already shown
+   * while they were parsed, the file its raw text was kept in, and its error. The results are only
+   * moved once, so later dumps of the session, such as a live capture, aren't replaced by them.
+   * Must be called on the thread of one of the session's requests.
+   */
+  synchronized void moveResultsTo(HttpSession session) {
+    if (resultsMoved || !(stage.equals(DONE) || stage.equals(FAILED))) {
+      return;
+    }
+    resultsMoved = true;
+    if (datasetId != null) {
+      session.setAttribute("datasetId", datasetId);
+      resetView(session);
+    }
+    if (keptUpload != null) {
+      session.setAttribute("filename", keptUpload.getPath());
+    }
+    if (error != null) {
+      session.setAttribute("fileErrorMessage", error);
+    }
+  }
+
+  String stage() {
+    return stage;
+  }
+
+  long bytesRead() {
+    return bytesRead;
+  }
+
+  long totalBytes() {
+    return totalBytes;
+  }
+
+  int regionsParsed() {
+    return regionsParsed;
+  }
+}
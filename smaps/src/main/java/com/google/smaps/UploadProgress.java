@@ -0,0 +1,51 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends index.js how far this session's latest upload has got, so it can show the progress of an
+ * upload while the upload's own request is still waiting to be redirected.
+ */
+@WebServlet(name = "UploadProgress", value = "/uploadprogress")
+public class UploadProgress extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UploadJob job = UploadJob.forSession(request.getSession());
+
+    // Progress changes from one request to the next, so it must never be cached.
+    response.setHeader("Cache-Control", "no-store");
+    JsonWriter json = JsonResponse.start(response);
+    json.beginObject();
+    if (job == null) {
+      // Nothing has been uploaded lately.
+      json.name("stage").nullValue();
+    } else {
+      json.name("stage").value(job.stage());
+      json.name("bytesRead").value(job.bytesRead());
+      json.name("totalBytes").value(job.totalBytes());
+      json.name("regionsParsed").value(job.regionsParsed());
+    }
+    json.endObject();
+    json.flush();
+  }
+}
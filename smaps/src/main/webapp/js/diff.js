@@ -0,0 +1,108 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// The kinds of change, and the color each is shown in.
+const CHANGE_COLORS = {
+  'added': '#0F9D58',
+  'grown': '#F4B400',
+  'shrunk': '#4285F4',
+  'removed': '#DB4437',
+};
+
+/* Shows what changed between the baseline dump and the dump uploaded last:
+ * the totals of each field in both dumps, and the mappings that changed,
+ * largest change in Rss first.
+ */
+function drawDiff() {
+  fetch('/diff')
+      .then((response) => {
+        // With no baseline chosen yet, say how to choose one.
+        if (response.status == 409) {
+          document.getElementById('diff-message').innerText =
+              'Choose this dump as the baseline, then upload a later dump of ' +
+              'the same process to see what changed.';
+          return null;
+        }
+        return refineIfPartial(response).json();
+      })
+      .then((diff) => {
+        if (diff == null) {
+          return;
+        }
+        const counts = diff.counts;
+        document.getElementById('diff-message').innerText =
+            counts.added + ' added, ' + counts.removed + ' removed, ' +
+            counts.grown + ' grown, ' + counts.shrunk + ' shrunk and ' +
+            counts.unchanged + ' unchanged mappings.';
+
+        // Add a row of the totals before, after and their change for each
+        // field.
+        const totals = document.getElementById('diff-totals');
+        totals.innerHTML = '';
+        addRow(totals, 'th', ['', 'Before', 'After', 'Change']);
+        for (const total of diff.totals) {
+          addRow(totals, 'td', [
+            total.field, total.before, total.after, signed(total.delta),
+          ]);
+        }
+
+        // Add a row for each mapping that changed.
+        const changes = document.getElementById('diff-changes');
+        changes.innerHTML = '';
+        if (diff.changeCount > diff.changes.length) {
+          document.getElementById('diff-changes-title').innerText =
+              'THE ' + diff.changes.length + ' LARGEST OF ' + diff.changeCount +
+              ' CHANGED MAPPINGS';
+        }
+        addRow(changes, 'th',
+            ['Change', 'Before', 'After', 'Permissions', 'Pathname'].concat(
+                diff.fields));
+        for (const change of diff.changes) {
+          const row = addRow(changes, 'td', [
+            change.kind + (change.moved ? ', moved' : ''),
+            range(change.beforeStart, change.beforeEnd),
+            range(change.afterStart, change.afterEnd),
+            change.permissions,
+            change.pathname,
+          ].concat(change.deltas.map(signed)));
+          row.firstChild.style['color'] = CHANGE_COLORS[change.kind];
+        }
+      });
+}
+
+/* Adds a row of cells of the given tag with the values to the table, and
+ * returns it.
+ */
+function addRow(table, tag, values) {
+  const row = document.createElement('tr');
+  for (const value of values) {
+    const cell = document.createElement(tag);
+    cell.innerText = value;
+    row.appendChild(cell);
+  }
+  table.appendChild(row);
+  return row;
+}
+
+/* Formats an address range, or nothing if the mapping isn't in that dump. */
+function range(start, end) {
+  return start === undefined ? '' : '[' + start + ' - ' + end + ')';
+}
+
+/* Formats a change with its sign, ex: +4. */
+function signed(delta) {
+  return delta > 0 ? '+' + delta : String(delta);
+}
@@ -17,6 +17,24 @@
 // Load the Visualization API and the histogram package.
 google.charts.load('current', {'packages': ['corechart', 'controls']});
 
+// How many bins the histogram is split into, and how they are spaced. Region
+// sizes range over many orders of magnitude, so the bins grow logarithmically.
+const HISTOGRAM_BINS = 60;
+const HISTOGRAM_SCALE = 'log';
+
+let lowerBound;  // Lower bound of size for histogram.
+let upperBound;  // Upper bound of size for histogram.
+let name;        // Path name that filters the histogram.
+
+// Fetch the histogram once; the bounds, path filter and bins are all in the
+// same response.
+const histogramFetch =
+    fetch('/histogram?bins=' + HISTOGRAM_BINS + '&scale=' + HISTOGRAM_SCALE)
+        .then(refineIfPartial)
+        .then((response) => {
+          return response.json();
+        });
+
 // Set the bounds for the slider and text boxes.
 setBounds();
 
@@ -26,30 +44,21 @@ setPathFilter();
 // Set a callback to run when the Google Visualization API is loaded.
 google.charts.setOnLoadCallback(drawHistogramCust);
 
-let lowerBound;  // Lower bound of size for histogram.
-let upperBound;  // Upper bound of size for histogram.
-let name;        // Path name that filters the histogram.
-
 /*
  * Sets the global variables lowerBound and upperBound to be the
  * values sent in from the histogram servlet.
  */
 function setBounds() {
   console.log('setBounds');
-  // Fetches the Json object from the Histogram servlet.
-  fetch('/histogram')
-      .then((response) => {
-        return response.json();
-      })
-      .then((histogramJson) => {
-        // These bounds are in the first index of the Json, so histogramJson[0].
-        lowerBound = histogramJson[0][0];
-        upperBound = histogramJson[0][1];
-
-        // Set the textbox values to be the chosen bounds.
-        document.getElementById('lower-bound').value = lowerBound;
-        document.getElementById('upper-bound').value = upperBound;
-      });
+  histogramFetch.then((histogramJson) => {
+    // These bounds are in the first index of the Json, so histogramJson[0].
+    lowerBound = histogramJson[0][0];
+    upperBound = histogramJson[0][1];
+
+    // Set the textbox values to be the chosen bounds.
+    document.getElementById('lower-bound').value = lowerBound;
+    document.getElementById('upper-bound').value = upperBound;
+  });
 }
 
 /*
@@ -58,88 +67,86 @@ function setBounds() {
  */
 function setPathFilter() {
   console.log('setPathFilter');
-  // Fetches the Json object from the Histogram servlet.
-  fetch('/histogram')
-      .then((response) => {
-        return response.json();
-      })
-      .then((histogramJson) => {
-        // The name is the second item in json list.
-        name = histogramJson[1];
-
-        // Set the path filter textbox to be the chosen path name.
-        document.getElementById('path-filter').value = name;
-      });
+  histogramFetch.then((histogramJson) => {
+    // The name is the second item in json list.
+    name = histogramJson[1];
+
+    // Set the path filter textbox to be the chosen path name.
+    document.getElementById('path-filter').value = name;
+  });
 }
 
 /*
- * Callback that creates and populates the data table for region sizes,
- * instantiates the histogram, passes in the data, and draws it.
+ * Callback that creates and populates the data table for region sizes from
+ * the bins counted by the servlet, instantiates the histogram, passes in the
+ * data, and draws it.
  */
 function drawHistogramCust() {
   console.log('drawHistogramCust');
-  console.log(lowerBound);
-  console.log(upperBound);
-  console.log(name);
-
-  // Fetches the Json object from the Histogram servlet.
-  fetch('/histogram')
-      .then((response) => {
-        return response.json();
-      })
-      .then((histogramJson) => {
-        // Converts histogram Json 2D array into a data table for histogram. The
-        // histogram data is in the third index of the Json, so
-        // histogramJson[2].
-        const data = google.visualization.arrayToDataTable(histogramJson[2]);
-
-        // Creates the dashboard.
-        const dashboard = new google.visualization.Dashboard(
-            document.getElementById('dashboard-div'));
-
-        // Creates the range slider, passing in some options.
-        const histogramRangeSlider = new google.visualization.ControlWrapper({
-          'controlType': 'NumberRangeFilter',
-          'containerId': 'filter-div',
-          'options': {
-            'filterColumnLabel': 'Size',
-            'minValue': lowerBound,
-            'maxValue': upperBound,
-            ui: {
-              cssClass: 'hist-slider',
-              snapToData: true,
-              ticks: 1,
-              unitIncrement: 5,
-              blockIncrement: 100000
-            }
-          }
-        });
-
-        // Sets the chart options.
-        const options = {
-          title: 'Histogram of Region Sizes',
-          titleTextStyle: {color: '#5F6368', fontName: 'Roboto', fontSize: 18},
-          height: 900,
-          colors: ['#4285F4'],
-          legend: {position: 'none'},
-          hAxis: {title: 'Size in KiB'},
-          vAxis: {title: 'Number of Regions'},
-          tooltip: {trigger: 'both'}
-        };
-
-        // Sets the settings for the histogram.
-        const histogram = new google.visualization.ChartWrapper({
-          chartType: 'Histogram',
-          dataTable: data,
-          options: options,
-          containerId: 'chart-div',
-          view: {columns: [0, 1]}
-        });
-
-        // Establishes dependencies.
-        dashboard.bind(histogramRangeSlider, histogram);
 
-        // Instantiates and draws the chart, passing in some options.
-        dashboard.draw(data, options);
-      });
+  histogramFetch.then((histogramJson) => {
+    // The bins are in the third index of the Json, so histogramJson[2]. Each
+    // bin becomes a row with its range as the label, the number of regions in
+    // it, and the size it starts at for the range slider.
+    const bins = histogramJson[2];
+    const data = new google.visualization.DataTable();
+    data.addColumn('string', 'Range');
+    data.addColumn('number', 'Number of Regions');
+    data.addColumn('number', 'Size');
+    for (let i = 0; i < bins.counts.length; i++) {
+      const range = bins.edges[i] + ' - ' + (bins.edges[i + 1] - 1);
+      data.addRow([range, bins.counts[i], bins.edges[i]]);
+    }
+
+    // Creates the dashboard.
+    const dashboard = new google.visualization.Dashboard(
+        document.getElementById('dashboard-div'));
+
+    // Creates the range slider, passing in some options.
+    const histogramRangeSlider = new google.visualization.ControlWrapper({
+      'controlType': 'NumberRangeFilter',
+      'containerId': 'filter-div',
+      'options': {
+        'filterColumnLabel': 'Size',
+        'minValue': histogramJson[0][0],
+        'maxValue': histogramJson[0][1],
+        ui: {
+          cssClass: 'hist-slider',
+          snapToData: true,
+          ticks: 1,
+          unitIncrement: 5,
+          blockIncrement: 100000
+        }
+      }
+    });
+
+    // Sets the chart options.
+    const options = {
+      title: 'Histogram of Region Sizes',
+      titleTextStyle: {color: '#5F6368', fontName: 'Roboto', fontSize: 18},
+      height: 900,
+      colors: ['#4285F4'],
+      legend: {position: 'none'},
+      bar: {groupWidth: '95%'},
+      hAxis: {title: 'Size in KiB'},
+      vAxis: {title: 'Number of Regions'},
+      tooltip: {trigger: 'both'}
+    };
+
+    // Sets the settings for the histogram, which is drawn as columns since
+    // the data is already split into bins.
+    const histogram = new google.visualization.ChartWrapper({
+      chartType: 'ColumnChart',
+      dataTable: data,
+      options: options,
+      containerId: 'chart-div',
+      view: {columns: [0, 1]}
+    });
+
+    // Establishes dependencies.
+    dashboard.bind(histogramRangeSlider, histogram);
+
+    // Instantiates and draws the chart, passing in some options.
+    dashboard.draw(data, options);
+  });
 }
@@ -17,6 +17,15 @@
 // Prints error to index.html if there is one.
 printError();
 
+// Shows the progress of an upload once one of the upload forms is submitted,
+// and the live capture form if the server allows it.
+window.addEventListener('DOMContentLoaded', () => {
+  for (const form of document.querySelectorAll('form[action="/fileupload"]')) {
+    form.addEventListener('submit', showUploadProgress);
+  }
+  showCapture();
+});
+
 /**
  * Sets the error message on index.html if one is sent by FileUpload.java.
  */
@@ -32,4 +41,76 @@ function printError() {
           document.getElementById('error-message').innerHTML = errorJson;
         }
       });
-}
\ No newline at end of file
+}
+
+/**
+ * Polls UploadProgress.java while the upload is parsed, and shows how far it
+ * has got, until the upload's request redirects away from index.html.
+ */
+function showUploadProgress() {
+  const progress = document.getElementById('upload-progress');
+  setInterval(() => {
+    fetch('/uploadprogress')
+        .then((response) => {
+          return response.json();
+        })
+        .then((upload) => {
+          progress.innerText = describeUpload(upload);
+        });
+  }, 500);
+}
+
+/**
+ * Returns the text describing an upload's progress, such as
+ * "Parsing: 12.0 of 48.5 MB read, 1520 regions".
+ */
+function describeUpload(upload) {
+  const megabytes = (bytes) => (bytes / (1024 * 1024)).toFixed(1);
+  switch (upload.stage) {
+    case 'queued':
+      return 'Waiting for other uploads to finish...';
+    case 'parsing':
+      let read = megabytes(upload.bytesRead);
+      if (upload.totalBytes >= 0) {
+        read += ' of ' + megabytes(upload.totalBytes);
+      }
+      return 'Parsing: ' + read + ' MB read, ' + upload.regionsParsed +
+          ' regions';
+    case 'indexing':
+      return 'Indexing ' + upload.regionsParsed + ' regions...';
+    case 'done':
+      return 'Done.';
+    default:
+      return 'Uploading...';
+  }
+}
+
+/**
+ * Shows the live capture form if Capture.java allows captures, and how the
+ * session's capture is going if it has one.
+ */
+function showCapture() {
+  fetch('/capture')
+      .then((response) => {
+        return response.json();
+      })
+      .then((capture) => {
+        if (!capture.enabled) {
+          return;
+        }
+        document.getElementById('live-capture').hidden = false;
+        if (capture.process === undefined) {
+          return;
+        }
+        document.getElementById('stop-capture-btn').hidden = false;
+        let status = 'Capturing process ' + capture.process + ' every ' +
+            capture.intervalMillis + ' ms: ' + capture.samples +
+            ' samples, the last of ' + capture.regions + ' regions (' +
+            capture.parsed + ' parsed) in ' +
+            (capture.lastSampleSeconds * 1000).toFixed(0) + ' ms.';
+        if (capture.error != null) {
+          status += ' ' + capture.error;
+        }
+        document.getElementById('capture-status').innerText = status;
+      });
+}
@@ -33,38 +33,71 @@ function printError() {
       });
 }
 
-/* Creates the memory map visualization from the regions list, colors the
- * regions based on the permissions, and if the user entered an address for a
- * specific region, scrolls to that region and highlights it.
+// The most blocks the memory map is drawn with. When the window has more
+// regions than this, the server merges neighbouring regions into blocks, which
+// can be clicked to zoom in on them.
+const MAP_PIXELS = 2000;
+
+/* Creates the memory map visualization of the regions in the window of
+ * addresses from start to end, or of all of them if no window is given, colors
+ * the regions based on the permissions, and if the user entered an address for
+ * a specific region, scrolls to that region and highlights it.
  */
-function drawRegions() {
-  fetch('/memorymap')
+function drawRegions(start, end) {
+  let url = '/memorymap?pixels=' + MAP_PIXELS;
+  if (start !== undefined) {
+    url += '&start=' + start + '&end=' + end;
+  }
+  fetch(url)
+      .then(refineIfPartial)
       .then((response) => {
         return response.json();
       })
-      .then((memoryMapJson) => {
-        // Get the div that'll hold all the regions.
+      .then((viewport) => {
+        // Get the div that'll hold all the regions, and clear the previous
+        // window from it.
         const memMapDiv = document.getElementById('memory-map-div');
+        memMapDiv.innerHTML = '';
+
+        // When zoomed in, add a button to go back to the whole map.
+        if (start !== undefined) {
+          const wholeMap = document.createElement('button');
+          wholeMap.className = 'btn btn-gray btn-block';
+          wholeMap.innerText = 'SHOW THE WHOLE MEMORY MAP';
+          wholeMap.onclick = () => drawRegions();
+          memMapDiv.appendChild(wholeMap);
+        }
 
-        // Go through each region in the list of regions Json.
-        for (let i = memoryMapJson.length - 1; i >= 0; i--) {
-          // Get attributes for this region from the memory map json.
-          let addressRange = memoryMapJson[i][0];
-          let permissions = memoryMapJson[i][1];
+        // Go through each block, which is a region or several merged regions,
+        // from the highest addresses down.
+        const blocks = viewport.blocks;
+        for (let i = blocks.length - 1; i >= 0; i--) {
+          const block = blocks[i];
 
-          // Create a new div for this region to go in.
+          // Create a new div for this block to go in.
           const regDiv = document.createElement('div');
 
-          // Create the region as a button object.
+          // Create the block as a button object.
           let region = document.createElement('button');
 
-          // Set an ID for the region that is the same as it's location in the
-          // list.
-          region.id = i;
-
           // Style the region with the class called region in style.css.
           region.className = 'region';
 
+          // A single region has an ID that is the same as its location in the
+          // list, and is colored based on its permissions. Merged regions are
+          // colored by the permissions most of their size has, and zoom in on
+          // their addresses when clicked.
+          let permissions = block.permissions;
+          if (block.index !== undefined) {
+            region.id = block.index;
+          } else {
+            permissions = largestPermissions(block.permissionSizes);
+            region.className = 'region region-block';
+            region.dataset.start = block.start;
+            region.dataset.end = block.end;
+            region.onclick = () => drawRegions(block.start, block.end);
+          }
+
           // Adjust the style so that only the last region has a bottom border
           // (because they overlap otherwise and double the width), and also
           // color the region based on permissions.
@@ -80,9 +113,10 @@ function drawRegions() {
           // button), and print a line break after each word so they stack
           // within the button. Add a'[' and ')' to signify inclusion and
           // exclusion.
-          const addressParts = addressRange.split(' ').reverse();
-          addressParts[0] = addressParts[0] + ')';
-          addressParts[2] = '[' + addressParts[2] + ' ';
+          const addressParts = [block.end + ')', '-', '[' + block.start + ' '];
+          if (block.index === undefined) {
+            addressParts.push(block.regions + ' regions');
+          }
           for (const part of addressParts) {
             region.appendChild(document.createTextNode(part));
             region.appendChild(document.createElement('br'));
@@ -103,6 +137,31 @@ function drawRegions() {
       });
 }
 
+/* Returns the permissions that have the most kB of a merged block. */
+function largestPermissions(permissionSizes) {
+  let largest;
+  for (const permissions in permissionSizes) {
+    if (largest === undefined ||
+        permissionSizes[permissions] > permissionSizes[largest]) {
+      largest = permissions;
+    }
+  }
+  return largest;
+}
+
+/* Returns the merged block that the address is in, or null if it isn't in one.
+ * Addresses are compared as 16 hexadecimal digits.
+ */
+function findBlock(address) {
+  const padded = address.padStart(16, '0');
+  for (const block of document.getElementsByClassName('region-block')) {
+    if (block.dataset.start <= padded && padded < block.dataset.end) {
+      return block;
+    }
+  }
+  return null;
+}
+
 /* Scrolls the page to the region in which the address that the user
  * entered is in; if the address is invalid, the search box was
  * empty, or the reset button was clicked, the page will be set at the top.
@@ -126,8 +185,17 @@ function scrollToRegion() {
           // Refill the textbox with the user-entered number.
           document.getElementById('address-input').value = address;
 
-          // Get the region that has the index as it's ID.
+          // Get the region that has the index as it's ID. If it was merged into
+          // a block, zoom in on the block, which scrolls to the region again once
+          // it is drawn.
           const region = document.getElementById(index);
+          if (region == null) {
+            const block = findBlock(searchAddressJson[3].startLoc);
+            if (block != null) {
+              drawRegions(block.dataset.start, block.dataset.end);
+            }
+            return;
+          }
 
           // Give the region a glow to highlight it by giving it a yellow box
           // shadow, adding a bottom border that it didn't have before, and
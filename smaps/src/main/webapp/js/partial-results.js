@@ -0,0 +1,39 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// How long to wait before asking again for results that are still partial.
+const REFINE_DELAY_MS = 1000;
+
+/**
+ * Checks whether a response was made from all of the uploaded dump. If it was
+ * only made from the regions parsed so far, says so on the page and reloads
+ * the page shortly to show more of them. If there is no dump at all, because
+ * it couldn't be parsed, goes back to index.html where the error is shown.
+ * Returns the response, so it can be used in a chain of promises.
+ */
+function refineIfPartial(response) {
+  if (response.status == 400) {
+    window.location.href = '/index.html';
+  } else if (response.headers.get('X-Smaps-Complete') == 'false') {
+    const note = document.getElementById('partial-results');
+    if (note) {
+      note.innerText =
+          'The file is still being parsed, so only part of it is shown.';
+    }
+    setTimeout(() => window.location.reload(), REFINE_DELAY_MS);
+  }
+  return response;
+}
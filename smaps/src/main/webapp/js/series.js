@@ -0,0 +1,88 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+google.charts.load('current', {'packages': ['corechart']});
+google.charts.setOnLoadCallback(drawSeries);
+
+/* Adds the chosen dumps to the series one at a time, in the order they were
+ * chosen, each taken at its file's last modified time, then charts the series.
+ */
+async function uploadSnapshots() {
+  const files = Array.from(document.getElementById('series-files').files);
+  let newSeries = document.getElementById('new-series').checked;
+  for (const file of files) {
+    const form = new FormData();
+    form.append('smapsFile', file);
+    form.append('time', file.lastModified);
+    if (newSeries) {
+      form.append('new-series', 'true');
+      newSeries = false;
+    }
+    const response = await fetch('/series', {method: 'POST', body: form});
+    if (!response.ok) {
+      document.getElementById('series-message').innerText =
+          file.name + ': ' + await response.text();
+      return;
+    }
+    const added = await response.json();
+    document.getElementById('series-message').innerText =
+        added.snapshots + ' dumps in the series, taking ' +
+        Math.round(added.storedBytes / 1024) + ' KiB.';
+  }
+  drawSeries();
+}
+
+/* Charts the sum of the chosen field over the regions with the pathname or in
+ * the address range in each dump of the series.
+ */
+function drawSeries() {
+  const params = new URLSearchParams();
+  params.append('field', document.getElementById('series-field').value);
+  for (const name of ['path', 'start', 'end']) {
+    const value = document.getElementById('series-' + name).value;
+    if (value != '') {
+      params.append(name, value);
+    }
+  }
+  fetch('/series?' + params)
+      .then((response) => {
+        // With no series started yet, say how to start one.
+        if (!response.ok) {
+          document.getElementById('series-message').innerText =
+              'Add dumps of one process, oldest first, to chart them over time.';
+          return null;
+        }
+        return response.json();
+      })
+      .then((series) => {
+        if (series == null) {
+          return;
+        }
+        const data = new google.visualization.DataTable();
+        data.addColumn('datetime', 'Taken');
+        data.addColumn('number', series.field + ' (KiB)');
+        for (let i = 0; i < series.times.length; i++) {
+          data.addRow([new Date(series.times[i]), series.sums[i]]);
+        }
+        const chart = new google.visualization.LineChart(
+            document.getElementById('series-chart'));
+        chart.draw(data, {
+          'height': 500,
+          'legend': {'position': 'bottom'},
+          'pointSize': 4,
+        });
+      });
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link AddressIndex}.
+ */
+@RunWith(JUnit4.class)
+public class AddressIndexTest {
+  private static Region region(String startLoc, String endLoc) {
+    return Region.builder()
+        .setLineNumber(1)
+        .setStartLoc(startLoc)
+        .setEndLoc(endLoc)
+        .setPermissions("rw-p")
+        .setOffset("00000000")
+        .setDevice("00:00")
+        .setInode(0)
+        .setSize(4)
+        .setVmFlags(new ArrayList<String>())
+        .build();
+  }
+
+  @Test
+  public void sortedRegions() {
+    // Tests that addresses are found in sorted regions, including at the top of the address space,
+    // and that the gaps between regions aren't in any region.
+    List<Region> regions = Arrays.asList(
+        region("1000", "2000"),
+        region("3000", "4000"),
+        region("ffffffffff600000", "ffffffffff601000"));
+    AddressIndex index = AddressIndex.of(regions);
+
+    assertEquals(-1, index.find(0));
+    assertEquals(0, index.find(0x1000));
+    assertEquals(0, index.find(0x1fff));
+    assertEquals(-1, index.find(0x2000));
+    assertEquals(1, index.find(0x3abc));
+    assertEquals(2, index.find(0xffffffffff600fffL));
+    assertEquals(-1, index.find(0xffffffffffffffffL));
+  }
+
+  @Test
+  public void unsortedRegions() {
+    // Tests that regions out of order are found, and that where regions overlap the later one in
+    // the list is found.
+    List<Region> regions = Arrays.asList(
+        region("5000", "6000"),
+        region("1000", "4000"),
+        region("2000", "3000"));
+    AddressIndex index = AddressIndex.of(regions);
+
+    assertEquals(0, index.find(0x5800));
+    assertEquals(1, index.find(0x1000));
+    assertEquals(2, index.find(0x2000));
+    assertEquals(1, index.find(0x3000));
+    assertEquals(-1, index.find(0x4000));
+  }
+
+  @Test
+  public void findSorted() {
+    // Tests that sorted addresses are found in one pass, including several in the same region and
+    // addresses past the last region.
+    List<Region> regions = Arrays.asList(
+        region("1000", "2000"),
+        region("3000", "4000"),
+        region("ffffffffff600000", "ffffffffff601000"));
+    AddressIndex index = AddressIndex.of(regions);
+
+    long[] addresses = {0, 0x1000, 0x1fff, 0x2000, 0x3000, 0x3fff, 0xffffffffff600000L, -1L};
+    int[] expected = {-1, 0, 0, -1, 1, 1, 2, -1};
+    assertArrayEquals(expected, index.findSorted(addresses));
+  }
+
+  @Test
+  public void emptyList() {
+    // Tests that nothing is found when there are no regions.
+    assertEquals(-1, AddressIndex.of(new ArrayList<Region>()).find(0x1000));
+  }
+
+  @Test
+  public void firstEndingAfter() {
+    // Tests that the first range ending after an address is found, whether the address is before,
+    // in, between or after the ranges.
+    List<Region> regions = Arrays.asList(
+        region("1000", "2000"),
+        region("3000", "4000"),
+        region("ffffffffff600000", "ffffffffff601000"));
+    AddressIndex index = AddressIndex.of(regions);
+
+    assertEquals(0, index.firstEndingAfter(0));
+    assertEquals(0, index.firstEndingAfter(0x1fff));
+    assertEquals(1, index.firstEndingAfter(0x2000));
+    assertEquals(2, index.firstEndingAfter(0x4000));
+    assertEquals(3, index.firstEndingAfter(0xffffffffff601000L));
+    assertEquals(3, index.rangeCount());
+    assertEquals(0x3000, index.rangeStart(1));
+    assertEquals(0x4000, index.rangeEnd(1));
+    assertEquals(1, index.region(1));
+  }
+
+  @Test
+  public void firstStartingAt() {
+    // Tests that the first range starting at or after an address is found, whether the address is
+    // before, at the start of, in or after the ranges.
+    List<Region> regions = Arrays.asList(
+        region("1000", "2000"),
+        region("3000", "4000"),
+        region("ffffffffff600000", "ffffffffff601000"));
+    AddressIndex index = AddressIndex.of(regions);
+
+    assertEquals(0, index.firstStartingAt(0));
+    assertEquals(0, index.firstStartingAt(0x1000));
+    assertEquals(1, index.firstStartingAt(0x1001));
+    assertEquals(2, index.firstStartingAt(0x3fff));
+    assertEquals(2, index.firstStartingAt(0xffffffffff600000L));
+    assertEquals(3, index.firstStartingAt(0xffffffffff600001L));
+  }
+}
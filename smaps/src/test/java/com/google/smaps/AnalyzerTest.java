@@ -18,8 +18,6 @@ package com.google.smaps;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
-import com.google.common.collect.ImmutableRangeMap;
-import java.math.BigInteger;
 import java.util.List;
 import javax.servlet.http.HttpSession;
 import org.junit.Before;
@@ -51,46 +49,31 @@ public class AnalyzerTest {
   }
 
   @Test
-  public void createRangeMap() {
-    // Tests that the range map was properly created for the regions from smaps-full.txt and
+  public void createAddressIndex() {
+    // Tests that the address index was properly created for the regions from smaps-full.txt and
     // functions as expected.
-    ImmutableRangeMap<BigInteger, Region> addressRangeMap = Analyzer.makeRangeMap(regionList);
-
-    // Variables for testing addresses in range map.
-    Region r;
-    BigInteger start;
-    BigInteger within;
-    BigInteger end;
-
-    // Get the first region.
-    r = regionList.get(0);
+    AddressIndex addressIndex = Analyzer.makeAddressIndex(regionList);
 
     // Start of the address range of first region (inclusive).
-    start = new BigInteger("16ec0000000", 16);
-    assertEquals(addressRangeMap.get(start), r);
+    assertEquals(0, addressIndex.find(0x16ec0000000L));
 
     // Somewhere within the address range of first region.
-    within = new BigInteger("16ec0000035", 16);
-    assertEquals(addressRangeMap.get(within), r);
+    assertEquals(0, addressIndex.find(0x16ec0000035L));
 
     // End of the address range of first region (exclusive).
-    end = new BigInteger("16efa600000", 16);
-    assertNotEquals(addressRangeMap.get(end), r);
+    assertNotEquals(0, addressIndex.find(0x16efa600000L));
 
-    // Get the last region.
-    r = regionList.get(1071);
+    // Before the first region.
+    assertEquals(-1, addressIndex.find(0x77fdL));
 
-    // Start of the address range of last region (inclusive).
-    start = new BigInteger("ffffffffff600000", 16);
-    assertEquals(addressRangeMap.get(start), r);
+    // Start of the address range of last region (inclusive), which is above 2^63.
+    assertEquals(1071, addressIndex.find(0xffffffffff600000L));
 
     // Somewhere within the address range of last region.
-    within = new BigInteger("ffffffffff600050", 16);
-    assertEquals(addressRangeMap.get(within), r);
+    assertEquals(1071, addressIndex.find(0xffffffffff600050L));
 
     // End of the address range of last region (exclusive).
-    end = new BigInteger("ffffffffff601000", 16);
-    assertNotEquals(addressRangeMap.get(end), r);
+    assertEquals(-1, addressIndex.find(0xffffffffff601000L));
   }
 
   @Test
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link BatchAnalyzer}.
+ */
+@RunWith(JUnit4.class)
+public class BatchAnalyzerTest {
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+  private int run(String... args) {
+    return BatchAnalyzer.run(args, new PrintStream(out, true), new PrintStream(err, true));
+  }
+
+  private String out() {
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String err() {
+    return new String(err.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void summary_json() {
+    // Tests that each file gets one line of Json, in the order the files were given.
+    assertEquals(0, run("--threads=2", "../smaps-small.txt", "../smaps-full.txt"));
+
+    String[] lines = out().split("\n");
+    assertEquals(2, lines.length);
+    assertThat(lines[0]).startsWith("{\"file\":\"../smaps-small.txt\",\"regions\":6,"
+        + "\"totals\":{\"Size\":");
+    assertThat(lines[1]).startsWith("{\"file\":\"../smaps-full.txt\",\"regions\":1072,");
+    assertEquals("", err());
+  }
+
+  @Test
+  public void moreFilesThanQueued() {
+    // Tests that files beyond the ones queued ahead are still each printed once, in order.
+    assertEquals(0, run("--threads=1", "../smaps-small.txt", "../smaps-full.txt",
+        "../smaps-small.txt", "../smaps-full.txt", "../smaps-small.txt"));
+
+    String[] lines = out().split("\n");
+    assertEquals(5, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      assertThat(lines[i]).startsWith(i % 2 == 0
+          ? "{\"file\":\"../smaps-small.txt\",\"regions\":6,"
+          : "{\"file\":\"../smaps-full.txt\",\"regions\":1072,");
+    }
+  }
+
+  @Test
+  public void top_csv() {
+    // Tests that the top regions by the field are listed largest first, and only among the
+    // regions with the name in their pathname.
+    assertEquals(0, run("--format=csv", "--report=top", "--top=2", "--field=Size",
+        "--path=memfd", "../smaps-full.txt"));
+
+    String[] lines = out().split("\n");
+    assertEquals("file,rank,start,end,permissions,pathname,Size", lines[0]);
+    assertEquals(3, lines.length);
+    assertThat(lines[1]).startsWith("../smaps-full.txt,1,");
+    assertThat(lines[1]).contains("memfd");
+    long first = Long.parseLong(lines[1].substring(lines[1].lastIndexOf(',') + 1));
+    long second = Long.parseLong(lines[2].substring(lines[2].lastIndexOf(',') + 1));
+    assertTrue(first >= second);
+  }
+
+  @Test
+  public void histogramAndLookup_json() {
+    // Tests that the histogram counts every region, and that addresses are found in the region
+    // that holds them, with or without 0x, and not found outside every region.
+    assertEquals(0, run("--report=histogram,lookup", "--bins=4",
+        "--address=0x1425a8000000,1425c0000001,1", "../smaps-small.txt"));
+
+    String line = out().trim();
+    assertThat(line).contains("\"histogram\":{\"field\":\"Rss\",\"scale\":\"linear\",");
+    assertThat(line).contains("\"lookups\":[{\"address\":\"1425a8000000\",\"region\":"
+        + "{\"start\":\"1425a8000000\",\"end\":\"1425c0000000\",\"permissions\":\"rw-p\"");
+    assertThat(line).contains("{\"address\":\"1425c0000001\",\"region\":"
+        + "{\"start\":\"1425c0000000\"");
+    assertThat(line).contains("{\"address\":\"1\",\"region\":null}");
+    String counts = line.substring(line.indexOf("\"counts\":[") + 10);
+    long total = 0;
+    for (String count : counts.substring(0, counts.indexOf(']')).split(",")) {
+      total += Long.parseLong(count);
+    }
+    assertEquals(6, total);
+  }
+
+  @Test
+  public void badFile() {
+    // Tests that a file that isn't a dump is reported without stopping the other files.
+    assertEquals(1, run("../smaps-wrong-format.txt", "not-a-file.txt", "../smaps-small.txt"));
+
+    String[] lines = out().split("\n");
+    assertEquals(3, lines.length);
+    assertThat(lines[0]).startsWith("{\"file\":\"../smaps-wrong-format.txt\",\"error\":");
+    assertEquals("{\"file\":\"not-a-file.txt\",\"error\":\"File not found.\"}", lines[1]);
+    assertThat(lines[2]).startsWith("{\"file\":\"../smaps-small.txt\",\"regions\":6,");
+    assertThat(err()).contains("not-a-file.txt: File not found.");
+  }
+
+  @Test
+  public void badArguments() {
+    // Tests that wrong arguments print the usage and nothing else.
+    assertEquals(2, run("--field=NotAField", "../smaps-small.txt"));
+    assertEquals(2, run("--format=csv", "--report=summary,top", "../smaps-small.txt"));
+    assertEquals(2, run("--report=summary"));
+
+    assertEquals("", out());
+    assertThat(err()).contains("Unknown field: NotAField");
+    assertThat(err()).contains(BatchAnalyzer.USAGE);
+  }
+
+  @Test
+  public void csvQuotes() {
+    // Tests that CSV values holding commas or quotes are quoted.
+    assertEquals("plain", BatchAnalyzer.csv("plain"));
+    assertEquals("\"a,\"\"b\"\"\"", BatchAnalyzer.csv("a,\"b\""));
+  }
+}
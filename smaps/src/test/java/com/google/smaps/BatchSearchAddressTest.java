@@ -0,0 +1,134 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Unit tests for {@link BatchSearchAddress}.
+ */
+@RunWith(JUnit4.class)
+public class BatchSearchAddressTest {
+  private static final String FAKE_URL = "fake.fk/batchsearchaddress";
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock private HttpServletRequest mockRequest;
+  @Mock private HttpServletResponse mockResponse;
+  private StringWriter responseWriter;
+  private BatchSearchAddress servletUnderTest;
+  private HttpSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    // Sets up the servlet and mock request and response.
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+
+    //  Sets up some fake HTTP requests.
+    when(mockRequest.getRequestURI()).thenReturn(FAKE_URL);
+
+    // Sets up a fake HTTP response.
+    responseWriter = new StringWriter();
+    when(mockResponse.getWriter()).thenReturn(new PrintWriter(responseWriter));
+
+    // Create an instance of the BatchSearchAddress servlet.
+    servletUnderTest = new BatchSearchAddress();
+
+    // Creates a session with the dataset of smaps-full.txt.
+    session = mock(HttpSession.class);
+    List<Region> regions = Analyzer.makeRegionList("../smaps-full.txt", session);
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("batch-search-address-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
+    when(mockRequest.getSession()).thenReturn(session);
+  }
+
+  @After
+  public void tearDown() {
+    // Tears down the Servlet after tests are done.
+    helper.tearDown();
+  }
+
+  @Test
+  public void doPost_writesResponseForLines() throws Exception {
+    // Tests that addresses given one per line are answered in the order they were given, with
+    // their region, pathname and offset into the region.
+    when(mockRequest.getReader()).thenReturn(new BufferedReader(
+        new StringReader("0xffffffffff600010\n\n16ec0000007\n77fd\nnot hex\n")));
+
+    servletUnderTest.doPost(mockRequest, mockResponse);
+
+    String response = responseWriter.toString();
+    assertThat(response)
+        .named("BatchSearchAddress response")
+        .startsWith("[{\"address\":\"0xffffffffff600010\",\"index\":1071,"
+            + "\"pathname\":\"[vsyscall]\",\"offset\":\"10\"},"
+            + "{\"address\":\"16ec0000007\",\"index\":0,\"pathname\":\"\",\"offset\":\"7\"},");
+    assertThat(response)
+        .named("BatchSearchAddress response")
+        .contains("{\"address\":\"77fd\",\"index\":-1,"
+            + "\"error\":\"No region in which address [77fd] can be found.\"}");
+    assertThat(response)
+        .named("BatchSearchAddress response")
+        .contains("{\"address\":\"not hex\",\"index\":-1,"
+            + "\"error\":\"Address [not hex] is not a valid hexadecimal number.\"}]");
+  }
+
+  @Test
+  public void doPost_writesResponseForJson() throws Exception {
+    // Tests that addresses can be given as a Json array.
+    when(mockRequest.getContentType()).thenReturn("application/json; charset=utf-8");
+    when(mockRequest.getReader())
+        .thenReturn(new BufferedReader(new StringReader("[\"16ec0000007\", \"16ec0000008\"]")));
+
+    servletUnderTest.doPost(mockRequest, mockResponse);
+
+    assertThat(responseWriter.toString())
+        .named("BatchSearchAddress response")
+        .isEqualTo("[{\"address\":\"16ec0000007\",\"index\":0,\"pathname\":\"\",\"offset\":\"7\"},"
+            + "{\"address\":\"16ec0000008\",\"index\":0,\"pathname\":\"\",\"offset\":\"8\"}]");
+  }
+
+  @Test
+  public void doPost_noUpload() throws Exception {
+    // Tests that a request before any file is uploaded is rejected.
+    HttpSession emptySession = mock(HttpSession.class);
+    when(mockRequest.getSession()).thenReturn(emptySession);
+
+    servletUnderTest.doPost(mockRequest, mockResponse);
+
+    verify(mockResponse)
+        .sendError(HttpServletResponse.SC_BAD_REQUEST, "No smaps file has been uploaded.");
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link Capture}.
+ */
+@RunWith(JUnit4.class)
+public class CaptureTest {
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private HttpSession session;
+  // The stream the response's writer writes to.
+  private ResponseOutputStream responseStream;
+
+  @Before
+  public void setUp() throws Exception {
+    // Sets up a fake request and response for a session.
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    session = mock(HttpSession.class);
+    responseStream = new ResponseOutputStream();
+    when(request.getSession()).thenReturn(session);
+    when(session.getId()).thenReturn("capture-test");
+    when(response.getWriter()).thenReturn(
+        new PrintWriter(new OutputStreamWriter(responseStream, StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void doPost_disabled() throws Exception {
+    // Tests that a capture isn't started unless live capture is enabled, which it isn't in tests.
+    when(request.getParameter("pid")).thenReturn("self");
+
+    new Capture().doPost(request, response);
+
+    verify(session).setAttribute("fileErrorMessage", Capture.DISABLED_MESSAGE);
+    verify(response).sendRedirect("/index.html");
+  }
+
+  @Test
+  public void doPost_stop() throws Exception {
+    // Tests that stopping a capture sends the user back to the upload page.
+    when(request.getParameter("stop-capture-btn")).thenReturn("STOP");
+
+    new Capture().doPost(request, response);
+
+    verify(response).sendRedirect("/index.html");
+  }
+
+  @Test
+  public void doGet_noCapture() throws Exception {
+    // Tests that a session without a capture is only told whether live capture is enabled.
+    new Capture().doGet(request, response);
+
+    assertThat(responseStream.toString()).isEqualTo("{\"enabled\":false}");
+  }
+}
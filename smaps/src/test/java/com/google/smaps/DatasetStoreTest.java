@@ -0,0 +1,182 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link DatasetStore}.
+ */
+@RunWith(JUnit4.class)
+public class DatasetStoreTest {
+  private List<Region> regions;
+
+  @Before
+  public void createRegionList() {
+    // Creates the regions list from smaps-full.txt file.
+    regions = Analyzer.makeRegionList("../smaps-full.txt", mock(HttpSession.class));
+  }
+
+  @Test
+  public void putKeepsFirstDataset() {
+    // Tests that a second dataset of the same dump gives back the one already stored.
+    DatasetStore store = new DatasetStore(1L << 30, 1, TimeUnit.HOURS);
+    Dataset first = store.put(Dataset.of("abc", regions));
+    Dataset second = store.put(Dataset.of("abc", regions));
+
+    assertSame(first, second);
+    assertSame(first, store.get("abc"));
+    assertNull(store.get("def"));
+    assertEquals(1072, first.regions().size());
+    assertEquals(4, first.minSize());
+    assertEquals(20832256, first.maxSize());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    // Tests that the least recently used dataset is dropped once the budget would be exceeded.
+    long bytes = Dataset.of("a", regions).estimatedBytes();
+    DatasetStore store = new DatasetStore(bytes * 5 / 2, 1, TimeUnit.HOURS);
+    store.put(Dataset.of("a", regions));
+    store.put(Dataset.of("b", regions));
+    assertNotNull(store.get("a"));
+    store.put(Dataset.of("c", regions));
+
+    assertNotNull(store.get("a"));
+    assertNull(store.get("b"));
+    assertNotNull(store.get("c"));
+    assertTrue(store.estimatedBytes() <= bytes * 5 / 2);
+    assertEquals(1, store.stats().evictionCount());
+  }
+
+  @Test
+  public void rejectsDatasetOverBudget() {
+    // Tests that a dataset heavier than the whole budget is turned away with a message for the
+    // user, rather than stored and dropped at once, and that the stored datasets are kept.
+    long bytes = Dataset.of("a", regions).estimatedBytes();
+    DatasetStore store = new DatasetStore(bytes + 2048, 1, TimeUnit.HOURS);
+    store.put(Dataset.of("a", regions));
+    List<Region> twice = new ArrayList<>(regions);
+    twice.addAll(regions);
+    try {
+      store.put(Dataset.of("b", twice));
+      fail();
+    } catch (DatasetStore.TooLargeException e) {
+      assertEquals(e.getMessage(), FileParser.errorMessage(e));
+    }
+
+    assertNull(store.get("b"));
+    assertNotNull(store.get("a"));
+    assertEquals(0, store.stats().evictionCount());
+  }
+
+  @Test
+  public void expiresUnusedDatasets() throws Exception {
+    // Tests that a dataset that isn't used for longer than the time to live is dropped.
+    DatasetStore store = new DatasetStore(1L << 30, 50, TimeUnit.MILLISECONDS);
+    store.put(Dataset.of("a", regions));
+    assertNotNull(store.get("a"));
+    Thread.sleep(100);
+
+    assertNull(store.get("a"));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    // Tests that the store's statistics count the datasets found and not found.
+    DatasetStore store = new DatasetStore(1L << 30, 1, TimeUnit.HOURS);
+    store.put(Dataset.of("a", regions));
+    store.get("a");
+    store.get("a");
+    store.get("b");
+
+    assertEquals(2, store.stats().hitCount());
+    assertEquals(1, store.stats().missCount());
+  }
+
+  @Test
+  public void forSession() {
+    // Tests that a session's dataset is found by the id it holds.
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("dataset-store-test", regions));
+    HttpSession session = mock(HttpSession.class);
+    when(session.getAttribute("datasetId")).thenReturn("dataset-store-test");
+
+    assertSame(dataset, DatasetStore.forSession(session));
+    assertNull(DatasetStore.forSession(mock(HttpSession.class)));
+  }
+
+  @Test
+  public void forSession_partial() {
+    // Tests that a session whose upload is still being parsed is given the regions parsed so far,
+    // with its view reset when they are first shown and not again, and its stored dataset once the
+    // upload has ended.
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("dataset-store-partial-test", regions));
+    HttpSession session = mock(HttpSession.class);
+    when(session.getId()).thenReturn("dataset-store-partial-test");
+    when(session.getAttribute("datasetId")).thenReturn("dataset-store-partial-test");
+    UploadJob job = UploadJob.start(session, Long.MAX_VALUE);
+    RegionTable table = RegionTable.copyOf(regions);
+    job.parsed(10, () -> RegionTable.builder().addAll(table).build(10));
+
+    Dataset partial = DatasetStore.forSession(session);
+    assertFalse(partial.isComplete());
+    assertEquals(regions.subList(0, 10), partial.regions());
+    verify(session).setAttribute("postFired", false);
+
+    job.finish(dataset, null);
+    assertTrue(DatasetStore.forSession(session).isComplete());
+    verify(session).setAttribute("datasetId", "dataset-store-partial-test");
+    verify(session).setAttribute("postFired", false);
+  }
+
+  @Test
+  public void fileDigestsFollowChanges() throws Exception {
+    // Tests that a file's dataset is found until the file changes.
+    File file = File.createTempFile("smaps-cache-test-", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "text".getBytes(StandardCharsets.UTF_8));
+    DatasetStore store = new DatasetStore(1L << 30, 1, TimeUnit.HOURS);
+    Dataset dataset = store.putFile(file, Dataset.of("abc", regions));
+
+    assertSame(dataset, store.getFile(file));
+    assertTrue(file.setLastModified(file.lastModified() - 10000));
+    assertNull(store.getFile(file));
+  }
+
+  @Test
+  public void toHex() {
+    // Tests that digests are named by their lowercase hexadecimal value.
+    MessageDigest digest = DatasetStore.newDigest();
+    digest.update("abc".getBytes(StandardCharsets.UTF_8));
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+        DatasetStore.toHex(digest));
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link Diff}.
+ */
+@RunWith(JUnit4.class)
+public class DiffTest {
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private HttpSession session;
+  private ResponseOutputStream responseStream;
+  private Dataset full;
+  private Dataset small;
+
+  @Before
+  public void setUp() throws Exception {
+    // Sets up a fake request and response for a session, and stores two dumps.
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    session = mock(HttpSession.class);
+    responseStream = new ResponseOutputStream();
+    when(request.getSession()).thenReturn(session);
+    when(response.getOutputStream()).thenReturn(responseStream);
+
+    List<Region> fullRegions = Analyzer.makeRegionList("../smaps-full.txt", session);
+    List<Region> smallRegions = Analyzer.makeRegionList("../smaps-small.txt", session);
+    full = DatasetStore.shared().put(Dataset.of("diff-test-full", fullRegions));
+    small = DatasetStore.shared().put(Dataset.of("diff-test-small", smallRegions));
+  }
+
+  @Test
+  public void doPost_setsBaseline() throws Exception {
+    // Tests that the session's current dump becomes its baseline.
+    when(session.getAttribute("datasetId")).thenReturn(small.digest());
+
+    new Diff().doPost(request, response);
+
+    verify(session).setAttribute("baselineDatasetId", small.digest());
+    verify(response).sendRedirect("/diff.html");
+  }
+
+  @Test
+  public void doGet_writesDiff() throws Exception {
+    // Tests that the changes from the baseline to the current dump are sent.
+    when(session.getAttribute("datasetId")).thenReturn(full.digest());
+    when(session.getAttribute("baselineDatasetId")).thenReturn(small.digest());
+    when(request.getParameter("limit")).thenReturn("1");
+
+    new Diff().doGet(request, response);
+
+    // The small dump's regions are all in the full dump, which has 1066 more.
+    assertThat(responseStream.toString()).startsWith(
+        "{\"fields\":[\"Size\",\"Rss\",\"Pss\",\"Swap\",\"Private_Dirty\"],"
+            + "\"counts\":{\"added\":1066,\"removed\":0,\"grown\":0,\"shrunk\":0,"
+            + "\"unchanged\":6},");
+    assertThat(responseStream.toString()).contains("\"changeCount\":1066,\"changes\":[{");
+  }
+
+  @Test
+  public void doGet_noBaseline() throws Exception {
+    // Tests that a session that hasn't chosen a baseline is told so.
+    when(session.getAttribute("datasetId")).thenReturn(full.digest());
+
+    new Diff().doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_CONFLICT, Diff.NO_BASELINE_MESSAGE);
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.smaps.TestDumps.dump;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link DumpDiff}.
+ */
+@RunWith(JUnit4.class)
+public class DumpDiffTest {
+  /* The changes of the diff by their start address in the later dump, or in the earlier one if it
+   * was removed. */
+  private static Map<String, DumpDiff.Change> byStart(DumpDiff diff) {
+    Map<String, DumpDiff.Change> changes = new HashMap<>();
+    for (DumpDiff.Change change : diff.changes()) {
+      String start = change.afterStart() != null ? change.afterStart() : change.beforeStart();
+      changes.put(start.replaceFirst("^0+", ""), change);
+    }
+    return changes;
+  }
+
+  @Test
+  public void classifiesMappings() throws Exception {
+    // Tests that mappings are matched by address, then by pathname and offset, and each is found
+    // to be added, removed, grown, shrunk or unchanged.
+    RegionTable before = dump(
+        "1000-3000 rw-p 00000000 00:00 0 [heap]", 8, 8,
+        "10000-12000 r-xp 00000000 08:01 7 /lib/a.so", 8, 8,
+        "20000-21000 rw-p 00000000 00:00 0", 4, 4,
+        "30000-31000 rw-p 00000000 00:00 0 [stack]", 4, 4,
+        "40000-41000 r--p 00002000 08:01 9 /lib/b.so", 4, 0);
+    RegionTable after = dump(
+        "1000-5000 rw-p 00000000 00:00 0 [heap]", 16, 8,
+        "10000-12000 r-xp 00000000 08:01 7 /lib/a.so", 8, 4,
+        "30000-31000 rw-p 00000000 00:00 0 [stack]", 4, 4,
+        "50000-51000 r--p 00002000 08:01 9 /lib/b.so", 4, 4,
+        "60000-61000 rw-p 00000000 00:00 0", 4, 4);
+    DumpDiff diff = DumpDiff.compute(before, after, 100);
+
+    Map<String, DumpDiff.Change> changes = byStart(diff);
+    assertEquals(DumpDiff.GROWN, changes.get("1000").kind());
+    assertEquals(8, changes.get("1000").delta(0));
+    assertEquals(DumpDiff.SHRUNK, changes.get("10000").kind());
+    assertEquals(-4, changes.get("10000").delta(1));
+    assertEquals(DumpDiff.REMOVED, changes.get("20000").kind());
+    assertEquals(-4, changes.get("20000").delta(1));
+    assertEquals(DumpDiff.GROWN, changes.get("50000").kind());
+    assertTrue(changes.get("50000").moved());
+    assertEquals(DumpDiff.ADDED, changes.get("60000").kind());
+    assertFalse(changes.containsKey("30000"));
+
+    assertEquals(5, diff.changeCount());
+    assertEquals(Integer.valueOf(1), diff.counts().get(DumpDiff.UNCHANGED));
+    assertEquals(Integer.valueOf(2), diff.counts().get(DumpDiff.GROWN));
+    DumpDiff.Total rss = diff.totals().get(1);
+    assertEquals(24, rss.before());
+    assertEquals(24, rss.after());
+    assertEquals(0, rss.delta());
+    assertEquals(8, diff.totals().get(0).delta());
+  }
+
+  @Test
+  public void keepsLargestChanges() throws Exception {
+    // Tests that only the largest changes in Rss are kept, largest first, while all of them are
+    // counted.
+    RegionTable before = dump(
+        "1000-2000 rw-p 00000000 00:00 0", 4, 1,
+        "2000-3000 rw-p 00000000 00:00 0", 4, 1,
+        "3000-4000 rw-p 00000000 00:00 0", 4, 1);
+    RegionTable after = dump(
+        "1000-2000 rw-p 00000000 00:00 0", 4, 2,
+        "2000-3000 rw-p 00000000 00:00 0", 4, 4,
+        "3000-4000 rw-p 00000000 00:00 0", 4, 3);
+    DumpDiff diff = DumpDiff.compute(before, after, 2);
+
+    List<DumpDiff.Change> changes = diff.changes();
+    assertEquals(3, diff.changeCount());
+    assertEquals(2, changes.size());
+    assertEquals(3, changes.get(0).delta(1));
+    assertEquals(2, changes.get(1).delta(1));
+  }
+
+  @Test
+  public void unsortedDumps() throws Exception {
+    // Tests that regions that aren't in address order are still matched.
+    RegionTable before = dump(
+        "3000-4000 rw-p 00000000 00:00 0", 4, 1,
+        "1000-2000 rw-p 00000000 00:00 0", 4, 1);
+    RegionTable after = dump(
+        "1000-2000 rw-p 00000000 00:00 0", 4, 1,
+        "3000-4000 rw-p 00000000 00:00 0", 4, 1);
+    DumpDiff diff = DumpDiff.compute(before, after, 10);
+
+    assertEquals(0, diff.changeCount());
+    assertEquals(Integer.valueOf(2), diff.counts().get(DumpDiff.UNCHANGED));
+  }
+}
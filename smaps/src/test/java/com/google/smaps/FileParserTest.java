@@ -19,6 +19,8 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -59,6 +61,25 @@ public class FileParserTest {
     assertNull(list);
   }
 
+  @Test
+  public void streamRegionList() throws Exception {
+    // Tests that parsing the dump from a stream gives the same list as parsing it from the file.
+    try (InputStream dump = new FileInputStream("../smaps-full.txt")) {
+      List<Region> list = Analyzer.makeRegionList(dump, session);
+      assertEquals(regions, list);
+    }
+  }
+
+  @Test
+  public void streamWrongFileFormat() throws Exception {
+    // Tests that null is returned when a dump with too few parameters on the first line is
+    // streamed.
+    try (InputStream dump = new FileInputStream("../smaps-wrong-format.txt")) {
+      List<Region> list = Analyzer.makeRegionList(dump, session);
+      assertNull(list);
+    }
+  }
+
   @Test
   public void numberRegions() {
     // Tests the correct number of regions were added to list.
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link FileUpload}.
+ */
+@RunWith(JUnit4.class)
+public class FileUploadTest {
+  // The SHA-256 digest of smaps-full.txt.
+  private static final String FULL_DIGEST =
+      "11abbe281434885f9f3fd02c36cf5e2d4136815463bf4e5b58b1627d1787c02b";
+
+  @Test
+  public void uploadFile_sharesDataset() throws Exception {
+    // Tests that the dataset is named by the digest of the upload, and that two sessions that
+    // upload the same dump are given the same dataset.
+    HttpSession first = uploadedSession();
+    HttpSession second = uploadedSession();
+
+    Dataset dataset = DatasetStore.shared().get(FULL_DIGEST);
+    assertNotNull(dataset);
+    assertEquals(1072, dataset.regions().size());
+    verify(first).setAttribute("datasetId", FULL_DIGEST);
+    verify(second).setAttribute("datasetId", FULL_DIGEST);
+    assertEquals(4, dataset.minSize());
+    assertEquals(20832256, dataset.maxSize());
+  }
+
+  @Test
+  public void doPost_parsesOnWorker() throws Exception {
+    // Tests that an upload is parsed on a worker, which redirects to the histogram once the upload's
+    // job holds its dataset.
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    HttpSession session = mock(HttpSession.class);
+    Part part = mock(Part.class);
+    AsyncContext async = mock(AsyncContext.class);
+    long length = new File("../smaps-full.txt").length();
+    when(request.getSession()).thenReturn(session);
+    when(session.getId()).thenReturn("file-upload-test");
+    when(session.getAttribute("fileErrorMessage")).thenReturn("");
+    when(request.getPart("smapsFile")).thenReturn(part);
+    when(part.getSize()).thenReturn(length);
+    when(part.getInputStream()).thenReturn(new FileInputStream("../smaps-full.txt"));
+    when(request.startAsync()).thenReturn(async);
+    when(async.getResponse()).thenReturn(response);
+
+    new FileUpload().doPost(request, response);
+    UploadJob job = UploadJob.forSession(session);
+    for (int i = 0; i < 1000 && !job.stage().equals(UploadJob.DONE); i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(UploadJob.DONE, job.stage());
+    assertEquals(length, job.bytesRead());
+    assertEquals(1072, job.regionsParsed());
+    verify(response).sendRedirect("/interactive-histogram.html");
+    verify(async).complete();
+
+    // The worker leaves the session alone, since it isn't saved once the request has ended, and
+    // the session's next request takes the dataset.
+    verify(session, never()).setAttribute("datasetId", FULL_DIGEST);
+    DatasetStore.forSession(session);
+    verify(session).setAttribute("datasetId", FULL_DIGEST);
+    verify(response).sendRedirect("/interactive-histogram.html");
+    verify(async).complete();
+  }
+
+  /* Creates a session and uploads smaps-full.txt to it. */
+  private static HttpSession uploadedSession() throws Exception {
+    HttpSession session = mock(HttpSession.class);
+    when(session.getAttribute("fileErrorMessage")).thenReturn("");
+    try (InputStream in = new FileInputStream("../smaps-full.txt")) {
+      assertTrue(new FileUpload().uploadFile(session, in));
+    }
+    return session;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link HistogramBins}.
+ */
+@RunWith(JUnit4.class)
+public class HistogramBinsTest {
+  private RegionTable regions;
+
+  @Before
+  public void createRegionTable() {
+    // Creates the regions table from smaps-full.txt file.
+    List<Region> regionList = Analyzer.makeRegionList("../smaps-full.txt", mock(HttpSession.class));
+    regions = RegionTable.copyOf(regionList);
+  }
+
+  @Test
+  public void linearBins() {
+    // Tests that linear bins have the same width, cover the bounds, and count every region.
+    HistogramBins bins =
+        HistogramBins.compute(regions, RegionTable.SIZE, all(), 4, 20832256, 10, false);
+
+    long[] edges = bins.edges();
+    assertEquals(11, edges.length);
+    assertEquals(4, edges[0]);
+    assertEquals(20832257, edges[10]);
+    assertEquals(edges[1] - edges[0], edges[2] - edges[1]);
+    assertEquals(1072, sum(bins.counts()));
+    assertEquals("Size", bins.field());
+    assertEquals("linear", bins.scale());
+  }
+
+  @Test
+  public void logarithmicBins() {
+    // Tests that logarithmic bins grow wider and count every region.
+    HistogramBins bins =
+        HistogramBins.compute(regions, RegionTable.SIZE, all(), 0, 20832256, 20, true);
+
+    long[] edges = bins.edges();
+    assertEquals(0, edges[0]);
+    assertTrue(edges[edges.length - 1] - edges[edges.length - 2] > edges[2] - edges[1]);
+    assertEquals(1072, sum(bins.counts()));
+  }
+
+  @Test
+  public void boundsAndPathFilter() {
+    // Tests that only regions within the bounds and with the name in their pathname are counted.
+    int[] rows = PathnameIndex.of(regions).find("memfd");
+    HistogramBins bins =
+        HistogramBins.compute(regions, RegionTable.SIZE, rows, 1000, 2000, 5, false);
+
+    long expected = 0;
+    for (Region r : regions) {
+      if (r.size() >= 1000 && r.size() <= 2000 && r.pathname().contains("memfd")) {
+        expected++;
+      }
+    }
+    assertEquals(expected, sum(bins.counts()));
+  }
+
+  @Test
+  public void emptyBounds() {
+    // Tests that there are no bins when the lower bound is above the upper bound.
+    HistogramBins bins = HistogramBins.compute(regions, RegionTable.SIZE, all(), 10, 5, 5, false);
+    assertEquals(0, bins.counts().length);
+  }
+
+  @Test
+  public void largestValue() throws Exception {
+    // Tests that a value of Long.MAX_VALUE, which is the last edge rather than below it, is counted
+    // in the last bin.
+    RegionTable large = TestDumps.dump(
+        "00400000-00401000 r-xp 00000000 00:00 0 /bin/a", 4, 4,
+        "00402000-00403000 rw-p 00000000 00:00 0 /bin/b", Long.MAX_VALUE, 4);
+    int[] rows = {0, 1};
+
+    for (boolean logarithmic : new boolean[] {false, true}) {
+      HistogramBins bins = HistogramBins.compute(
+          large, RegionTable.SIZE, rows, 4, Long.MAX_VALUE, 10, logarithmic);
+      long[] counts = bins.counts();
+      assertEquals(2, sum(counts));
+      assertEquals(1, counts[counts.length - 1]);
+    }
+  }
+
+  /* Returns the indexes of all the regions. */
+  private int[] all() {
+    return PathnameIndex.of(regions).find("");
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+}
@@ -20,8 +20,8 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -44,7 +44,7 @@ public class HistogramTest {
 
   @Mock private HttpServletRequest mockRequest;
   @Mock private HttpServletResponse mockResponse;
-  private StringWriter responseWriter;
+  private ResponseOutputStream responseStream;
   private List<Region> regions;
   private Histogram servletUnderTest;
   private HttpSession session;
@@ -59,8 +59,9 @@ public class HistogramTest {
     when(mockRequest.getRequestURI()).thenReturn(FAKE_URL);
 
     // Sets up a fake HTTP response.
-    responseWriter = new StringWriter();
-    when(mockResponse.getWriter()).thenReturn(new PrintWriter(responseWriter));
+    // Responses of stored datasets are sent as bytes.
+    responseStream = new ResponseOutputStream();
+    when(mockResponse.getOutputStream()).thenReturn(responseStream);
 
     // Creates Histogram servlet.
     servletUnderTest = new Histogram();
@@ -68,8 +69,10 @@ public class HistogramTest {
     // Creates a session.
     session = mock(HttpSession.class);
 
-    // Create the regions list.
+    // Create the regions list, and put its dataset in the store for the session.
     regions = Analyzer.makeRegionList("../smaps-full.txt", session);
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("histogram-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
   }
 
   @After
@@ -87,10 +90,7 @@ public class HistogramTest {
     when(mockRequest.getSession()).thenReturn(session);
 
     // Set the session variables that would normally be set by doPost.
-    when(session.getAttribute("regionList")).thenReturn(regions);
     when(session.getAttribute("postFired")).thenReturn(false);
-    when(session.getAttribute("minBound")).thenReturn(4L);
-    when(session.getAttribute("maxBound")).thenReturn(20832256L);
     when(session.getAttribute("name")).thenReturn("");
 
     // Call doGet with the mockRequest and mockResponse.
@@ -99,9 +99,9 @@ public class HistogramTest {
     // Assert that the JSON response is what is expected for the smaps-full file with postFired set
     // to false, so the entire range should be displayed and the labels for the data should be range
     // and size.
-    assertThat(responseWriter.toString())
+    assertThat(responseStream.toString())
         .named("Histogram response")
-        .contains("[[4,20832256], \"\", [[\"Range\",\"Size\"]");
+        .contains("[[4,20832256],\"\",[[\"Range\",\"Size\"]");
   }
 
   @Test
@@ -113,7 +113,6 @@ public class HistogramTest {
     when(mockRequest.getSession()).thenReturn(session);
 
     // Set the session variables that would normally be set by doPost.
-    when(session.getAttribute("regionList")).thenReturn(regions);
     when(session.getAttribute("postFired")).thenReturn(true);
     when(session.getAttribute("lowerBound")).thenReturn(1000L);
     when(session.getAttribute("upperBound")).thenReturn(2000L);
@@ -125,9 +124,56 @@ public class HistogramTest {
     // Assert that the JSON response is what is expected for the smaps-full file with postFired set
     // to true, so the range is set to the custom bounds, name is memfd, and the labels for the data
     // should be range and size.
-    assertThat(responseWriter.toString())
+    assertThat(responseStream.toString())
         .named("Histogram response")
-        .contains("[[1000,2000], \"memfd\", [[\"Range\",\"Size\"]");
+        .contains("[[1000,2000],\"memfd\",[[\"Range\",\"Size\"]");
+  }
+
+  @Test
+  public void doGet_writesResponseBins() throws Exception {
+    // Tests that the JSON response holds only the bins when the bins parameter is given.
+
+    // Sets up the fake session and bins parameter for the request.
+    when(mockRequest.getSession()).thenReturn(session);
+    when(mockRequest.getParameter("bins")).thenReturn("2");
+
+    // Set the session variables that would normally be set by doPost.
+    when(session.getAttribute("postFired")).thenReturn(true);
+    when(session.getAttribute("lowerBound")).thenReturn(0L);
+    when(session.getAttribute("upperBound")).thenReturn(19L);
+    when(session.getAttribute("name")).thenReturn("");
+
+    // Call doGet with the mockRequest and mockResponse.
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    // Assert that the JSON response has the two bins, and none of the regions.
+    long small = 0;
+    long large = 0;
+    for (Region r : regions) {
+      if (r.size() < 10) {
+        small++;
+      } else if (r.size() < 20) {
+        large++;
+      }
+    }
+    assertThat(responseStream.toString())
+        .named("Histogram response")
+        .contains("[[0,19],\"\",{\"field\":\"Size\",\"scale\":\"linear\","
+            + "\"edges\":[0,10,20],\"counts\":[" + small + "," + large + "]}]");
+  }
+
+  @Test
+  public void doGet_rejectsUnknownField() throws Exception {
+    // Tests that a request for bins of a field that doesn't exist is rejected.
+    when(mockRequest.getSession()).thenReturn(session);
+    when(mockRequest.getParameter("bins")).thenReturn("10");
+    when(mockRequest.getParameter("field")).thenReturn("NotAField");
+    when(session.getAttribute("postFired")).thenReturn(false);
+
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    verify(mockResponse).sendError(HttpServletResponse.SC_BAD_REQUEST,
+        "Histogram needs a known field and between 1 and 1000 bins.");
   }
 
   @Test
@@ -164,6 +210,27 @@ public class HistogramTest {
     assertEquals(4L, dataArray.get(33)[1]);
   }
 
+  @Test
+  public void doGet_binary() throws Exception {
+    // Tests that a client that accepts binary regions is sent the regions that match the name,
+    // with the bounds and the name in headers.
+    when(mockRequest.getSession()).thenReturn(session);
+    when(mockRequest.getHeader("Accept")).thenReturn(RegionWire.MEDIA_TYPE);
+    when(session.getAttribute("postFired")).thenReturn(true);
+    when(session.getAttribute("lowerBound")).thenReturn(1000L);
+    when(session.getAttribute("upperBound")).thenReturn(2000L);
+    when(session.getAttribute("name")).thenReturn("memfd");
+
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    ByteBuffer wire = ByteBuffer.wrap(responseStream.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(RegionWire.MAGIC, wire.getInt(0));
+    assertEquals(32, wire.getInt(8));
+    verify(mockResponse).setContentType(RegionWire.MEDIA_TYPE);
+    verify(mockResponse).setHeader(Histogram.BOUNDS_HEADER, "1000,2000");
+    verify(mockResponse).setHeader(Histogram.NAME_HEADER, "memfd");
+  }
+
   @Test
   public void dataArrayFull() {
     // Tests creation of list of Object arrays for histogram from regions list when the path name
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.servlet.http.HttpSession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link LiveCapture}.
+ */
+@RunWith(JUnit4.class)
+public class LiveCaptureTest {
+  @Test
+  public void smapsPath() {
+    // Tests that only this process and process ids name a file in /proc.
+    assertEquals(Paths.get("/proc/self/smaps"), LiveCapture.smapsPath("self"));
+    assertEquals(Paths.get("/proc/1234/smaps"), LiveCapture.smapsPath("1234"));
+    assertNull(LiveCapture.smapsPath("../etc"));
+    assertNull(LiveCapture.smapsPath("12/../34"));
+    assertNull(LiveCapture.smapsPath(""));
+  }
+
+  @Test
+  public void capturesThisProcess() throws Exception {
+    // Tests that a capture of this process stands in for the session's dataset until it is
+    // stopped, without its samples being stored, and leaves its latest sample as the session's
+    // dataset.
+    assumeTrue(Files.isReadable(Paths.get("/proc/self/smaps")));
+    HttpSession session = mock(HttpSession.class);
+    when(session.getId()).thenReturn("live-capture-test");
+
+    LiveCapture capture = LiveCapture.start(session, "self", 60000);
+    Dataset latest = capture.latest();
+    try {
+      assertNull(capture.error());
+      assertEquals(1, capture.samples());
+      assertSame(capture, LiveCapture.forSession(session));
+      assertTrue(latest.isComplete());
+      assertSame(latest, DatasetStore.forSession(session));
+      verify(session).setAttribute("datasetId", latest.digest());
+      assertNull(DatasetStore.shared().get(latest.digest()));
+    } finally {
+      LiveCapture.stop(session);
+    }
+    assertNull(LiveCapture.forSession(session));
+    assertSame(latest, DatasetStore.shared().get(latest.digest()));
+  }
+
+  @Test
+  public void idleCaptureEnds() throws Exception {
+    // Tests that a capture no one has asked about for a while is stopped, and leaves its latest
+    // sample as the session's dataset like one that is stopped.
+    assumeTrue(Files.isReadable(Paths.get("/proc/self/smaps")));
+    HttpSession session = mock(HttpSession.class);
+    when(session.getId()).thenReturn("live-capture-idle-test");
+
+    LiveCapture capture = LiveCapture.start(session, "self", 60000);
+    Dataset latest = capture.latest();
+    try {
+      capture.sample(System.currentTimeMillis() + LiveCapture.IDLE_MILLIS + 1000);
+      assertNull(LiveCapture.forSession(session));
+      assertSame(latest, capture.latest());
+      assertSame(latest, DatasetStore.shared().get(latest.digest()));
+    } finally {
+      LiveCapture.stop(session);
+    }
+  }
+
+  @Test
+  public void missingProcess() {
+    // Tests that a capture of a process that can't be read isn't started, and says why.
+    HttpSession session = mock(HttpSession.class);
+    when(session.getId()).thenReturn("live-capture-missing-test");
+
+    LiveCapture capture = LiveCapture.start(session, "999999999", 1000);
+
+    assertNull(capture.latest());
+    assertEquals("The smaps of process 999999999 can't be read.", capture.error());
+    assertNull(LiveCapture.forSession(session));
+  }
+}
@@ -20,8 +20,6 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -44,7 +42,7 @@ public class MemoryMapTest {
 
   @Mock private HttpServletRequest mockRequest;
   @Mock private HttpServletResponse mockResponse;
-  private StringWriter responseWriter;
+  private ResponseOutputStream responseStream;
   private List<Region> regions;
   private MemoryMap servletUnderTest;
   private HttpSession session;
@@ -59,8 +57,9 @@ public class MemoryMapTest {
     when(mockRequest.getRequestURI()).thenReturn(FAKE_URL);
 
     // Sets up a fake HTTP response.
-    responseWriter = new StringWriter();
-    when(mockResponse.getWriter()).thenReturn(new PrintWriter(responseWriter));
+    // Responses of stored datasets are sent as bytes.
+    responseStream = new ResponseOutputStream();
+    when(mockResponse.getOutputStream()).thenReturn(responseStream);
 
     // Creates MemoryMap servlet.
     servletUnderTest = new MemoryMap();
@@ -85,15 +84,16 @@ public class MemoryMapTest {
     // Sets up the fake session for the request.
     when(mockRequest.getSession()).thenReturn(session);
 
-    // Set the session variable for regionList that would normally be set by doPost in FileUpload.
-    when(session.getAttribute("regionList")).thenReturn(regions);
+    // Set the session's dataset id that would normally be set by doPost in FileUpload.
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("memory-map-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
 
     // Call doGet with the mockRequest and mockResponse.
     servletUnderTest.doGet(mockRequest, mockResponse);
 
     // Assert that the JSON response is what is expected for the smaps-small file, and contains an
     // array of every region with its address range and permissions.
-    assertThat(responseWriter.toString())
+    assertThat(responseStream.toString())
         .named("MemoryMap response")
         .contains("[[\"0000016ec0000000 - 0000016efa600000\",\"---p\"],"
             + "[\"0000016efa600000 - 0000016f00000000\",\"rw-p\"],"
@@ -101,6 +101,7 @@ public class MemoryMapTest {
             + "[\"00001425a8000000 - 00001425c0000000\",\"rw-p\"],"
             + "[\"00001425c0000000 - 00001425ce800000\",\"---p\"],"
             + "[\"00001425ce800000 - 0000142ac6000000\",\"rw-p\"]]");
+    verify(mockResponse).setHeader(JsonResponse.COMPLETE_HEADER, "true");
   }
 
   @Test
@@ -134,4 +135,54 @@ public class MemoryMapTest {
     formattedAddress = servletUnderTest.formatAddress(address);
     assertEquals(address, formattedAddress);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void doGet_noDataset() throws Exception {
+    // Tests that a session without a stored dataset is rejected, such as one whose dataset was
+    // dropped from the store.
+    when(mockRequest.getSession()).thenReturn(session);
+    when(session.getAttribute("datasetId")).thenReturn("not-stored");
+
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    verify(mockResponse)
+        .sendError(HttpServletResponse.SC_BAD_REQUEST, "No smaps file has been uploaded.");
+  }
+
+  @Test
+  public void doGet_viewport() throws Exception {
+    // Tests that with a pixel budget only the blocks of the window are sent.
+    when(mockRequest.getSession()).thenReturn(session);
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("memory-map-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
+    when(mockRequest.getParameter("pixels")).thenReturn("10");
+    when(mockRequest.getParameter("start")).thenReturn("0x1425a8000000");
+    when(mockRequest.getParameter("end")).thenReturn("1425c0000000");
+
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    assertThat(responseStream.toString())
+        .named("MemoryMap viewport response")
+        .isEqualTo("{\"start\":\"00001425a8000000\",\"end\":\"00001425c0000000\","
+            + "\"bytesPerPixel\":0,\"blocks\":[{\"start\":\"00001425a8000000\","
+            + "\"end\":\"00001425c0000000\",\"regions\":1,\"size\":393216,\"index\":3,"
+            + "\"permissions\":\"rw-p\",\"pathname\":\"\"}]}");
+  }
+
+  @Test
+  public void doGet_viewportRejectsBadWindow() throws Exception {
+    // Tests that a window that ends before it starts is rejected.
+    when(mockRequest.getSession()).thenReturn(session);
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("memory-map-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
+    when(mockRequest.getParameter("pixels")).thenReturn("10");
+    when(mockRequest.getParameter("start")).thenReturn("2000");
+    when(mockRequest.getParameter("end")).thenReturn("1000");
+
+    servletUnderTest.doGet(mockRequest, mockResponse);
+
+    verify(mockResponse).sendError(HttpServletResponse.SC_BAD_REQUEST,
+        "Viewport needs a start address below its end address and between 1 and "
+            + MemoryMap.MAX_PIXELS + " pixels.");
+  }
+}
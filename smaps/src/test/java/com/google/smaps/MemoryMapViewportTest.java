@@ -0,0 +1,156 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link MemoryMapViewport}.
+ */
+@RunWith(JUnit4.class)
+public class MemoryMapViewportTest {
+  private RegionTable regions;
+  private AddressIndex addressIndex;
+
+  @Before
+  public void createRegionTable() {
+    // Creates the regions table from smaps-full.txt file.
+    List<Region> regionList = Analyzer.makeRegionList("../smaps-full.txt", mock(HttpSession.class));
+    regions = RegionTable.copyOf(regionList);
+    addressIndex = AddressIndex.of(regions);
+  }
+
+  @Test
+  public void fewRegionsAreNotMerged() {
+    // Tests that a window with no more regions than pixels has one block per region, including the
+    // regions that only partly overlap the window.
+    long start = regions.start(10) + 1;
+    long end = regions.end(19) - 1;
+    MemoryMapViewport viewport = MemoryMapViewport.compute(regions, addressIndex, start, end, 10);
+
+    assertEquals(0, viewport.bytesPerPixel());
+    assertEquals(10, viewport.blocks().size());
+    for (int i = 0; i < 10; i++) {
+      MemoryMapViewport.Block block = viewport.blocks().get(i);
+      assertEquals(Integer.valueOf(10 + i), block.index());
+      assertEquals(1, block.regions());
+      assertEquals(regions.permissions(10 + i), block.permissions());
+    }
+  }
+
+  @Test
+  public void manyRegionsAreMerged() {
+    // Tests that a window with more regions than pixels has at most one block per pixel, and that
+    // the blocks still account for every region and all of their size.
+    long start = regions.start(0);
+    long end = regions.end(regions.size() - 1);
+    MemoryMapViewport viewport = MemoryMapViewport.compute(regions, addressIndex, start, end, 50);
+
+    assertTrue(viewport.bytesPerPixel() > 0);
+    assertTrue(viewport.blocks().size() <= 50);
+    int count = 0;
+    long size = 0;
+    for (MemoryMapViewport.Block block : viewport.blocks()) {
+      count += block.regions();
+      size += block.size();
+      if (block.regions() > 1) {
+        assertNull(block.index());
+        long permissionSize = 0;
+        for (long kB : block.permissionSizes().values()) {
+          permissionSize += kB;
+        }
+        assertEquals(block.size(), permissionSize);
+      }
+    }
+    long expectedSize = 0;
+    for (Region r : regions) {
+      expectedSize += r.size();
+    }
+    assertEquals(regions.size(), count);
+    assertEquals(expectedSize, size);
+  }
+
+  @Test
+  public void blocksAreInAddressOrder() throws Exception {
+    // Tests that the blocks of a large generated dump don't overlap and are in address order.
+    String dump = SmapsGenerator.generate(9, 20000);
+    RegionTable generated =
+        RegionParser.parse(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+    AddressIndex index = AddressIndex.of(generated);
+    MemoryMapViewport viewport = MemoryMapViewport.compute(
+        generated, index, 0, generated.end(generated.size() - 1), 1000);
+
+    assertTrue(viewport.blocks().size() <= 1000);
+    String previousEnd = "";
+    for (MemoryMapViewport.Block block : viewport.blocks()) {
+      assertTrue(block.start().compareTo(block.end()) < 0);
+      assertTrue(previousEnd.compareTo(block.start()) <= 0);
+      previousEnd = block.end();
+    }
+  }
+
+  @Test
+  public void mergedSizesMatchTheirRegions() throws Exception {
+    // Tests that the size of each permission in a merged block, found from running totals, is the
+    // sum over the regions of the block, for a window in the middle of a large generated dump.
+    String dump = SmapsGenerator.generate(9, 20000);
+    RegionTable generated =
+        RegionParser.parse(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+    AddressIndex index = AddressIndex.of(generated);
+    int first = index.rangeCount() / 4;
+    int last = index.rangeCount() * 3 / 4;
+    MemoryMapViewport viewport = MemoryMapViewport.compute(
+        generated, index, index.rangeStart(first), index.rangeEnd(last - 1), 300);
+
+    int range = first;
+    for (MemoryMapViewport.Block block : viewport.blocks()) {
+      Map<String, Long> expected = new TreeMap<>();
+      for (int i = 0; i < block.regions(); i++, range++) {
+        expected.merge(generated.permissions(index.region(range)),
+            (index.rangeEnd(range) - index.rangeStart(range)) / 1024, Long::sum);
+      }
+      if (block.regions() > 1) {
+        assertEquals(expected, block.permissionSizes());
+      }
+    }
+    assertEquals(last, range);
+  }
+
+  @Test
+  public void emptyWindow() {
+    // Tests that a window between regions has no blocks.
+    int gap = 0;
+    while (regions.end(gap) == regions.start(gap + 1)) {
+      gap++;
+    }
+    MemoryMapViewport viewport = MemoryMapViewport.compute(
+        regions, addressIndex, regions.end(gap), regions.start(gap + 1), 10);
+
+    assertEquals(0, viewport.blocks().size());
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link Metrics}.
+ */
+@RunWith(JUnit4.class)
+public class MetricsTest {
+  private static String written() throws Exception {
+    StringWriter out = new StringWriter();
+    Metrics.write(out);
+    return out.toString();
+  }
+
+  @Test
+  public void histogram() throws Exception {
+    // Tests that each bucket is sent with the count of every value up to its bound.
+    Metrics.Family family = Metrics.histogram(
+        "metrics_test_seconds", "A test histogram.", new double[] {0.5, 1, 2}, "stage");
+    Metrics.Series series = family.labels("parse");
+    series.observe(0.25);
+    series.observe(1);
+    series.observe(1.5);
+    series.observe(10);
+
+    assertEquals(4, series.count());
+    assertEquals(12.75, series.sum(), 0);
+    assertThat(written()).contains("# HELP metrics_test_seconds A test histogram.\n"
+        + "# TYPE metrics_test_seconds histogram\n"
+        + "metrics_test_seconds_bucket{stage=\"parse\",le=\"0.5\"} 1\n"
+        + "metrics_test_seconds_bucket{stage=\"parse\",le=\"1\"} 2\n"
+        + "metrics_test_seconds_bucket{stage=\"parse\",le=\"2\"} 3\n"
+        + "metrics_test_seconds_bucket{stage=\"parse\",le=\"+Inf\"} 4\n"
+        + "metrics_test_seconds_sum{stage=\"parse\"} 12.75\n"
+        + "metrics_test_seconds_count{stage=\"parse\"} 4\n");
+  }
+
+  @Test
+  public void counter() throws Exception {
+    // Tests that a counter without labels is sent as one value, and that each labelled series of
+    // a family is the same series every time.
+    Metrics.Family plain = Metrics.counter("metrics_test_total", "A test counter.");
+    plain.labels().inc();
+    plain.labels().add(41);
+    Metrics.Family labelled =
+        Metrics.counter("metrics_test_labelled_total", "A labelled counter.", "name");
+    labelled.labels("a \"quoted\\ name\"").inc();
+
+    assertSame(labelled.labels("x"), labelled.labels("x"));
+    assertThat(written()).contains("# TYPE metrics_test_total counter\nmetrics_test_total 42\n");
+    assertThat(written())
+        .contains("metrics_test_labelled_total{name=\"a \\\"quoted\\\\ name\\\"\"} 1\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongLabels() {
+    // Tests that a series must be given a value for each of its family's labels.
+    Metrics.counter("metrics_test_wrong_total", "A test counter.", "a", "b").labels("a");
+  }
+
+  @Test
+  public void format() {
+    // Tests that numbers are written without exponents or trailing zeros.
+    assertEquals("0.001", Metrics.format(0.001));
+    assertEquals("1073741824", Metrics.format(1 << 30));
+    assertEquals("0", Metrics.format(0));
+    assertEquals("+Inf", Metrics.format(Double.POSITIVE_INFINITY));
+  }
+}
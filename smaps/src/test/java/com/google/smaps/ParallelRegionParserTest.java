@@ -0,0 +1,125 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link ParallelRegionParser}.
+ */
+@RunWith(JUnit4.class)
+public class ParallelRegionParserTest {
+  // How many copies of smaps-full.txt make up the large dump, so that it is split into chunks.
+  private static final int COPIES = 8;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<String> fullLines;
+  private Path largeDump;
+
+  @Before
+  public void createLargeDump() throws Exception {
+    // Creates a dump that is several copies of smaps-full.txt one after another.
+    fullLines = Files.readAllLines(Paths.get("../smaps-full.txt"), StandardCharsets.UTF_8);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < COPIES; i++) {
+      lines.addAll(fullLines);
+    }
+    largeDump = folder.newFile("smaps-large.txt").toPath();
+    Files.write(largeDump, lines, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void sameAsSequential() throws Exception {
+    // Tests that the regions parsed in parallel are the same as the ones parsed on one thread,
+    // including their line numbers.
+    List<Region> sequential;
+    try (InputStream dump = new FileInputStream(largeDump.toFile())) {
+      sequential = RegionParser.parse(dump);
+    }
+    List<Region> parallel = ParallelRegionParser.parse(largeDump);
+
+    assertEquals(1072 * COPIES, parallel.size());
+    assertEquals(sequential, parallel);
+    assertEquals(24634 + (COPIES - 1) * fullLines.size(),
+        parallel.get(parallel.size() - 1).lineNumber());
+  }
+
+  @Test
+  public void chunksStartAtRegions() throws Exception {
+    // Tests that the dump is split into more than one chunk, and that every chunk after the first
+    // starts at the first line of a region.
+    try (FileChannel channel = FileChannel.open(largeDump, StandardOpenOption.READ)) {
+      long[] bounds = ParallelRegionParser.findChunkBounds(channel);
+      assertTrue(bounds.length > 2);
+      assertEquals(0, bounds[0]);
+      assertEquals(channel.size(), bounds[bounds.length - 1]);
+
+      for (int i = 1; i < bounds.length - 1; i++) {
+        ByteBuffer line = ByteBuffer.allocate(64);
+        channel.read(line, bounds[i]);
+        assertTrue(RegionParser.isRegionHeader(line.array(), 0, line.position()));
+      }
+    }
+  }
+
+  @Test
+  public void errorInLaterChunk() throws Exception {
+    // Tests that an error near the end of the dump is reported with the same line number as the
+    // sequential parser would report.
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < COPIES; i++) {
+      lines.addAll(fullLines);
+    }
+    int lastSize = lines.lastIndexOf("Size:                  4 kB");
+    lines.remove(lastSize);
+    File badDump = folder.newFile("smaps-bad.txt");
+    Files.write(badDump.toPath(), lines, StandardCharsets.UTF_8);
+
+    try {
+      ParallelRegionParser.parse(badDump.toPath());
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(SmapsFormatException.Reason.MISSING_SIZE, e.reason());
+      assertEquals(lastSize, e.lineNumber());
+    }
+  }
+
+  @Test
+  public void smallDumpIsSequential() {
+    // Tests that small dumps stay on the single-threaded path.
+    assertFalse(ParallelRegionParser.shouldParseInParallel(new File("../smaps-full.txt").length()));
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link PathnameIndex}.
+ */
+@RunWith(JUnit4.class)
+public class PathnameIndexTest {
+  private List<Region> regions;
+  private PathnameIndex pathnameIndex;
+
+  @Before
+  public void createPathnameIndex() {
+    // Creates the regions list and pathname index from smaps-full.txt file.
+    regions = Analyzer.makeRegionList("../smaps-full.txt", mock(HttpSession.class));
+    pathnameIndex = PathnameIndex.of(regions);
+  }
+
+  @Test
+  public void sameAsContains() {
+    // Tests that the regions found are the ones whose pathname contains the name, for names that
+    // are shorter than, as long as, and longer than a trigram, and names that aren't found.
+    for (String name : Arrays.asList("", "l", "so", "lib", "memfd", "/memfd:stan", "[heap]",
+        "(deleted)", "bin/", "not found", "xyz")) {
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < regions.size(); i++) {
+        if (regions.get(i).pathname().contains(name)) {
+          expected.add(i);
+        }
+      }
+      List<Integer> found = new ArrayList<>();
+      for (int i : pathnameIndex.find(name)) {
+        found.add(i);
+      }
+      assertEquals(name, expected, found);
+    }
+  }
+
+  @Test
+  public void sameForTablesAndLists() {
+    // Tests that an index of a plain list of regions finds the same regions as one of a table.
+    List<Region> list = new ArrayList<>(regions);
+    assertArrayEquals(pathnameIndex.find("lib"), PathnameIndex.of(list).find("lib"));
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link PrometheusMetrics}.
+ */
+@RunWith(JUnit4.class)
+public class PrometheusMetricsTest {
+  @Test
+  public void doGet_writesMetrics() throws Exception {
+    // Tests that the time of a request through RequestMetrics, and the state of the stores, are
+    // sent in the Prometheus text format.
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter responseWriter = new StringWriter();
+    when(request.getServletPath()).thenReturn("/prometheus-metrics-test");
+    when(request.getMethod()).thenReturn("GET");
+    when(response.getWriter()).thenReturn(new PrintWriter(responseWriter));
+
+    new RequestMetrics().doFilter(request, response, mock(FilterChain.class));
+    new PrometheusMetrics().doGet(request, response);
+
+    verify(response).setContentType(PrometheusMetrics.CONTENT_TYPE);
+    assertThat(responseWriter.toString()).contains("# TYPE smaps_request_seconds histogram\n");
+    assertThat(responseWriter.toString()).contains(
+        "smaps_request_seconds_count{servlet=\"/prometheus-metrics-test\",method=\"GET\"} 1\n");
+    assertThat(responseWriter.toString()).contains("# TYPE smaps_datasets gauge\nsmaps_datasets ");
+    assertThat(responseWriter.toString()).contains("smaps_artifact_misses_total ");
+  }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link RegionParser}.
+ */
+@RunWith(JUnit4.class)
+public class RegionParserTest {
+  /* Makes an input stream from the lines of an smaps dump. */
+  private static InputStream dump(String... lines) {
+    String text = String.join("\n", lines);
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void parseRegion() throws Exception {
+    // Tests that every field of a region is parsed from the dump.
+    List<Region> regions = RegionParser.parse(dump(
+        "7fd126400000-7fd12a400000 rw-s 001a1000 08:01 7700     /memfd:stan (deleted)",
+        "Size:              65536 kB",
+        "KernelPageSize:        4 kB",
+        "Rss:                 132 kB",
+        "Private_Dirty:        12 kB",
+        "Locked:                8 kB",
+        "VmFlags: rd wr sh mr mw me ms sd "));
+
+    assertEquals(1, regions.size());
+    Region r = regions.get(0);
+    assertEquals(1, r.lineNumber());
+    assertEquals("7fd126400000", r.startLoc());
+    assertEquals("7fd12a400000", r.endLoc());
+    assertEquals("rw-s", r.permissions());
+    assertEquals("001a1000", r.offset());
+    assertEquals("08:01", r.device());
+    assertEquals(7700, r.inode());
+    assertEquals("/memfd:stan (deleted)", r.pathname());
+    assertEquals(65536, r.size());
+    assertEquals(4, r.kernelPageSize());
+    assertEquals(132, r.rss());
+    assertEquals(12, r.privateDirty());
+    assertEquals(8, r.locked());
+    assertEquals(0, r.pss());
+
+    List<String> expectedVmFlags =
+        new ArrayList<>(Arrays.asList("rd", "wr", "sh", "mr", "mw", "me", "ms", "sd"));
+    assertEquals(expectedVmFlags, r.vmFlags());
+  }
+
+  @Test
+  public void parseMultipleRegions() throws Exception {
+    // Tests that regions are split at each address range, unknown fields are skipped, and line
+    // numbers are counted across Windows line endings.
+    List<Region> regions = RegionParser.parse(dump(
+        "1000-2000 r--p 00000000 00:00 0\r",
+        "Size:                  4 kB\r",
+        "THPeligible:           0\r",
+        "2000-4000 r-xp 00000000 08:01 12 /lib/libc.so\r",
+        "Size:                  8 kB\r"));
+
+    assertEquals(2, regions.size());
+    assertEquals(1, regions.get(0).lineNumber());
+    assertEquals("", regions.get(0).pathname());
+    assertEquals(4, regions.get(1).lineNumber());
+    assertEquals("/lib/libc.so", regions.get(1).pathname());
+    assertEquals(8, regions.get(1).size());
+  }
+
+  @Test
+  public void sharesRepeatedStrings() throws Exception {
+    // Tests that pathnames and VmFlags that repeat between regions are only stored once.
+    List<Region> regions = RegionParser.parse(dump(
+        "1000-2000 r--p 00000000 08:01 12 /lib/libc.so",
+        "Size:                  4 kB",
+        "VmFlags: rd mr mw me",
+        "2000-4000 r--p 00001000 08:01 12 /lib/libc.so",
+        "Size:                  8 kB",
+        "VmFlags: rd mr mw me"));
+
+    assertSame(regions.get(0).pathname(), regions.get(1).pathname());
+    assertSame(regions.get(0).vmFlags(), regions.get(1).vmFlags());
+  }
+
+  @Test
+  public void missingSize() throws Exception {
+    // Tests that a region without a size field is reported with the line it starts on.
+    try {
+      RegionParser.parse(dump(
+          "1000-2000 r--p 00000000 00:00 0",
+          "Size:                  4 kB",
+          "2000-4000 r-xp 00000000 08:01 12 /lib/libc.so",
+          "Rss:                   8 kB"));
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(SmapsFormatException.Reason.MISSING_SIZE, e.reason());
+      assertEquals(3, e.lineNumber());
+      assertEquals(
+          "Required 'size' field not found in region on line [3] in smaps file.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void badFirstLine() throws Exception {
+    // Tests that a first line with too few fields is reported with its line number.
+    try {
+      RegionParser.parse(dump("16ec0000000-16efa600000", "Size:             956416 kB"));
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(SmapsFormatException.Reason.BAD_FIRST_LINE, e.reason());
+      assertEquals(1, e.lineNumber());
+    }
+  }
+
+  @Test
+  public void badLines() throws Exception {
+    // Tests that each way a line can be malformed is reported with its own reason.
+    assertParseError(SmapsFormatException.Reason.NOT_A_FIELD, 1, "not a dump");
+    assertParseError(SmapsFormatException.Reason.BAD_NUMBER, 2,
+        "1000-2000 r--p 00000000 00:00 0", "Size:  kB");
+    assertParseError(SmapsFormatException.Reason.BAD_NUMBER, 1, "1000-2000 r--p 00000000 00:00 x");
+    assertParseError(SmapsFormatException.Reason.BAD_NUMBER, 2,
+        "1000-2000 r--p 00000000 00:00 0", "Size:  99999999999999999999 kB");
+    assertParseError(SmapsFormatException.Reason.NO_REGIONS, 0, "");
+  }
+
+  @Test
+  public void visitFile() throws Exception {
+    // Tests that visiting a dump hands over the same regions as parsing it, in order.
+    List<Region> visited = new ArrayList<>();
+    RegionTable parsed;
+    try (InputStream in = new FileInputStream("../smaps-full.txt")) {
+      assertEquals(1072, RegionParser.visit(in, region -> visited.add(region.toRegion())));
+    }
+    try (InputStream in = new FileInputStream("../smaps-full.txt")) {
+      parsed = RegionParser.parse(in);
+    }
+    assertEquals(parsed, visited);
+  }
+
+  @Test
+  public void visitTotals() throws Exception {
+    // Tests that a field can be totalled while the dump is visited, without keeping any region.
+    long[] rss = new long[1];
+    int count = RegionParser.visit(dump(
+        "1000-2000 r--p 00000000 00:00 0",
+        "Size:                  4 kB",
+        "Rss:                   4 kB",
+        "2000-4000 r-xp 00000000 08:01 12 /lib/libc.so",
+        "Size:                  8 kB",
+        "Rss:                   6 kB",
+        "VmFlags: rd ex mr mw me"),
+        region -> rss[0] += region.field(RegionTable.RSS));
+
+    assertEquals(2, count);
+    assertEquals(10, rss[0]);
+  }
+
+  @Test
+  public void visitBeforeError() throws Exception {
+    // Tests that the regions before a malformed one are visited before the error is thrown.
+    List<String> pathnames = new ArrayList<>();
+    try {
+      RegionParser.visit(dump(
+          "1000-2000 r--p 00000000 00:00 0 /a",
+          "Size:                  4 kB",
+          "2000-4000 r-xp 00000000 08:01 12 /b",
+          "Rss:                   8 kB"),
+          region -> pathnames.add(region.pathname()));
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(SmapsFormatException.Reason.MISSING_SIZE, e.reason());
+    }
+    assertEquals(Arrays.asList("/a"), pathnames);
+  }
+
+  @Test
+  public void regionHeader() {
+    // Tests that only lines starting with a hexadecimal address range are region headers.
+    assertTrue(isRegionHeader("16ec0000000-16efa600000 ---p 00000000 00:00 0"));
+    assertTrue(isRegionHeader("ABCdef-1"));
+    assertFalse(isRegionHeader("Size:             956416 kB"));
+    assertFalse(isRegionHeader("16ec0000000 ---p"));
+    assertFalse(isRegionHeader("16ec0000000-"));
+    assertFalse(isRegionHeader(""));
+  }
+
+  @Test
+  public void decimal() {
+    // Tests that decimals are parsed the same way as Long.parseLong.
+    assertEquals(30559, parseDecimal("30559"));
+    assertEquals(-4, parseDecimal("-4"));
+    assertEquals(Long.MAX_VALUE, parseDecimal(Long.toString(Long.MAX_VALUE)));
+    try {
+      parseDecimal("12a");
+      fail("Expected a NumberFormatException");
+    } catch (NumberFormatException e) {
+      // Expected.
+    }
+  }
+
+  /* Asserts that both parsing and visiting the dump fail with the reason and line number. */
+  private static void assertParseError(
+      SmapsFormatException.Reason reason, int lineNumber, String... lines) throws Exception {
+    try {
+      RegionParser.parse(dump(lines));
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(reason, e.reason());
+      assertEquals(lineNumber, e.lineNumber());
+    }
+    try {
+      RegionParser.visit(dump(lines), region -> {});
+      fail("Expected a SmapsFormatException");
+    } catch (SmapsFormatException e) {
+      assertEquals(reason, e.reason());
+      assertEquals(lineNumber, e.lineNumber());
+    }
+  }
+
+    private static boolean isRegionHeader(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return RegionParser.isRegionHeader(bytes, 0, bytes.length);
+  }
+
+  private static long parseDecimal(String number) {
+    byte[] bytes = number.getBytes(StandardCharsets.UTF_8);
+    return RegionParser.parseDecimal(bytes, 0, bytes.length);
+  }
+}
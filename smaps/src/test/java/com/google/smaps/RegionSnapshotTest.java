@@ -0,0 +1,192 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link RegionSnapshot}.
+ */
+@RunWith(JUnit4.class)
+public class RegionSnapshotTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private RegionTable regions;
+
+  @Before
+  public void createRegionTable() {
+    // Creates the regions table from smaps-full.txt file.
+    List<Region> regionList = Analyzer.makeRegionList("../smaps-full.txt", mock(HttpSession.class));
+    regions = RegionTable.copyOf(regionList);
+  }
+
+  @Test
+  public void openedSameAsWritten() throws Exception {
+    // Tests that the regions opened from a snapshot are the same as the ones written, including
+    // their line numbers and VmFlags, and that the file is smaller than the dump's text.
+    Path snapshot = folder.getRoot().toPath().resolve("full.snap");
+    RegionSnapshot.write(regions, snapshot);
+    RegionTable opened = RegionSnapshot.open(snapshot);
+
+    assertEquals(regions, opened);
+    for (int i = 0; i < regions.size(); i++) {
+      assertEquals(regions.lineNumber(i), opened.lineNumber(i));
+      assertEquals(regions.get(i).vmFlags(), opened.get(i).vmFlags());
+    }
+    assertTrue(Files.size(snapshot) < Files.size(Paths.get("../smaps-full.txt")) / 2);
+    assertFalse(Files.exists(snapshot.resolveSibling("full.snap.partial")));
+  }
+
+  @Test
+  public void mappedColumnsAreNotOnHeap() throws Exception {
+    // Tests that an opened table only counts its dictionaries as heap, not its mapped columns.
+    Path snapshot = folder.getRoot().toPath().resolve("full.snap");
+    RegionSnapshot.write(regions, snapshot);
+
+    assertTrue(RegionSnapshot.open(snapshot).estimatedBytes() < regions.estimatedBytes() / 2);
+  }
+
+  @Test
+  public void keepsUnusualText() throws Exception {
+    // Tests that addresses and offsets not in the kernel's format, and fields that are 0 in every
+    // row, come back from the snapshot unchanged.
+    Region region = Region.builder()
+        .setLineNumber(1)
+        .setStartLoc("1000")
+        .setEndLoc("00002000")
+        .setPermissions("rw-p")
+        .setOffset("0")
+        .setDevice("00:00")
+        .setInode(0)
+        .setPathname("")
+        .setSize(4)
+        .setVmFlags(new ArrayList<>())
+        .build();
+    RegionTable table = RegionTable.builder().add(region).build();
+    RegionTable opened = RegionSnapshot.fromBytes(RegionSnapshot.toBytes(table));
+
+    assertEquals(region, opened.get(0));
+    assertEquals("1000", opened.get(0).startLoc());
+    assertEquals("0", opened.get(0).offset());
+    assertEquals(0, opened.field(RegionTable.RSS, 0));
+  }
+
+  @Test
+  public void generatedDump() throws Exception {
+    // Tests that a large generated dump, with every kind of region, survives a snapshot.
+    String dump = SmapsGenerator.generate(4, 5000);
+    RegionTable generated =
+        RegionParser.parse(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(generated, RegionSnapshot.fromBytes(RegionSnapshot.toBytes(generated)));
+  }
+
+  @Test
+  public void serializedAsSnapshot() throws Exception {
+    // Tests that Java serialization of a table gives back an equal table.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(regions);
+    }
+    Object read;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = in.readObject();
+    }
+
+    assertTrue(read instanceof RegionTable);
+    assertEquals(regions, read);
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws Exception {
+    // Tests that a file that isn't a snapshot is rejected rather than mapped.
+    try {
+      RegionSnapshot.open(Paths.get("../smaps-full.txt"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("Not an smaps snapshot", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsIdsOutsideDictionaries() throws Exception {
+    // Tests that a snapshot whose permission or device column has an id that isn't in its
+    // dictionary is rejected when it is opened.
+    byte[] snapshot = RegionSnapshot.toBytes(regions);
+    ByteBuffer header = ByteBuffer.wrap(snapshot).order(ByteOrder.LITTLE_ENDIAN);
+    // The offsets of the columns follow the magic number, version, row count and dictionary
+    // length, and the permissions and devices are the fifth and sixth columns.
+    int permissions = (int) header.getLong(24 + 8 * 4);
+    int devices = (int) header.getLong(24 + 8 * 5);
+
+    byte[] badPermission = snapshot.clone();
+    badPermission[permissions] = Byte.MAX_VALUE;
+    byte[] badDevice = snapshot.clone();
+    ByteBuffer.wrap(badDevice).order(ByteOrder.LITTLE_ENDIAN).putInt(devices, -1);
+
+    for (byte[] bad : Arrays.asList(badPermission, badDevice)) {
+      try {
+        RegionSnapshot.fromBytes(bad);
+        fail("Expected an IOException");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().endsWith("id outside its dictionary"));
+      }
+    }
+  }
+
+  @Test
+  public void storeReopensDroppedDataset() throws Exception {
+    // Tests that a store with a snapshot directory opens a dataset again once it has been dropped.
+    Path dir = folder.newFolder("snapshots").toPath();
+    new DatasetStore(1L << 30, 1, TimeUnit.HOURS, dir).put(Dataset.of("abc", regions));
+    DatasetStore restarted = new DatasetStore(1L << 30, 1, TimeUnit.HOURS, dir);
+
+    Dataset dataset = restarted.get("abc");
+    assertNotNull(dataset);
+    assertEquals(regions, dataset.regions());
+    assertEquals(4, dataset.minSize());
+    assertEquals(20832256, dataset.maxSize());
+    assertNull(restarted.get("def"));
+
+    restarted.deleteSnapshotsOlderThan(-1000);
+    assertFalse(Files.exists(restarted.snapshotPath("abc")));
+  }
+}
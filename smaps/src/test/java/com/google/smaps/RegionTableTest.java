@@ -0,0 +1,194 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link RegionTable}.
+ */
+@RunWith(JUnit4.class)
+public class RegionTableTest {
+  private static Region region(String startLoc, String endLoc, String offset, String... vmFlags) {
+    return Region.builder()
+        .setLineNumber(3)
+        .setStartLoc(startLoc)
+        .setEndLoc(endLoc)
+        .setPermissions("r-xp")
+        .setOffset(offset)
+        .setDevice("08:01")
+        .setInode(7700)
+        .setPathname("/lib/libc.so")
+        .setSize(8)
+        .setRss(4)
+        .setLocked(2)
+        .setVmFlags(new ArrayList<>(Arrays.asList(vmFlags)))
+        .build();
+  }
+
+  @Test
+  public void rowsEqualRegions() {
+    // Tests that the views of the rows equal the regions they were built from, both ways round.
+    Region first = region("7fd126400000", "7fd12a400000", "001a1000", "rd", "ex", "mr");
+    Region second = region("00001000", "00002000", "00000000");
+    RegionTable table = RegionTable.builder().add(first).add(second).build();
+
+    assertEquals(2, table.size());
+    assertEquals(first, table.get(0));
+    assertEquals(table.get(0), first);
+    assertEquals(first.hashCode(), table.get(0).hashCode());
+    assertEquals(first.toString(), table.get(0).toString());
+    assertEquals(second, table.get(1));
+    assertNotEquals(table.get(0), table.get(1));
+    assertEquals(Arrays.asList(first, second), table);
+  }
+
+  @Test
+  public void viewsOfOtherTablesEqualByValue() {
+    // Tests that views of different tables are equal, with the same hash code, when their values
+    // are, whether their addresses are kept as numbers or as their own text.
+    Region usual = region("7fd126400000", "7fd12a400000", "001a1000", "rd", "ex");
+    Region unusual = region("1000", "0000000000002000", "ABCDEF00");
+    RegionTable first = RegionTable.builder().add(usual).add(unusual).build();
+    RegionTable second = RegionTable.builder().add(unusual).add(usual).build();
+
+    assertEquals(first.get(0), second.get(1));
+    assertEquals(first.get(0).hashCode(), second.get(1).hashCode());
+    assertEquals(first.get(1), second.get(0));
+    assertEquals(first.get(1).hashCode(), second.get(0).hashCode());
+    assertEquals(unusual.hashCode(), first.get(1).hashCode());
+    assertEquals(unusual.toString(), first.get(1).toString());
+    assertNotEquals(first.get(0), second.get(0));
+    assertNotEquals(first.get(0), region("7fd126400000", "7fd12a400000", "001a1000", "rd"));
+    assertNotEquals(first.get(1), region("1000", "2000", "ABCDEF00"));
+  }
+
+  @Test
+  public void columns() {
+    // Tests that addresses are stored as unsigned numbers and fields by their index.
+    RegionTable table =
+        RegionTable.builder().add(region("ffffffffff600000", "ffffffffff601000", "00000000")).build();
+
+    assertEquals(0xffffffffff600000L, table.start(0));
+    assertEquals(0xffffffffff601000L, table.end(0));
+    assertEquals(8, table.field(RegionTable.SIZE, 0));
+    assertEquals(2, table.field(RegionTable.LOCKED, 0));
+    assertEquals("/lib/libc.so", table.pathnameValue(table.pathnameId(0)));
+  }
+
+  @Test
+  public void keepsUnusualText() {
+    // Tests that addresses and offsets that the kernel wouldn't print that way are given back as
+    // they were written.
+    Region unusual = region("1000", "0000000000002000", "ABCDEF00");
+    Region row = RegionTable.builder().add(unusual).build().get(0);
+
+    assertEquals("1000", row.startLoc());
+    assertEquals("0000000000002000", row.endLoc());
+    assertEquals("ABCDEF00", row.offset());
+    assertEquals(unusual, row);
+  }
+
+  @Test
+  public void vmFlags() {
+    // Tests that VmFlags keep the order they were written in, including flags the table doesn't
+    // know about.
+    RegionTable table = RegionTable.builder()
+        .add(region("00001000", "00002000", "00000000", "mr", "rd", "zz"))
+        .add(region("00002000", "00003000", "00000000"))
+        .build();
+
+    assertEquals(Arrays.asList("mr", "rd", "zz"), table.vmFlags(0));
+    assertTrue(table.vmFlags(1).isEmpty());
+    long mask = table.vmFlagsMask(0);
+    assertEquals(3, Long.bitCount(mask));
+    assertEquals("zz", table.flagName(63 - Long.numberOfLeadingZeros(mask)));
+  }
+
+  @Test
+  public void addAll() {
+    // Tests that tables are joined in order, with their dictionaries and unusual text.
+    List<Region> regions = Arrays.asList(
+        region("00001000", "00002000", "00000000", "rd"),
+        region("2000", "00003000", "00000000", "wr", "xx"),
+        region("00003000", "00004000", "00000000", "rd"));
+    RegionTable first = RegionTable.builder().add(regions.get(0)).build();
+    RegionTable second = RegionTable.builder().add(regions.get(1)).add(regions.get(2)).build();
+
+    RegionTable joined = RegionTable.builder().addAll(first).addAll(second).build();
+    assertEquals(regions, joined);
+  }
+
+  @Test
+  public void buildFirstRows() throws Exception {
+    // Tests that a table of the first rows can be built while more are still to be added.
+    List<Region> regions = Arrays.asList(
+        region("00001000", "00002000", "00000000", "rd"),
+        region("2000", "00003000", "00000000", "wr"),
+        region("3000", "00004000", "00000000", "rd"));
+    RegionTable.Builder builder = RegionTable.builder().add(regions.get(0)).add(regions.get(1));
+
+    RegionTable first = builder.build(1);
+    builder.add(regions.get(2));
+    assertEquals(regions.subList(0, 1), first);
+    assertEquals(regions, builder.build());
+    assertEquals(first, RegionSnapshot.fromBytes(RegionSnapshot.toBytes(first)));
+  }
+
+  @Test
+  public void jsonSameAsRegion() {
+    // Tests that a view is written to JSON the same way as a region.
+    Region r = region("7fd126400000", "7fd12a400000", "001a1000", "rd", "ex");
+    RegionTable table = RegionTable.builder().add(r).build();
+
+    Gson gson = new Gson();
+    assertEquals(gson.toJson(r), gson.toJson(table.get(0)));
+    assertEquals(gson.toJson(Arrays.asList(r)), gson.toJson(table));
+  }
+
+  @Test
+  public void serializable() throws Exception {
+    // Tests that the table and its views can be stored in a session.
+    Region r = region("7fd126400000", "7fd12a400000", "001a1000", "rd", "ex");
+    RegionTable table = RegionTable.builder().add(r).build();
+
+    assertEquals(table, roundTrip(table));
+    assertEquals(r, roundTrip(table.get(0)));
+  }
+
+  private static Object roundTrip(Object o) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(o);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return in.readObject();
+    }
+  }
+}
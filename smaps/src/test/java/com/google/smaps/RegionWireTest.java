@@ -0,0 +1,108 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link RegionWire}.
+ */
+@RunWith(JUnit4.class)
+public class RegionWireTest {
+  private RegionTable table;
+
+  @Before
+  public void createTable() {
+    // Creates the table from smaps-small.txt file.
+    table = RegionTable.copyOf(
+        Analyzer.makeRegionList("../smaps-small.txt", mock(HttpSession.class)));
+  }
+
+  /* Writes the rows of the table, and returns the bytes ready to read from the start. */
+  private ByteBuffer write(int[] rows) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RegionWire.write(table, rows, out);
+    return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /* Reads the strings that follow the columns of n rows. */
+  private static String[] strings(ByteBuffer wire, int n) {
+    String[] strings = new String[wire.getInt(12)];
+    wire.position(RegionWire.HEADER_BYTES + n * 32);
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[wire.getInt()];
+      wire.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    assertFalse(wire.hasRemaining());
+    return strings;
+  }
+
+  @Test
+  public void writesEveryRegion() throws Exception {
+    // Tests that the columns hold each region's range, size, permissions and pathname.
+    ByteBuffer wire = write(null);
+    int n = table.size();
+
+    assertEquals(RegionWire.MAGIC, wire.getInt(0));
+    assertEquals("SMRW", new String(wire.array(), 0, 4, StandardCharsets.US_ASCII));
+    assertEquals(RegionWire.VERSION, wire.getInt(4));
+    assertEquals(n, wire.getInt(8));
+    String[] strings = strings(wire, n);
+    for (int i = 0; i < n; i++) {
+      Region region = table.get(i);
+      assertEquals(table.start(i), wire.getLong(RegionWire.HEADER_BYTES + i * 8));
+      assertEquals(table.end(i), wire.getLong(RegionWire.HEADER_BYTES + (n + i) * 8));
+      assertEquals(region.size(), wire.getLong(RegionWire.HEADER_BYTES + (2 * n + i) * 8));
+      assertEquals(region.permissions(),
+          strings[wire.getInt(RegionWire.HEADER_BYTES + n * 24 + i * 4)]);
+      assertEquals(region.pathname(),
+          strings[wire.getInt(RegionWire.HEADER_BYTES + n * 28 + i * 4)]);
+    }
+  }
+
+  @Test
+  public void writesChosenRows() throws Exception {
+    // Tests that only the given rows are written, in the order given.
+    ByteBuffer wire = write(new int[] {5, 1});
+
+    assertEquals(2, wire.getInt(8));
+    assertEquals(table.start(5), wire.getLong(RegionWire.HEADER_BYTES));
+    assertEquals(table.start(1), wire.getLong(RegionWire.HEADER_BYTES + 8));
+    String[] strings = strings(wire, 2);
+    assertEquals("rw-p", strings[wire.getInt(RegionWire.HEADER_BYTES + 2 * 24)]);
+  }
+
+  @Test
+  public void isAccepted() {
+    // Tests that only requests that name the binary form are sent it.
+    assertTrue(RegionWire.isAccepted(RegionWire.MEDIA_TYPE + ", application/json;q=0.5"));
+    assertFalse(RegionWire.isAccepted("application/json"));
+    assertFalse(RegionWire.isAccepted(null));
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link ResponseArtifacts}.
+ */
+@RunWith(JUnit4.class)
+public class ResponseArtifactsTest {
+  // The key the memory map is held under, which names its content type.
+  private static final String JSON_KEY = ResponseArtifacts.JSON + "|memorymap";
+
+  private List<Region> regions;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ResponseOutputStream responseStream;
+  private ResponseArtifacts artifacts;
+  private int bodiesWritten;
+
+  @Before
+  public void setUp() throws Exception {
+    regions = Analyzer.makeRegionList("../smaps-small.txt", mock(HttpSession.class));
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    responseStream = new ResponseOutputStream();
+    when(response.getOutputStream()).thenReturn(responseStream);
+    artifacts = new ResponseArtifacts(1L << 20);
+    bodiesWritten = 0;
+  }
+
+  /* Writes the memory map of the dataset, counting how many times it is made. */
+  private void serve(Dataset dataset) throws Exception {
+    artifacts.serve(request, response, dataset, "memorymap", json -> {
+      bodiesWritten++;
+      MemoryMap.writeDataArray(dataset.regions(), json);
+    });
+  }
+
+  @Test
+  public void makesEachResponseOnce() throws Exception {
+    // Tests that a second request for the same response is sent the bytes made for the first.
+    Dataset dataset = Dataset.of("response-artifacts-test", regions);
+    serve(dataset);
+    String first = responseStream.toString();
+    serve(dataset);
+
+    assertEquals(1, bodiesWritten);
+    assertEquals(1, artifacts.size());
+    assertEquals(first + first, responseStream.toString());
+    assertTrue(first.startsWith("[[\"0000016ec0000000 - 0000016efa600000\",\"---p\"]"));
+  }
+
+  @Test
+  public void notModified() throws Exception {
+    // Tests that a browser that already has the response is told so without it being made.
+    Dataset dataset = Dataset.of("response-artifacts-test", regions);
+    String etag = ResponseArtifacts.etag(dataset, JSON_KEY, null);
+    when(request.getHeader("If-None-Match")).thenReturn("\"other\", " + etag);
+    serve(dataset);
+
+    assertEquals(0, bodiesWritten);
+    verify(response).setHeader("ETag", etag);
+    assertEquals(0, responseStream.toByteArray().length);
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  @Test
+  public void gzip() throws Exception {
+    // Tests that a browser that accepts gzip is sent the compressed response, with its own ETag.
+    Dataset dataset = Dataset.of("response-artifacts-test", regions);
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+    serve(dataset);
+
+    assertTrue(responseStream.gunzipped().startsWith("[[\"0000016ec0000000 - "));
+    verify(response).setHeader("Content-Encoding", "gzip");
+    verify(response).setHeader("ETag", ResponseArtifacts.etag(dataset, JSON_KEY, "gzip"));
+    assertNotEquals(ResponseArtifacts.etag(dataset, JSON_KEY, "gzip"),
+        ResponseArtifacts.etag(dataset, JSON_KEY, null));
+  }
+
+  @Test
+  public void deflate() throws Exception {
+    // Tests that a browser that only accepts deflate is sent a deflated response.
+    Dataset dataset = Dataset.of("response-artifacts-test", regions);
+    when(request.getHeader("Accept-Encoding")).thenReturn("deflate");
+    serve(dataset);
+
+    InflaterInputStream in =
+        new InflaterInputStream(new ByteArrayInputStream(responseStream.toByteArray()));
+    String json = new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+    assertTrue(json.startsWith("[[\"0000016ec0000000 - "));
+    verify(response).setHeader("Content-Encoding", "deflate");
+  }
+
+  @Test
+  public void contentEncoding() {
+    // Tests that gzip is picked over deflate, and that encodings with a quality of 0 are refused.
+    assertEquals("gzip", ResponseArtifacts.contentEncoding("deflate, gzip;q=0.5"));
+    assertEquals("deflate", ResponseArtifacts.contentEncoding("gzip;q=0, deflate"));
+    assertEquals("gzip", ResponseArtifacts.contentEncoding("GZIP"));
+    assertNull(ResponseArtifacts.contentEncoding("br, identity"));
+    assertNull(ResponseArtifacts.contentEncoding(null));
+  }
+
+  @Test
+  public void binaryResponsesAreKeptApart() throws Exception {
+    // Tests that a response in another form under the same key is made and tagged separately.
+    Dataset dataset = Dataset.of("response-artifacts-test", regions);
+    serve(dataset);
+    artifacts.serve(request, response, dataset, "memorymap", RegionWire.MEDIA_TYPE,
+        out -> out.write(new byte[] {1, 2, 3}));
+
+    assertEquals(2, artifacts.size());
+    byte[] bytes = responseStream.toByteArray();
+    assertArrayEquals(new byte[] {1, 2, 3},
+        Arrays.copyOfRange(bytes, bytes.length - 3, bytes.length));
+    verify(response).setHeader("ETag",
+        ResponseArtifacts.etag(dataset, RegionWire.MEDIA_TYPE + "|memorymap", null));
+  }
+
+  @Test
+  public void partialDatasetsAreNotKept() throws Exception {
+    // Tests that the response of a dump that is still being parsed is made every time.
+    Dataset dataset = Dataset.partial(RegionTable.copyOf(regions));
+    serve(dataset);
+    serve(dataset);
+
+    assertEquals(2, bodiesWritten);
+    assertEquals(0, artifacts.size());
+    assertTrue(responseStream.toString().startsWith("[[\"0000016ec0000000 - "));
+  }
+
+  @Test
+  public void samplesAreNotKept() throws Exception {
+    // Tests that the responses of a live capture's samples aren't held, but still have an ETag.
+    Dataset dataset = Dataset.sample("response-artifacts-sample-test",
+        RegionTable.copyOf(regions), null);
+    serve(dataset);
+    serve(dataset);
+
+    assertEquals(2, bodiesWritten);
+    assertEquals(0, artifacts.size());
+    verify(response, times(2)).setHeader("ETag", ResponseArtifacts.etag(dataset, JSON_KEY, null));
+  }
+}
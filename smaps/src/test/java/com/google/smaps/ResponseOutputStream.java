@@ -0,0 +1,68 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A servlet output stream that keeps what is written to it, for tests of servlets that send
+ * bytes rather than text.
+ */
+class ResponseOutputStream extends ServletOutputStream {
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Override
+  public void write(int b) {
+    bytes.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    bytes.write(b, off, len);
+  }
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public void setWriteListener(WriteListener writeListener) {}
+
+  byte[] toByteArray() {
+    return bytes.toByteArray();
+  }
+
+  /* The text written, as UTF-8. */
+  @Override
+  public String toString() {
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /* The text written, after being gunzipped. */
+  String gunzipped() throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(toByteArray()))) {
+      return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+    }
+  }
+}
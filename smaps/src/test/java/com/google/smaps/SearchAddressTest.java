@@ -20,7 +20,6 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-import com.google.common.collect.ImmutableRangeMap;
 import com.google.gson.Gson;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -50,7 +49,6 @@ public class SearchAddressTest {
   private StringWriter responseWriter;
   private SearchAddress servletUnderTest;
   private List<Region> regions;
-  private ImmutableRangeMap<BigInteger, Region> addressRangeMap;
   private HttpSession session;
 
   @Before
@@ -72,9 +70,10 @@ public class SearchAddressTest {
     // Creates a session.
     session = mock(HttpSession.class);
 
-    // Make the regions list and range map.
+    // Make the regions list, and put its dataset in the store for the session.
     regions = Analyzer.makeRegionList("../smaps-full.txt", session);
-    addressRangeMap = Analyzer.makeRangeMap(regions);
+    Dataset dataset = DatasetStore.shared().put(Dataset.of("search-address-test", regions));
+    when(session.getAttribute("datasetId")).thenReturn(dataset.digest());
   }
 
   @After
@@ -95,8 +94,6 @@ public class SearchAddressTest {
     when(session.getAttribute("address")).thenReturn("77fd");
     when(session.getAttribute("addressErrorMessage")).thenReturn("");
     when(session.getAttribute("addressBigInt")).thenReturn(new BigInteger("77fd", 16));
-    when(session.getAttribute("rangeMap")).thenReturn(addressRangeMap);
-    when(session.getAttribute("regionList")).thenReturn(regions);
     when(session.getAttribute("originalAddress")).thenReturn("77fd");
 
     // Call doGet with the mockRequest and mockResponse.
@@ -106,7 +103,7 @@ public class SearchAddressTest {
     // for the index, the error message for no region being found, and null for the region.
     assertThat(responseWriter.toString())
         .named("SearchAddress response")
-        .contains("[\"77fd\", -1, \"No region in which address [77fd] can be found.\", null]");
+        .contains("[\"77fd\",-1,\"No region in which address [77fd] can be found.\",null]");
   }
 
   @Test
@@ -122,7 +119,6 @@ public class SearchAddressTest {
     when(session.getAttribute("addressErrorMessage"))
         .thenReturn("Address [not hex] is not a valid hexadecimal number.");
     when(session.getAttribute("addressBigInt")).thenReturn(null);
-    when(session.getAttribute("regionList")).thenReturn(regions);
     when(session.getAttribute("originalAddress")).thenReturn("not hex");
 
     // Call doGet with the mockRequest and mockResponse.
@@ -134,7 +130,7 @@ public class SearchAddressTest {
     assertThat(responseWriter.toString())
         .named("SearchAddress response")
         .contains(
-            "[\"not hex\", -1, \"Address [not hex] is not a valid hexadecimal number.\", null]");
+            "[\"not hex\",-1,\"Address [not hex] is not a valid hexadecimal number.\",null]");
   }
 
   @Test
@@ -149,8 +145,6 @@ public class SearchAddressTest {
     when(session.getAttribute("address")).thenReturn("16ec0000007");
     when(session.getAttribute("addressErrorMessage")).thenReturn("");
     when(session.getAttribute("addressBigInt")).thenReturn(new BigInteger("16ec0000007", 16));
-    when(session.getAttribute("regionList")).thenReturn(regions);
-    when(session.getAttribute("rangeMap")).thenReturn(addressRangeMap);
     when(session.getAttribute("originalAddress")).thenReturn("16ec0000007");
 
     // Call doGet with the mockRequest and mockResponse.
@@ -165,7 +159,7 @@ public class SearchAddressTest {
     // for, 0 for the index, no error message, and the proper region.
     assertThat(responseWriter.toString())
         .named("SearchAddress response")
-        .contains("[\"16ec0000007\", 0, \"\", " + jsonR + "]");
+        .contains("[\"16ec0000007\",0,\"\"," + jsonR + "]");
   }
 
   @Test
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link Series}.
+ */
+@RunWith(JUnit4.class)
+public class SeriesTest {
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private HttpSession session;
+  // The stream the response's writer writes to.
+  private ResponseOutputStream responseStream;
+
+  @Before
+  public void setUp() throws Exception {
+    // Sets up a fake request and response for a session of its own.
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    session = mock(HttpSession.class);
+    when(request.getSession()).thenReturn(session);
+    when(session.getId()).thenReturn("series-test-" + System.nanoTime());
+    respond();
+  }
+
+  /* Gives the response a fresh stream to write to. */
+  private void respond() throws Exception {
+    responseStream = new ResponseOutputStream();
+    when(response.getWriter()).thenReturn(
+        new PrintWriter(new OutputStreamWriter(responseStream, StandardCharsets.UTF_8)));
+  }
+
+  /* Posts a dump with the time it was taken, answering with a fresh response. */
+  private void post(String dump, String time) throws Exception {
+    Part part = mock(Part.class);
+    byte[] bytes = dump.getBytes(StandardCharsets.UTF_8);
+    when(part.getSize()).thenReturn((long) bytes.length);
+    when(part.getInputStream()).thenReturn(new ByteArrayInputStream(bytes));
+    when(request.getPart("smapsFile")).thenReturn(part);
+    when(request.getParameter("time")).thenReturn(time);
+    respond();
+    new Series().doPost(request, response);
+  }
+
+  @Test
+  public void chartsFieldOverTime() throws Exception {
+    // Tests that dumps posted one after the other are charted by the sum of a field over the
+    // regions with a name in their pathname.
+    post("1000-2000 rw-p 00000000 00:00 0 /lib/a.so\nSize: 4 kB\nRss: 4 kB\n"
+        + "2000-3000 rw-p 00000000 00:00 0 [heap]\nSize: 4 kB\nRss: 1 kB\n", "1000");
+    post("1000-2000 rw-p 00000000 00:00 0 /lib/a.so\nSize: 4 kB\nRss: 2 kB\n"
+        + "2000-3000 rw-p 00000000 00:00 0 [heap]\nSize: 4 kB\nRss: 4 kB\n", "2000");
+    assertThat(responseStream.toString())
+        .startsWith("{\"snapshots\":2,\"regions\":2,\"removed\":0,\"added\":0,\"changed\":2,");
+
+    when(request.getParameter("field")).thenReturn("Rss");
+    when(request.getParameter("path")).thenReturn("heap");
+    respond();
+    new Series().doGet(request, response);
+
+    assertThat(responseStream.toString())
+        .startsWith("{\"field\":\"Rss\",\"times\":[1000,2000],\"sums\":[1,4],");
+  }
+
+  @Test
+  public void doPost_rejectsBadDump() throws Exception {
+    // Tests that a dump that can't be parsed is rejected with the reason.
+    post("not a dump\n", null);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST,
+        new SmapsFormatException(SmapsFormatException.Reason.NOT_A_FIELD, 1).getMessage());
+  }
+
+  @Test
+  public void doGet_noSeries() throws Exception {
+    // Tests that a session that hasn't started a series is told so.
+    new Series().doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, Series.NO_SERIES_MESSAGE);
+  }
+}
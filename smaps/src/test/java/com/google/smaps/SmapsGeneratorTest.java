@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link SmapsGenerator}.
+ */
+@RunWith(JUnit4.class)
+public class SmapsGeneratorTest {
+  @Test
+  public void sameSeedSameDump() {
+    // Tests that a dump depends only on its seed and region count.
+    assertEquals(SmapsGenerator.generate(5, 200), SmapsGenerator.generate(5, 200));
+    assertNotEquals(SmapsGenerator.generate(5, 200), SmapsGenerator.generate(6, 200));
+  }
+
+  @Test
+  public void parsesToRegionCount() throws Exception {
+    // Tests that the dump parses to exactly the requested number of regions, in increasing
+    // address order, ending with the regions the kernel maps into every process.
+    RegionTable regions = parse(SmapsGenerator.generate(1, 2000));
+
+    assertEquals(2000, regions.size());
+    for (int i = 1; i < regions.size(); i++) {
+      assertTrue(Long.compareUnsigned(regions.start(i), regions.end(i)) < 0);
+      assertTrue(Long.compareUnsigned(regions.end(i - 1), regions.start(i)) <= 0);
+    }
+    assertEquals("[stack]", regions.pathname(1996));
+    assertEquals("[vsyscall]", regions.pathname(1999));
+    assertEquals(0xffffffffff600000L, regions.start(1999));
+  }
+
+  @Test
+  public void fieldsAreConsistent() throws Exception {
+    // Tests that every region's sizes add up the way the kernel's do.
+    RegionTable regions = parse(SmapsGenerator.generate(2, 2000));
+
+    for (int i = 0; i < regions.size(); i++) {
+      long size = regions.field(RegionTable.SIZE, i);
+      long rss = regions.field(RegionTable.RSS, i);
+      assertEquals((regions.end(i) - regions.start(i)) / 1024, size);
+      assertTrue(rss <= size);
+      assertTrue(regions.field(RegionTable.PSS, i) <= rss);
+      assertEquals(rss,
+          regions.field(RegionTable.SHARED_CLEAN, i)
+              + regions.field(RegionTable.SHARED_DIRTY, i)
+              + regions.field(RegionTable.PRIVATE_CLEAN, i)
+              + regions.field(RegionTable.PRIVATE_DIRTY, i));
+      assertTrue(regions.field(RegionTable.ANON_HUGE_PAGES, i) <= rss);
+      assertTrue(regions.field(RegionTable.LOCKED, i) <= rss);
+    }
+  }
+
+  @Test
+  public void hasEveryKindOfRegion() throws Exception {
+    // Tests that the dump has guard pages, memfd, deleted and hugepage regions.
+    RegionTable regions = parse(SmapsGenerator.generate(3, 2000));
+
+    int guards = 0;
+    int memfds = 0;
+    int deleted = 0;
+    int hugetlb = 0;
+    int transparentHuge = 0;
+    for (Region r : regions) {
+      if (r.permissions().equals("---p") && r.size() == 4) {
+        guards++;
+      }
+      if (r.pathname().startsWith("/memfd:")) {
+        memfds++;
+      }
+      if (r.pathname().endsWith(" (deleted)")) {
+        deleted++;
+      }
+      if (r.vmFlags().contains("ht")) {
+        hugetlb++;
+      }
+      if (r.vmFlags().contains("hg") && r.anonHugePages() > 0) {
+        transparentHuge++;
+      }
+    }
+    assertTrue(guards > 0);
+    assertTrue(memfds > 0);
+    assertTrue(deleted > memfds);
+    assertTrue(hugetlb > 0);
+    assertTrue(transparentHuge > 0);
+  }
+
+  @Test
+  public void tooFewRegions() {
+    // Tests that a dump without room for its fixed regions is rejected.
+    try {
+      new SmapsGenerator(0, 10);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("11"));
+    }
+  }
+
+  private static RegionTable parse(String dump) throws Exception {
+    return RegionParser.parse(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+  }
+}
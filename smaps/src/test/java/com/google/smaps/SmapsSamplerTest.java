@@ -0,0 +1,138 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link SmapsSampler}.
+ */
+@RunWith(JUnit4.class)
+public class SmapsSamplerTest {
+  private Path file;
+  private String full;
+
+  @Before
+  public void setUp() throws Exception {
+    // Copies smaps-full.txt to a file that the tests change between samples.
+    File temp = File.createTempFile("smaps-sampler-test-", ".txt");
+    temp.deleteOnExit();
+    file = temp.toPath();
+    full = new String(Files.readAllBytes(Paths.get("../smaps-full.txt")), StandardCharsets.UTF_8);
+    write(full);
+  }
+
+  private void write(String text) throws IOException {
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /* Parses the whole file, the way an upload of it would be. */
+  private RegionTable parse() throws IOException {
+    try (InputStream in = new FileInputStream(file.toFile())) {
+      return RegionParser.parse(in);
+    }
+  }
+
+  @Test
+  public void parsesOnlyChangedRegions() throws Exception {
+    // Tests that a sample in which one region changed only parses that region, and gives the same
+    // regions as parsing the whole sample.
+    SmapsSampler sampler = new SmapsSampler(file);
+    RegionTable first = sampler.sample();
+    assertEquals(1072, sampler.parsedCount());
+    assertEquals(parse(), first);
+
+    write(full.replaceFirst("Rss: +20516 kB", "Rss:               20520 kB"));
+    RegionTable second = sampler.sample();
+
+    assertEquals(1071, sampler.reusedCount());
+    assertEquals(1, sampler.parsedCount());
+    assertEquals(parse(), second);
+    assertEquals(20520, second.get(1).rss());
+  }
+
+  @Test
+  public void sampleKeepsIndexesWhenOnlySizesChange() throws Exception {
+    // Tests that the dataset of a sample reuses the indexes of the sample before while its regions
+    // stay where they were, and makes new ones once a region moves.
+    SmapsSampler sampler = new SmapsSampler(file);
+    Dataset first = Dataset.sample("a", sampler.sample(), null);
+    write(full.replaceFirst("Rss: +20516 kB", "Rss:               20520 kB"));
+    Dataset second = Dataset.sample("b", sampler.sample(), first);
+
+    assertTrue(second.isSample());
+    assertSame(first.addressIndex(), second.addressIndex());
+    assertSame(first.pathnameIndex(), second.pathnameIndex());
+
+    write(full.replaceFirst("\n16efa600000-", "\n16efa601000-"));
+    Dataset third = Dataset.sample("c", sampler.sample(), second);
+    assertNotSame(second.addressIndex(), third.addressIndex());
+    assertEquals(-1, third.addressIndex().find(0x16efa600000L));
+    assertEquals(1, third.addressIndex().find(0x16efa601000L));
+  }
+
+  @Test
+  public void sameSampleIsSameTable() throws Exception {
+    // Tests that a sample that didn't change at all gives back the same table.
+    SmapsSampler sampler = new SmapsSampler(file);
+    RegionTable first = sampler.sample();
+    String digest = sampler.digest();
+
+    assertSame(first, sampler.sample());
+    assertEquals(1072, sampler.reusedCount());
+    assertEquals(digest, sampler.digest());
+  }
+
+  @Test
+  public void regionsAddedAndRemoved() throws Exception {
+    // Tests that when a region is gone and another is new, the regions after them are still
+    // reused, on their new lines.
+    SmapsSampler sampler = new SmapsSampler(file);
+    sampler.sample();
+    int second = full.indexOf("\n16efa600000-") + 1;
+    int third = full.indexOf("\n142580000000-") + 1;
+    String added = "7fff00000000-7fff00001000 rw-p 00000000 00:00 0\nSize: 4 kB\n";
+    write(full.substring(0, second) + full.substring(third) + added);
+    RegionTable sample = sampler.sample();
+
+    assertEquals(parse(), sample);
+    assertEquals(1072, sample.size());
+    assertEquals(1071, sampler.reusedCount());
+    assertEquals(1, sampler.parsedCount());
+  }
+
+  @Test(expected = SmapsFormatException.class)
+  public void badChangedRegion() throws Exception {
+    // Tests that a region that changed into one that can't be parsed fails the sample.
+    SmapsSampler sampler = new SmapsSampler(file);
+    sampler.sample();
+    write(full.replaceFirst("Size: +956416 kB\n", ""));
+    sampler.sample();
+  }
+}
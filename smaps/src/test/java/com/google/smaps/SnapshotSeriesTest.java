@@ -0,0 +1,121 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.smaps.TestDumps.dump;
+import static com.google.smaps.TestDumps.parse;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link SnapshotSeries}.
+ */
+@RunWith(JUnit4.class)
+public class SnapshotSeriesTest {
+  private static final int RSS = RegionTable.fieldIndex("Rss");
+
+  @Test
+  public void sumsOverTime() throws Exception {
+    // Tests that each dump of the series is rebuilt from the deltas, with regions that are gone,
+    // new and changed, to sum a field over the chosen regions.
+    SnapshotSeries series = SnapshotSeries.start(dump(
+        "1000-3000 rw-p 00000000 00:00 0 [heap]", 8, 4,
+        "10000-12000 r-xp 00000000 08:01 7 /lib/a.so", 8, 8,
+        "20000-21000 rw-p 00000000 00:00 0", 4, 4), 100);
+    SnapshotSeries.Delta delta = series.add(dump(
+        "1000-5000 rw-p 00000000 00:00 0 [heap]", 16, 12,
+        "10000-12000 r-xp 00000000 08:01 7 /lib/a.so", 8, 8,
+        "30000-31000 rw-p 00000000 00:00 0 /lib/b.so", 4, 2), 200);
+    series.add(dump(
+        "1000-5000 rw-p 00000000 00:00 0 [heap]", 16, 16,
+        "30000-31000 rw-p 00000000 00:00 0 /lib/b.so", 4, 4), 300);
+
+    assertEquals(1, delta.removedCount());
+    assertEquals(1, delta.addedCount());
+    // The heap's end address, Size and Rss changed.
+    assertEquals(3, delta.changeCount());
+    assertEquals(3, series.size());
+    assertEquals(Long.valueOf(300), series.times().get(2));
+
+    assertArrayEquals(new long[] {16, 22, 20}, series.sums(RSS, (start, end, pathname) -> true));
+    assertArrayEquals(new long[] {8, 10, 4},
+        series.sums(RSS, (start, end, pathname) -> pathname.contains("/lib/")));
+    // The heap grows into the range from 0x4000 in the second dump.
+    assertArrayEquals(new long[] {0, 12, 16},
+        series.sums(RSS, (start, end, pathname) -> end > 0x4000 && start < 0x10000));
+  }
+
+  @Test
+  public void storesOnlyChanges() throws Exception {
+    // Tests that a dump that differs from the one before in one field of one region adds a delta
+    // of that one change, however many regions the dump has.
+    String text = new String(
+        Files.readAllBytes(Paths.get("../smaps-full.txt")), StandardCharsets.UTF_8);
+    RegionTable first = parse(text);
+    RegionTable changed = parse(text.replaceFirst("Rss: +4 kB", "Rss: 8 kB"));
+    SnapshotSeries series = SnapshotSeries.start(first, 0);
+    long before = series.estimatedBytes();
+    SnapshotSeries.Delta delta = series.add(changed, 1);
+    SnapshotSeries.Delta same = series.add(changed, 2);
+
+    assertEquals(0, delta.removedCount());
+    assertEquals(0, delta.addedCount());
+    assertEquals(1, delta.changeCount());
+    assertEquals(0, same.changeCount());
+    assertTrue(delta.estimatedBytes() < 100);
+    assertTrue(series.estimatedBytes() - before < first.estimatedBytes() + 200);
+
+    long[] sums = series.sums(RSS, (start, end, pathname) -> true);
+    assertEquals(sums[0] + 4, sums[1]);
+    assertEquals(sums[1], sums[2]);
+  }
+
+  @Test
+  public void refusesDumpsPastItsLimits() throws Exception {
+    // Tests that a dump that would take a series past its number of dumps or its bytes is turned
+    // away, and leaves the series as it was.
+    RegionTable first = dump("1000-3000 rw-p 00000000 00:00 0 [heap]", 8, 4);
+    RegionTable second = dump("1000-3000 rw-p 00000000 00:00 0 [heap]", 8, 6);
+    SnapshotSeries series = SnapshotSeries.start(first, 0, 2, 1L << 30);
+    series.add(second, 1);
+    try {
+      series.add(first, 2);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(2, series.size());
+    }
+
+    String text = new String(
+        Files.readAllBytes(Paths.get("../smaps-full.txt")), StandardCharsets.UTF_8);
+    RegionTable full = parse(text);
+    series = SnapshotSeries.start(first, 0, 10, first.estimatedBytes() + 1024);
+    long before = series.estimatedBytes();
+    try {
+      series.add(full, 1);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(1, series.size());
+      assertEquals(before, series.estimatedBytes());
+    }
+    assertEquals(1, series.add(second, 2).changeCount());
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small dumps written out in tests, for tests of what is made from the regions of a dump rather
+ * than of the parser itself.
+ */
+final class TestDumps {
+  private TestDumps() {}
+
+  /* Parses a dump of regions, each given as its header line and its Size and Rss in kB. */
+  static RegionTable dump(Object... regions) throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < regions.length; i += 3) {
+      text.append(regions[i]).append('\n')
+          .append("Size: ").append(regions[i + 1]).append(" kB\n")
+          .append("Rss: ").append(regions[i + 2]).append(" kB\n");
+    }
+    return parse(text.toString());
+  }
+
+  /* Parses the text of a dump. */
+  static RegionTable parse(String text) throws IOException {
+    return RegionParser.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.common.base.Ticker;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link UploadJob}.
+ */
+@RunWith(JUnit4.class)
+public class UploadJobTest {
+  @Test
+  public void tracksProgress() throws Exception {
+    // Tests that the job counts the bytes read and the regions parsed, and moves through its
+    // stages in order.
+    File dump = new File("../smaps-full.txt");
+    UploadJob job = new UploadJob(dump.length(), false, Runnable::run);
+    assertEquals(UploadJob.QUEUED, job.stage());
+
+    HttpSession session = mock(HttpSession.class);
+    List<Region> regions;
+    try (InputStream in = job.track(new FileInputStream(dump))) {
+      assertEquals(UploadJob.PARSING, job.stage());
+      regions = Analyzer.makeRegionList(in, session, job);
+    }
+    assertEquals(dump.length(), job.bytesRead());
+    assertEquals(dump.length(), job.totalBytes());
+    assertEquals(regions.size(), job.regionsParsed());
+
+    assertNull(job.partial());
+
+    job.startIndexing();
+    assertEquals(UploadJob.INDEXING, job.stage());
+    job.finish(Dataset.of("upload-job-test", regions), null);
+    assertEquals(UploadJob.DONE, job.stage());
+  }
+
+  @Test
+  public void publishesPartialResults() throws Exception {
+    // Tests that a progressive job publishes the complete regions parsed so far as it goes, tells
+    // once that the first ones have been published, and drops them once it ends.
+    String dump = SmapsGenerator.generate(7, 5000);
+    UploadJob job = new UploadJob(dump.length(), true, Runnable::run);
+    int[] firstPartials = new int[1];
+    job.onFirstPartial(() -> firstPartials[0]++);
+
+    List<Region> regions = Analyzer.makeRegionList(
+        new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)),
+        mock(HttpSession.class),
+        job);
+
+    Dataset partial = job.partial();
+    assertEquals(1, firstPartials[0]);
+    assertFalse(partial.isComplete());
+    assertTrue(partial.regions().size() > 0);
+    assertTrue(partial.regions().size() < regions.size());
+    assertEquals(partial.regions(), regions.subList(0, partial.regions().size()));
+
+    job.finish(Dataset.of("upload-job-partial-test", regions), null);
+    assertNull(job.partial());
+  }
+
+  @Test
+  public void movesResultsOnce() {
+    // Tests that an ended upload's dataset is moved to the session once, and only once it has
+    // ended, so that a later dump of the session isn't replaced by it.
+    UploadJob job = new UploadJob(-1, false, Runnable::run);
+    HttpSession session = mock(HttpSession.class);
+    job.moveResultsTo(session);
+    verify(session, never()).setAttribute("datasetId", "abc");
+
+    job.finish(Dataset.of("abc", Analyzer.makeRegionList("../smaps-small.txt", session)), null);
+    job.moveResultsTo(session);
+    job.moveResultsTo(session);
+    verify(session).setAttribute("datasetId", "abc");
+    verify(session).setAttribute("postFired", false);
+  }
+
+  @Test
+  public void movesError() {
+    // Tests that the error of a failed upload is moved to the session for index.html to show.
+    UploadJob job = new UploadJob(-1, false, Runnable::run);
+    HttpSession session = mock(HttpSession.class);
+    job.finish(null, FileUpload.UPLOAD_ERROR_MESSAGE);
+    job.moveResultsTo(session);
+
+    assertEquals(UploadJob.FAILED, job.stage());
+    verify(session).setAttribute("fileErrorMessage", FileUpload.UPLOAD_ERROR_MESSAGE);
+  }
+
+  @Test
+  public void runsOnWorkers() {
+    // Tests that submitted work is handed to the workers.
+    UploadJob job = new UploadJob(-1, false, Runnable::run);
+    boolean[] ran = new boolean[1];
+
+    assertTrue(job.submit(() -> ran[0] = true));
+    assertTrue(ran[0]);
+  }
+
+  @Test
+  public void failsWhenQueueIsFull() {
+    // Tests that work the workers have no room for isn't queued, and fails the job.
+    UploadJob job = new UploadJob(-1, false, work -> {
+      throw new RejectedExecutionException();
+    });
+
+    assertFalse(job.submit(() -> {}));
+    assertEquals(UploadJob.FAILED, job.stage());
+  }
+
+  @Test
+  public void latestJobOfSession() {
+    // Tests that a session's progress is that of its latest upload.
+    HttpSession session = mock(HttpSession.class);
+    when(session.getId()).thenReturn("upload-job-test");
+    UploadJob.start(session, 10);
+    UploadJob latest = UploadJob.start(session, 20);
+
+    assertSame(latest, UploadJob.forSession(session));
+    HttpSession other = mock(HttpSession.class);
+    when(other.getId()).thenReturn("upload-job-test-other");
+    assertNull(UploadJob.forSession(other));
+  }
+
+  @Test
+  public void keepsRunningJobs() {
+    // Tests that a job is kept however long it runs, and only for KEEP_MINUTES once it has ended.
+    long[] nanos = new long[1];
+    UploadJob.Jobs jobs = new UploadJob.Jobs(new Ticker() {
+      @Override
+      public long read() {
+        return nanos[0];
+      }
+    });
+    UploadJob job = new UploadJob(100, false, Runnable::run);
+    jobs.add("session", job);
+
+    nanos[0] += TimeUnit.MINUTES.toNanos(30);
+    assertSame(job, jobs.get("session"));
+
+    job.finish(null, "error");
+    nanos[0] += TimeUnit.MINUTES.toNanos(9);
+    assertSame(job, jobs.get("session"));
+    nanos[0] += TimeUnit.MINUTES.toNanos(2);
+    assertNull(jobs.get("session"));
+  }
+
+  @Test
+  public void laterJobReplacesEarlierOne() {
+    // Tests that a job that ends after the session has started another doesn't replace it.
+    UploadJob.Jobs jobs = new UploadJob.Jobs(Ticker.systemTicker());
+    UploadJob first = new UploadJob(100, false, Runnable::run);
+    UploadJob second = new UploadJob(100, false, Runnable::run);
+    jobs.add("session", first);
+    jobs.add("session", second);
+
+    first.finish(null, "error");
+    assertSame(second, jobs.get("session"));
+    second.finish(null, "error");
+    assertSame(second, jobs.get("session"));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.smaps;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link UploadProgress}.
+ */
+@RunWith(JUnit4.class)
+public class UploadProgressTest {
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private HttpSession session;
+  private StringWriter responseWriter;
+
+  @Before
+  public void setUp() throws Exception {
+    // Sets up a fake request and response for a session.
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    session = mock(HttpSession.class);
+    responseWriter = new StringWriter();
+    when(request.getSession()).thenReturn(session);
+    when(response.getWriter()).thenReturn(new PrintWriter(responseWriter));
+  }
+
+  @Test
+  public void doGet_progress() throws Exception {
+    // Tests that the progress of the session's upload is sent.
+    when(session.getId()).thenReturn("upload-progress-test");
+    UploadJob job = UploadJob.start(session, 2048);
+    job.parsed(12, () -> null);
+    job.startIndexing();
+
+    new UploadProgress().doGet(request, response);
+
+    assertEquals(
+        "{\"stage\":\"indexing\",\"bytesRead\":0,\"totalBytes\":2048,\"regionsParsed\":12}",
+        responseWriter.toString());
+    verify(response).setHeader("Cache-Control", "no-store");
+  }
+
+  @Test
+  public void doGet_noUpload() throws Exception {
+    // Tests that a session that hasn't uploaded anything has no stage.
+    when(session.getId()).thenReturn("upload-progress-test-none");
+
+    new UploadProgress().doGet(request, response);
+
+    assertThat(responseWriter.toString()).isEqualTo("{\"stage\":null}");
+  }
+}